@@ -17,13 +17,16 @@
 
 package org.apache.rocketmq.broker.plugin;
 
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Set;
 import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.common.protocol.heartbeat.SubscriptionData;
 import org.apache.rocketmq.store.GetMessageResult;
+import org.apache.rocketmq.store.MessageExtBatch;
 import org.apache.rocketmq.store.MessageExtBrokerInner;
 import org.apache.rocketmq.store.MessageStore;
+import org.apache.rocketmq.store.PutMessageCallback;
 import org.apache.rocketmq.store.PutMessageResult;
 import org.apache.rocketmq.store.QueryMessageResult;
 import org.apache.rocketmq.store.SelectMappedBufferResult;
@@ -82,6 +85,21 @@ public abstract class AbstractPluginMessageStore implements MessageStore {
         return next.putMessage(msg);
     }
 
+    @Override
+    public PutMessageResult putMessages(MessageExtBatch messageExtBatch) {
+        return next.putMessages(messageExtBatch);
+    }
+
+    @Override
+    public void asyncPutMessage(MessageExtBrokerInner msg, PutMessageCallback callback) {
+        next.asyncPutMessage(msg, callback);
+    }
+
+    @Override
+    public void asyncPutMessages(MessageExtBatch messageExtBatch, PutMessageCallback callback) {
+        next.asyncPutMessages(messageExtBatch, callback);
+    }
+
     @Override
     public GetMessageResult getMessage(String group, String topic, int queueId, long offset,
         int maxMsgNums, SubscriptionData subscriptionData) {
@@ -168,6 +186,11 @@ public abstract class AbstractPluginMessageStore implements MessageStore {
         return next.appendToCommitLog(startOffset, data);
     }
 
+    @Override
+    public boolean appendToCommitLog(long startOffset, ByteBuffer data) {
+        return next.appendToCommitLog(startOffset, data);
+    }
+
     @Override
     public void excuteDeleteFilesManualy() {
         next.excuteDeleteFilesManualy();
@@ -204,6 +227,11 @@ public abstract class AbstractPluginMessageStore implements MessageStore {
         next.cleanExpiredConsumerQueue();
     }
 
+    @Override
+    public boolean executeColdRead(Runnable task) {
+        return next.executeColdRead(task);
+    }
+
     @Override
     public boolean checkInDiskByConsumeOffset(String topic, int queueId, long consumeOffset) {
         return next.checkInDiskByConsumeOffset(topic, queueId, consumeOffset);
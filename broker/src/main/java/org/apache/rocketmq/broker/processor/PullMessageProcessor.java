@@ -28,6 +28,7 @@ import org.apache.rocketmq.common.TopicConfig;
 import org.apache.rocketmq.common.TopicFilterType;
 import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.common.constant.PermName;
+import org.apache.rocketmq.common.filter.ExpressionType;
 import org.apache.rocketmq.common.filter.FilterAPI;
 import org.apache.rocketmq.common.help.FAQUrl;
 import org.apache.rocketmq.common.message.MessageDecoder;
@@ -90,6 +91,21 @@ public class PullMessageProcessor implements NettyRequestProcessor {
      */
     private RemotingCommand processRequest(final Channel channel, RemotingCommand request, boolean brokerAllowSuspend)
         throws RemotingCommandException {
+        return this.processRequest(channel, request, brokerAllowSuspend, true);
+    }
+
+    /**
+     * 处理拉取消息请求，返回响应
+     *
+     * @param channel channel
+     * @param request 请求
+     * @param brokerAllowSuspend broker是否允许挂起
+     * @param coldReadSchedulable 读取硬盘数据时，是否可以交给冷读线程池处理
+     * @return 响应
+     * @throws RemotingCommandException 当解析请求发生异常时
+     */
+    private RemotingCommand processRequest(final Channel channel, RemotingCommand request, boolean brokerAllowSuspend,
+        boolean coldReadSchedulable) throws RemotingCommandException {
         RemotingCommand response = RemotingCommand.createResponseCommand(PullMessageResponseHeader.class);
         final PullMessageResponseHeader responseHeader = (PullMessageResponseHeader) response.readCustomHeader();
         final PullMessageRequestHeader requestHeader =
@@ -156,7 +172,7 @@ public class PullMessageProcessor implements NettyRequestProcessor {
         if (hasSubscriptionFlag) {
             try {
                 subscriptionData = FilterAPI.buildSubscriptionData(requestHeader.getConsumerGroup(), requestHeader.getTopic(),
-                    requestHeader.getSubscription());
+                    requestHeader.getSubscription(), requestHeader.getExpressionType());
             } catch (Exception e) {
                 LOG.warn("Parse the consumer's subscription[{}] failed, group: {}", requestHeader.getSubscription(), //
                         requestHeader.getConsumerGroup());
@@ -199,6 +215,28 @@ public class PullMessageProcessor implements NettyRequestProcessor {
             }
         }
 
+        // 校验 是否支持按消息属性过滤
+        if (!ExpressionType.isTagType(subscriptionData.getExpressionType())
+            && !this.brokerController.getBrokerConfig().isEnablePropertyFilter()) {
+            response.setCode(ResponseCode.SYSTEM_ERROR);
+            response.setRemark("the broker does not support consumer to filter message by " + subscriptionData.getExpressionType());
+            return response;
+        }
+
+        // 冷读隔离：读取硬盘数据的请求交给冷读线程池，缺页等待不占用拉取线程
+        if (coldReadSchedulable && this.brokerController.getMessageStoreConfig().isColdReadIsolationEnable()
+            && this.brokerController.getMessageStore().checkInDiskByConsumeOffset(requestHeader.getTopic(), requestHeader.getQueueId(),
+                requestHeader.getQueueOffset())) {
+            Runnable run = this.buildRequestTask(channel, request, brokerAllowSuspend, false);
+            if (this.brokerController.getMessageStore().executeColdRead(new RequestTask(run, channel, request))) {
+                return null;
+            }
+            response.setCode(ResponseCode.SYSTEM_BUSY);
+            response.setRemark(String.format("[COLD_READ]too many cold read requests, group: %s, please try again later",
+                requestHeader.getConsumerGroup()));
+            return response;
+        }
+
         // 获取消息
         final GetMessageResult getMessageResult = this.brokerController.getMessageStore().getMessage(requestHeader.getConsumerGroup(), requestHeader.getTopic(),
                 requestHeader.getQueueId(), requestHeader.getQueueOffset(), requestHeader.getMaxMsgNums(), subscriptionData);
@@ -342,6 +380,14 @@ public class PullMessageProcessor implements NettyRequestProcessor {
                     this.brokerController.getBrokerStatsManager().incGroupGetSize(requestHeader.getConsumerGroup(), requestHeader.getTopic(),
                         getMessageResult.getBufferTotalSize());
                     this.brokerController.getBrokerStatsManager().incBrokerGetNums(getMessageResult.getMessageCount());
+                    if (getMessageResult.getMsgCountFromDisk() > 0) {
+                        this.brokerController.getBrokerStatsManager().incGroupGetFromDiskNums(requestHeader.getConsumerGroup(),
+                            requestHeader.getTopic(), getMessageResult.getMsgCountFromDisk());
+                        this.brokerController.getBrokerStatsManager().incGroupGetFromDiskSize(requestHeader.getConsumerGroup(),
+                            requestHeader.getTopic(), getMessageResult.getBufferSizeFromDisk());
+                        this.brokerController.getBrokerStatsManager().incBrokerGetFromDiskNums(getMessageResult.getMsgCountFromDisk());
+                        this.brokerController.getBrokerStatsManager().incBrokerGetFromDiskSize(getMessageResult.getBufferSizeFromDisk());
+                    }
                     // 读取消息
                     if (this.brokerController.getBrokerConfig().isTransferMsgByHeap()) { // 内存中
                         final long beginTimeMills = this.brokerController.getMessageStore().now();
@@ -507,12 +553,29 @@ public class PullMessageProcessor implements NettyRequestProcessor {
      * @throws RemotingCommandException 当远程调用发生异常时。but，实际应该不会发生
      */
     public void executeRequestWhenWakeup(final Channel channel, final RemotingCommand request) throws RemotingCommandException {
-        Runnable run = new Runnable() {
+        // 调用拉取请求。本次调用，设置不挂起请求。
+        Runnable run = this.buildRequestTask(channel, request, false, true);
+        // 提交拉取请求到线程池
+        this.brokerController.getPullMessageExecutor().submit(new RequestTask(run, channel, request));
+    }
+
+    /**
+     * 创建处理拉取请求并写回响应的任务
+     *
+     * @param channel 通道
+     * @param request 请求
+     * @param brokerAllowSuspend broker是否允许挂起
+     * @param coldReadSchedulable 读取硬盘数据时，是否可以交给冷读线程池处理
+     * @return 任务
+     */
+    private Runnable buildRequestTask(final Channel channel, final RemotingCommand request, final boolean brokerAllowSuspend,
+        final boolean coldReadSchedulable) {
+        return new Runnable() {
             @Override
             public void run() {
                 try {
-                    // 调用拉取请求。本次调用，设置不挂起请求。
-                    final RemotingCommand response = PullMessageProcessor.this.processRequest(channel, request, false);
+                    final RemotingCommand response = PullMessageProcessor.this.processRequest(channel, request, brokerAllowSuspend,
+                        coldReadSchedulable);
 
                     if (response != null) {
                         response.setOpaque(request.getOpaque());
@@ -539,8 +602,6 @@ public class PullMessageProcessor implements NettyRequestProcessor {
                 }
             }
         };
-        // 提交拉取请求到线程池
-        this.brokerController.getPullMessageExecutor().submit(new RequestTask(run, channel, request));
     }
 
     public void registerConsumeMessageHook(List<ConsumeMessageHook> sendMessageHookList) {
@@ -39,12 +39,15 @@ import org.apache.rocketmq.common.sysflag.TopicSysFlag;
 import org.apache.rocketmq.remoting.exception.RemotingCommandException;
 import org.apache.rocketmq.remoting.netty.NettyRequestProcessor;
 import org.apache.rocketmq.remoting.protocol.RemotingCommand;
+import org.apache.rocketmq.store.MessageExtBatch;
 import org.apache.rocketmq.store.MessageExtBrokerInner;
+import org.apache.rocketmq.store.PutMessageCallback;
 import org.apache.rocketmq.store.PutMessageResult;
 import org.apache.rocketmq.store.config.StorePathConfigHelper;
 import org.apache.rocketmq.store.stats.BrokerStatsManager;
 
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 public class SendMessageProcessor extends AbstractSendMessageProcessor implements NettyRequestProcessor {
@@ -72,9 +75,16 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
                 // hook：处理发送消息前逻辑
                 this.executeSendMessageHookBefore(ctx, request, mqtraceContext);
                 //todo 发送的消息到达broker,调用 org.apache.rocketmq.broker.processor.SendMessageProcessor 类的processRequest()方法,processRequest()调用sendMessag()
-                final RemotingCommand response = this.sendMessage(ctx, request, mqtraceContext, requestHeader);
-                // hook：处理发送消息后逻辑
-                this.executeSendMessageHookAfter(response, mqtraceContext);
+                final RemotingCommand response;
+                if (request.getCode() == RequestCode.SEND_BATCH_MESSAGE) {
+                    response = this.sendBatchMessage(ctx, request, mqtraceContext, requestHeader);
+                } else {
+                    response = this.sendMessage(ctx, request, mqtraceContext, requestHeader);
+                }
+                // hook：处理发送消息后逻辑。异步发送时由存储完成回调执行
+                if (response != null || !this.brokerController.getBrokerConfig().isAsyncSendEnable()) {
+                    this.executeSendMessageHookAfter(response, mqtraceContext);
+                }
                 return response;
         }
     }
@@ -173,6 +183,12 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
             response.setRemark("look message by offset failed, " + requestHeader.getOffset());
             return response;
         }
+        // 批量记录包含多条消息，无法按位置确定是哪一条，由客户端直接发送消息内容到重试队列
+        if ((msgExt.getSysFlag() & MessageSysFlag.INNER_BATCH_FLAG) == MessageSysFlag.INNER_BATCH_FLAG) {
+            response.setCode(ResponseCode.SYSTEM_ERROR);
+            response.setRemark("message of batch record can not be sent back by offset, " + requestHeader.getOffset());
+            return response;
+        }
 
         // 设置retryTopic到拓展属性（独有）
         final String retryTopic = msgExt.getProperty(MessageConst.PROPERTY_RETRY_TOPIC);
@@ -367,6 +383,18 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
         msgInner.setStoreHost(this.getStoreHost());
         msgInner.setReconsumeTimes(requestHeader.getReconsumeTimes() == null ? 0 : requestHeader.getReconsumeTimes());
 
+        // 客户端已编码为 CommitLog 存储格式：存储时只填充 broker 字段，不再重新编码
+        // 需要改写 topic（死信队列）、延迟消息 或 定时消息 时，解码出 body 走普通存储流程
+        if (request.getCode() == RequestCode.SEND_MESSAGE_STORE_RECORD) {
+            if (newTopic.equals(requestHeader.getTopic()) && msgInner.getDelayTimeLevel() <= 0
+                && msgInner.getProperty(MessageConst.PROPERTY_TIMER_DELIVER_MS) == null) {
+                msgInner.setBody(null);
+                msgInner.setEncodedBuff(ByteBuffer.wrap(body));
+            } else {
+                msgInner.setBody(MessageDecoder.decodeStoreRecordBody(body));
+            }
+        }
+
         // 校验是否不允许发送事务消息
         if (this.brokerController.getBrokerConfig().isRejectTransactionMessage()) {
             String traFlag = msgInner.getProperty(MessageConst.PROPERTY_TRANSACTION_PREPARED);
@@ -379,7 +407,30 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
         }
 
         //todo 3.进行消息存储，该方法调用了MessageStore接口的putMessage()方法，而MessageStore的实现类是DefaultMessageStore
+        if (this.brokerController.getBrokerConfig().isAsyncSendEnable()) {
+            this.brokerController.getMessageStore().asyncPutMessage(msgInner,
+                new SendMessageCallback(response, request, msgInner, responseHeader, sendMessageContext, ctx, queueIdInt));
+            return null;
+        }
         PutMessageResult putMessageResult = this.brokerController.getMessageStore().putMessage(msgInner);
+        return handlePutMessageResult(putMessageResult, response, request, msgInner, responseHeader, sendMessageContext, ctx, queueIdInt);
+    }
+
+    /**
+     * 处理存储结果，生成响应。单条及批量发送共用
+     *
+     * @param putMessageResult 存储结果
+     * @param response 响应
+     * @param request 请求
+     * @param msg 消息
+     * @param responseHeader 响应头
+     * @param sendMessageContext 发送消息ctx
+     * @param ctx channel ctx
+     * @param queueIdInt 队列编号
+     * @return 响应。成功时已直接写回，返回null
+     */
+    private RemotingCommand handlePutMessageResult(PutMessageResult putMessageResult, RemotingCommand response, RemotingCommand request, MessageExt msg,
+        SendMessageResponseHeader responseHeader, SendMessageContext sendMessageContext, ChannelHandlerContext ctx, int queueIdInt) {
         if (putMessageResult != null) {
             boolean sendOK = false;
 
@@ -435,9 +486,10 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
             String owner = request.getExtFields().get(BrokerStatsManager.COMMERCIAL_OWNER);
             if (sendOK) {
                 // 统计
-                this.brokerController.getBrokerStatsManager().incTopicPutNums(msgInner.getTopic());
-                this.brokerController.getBrokerStatsManager().incTopicPutSize(msgInner.getTopic(), putMessageResult.getAppendMessageResult().getWroteBytes());
-                this.brokerController.getBrokerStatsManager().incBrokerPutNums();
+                int msgNum = putMessageResult.getAppendMessageResult().getMsgNum();
+                this.brokerController.getBrokerStatsManager().incTopicPutNums(msg.getTopic(), msgNum, 1);
+                this.brokerController.getBrokerStatsManager().incTopicPutSize(msg.getTopic(), putMessageResult.getAppendMessageResult().getWroteBytes());
+                this.brokerController.getBrokerStatsManager().incBrokerPutNums(msgNum);
 
                 // 响应
                 response.setRemark(null);
@@ -482,6 +534,148 @@ public class SendMessageProcessor extends AbstractSendMessageProcessor implement
         return response;
     }
 
+    /**
+     * 发送批量消息
+     * 批量消息的 body 为多条消息编码后的内容，整体追加到 CommitLog，只占用一次写锁
+     *
+     * @param ctx channel ctx
+     * @param request 请求
+     * @param sendMessageContext 发送消息ctx
+     * @param requestHeader 发送消息请求
+     * @return 响应
+     * @throws RemotingCommandException 当远程调用异常
+     */
+    private RemotingCommand sendBatchMessage(final ChannelHandlerContext ctx, //
+        final RemotingCommand request, //
+        final SendMessageContext sendMessageContext, //
+        final SendMessageRequestHeader requestHeader) throws RemotingCommandException {
+
+        // 初始化响应
+        final RemotingCommand response = RemotingCommand.createResponseCommand(SendMessageResponseHeader.class);
+        final SendMessageResponseHeader responseHeader = (SendMessageResponseHeader) response.readCustomHeader();
+        response.setOpaque(request.getOpaque());
+        response.addExtField(MessageConst.PROPERTY_MSG_REGION, this.brokerController.getBrokerConfig().getRegionId());
+        response.addExtField(MessageConst.PROPERTY_TRACE_SWITCH, String.valueOf(this.brokerController.getBrokerConfig().isTraceOn()));
+
+        if (log.isDebugEnabled()) {
+            log.debug("receive SendBatchMessage request command, {}", request);
+        }
+
+        // 如果未开始接收消息，抛出系统异常
+        @SuppressWarnings("SpellCheckingInspection")
+        final long startTimstamp = this.brokerController.getBrokerConfig().getStartAcceptSendRequestTimeStamp();
+        if (this.brokerController.getMessageStore().now() < startTimstamp) {
+            response.setCode(ResponseCode.SYSTEM_ERROR);
+            response.setRemark(String.format("broker unable to service, until %s", UtilAll.timeMillisToHumanString2(startTimstamp)));
+            return response;
+        }
+
+        // 消息配置(Topic配置）校验
+        response.setCode(-1);
+        super.msgCheck(ctx, requestHeader, response);
+        if (response.getCode() != -1) {
+            return response;
+        }
+
+        // 批量消息不支持重试Topic
+        if (requestHeader.getTopic().startsWith(MixAll.RETRY_GROUP_TOPIC_PREFIX)) {
+            response.setCode(ResponseCode.MESSAGE_ILLEGAL);
+            response.setRemark("batch request does not support retry group " + requestHeader.getTopic());
+            return response;
+        }
+
+        // 如果队列小于0，从可用队列随机选择
+        int queueIdInt = requestHeader.getQueueId();
+        TopicConfig topicConfig = this.brokerController.getTopicConfigManager().selectTopicConfig(requestHeader.getTopic());
+        if (queueIdInt < 0) {
+            queueIdInt = Math.abs(this.random.nextInt() % 99999999) % topicConfig.getWriteQueueNums();
+        }
+
+        int sysFlag = requestHeader.getSysFlag();
+        if (TopicFilterType.MULTI_TAG == topicConfig.getTopicFilterType()) {
+            sysFlag |= MessageSysFlag.MULTI_TAGS_FLAG;
+        }
+
+        // 批量记录：body（通常已整体压缩）原样作为一条记录存储，broker 不解压、不逐条解析
+        if ((sysFlag & MessageSysFlag.INNER_BATCH_FLAG) == MessageSysFlag.INNER_BATCH_FLAG) {
+            MessageExtBrokerInner msgInner = new MessageExtBrokerInner();
+            msgInner.setTopic(requestHeader.getTopic());
+            msgInner.setBody(request.getBody());
+            msgInner.setFlag(requestHeader.getFlag());
+            MessageAccessor.setProperties(msgInner, MessageDecoder.string2messageProperties(requestHeader.getProperties()));
+            msgInner.setPropertiesString(requestHeader.getProperties());
+            msgInner.setTagsCode(MessageExtBrokerInner.tagsString2tagsCode(topicConfig.getTopicFilterType(), msgInner.getTags()));
+            msgInner.setQueueId(queueIdInt);
+            msgInner.setSysFlag(sysFlag);
+            msgInner.setBornTimestamp(requestHeader.getBornTimestamp());
+            msgInner.setBornHost(ctx.channel().remoteAddress());
+            msgInner.setStoreHost(this.getStoreHost());
+            msgInner.setReconsumeTimes(requestHeader.getReconsumeTimes() == null ? 0 : requestHeader.getReconsumeTimes());
+
+            if (this.brokerController.getBrokerConfig().isAsyncSendEnable()) {
+                this.brokerController.getMessageStore().asyncPutMessage(msgInner,
+                    new SendMessageCallback(response, request, msgInner, responseHeader, sendMessageContext, ctx, queueIdInt));
+                return null;
+            }
+            PutMessageResult putMessageResult = this.brokerController.getMessageStore().putMessage(msgInner);
+            return handlePutMessageResult(putMessageResult, response, request, msgInner, responseHeader, sendMessageContext, ctx, queueIdInt);
+        }
+
+        // 创建MessageExtBatch。properties 为批量级别属性（例如 WAIT），每条消息的属性在 body 中
+        MessageExtBatch messageExtBatch = new MessageExtBatch();
+        messageExtBatch.setTopic(requestHeader.getTopic());
+        messageExtBatch.setQueueId(queueIdInt);
+        messageExtBatch.setBody(request.getBody());
+        messageExtBatch.setFlag(requestHeader.getFlag());
+        MessageAccessor.setProperties(messageExtBatch, MessageDecoder.string2messageProperties(requestHeader.getProperties()));
+        messageExtBatch.setSysFlag(sysFlag);
+        messageExtBatch.setBornTimestamp(requestHeader.getBornTimestamp());
+        messageExtBatch.setBornHost(ctx.channel().remoteAddress());
+        messageExtBatch.setStoreHost(this.getStoreHost());
+        messageExtBatch.setReconsumeTimes(requestHeader.getReconsumeTimes() == null ? 0 : requestHeader.getReconsumeTimes());
+
+        if (this.brokerController.getBrokerConfig().isAsyncSendEnable()) {
+            this.brokerController.getMessageStore().asyncPutMessages(messageExtBatch,
+                new SendMessageCallback(response, request, messageExtBatch, responseHeader, sendMessageContext, ctx, queueIdInt));
+            return null;
+        }
+        PutMessageResult putMessageResult = this.brokerController.getMessageStore().putMessages(messageExtBatch);
+        return handlePutMessageResult(putMessageResult, response, request, messageExtBatch, responseHeader, sendMessageContext, ctx, queueIdInt);
+    }
+
+    /**
+     * 异步发送消息回调：存储完成（含刷盘、同步复制）后写响应，并执行发送后 hook
+     */
+    private class SendMessageCallback implements PutMessageCallback {
+        private final RemotingCommand response;
+        private final RemotingCommand request;
+        private final MessageExt msg;
+        private final SendMessageResponseHeader responseHeader;
+        private final SendMessageContext sendMessageContext;
+        private final ChannelHandlerContext ctx;
+        private final int queueIdInt;
+
+        SendMessageCallback(RemotingCommand response, RemotingCommand request, MessageExt msg, SendMessageResponseHeader responseHeader,
+            SendMessageContext sendMessageContext, ChannelHandlerContext ctx, int queueIdInt) {
+            this.response = response;
+            this.request = request;
+            this.msg = msg;
+            this.responseHeader = responseHeader;
+            this.sendMessageContext = sendMessageContext;
+            this.ctx = ctx;
+            this.queueIdInt = queueIdInt;
+        }
+
+        @Override
+        public void onComplete(PutMessageResult putMessageResult) {
+            RemotingCommand responseToWrite = handlePutMessageResult(putMessageResult, response, request, msg, responseHeader, sendMessageContext, ctx, queueIdInt);
+            if (responseToWrite != null) {
+                doResponse(ctx, request, responseToWrite);
+            }
+            executeSendMessageHookAfter(responseToWrite, sendMessageContext);
+        }
+    }
+
     public boolean hasConsumeMessageHook() {
         return consumeMessageHookList != null && !this.consumeMessageHookList.isEmpty();
     }
@@ -26,19 +26,24 @@ import org.apache.rocketmq.broker.mqtrace.SendMessageContext;
 import org.apache.rocketmq.broker.mqtrace.SendMessageHook;
 import org.apache.rocketmq.common.BrokerConfig;
 import org.apache.rocketmq.common.MixAll;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageDecoder;
 import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.common.protocol.RequestCode;
 import org.apache.rocketmq.common.protocol.ResponseCode;
 import org.apache.rocketmq.common.protocol.header.ConsumerSendMsgBackRequestHeader;
 import org.apache.rocketmq.common.protocol.header.SendMessageRequestHeader;
+import org.apache.rocketmq.common.protocol.header.SendMessageRequestHeaderV2;
 import org.apache.rocketmq.remoting.exception.RemotingCommandException;
 import org.apache.rocketmq.remoting.netty.NettyClientConfig;
 import org.apache.rocketmq.remoting.netty.NettyServerConfig;
 import org.apache.rocketmq.remoting.protocol.RemotingCommand;
 import org.apache.rocketmq.store.AppendMessageResult;
 import org.apache.rocketmq.store.AppendMessageStatus;
+import org.apache.rocketmq.store.MessageExtBatch;
 import org.apache.rocketmq.store.MessageExtBrokerInner;
 import org.apache.rocketmq.store.MessageStore;
+import org.apache.rocketmq.store.PutMessageCallback;
 import org.apache.rocketmq.store.PutMessageResult;
 import org.apache.rocketmq.store.PutMessageStatus;
 import org.apache.rocketmq.store.config.MessageStoreConfig;
@@ -56,6 +61,8 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -164,6 +171,91 @@ public class SendMessageProcessorTest {
         assertPutResult(ResponseCode.SLAVE_NOT_AVAILABLE);
     }
 
+    @Test
+    public void testProcessRequest_Batch() throws RemotingCommandException {
+        when(messageStore.putMessages(any(MessageExtBatch.class))).thenReturn(new PutMessageResult(PutMessageStatus.PUT_OK, new AppendMessageResult(AppendMessageStatus.PUT_OK)));
+        final RemotingCommand request = createSendMsgCommand(RequestCode.SEND_BATCH_MESSAGE);
+        final RemotingCommand[] response = new RemotingCommand[1];
+        doAnswer(new Answer() {
+            @Override public Object answer(InvocationOnMock invocation) throws Throwable {
+                response[0] = invocation.getArgument(0);
+                return null;
+            }
+        }).when(handlerContext).writeAndFlush(any(Object.class));
+        RemotingCommand responseToReturn = sendMessageProcessor.processRequest(handlerContext, request);
+        assertThat(responseToReturn).isNull();
+        assertThat(response[0].getCode()).isEqualTo(ResponseCode.SUCCESS);
+        verify(messageStore, never()).putMessage(any(MessageExtBrokerInner.class));
+    }
+
+    @Test
+    public void testProcessRequest_StoreRecord() throws RemotingCommandException {
+        final MessageExtBrokerInner[] stored = new MessageExtBrokerInner[1];
+        doAnswer(new Answer() {
+            @Override public Object answer(InvocationOnMock invocation) throws Throwable {
+                stored[0] = invocation.getArgument(0);
+                return new PutMessageResult(PutMessageStatus.PUT_OK, new AppendMessageResult(AppendMessageStatus.PUT_OK));
+            }
+        }).when(messageStore).putMessage(any(MessageExtBrokerInner.class));
+        final RemotingCommand request = createSendMsgCommand(RequestCode.SEND_MESSAGE_STORE_RECORD);
+        final byte[] record = MessageDecoder.encodeStoreRecord(topic, 1, 124, 0, System.currentTimeMillis(), 0, new byte[] {'a'}, null);
+        request.setBody(record);
+        final RemotingCommand[] response = new RemotingCommand[1];
+        doAnswer(new Answer() {
+            @Override public Object answer(InvocationOnMock invocation) throws Throwable {
+                response[0] = invocation.getArgument(0);
+                return null;
+            }
+        }).when(handlerContext).writeAndFlush(any(Object.class));
+        RemotingCommand responseToReturn = sendMessageProcessor.processRequest(handlerContext, request);
+        assertThat(responseToReturn).isNull();
+        assertThat(response[0].getCode()).isEqualTo(ResponseCode.SUCCESS);
+        assertThat(stored[0].getBody()).isNull();
+        assertThat(stored[0].getEncodedBuff().array()).isSameAs(record);
+    }
+
+    @Test
+    public void testProcessRequest_StoreRecordWithDeliverTime() throws RemotingCommandException {
+        final MessageExtBrokerInner[] stored = new MessageExtBrokerInner[1];
+        doAnswer(new Answer() {
+            @Override public Object answer(InvocationOnMock invocation) throws Throwable {
+                stored[0] = invocation.getArgument(0);
+                return new PutMessageResult(PutMessageStatus.PUT_OK, new AppendMessageResult(AppendMessageStatus.PUT_OK));
+            }
+        }).when(messageStore).putMessage(any(MessageExtBrokerInner.class));
+        final String properties = MessageConst.PROPERTY_TIMER_DELIVER_MS + MessageDecoder.NAME_VALUE_SEPARATOR
+            + (System.currentTimeMillis() + 60 * 1000) + MessageDecoder.PROPERTY_SEPARATOR;
+        final RemotingCommand request = createSendMsgCommand(RequestCode.SEND_MESSAGE_STORE_RECORD, properties);
+        request.setBody(MessageDecoder.encodeStoreRecord(topic, 1, 124, 0, System.currentTimeMillis(), 0, new byte[] {'a'}, properties));
+        final RemotingCommand[] response = new RemotingCommand[1];
+        doAnswer(new Answer() {
+            @Override public Object answer(InvocationOnMock invocation) throws Throwable {
+                response[0] = invocation.getArgument(0);
+                return null;
+            }
+        }).when(handlerContext).writeAndFlush(any(Object.class));
+        RemotingCommand responseToReturn = sendMessageProcessor.processRequest(handlerContext, request);
+        assertThat(responseToReturn).isNull();
+        assertThat(response[0].getCode()).isEqualTo(ResponseCode.SUCCESS);
+        // 定时消息存储时改写 topic，不能使用客户端编码的记录
+        assertThat(stored[0].getEncodedBuff()).isNull();
+        assertThat(stored[0].getBody()).isEqualTo(new byte[] {'a'});
+    }
+
+    @Test
+    public void testProcessRequest_AsyncSend() throws RemotingCommandException {
+        brokerController.getBrokerConfig().setAsyncSendEnable(true);
+        doAnswer(new Answer() {
+            @Override public Object answer(InvocationOnMock invocation) throws Throwable {
+                PutMessageCallback callback = invocation.getArgument(1);
+                callback.onComplete(new PutMessageResult(PutMessageStatus.FLUSH_DISK_TIMEOUT, new AppendMessageResult(AppendMessageStatus.PUT_OK)));
+                return null;
+            }
+        }).when(messageStore).asyncPutMessage(any(MessageExtBrokerInner.class), any(PutMessageCallback.class));
+        assertPutResult(ResponseCode.FLUSH_DISK_TIMEOUT);
+        verify(messageStore, never()).putMessage(any(MessageExtBrokerInner.class));
+    }
+
     @Test
     public void testProcessRequest_WithMsgBack() throws RemotingCommandException {
         when(messageStore.putMessage(any(MessageExtBrokerInner.class))).thenReturn(new PutMessageResult(PutMessageStatus.PUT_OK, new AppendMessageResult(AppendMessageStatus.PUT_OK)));
@@ -176,7 +268,12 @@ public class SendMessageProcessorTest {
     }
 
     private RemotingCommand createSendMsgCommand(int requestCode) {
+        return createSendMsgCommand(requestCode, null);
+    }
+
+    private RemotingCommand createSendMsgCommand(int requestCode, String properties) {
         SendMessageRequestHeader requestHeader = new SendMessageRequestHeader();
+        requestHeader.setProperties(properties);
         requestHeader.setProducerGroup(group);
         requestHeader.setTopic(topic);
         requestHeader.setDefaultTopic(MixAll.DEFAULT_TOPIC);
@@ -187,7 +284,12 @@ public class SendMessageProcessorTest {
         requestHeader.setFlag(124);
         requestHeader.setReconsumeTimes(0);
 
-        RemotingCommand request = RemotingCommand.createRequestCommand(requestCode, requestHeader);
+        RemotingCommand request;
+        if (requestCode == RequestCode.SEND_BATCH_MESSAGE || requestCode == RequestCode.SEND_MESSAGE_STORE_RECORD) {
+            request = RemotingCommand.createRequestCommand(requestCode, SendMessageRequestHeaderV2.createSendMessageRequestHeaderV2(requestHeader));
+        } else {
+            request = RemotingCommand.createRequestCommand(requestCode, requestHeader);
+        }
         request.setBody(new byte[] {'a'});
         request.makeCustomHeaderToNet();
         return request;
@@ -515,6 +515,19 @@ public class DefaultMQPushConsumer extends ClientConfig implements MQPushConsume
         this.defaultMQPushConsumerImpl.subscribe(topic, subExpression);
     }
 
+    /**
+     * Subscribe a topic by message selector. SQL92 selectors are evaluated on the broker against message properties,
+     * which requires the broker to enable property filter.
+     *
+     * @param topic topic to subscribe.
+     * @param messageSelector {@link MessageSelector#byTag(String)} or {@link MessageSelector#bySql(String)},
+     *     if null meaning subscribe all
+     * @throws MQClientException if there is any client error.
+     */
+    public void subscribe(String topic, MessageSelector messageSelector) throws MQClientException {
+        this.defaultMQPushConsumerImpl.subscribe(topic, messageSelector);
+    }
+
     /**
      * Subscribe a topic to consuming subscription.
      * @param topic topic to consume.
@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.client.consumer;
+
+import org.apache.rocketmq.common.filter.ExpressionType;
+
+/**
+ * 消息选择器：订阅表达式 及 表达式类型
+ */
+public class MessageSelector {
+
+    /**
+     * 表达式类型，见 {@link ExpressionType}
+     */
+    private final String expressionType;
+    /**
+     * 表达式
+     */
+    private final String expression;
+
+    private MessageSelector(final String expressionType, final String expression) {
+        this.expressionType = expressionType;
+        this.expression = expression;
+    }
+
+    /**
+     * 按消息属性过滤，如 a &gt; 5 AND region IN ('eu', 'us')
+     *
+     * @param sql SQL92 条件表达式
+     * @return 消息选择器
+     */
+    public static MessageSelector bySql(final String sql) {
+        return new MessageSelector(ExpressionType.SQL92, sql);
+    }
+
+    /**
+     * 按 tag 过滤，如 TAG_A || TAG_B，null 或 * 表示订阅全部
+     *
+     * @param tag tag 表达式
+     * @return 消息选择器
+     */
+    public static MessageSelector byTag(final String tag) {
+        return new MessageSelector(ExpressionType.TAG, tag);
+    }
+
+    public String getExpressionType() {
+        return expressionType;
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+}
@@ -73,6 +73,11 @@ public class MQClientAPIImpl {
     private final static Logger log = ClientLogger.getLog();
     public static boolean sendSmartMsg =
         Boolean.parseBoolean(System.getProperty("org.apache.rocketmq.client.sendSmartMsg", "true"));
+    /**
+     * 是否在客户端将消息编码为 CommitLog 存储格式发送，broker 无需重新编码。需要 broker 支持 {@link RequestCode#SEND_MESSAGE_STORE_RECORD}
+     */
+    public static boolean sendStoreRecord =
+        Boolean.parseBoolean(System.getProperty("org.apache.rocketmq.client.sendStoreRecord", "false"));
 
     static {
         System.setProperty(RemotingCommand.REMOTING_VERSION_KEY, Integer.toString(MQVersion.CURRENT_VERSION));
@@ -265,15 +270,25 @@ public class MQClientAPIImpl {
         final DefaultMQProducerImpl producer // 12
     ) throws RemotingException, MQBrokerException, InterruptedException {
         // 创建请求。如果开启sendSmartMsg开关，实际是将请求参数的key缩短，加快序列化性能，减少网络IO
+        // 批量消息固定使用V2请求头
+        // 开启sendStoreRecord开关时，body 为 CommitLog 存储格式的消息
         RemotingCommand request;
-        if (sendSmartMsg) {
+        if (sendStoreRecord && isStoreRecordSupported(msg, requestHeader)) {
             SendMessageRequestHeaderV2 requestHeaderV2 = SendMessageRequestHeaderV2.createSendMessageRequestHeaderV2(requestHeader);
-            request = RemotingCommand.createRequestCommand(RequestCode.SEND_MESSAGE_V2, requestHeaderV2);
+            request = RemotingCommand.createRequestCommand(RequestCode.SEND_MESSAGE_STORE_RECORD, requestHeaderV2);
+            request.setBody(MessageDecoder.encodeStoreRecord(requestHeader.getTopic(), requestHeader.getQueueId(), requestHeader.getFlag(),
+                requestHeader.getSysFlag(), requestHeader.getBornTimestamp(),
+                requestHeader.getReconsumeTimes() == null ? 0 : requestHeader.getReconsumeTimes(), msg.getBody(), requestHeader.getProperties()));
         } else {
-            //该命令的处理类org.apache.rocketmq.broker.processor.SendMessageProcessor
-            request = RemotingCommand.createRequestCommand(RequestCode.SEND_MESSAGE, requestHeader);
+            if (sendSmartMsg || msg instanceof MessageBatch) {
+                SendMessageRequestHeaderV2 requestHeaderV2 = SendMessageRequestHeaderV2.createSendMessageRequestHeaderV2(requestHeader);
+                request = RemotingCommand.createRequestCommand(msg instanceof MessageBatch ? RequestCode.SEND_BATCH_MESSAGE : RequestCode.SEND_MESSAGE_V2, requestHeaderV2);
+            } else {
+                //该命令的处理类org.apache.rocketmq.broker.processor.SendMessageProcessor
+                request = RemotingCommand.createRequestCommand(RequestCode.SEND_MESSAGE, requestHeader);
+            }
+            request.setBody(msg.getBody());
         }
-        request.setBody(msg.getBody());
         //todo 请求 sendMessage() 通过判断发送类型，最终调用了MQClientAPIImpl类的sendMessageAsync()
         switch (communicationMode) {
             case ONEWAY:
@@ -293,6 +308,21 @@ public class MQClientAPIImpl {
         return null;
     }
 
+    /**
+     * 是否可以编码为 CommitLog 存储格式发送
+     * 批量消息、重试消息（可能进入死信队列）、延迟消息 需要 broker 改写，不支持
+     *
+     * @param msg 消息
+     * @param requestHeader 请求
+     * @return 是否支持
+     */
+    private static boolean isStoreRecordSupported(final Message msg, final SendMessageRequestHeader requestHeader) {
+        return !(msg instanceof MessageBatch)
+            && !requestHeader.getTopic().startsWith(MixAll.RETRY_GROUP_TOPIC_PREFIX)
+            && msg.getDelayTimeLevel() <= 0
+            && msg.getProperty(MessageConst.PROPERTY_TIMER_DELIVER_MS) == null;
+    }
+
     /**
      * 发布同步消息，并返回发送结果
      *
@@ -490,9 +520,18 @@ public class MQClientAPIImpl {
                     (SendMessageResponseHeader) response.decodeCommandCustomHeader(SendMessageResponseHeader.class);
                 // 发送成功消息队列
                 MessageQueue messageQueue = new MessageQueue(msg.getTopic(), brokerName, responseHeader.getQueueId());
+                // 批量消息的客户端编号为每条消息编号以逗号拼接，与broker返回的msgId顺序一致
+                String uniqMsgId = MessageClientIDSetter.getUniqID(msg);
+                if (msg instanceof MessageBatch) {
+                    StringBuilder sb = new StringBuilder();
+                    for (Message message : (MessageBatch) msg) {
+                        sb.append(sb.length() == 0 ? "" : ",").append(MessageClientIDSetter.getUniqID(message));
+                    }
+                    uniqMsgId = sb.toString();
+                }
                 // 发送结果
                 SendResult sendResult = new SendResult(sendStatus,
-                    MessageClientIDSetter.getUniqID(msg),
+                    uniqMsgId,
                     responseHeader.getMsgId(), messageQueue, responseHeader.getQueueOffset());
                 sendResult.setTransactionId(responseHeader.getTransactionId());
                 String regionId = response.getExtFields().get(MessageConst.PROPERTY_MSG_REGION);
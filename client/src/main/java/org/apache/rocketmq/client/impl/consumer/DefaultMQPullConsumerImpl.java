@@ -205,7 +205,7 @@ public class DefaultMQPullConsumerImpl implements MQConsumerInner {
             CommunicationMode.SYNC, // 10
             null// 11
         );
-        this.pullAPIWrapper.processPullResult(mq, pullResult, subscriptionData);
+        this.pullAPIWrapper.processPullResult(mq, pullResult, subscriptionData, offset);
         if (!this.consumeMessageHookList.isEmpty()) {
             ConsumeMessageContext consumeMessageContext = null;
             consumeMessageContext = new ConsumeMessageContext();
@@ -427,7 +427,7 @@ public class DefaultMQPullConsumerImpl implements MQConsumerInner {
                     @Override
                     public void onSuccess(PullResult pullResult) {
                         pullCallback
-                            .onSuccess(DefaultMQPullConsumerImpl.this.pullAPIWrapper.processPullResult(mq, pullResult, subscriptionData));
+                            .onSuccess(DefaultMQPullConsumerImpl.this.pullAPIWrapper.processPullResult(mq, pullResult, subscriptionData, offset));
                     }
 
                     @Override
@@ -28,6 +28,7 @@ import org.apache.rocketmq.client.impl.FindBrokerResult;
 import org.apache.rocketmq.client.impl.factory.MQClientInstance;
 import org.apache.rocketmq.client.log.ClientLogger;
 import org.apache.rocketmq.common.MixAll;
+import org.apache.rocketmq.common.filter.ExpressionType;
 import org.apache.rocketmq.common.message.*;
 import org.apache.rocketmq.common.protocol.header.PullMessageRequestHeader;
 import org.apache.rocketmq.common.protocol.heartbeat.SubscriptionData;
@@ -84,10 +85,11 @@ public class PullAPIWrapper {
      * @param mq 消息队列
      * @param pullResult 拉取结果
      * @param subscriptionData 订阅信息
+     * @param offset 拉取的队列位置
      * @return 拉取结果
      */
     public PullResult processPullResult(final MessageQueue mq, final PullResult pullResult,
-        final SubscriptionData subscriptionData) {
+        final SubscriptionData subscriptionData, final long offset) {
         PullResultExt pullResultExt = (PullResultExt) pullResult;
 
         // 更新消息队列拉取消息Broker编号的映射
@@ -99,6 +101,17 @@ public class PullAPIWrapper {
             ByteBuffer byteBuffer = ByteBuffer.wrap(pullResultExt.getMessageBinary());
             List<MessageExt> msgList = MessageDecoder.decodes(byteBuffer);
 
+            // 从批量记录中间开始拉取时，记录会整体返回，过滤掉拉取位置之前的消息
+            if (!msgList.isEmpty() && msgList.get(0).getQueueOffset() < offset) {
+                List<MessageExt> msgListInRange = new ArrayList<>(msgList.size());
+                for (MessageExt msg : msgList) {
+                    if (msg.getQueueOffset() >= offset) {
+                        msgListInRange.add(msg);
+                    }
+                }
+                msgList = msgListInRange;
+            }
+
             // 根据消息tagCode匹配合适消息
             List<MessageExt> msgListFilterAgain = msgList;
             if (!subscriptionData.getTagsSet().isEmpty() && !subscriptionData.isClassFilterMode()) {
@@ -169,11 +182,34 @@ public class PullAPIWrapper {
         }
     }
 
+    /**
+     * 拉取消息核心方法，订阅表达式按 tag 解析
+     *
+     * @see #pullKernelImpl(MessageQueue, String, String, long, long, int, int, long, long, long, CommunicationMode, PullCallback)
+     */
+    protected PullResult pullKernelImpl(
+        final MessageQueue mq,
+        final String subExpression,
+        final long subVersion,
+        final long offset,
+        final int maxNums,
+        final int sysFlag,
+        final long commitOffset,
+        final long brokerSuspendMaxTimeMillis,
+        final long timeoutMillis,
+        final CommunicationMode communicationMode,
+        final PullCallback pullCallback
+    ) throws MQClientException, RemotingException, MQBrokerException, InterruptedException {
+        return this.pullKernelImpl(mq, subExpression, ExpressionType.TAG, subVersion, offset, maxNums, sysFlag, commitOffset,
+            brokerSuspendMaxTimeMillis, timeoutMillis, communicationMode, pullCallback);
+    }
+
     /**
      * 拉取消息核心方法
      *
      * @param mq 消息嘟列
      * @param subExpression 订阅表达式
+     * @param expressionType 订阅表达式类型
      * @param subVersion 订阅版本号
      * @param offset 拉取队列开始位置
      * @param maxNums 批量拉 取消息数量
@@ -192,6 +228,7 @@ public class PullAPIWrapper {
     protected PullResult pullKernelImpl(
         final MessageQueue mq,
         final String subExpression,
+        final String expressionType,
         final long subVersion,
         final long offset,
         final int maxNums,
@@ -231,6 +268,7 @@ public class PullAPIWrapper {
             requestHeader.setCommitOffset(commitOffset);
             requestHeader.setSuspendTimeoutMillis(brokerSuspendMaxTimeMillis);
             requestHeader.setSubscription(subExpression);
+            requestHeader.setExpressionType(expressionType);
             requestHeader.setSubVersion(subVersion);
 
             // 若订阅topic使用过滤类，使用filtersrv获取消息
@@ -33,7 +33,9 @@ import org.apache.rocketmq.client.log.ClientLogger;
 import org.apache.rocketmq.client.producer.*;
 import org.apache.rocketmq.common.MixAll;
 import org.apache.rocketmq.common.ServiceState;
-import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.compression.CompressionDictionary;
+import org.apache.rocketmq.common.compression.CompressionType;
+import org.apache.rocketmq.common.compression.CompressorFactory;
 import org.apache.rocketmq.common.help.FAQUrl;
 import org.apache.rocketmq.common.message.*;
 import org.apache.rocketmq.common.protocol.ResponseCode;
@@ -54,6 +56,10 @@ import java.util.*;
 import java.util.concurrent.*;
 
 public class DefaultMQProducerImpl implements MQProducerInner {
+    /**
+     * 批量记录合并的 keys 最大长度，超出部分不建立索引，避免属性超长
+     */
+    private static final int MAX_BATCH_KEYS_LENGTH = 8 * 1024;
     private final Logger log = ClientLogger.getLog();
     private final Random random = new Random();
     private final DefaultMQProducer defaultMQProducer;
@@ -73,6 +79,10 @@ public class DefaultMQProducerImpl implements MQProducerInner {
     private MQClientInstance mQClientFactory;
     private ArrayList<CheckForbiddenHook> checkForbiddenHookList = new ArrayList<CheckForbiddenHook>();
     private int zipCompressLevel = Integer.parseInt(System.getProperty(MixAll.MESSAGE_COMPRESS_LEVEL, "5"));
+    /**
+     * 消息压缩类型。非 ZLIB 类型需要消费者同样升级才能解压
+     */
+    private CompressionType compressType = CompressionType.of(System.getProperty(MixAll.MESSAGE_COMPRESS_TYPE, "ZLIB"));
     /**
      * MQBroker可用性策略
      */
@@ -704,13 +714,18 @@ public class DefaultMQProducerImpl implements MQProducerInner {
             brokerAddr = MixAll.brokerVIPChannel(this.defaultMQProducer.isSendMessageWithVIPChannel(), brokerAddr);
             byte[] prevBody = msg.getBody(); // 记录消息内容。下面逻辑可能改变消息内容，例如消息压缩。
             try {
-                // 设置唯一编号
-                MessageClientIDSetter.setUniqID(msg);
+                // 设置唯一编号。批量消息在打包时已为每条消息设置
+                if (!(msg instanceof MessageBatch)) {
+                    MessageClientIDSetter.setUniqID(msg);
+                }
                 // 消息压缩
                 int sysFlag = 0;
                 if (this.tryToCompressMessage(msg)) {
-                    //设置消息的系统标记为MessageSysFlag.COMPRESSED_FLAG
-                    sysFlag |= MessageSysFlag.COMPRESSED_FLAG;
+                    //设置消息的系统标记为MessageSysFlag.COMPRESSED_FLAG，并记录压缩类型
+                    sysFlag |= MessageSysFlag.COMPRESSED_FLAG | this.compressType.getCompressionFlag();
+                    if (msg instanceof MessageBatch) {
+                        sysFlag |= MessageSysFlag.INNER_BATCH_FLAG;
+                    }
                 }
                 // 事务
                 final String tranMsg = msg.getProperty(MessageConst.PROPERTY_TRANSACTION_PREPARED);
@@ -743,7 +758,8 @@ public class DefaultMQProducerImpl implements MQProducerInner {
                     if (isTrans != null && isTrans.equals("true")) {
                         context.setMsgType(MessageType.Trans_Msg_Half);
                     }
-                    if (msg.getProperty("__STARTDELIVERTIME") != null || msg.getProperty(MessageConst.PROPERTY_DELAY_TIME_LEVEL) != null) {
+                    if (msg.getProperty("__STARTDELIVERTIME") != null || msg.getProperty(MessageConst.PROPERTY_DELAY_TIME_LEVEL) != null
+                        || msg.getProperty(MessageConst.PROPERTY_TIMER_DELIVER_MS) != null) {
                         context.setMsgType(MessageType.Delay_Msg);
                     }
                     this.executeSendMessageHookBefore(context);
@@ -846,11 +862,15 @@ public class DefaultMQProducerImpl implements MQProducerInner {
     }
 
     private boolean tryToCompressMessage(final Message msg) {
+        if (msg instanceof MessageBatch) {
+            return this.tryToCompressBatch((MessageBatch) msg);
+        }
         byte[] body = msg.getBody();
         if (body != null) {
             if (body.length >= this.defaultMQProducer.getCompressMsgBodyOverHowmuch()) {
                 try {
-                    byte[] data = UtilAll.compress(body, zipCompressLevel);
+                    byte[] dictionary = CompressionDictionary.findByTopic(msg.getTopic());
+                    byte[] data = CompressorFactory.getCompressor(this.compressType).compress(body, zipCompressLevel, dictionary);
                     if (data != null) {
                         msg.setBody(data);
                         return true;
@@ -865,6 +885,54 @@ public class DefaultMQProducerImpl implements MQProducerInner {
         return false;
     }
 
+    /**
+     * 整体压缩批量消息，broker 将其作为一条批量记录存储，不再逐条解析
+     * 要求各消息 tags 相同：broker 按记录的 tags 过滤整条记录。记录的 keys 为各消息 keys 合并，用于建立索引
+     *
+     * @param batch 批量消息
+     * @return 是否压缩
+     */
+    private boolean tryToCompressBatch(final MessageBatch batch) {
+        byte[] body = batch.getBody();
+        if (!this.defaultMQProducer.isCompressBatch() || null == body
+            || body.length < this.defaultMQProducer.getCompressMsgBodyOverHowmuch()) {
+            return false;
+        }
+
+        String tags = null;
+        StringBuilder keys = new StringBuilder();
+        boolean first = true;
+        for (Message message : batch) {
+            if (first) {
+                tags = message.getTags();
+                first = false;
+            } else if (tags == null ? message.getTags() != null : !tags.equals(message.getTags())) {
+                return false;
+            }
+            String msgKeys = message.getKeys();
+            if (msgKeys != null && msgKeys.length() > 0 && keys.length() + msgKeys.length() < MAX_BATCH_KEYS_LENGTH) {
+                keys.append(keys.length() == 0 ? "" : MessageConst.KEY_SEPARATOR).append(msgKeys);
+            }
+        }
+
+        try {
+            byte[] dictionary = CompressionDictionary.findByTopic(batch.getTopic());
+            byte[] data = CompressorFactory.getCompressor(this.compressType).compress(body, zipCompressLevel, dictionary);
+            batch.setBody(data);
+            if (tags != null) {
+                MessageAccessor.putProperty(batch, MessageConst.PROPERTY_TAGS, tags);
+            }
+            if (keys.length() > 0) {
+                MessageAccessor.putProperty(batch, MessageConst.PROPERTY_KEYS, keys.toString());
+            }
+            MessageAccessor.putProperty(batch, MessageConst.PROPERTY_INNER_NUM, String.valueOf(batch.size()));
+            return true;
+        } catch (IOException e) {
+            log.error("tryToCompressBatch exception", e);
+        }
+        return false;
+    }
+
     public boolean hasCheckForbiddenHook() {
         return !checkForbiddenHookList.isEmpty();
     }
@@ -1216,6 +1284,14 @@ public class DefaultMQProducerImpl implements MQProducerInner {
         this.zipCompressLevel = zipCompressLevel;
     }
 
+    public CompressionType getCompressType() {
+        return compressType;
+    }
+
+    public void setCompressType(CompressionType compressType) {
+        this.compressType = compressType;
+    }
+
     public ServiceState getServiceState() {
         return serviceState;
     }
@@ -18,14 +18,17 @@ package org.apache.rocketmq.client.producer;
 
 import org.apache.rocketmq.client.ClientConfig;
 import org.apache.rocketmq.client.QueryResult;
+import org.apache.rocketmq.client.Validators;
 import org.apache.rocketmq.client.exception.MQBrokerException;
 import org.apache.rocketmq.client.exception.MQClientException;
 import org.apache.rocketmq.client.impl.producer.DefaultMQProducerImpl;
 import org.apache.rocketmq.common.MixAll;
 import org.apache.rocketmq.common.message.*;
+import org.apache.rocketmq.common.protocol.ResponseCode;
 import org.apache.rocketmq.remoting.RPCHook;
 import org.apache.rocketmq.remoting.exception.RemotingException;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -88,6 +91,14 @@ public class DefaultMQProducer extends ClientConfig implements MQProducer {
      */
     private int compressMsgBodyOverHowmuch = 1024 * 4;//消息体超过该值则启用压缩，默认4K。
 
+    /**
+     * Indicate whether to compress a whole batch as one block when its encoded size exceeds
+     * {@link #compressMsgBodyOverHowmuch}. The compressed batch is stored as one commit log record and expanded by the
+     * consumer, so consumers must be upgraded before enabling it. Only batches whose messages share the same tags are
+     * compressed, others are sent as usual.
+     */
+    private boolean compressBatch = false;//批量消息整体压缩，作为一条批量记录存储
+
     /**
      * Maximum number of retry to perform internally before claiming sending failure in synchronous mode.
      * </p>
@@ -461,6 +472,103 @@ public class DefaultMQProducer extends ClientConfig implements MQProducer {
         throw new RuntimeException("sendMessageInTransaction not implement, please use TransactionMQProducer class");
     }
 
+    /**
+     * Send a batch of messages synchronously. All messages must share the same topic and are stored into one message
+     * queue within a single request, which saves the round trip and header encoding cost of sending them one by one.
+     * </p>
+     * Delayed messages and messages to retry topics are not supported. Total encoded size of the batch must not exceed
+     * {@link #getMaxMessageSize()}.
+     *
+     * @param msgs Messages to send.
+     * @return {@link SendResult} instance, of which msgId and offsetMsgId are comma-separated ids of every message in
+     * the batch, in the same order as the collection's iterator.
+     * @throws MQClientException if there is any client error.
+     * @throws RemotingException if there is any network-tier error.
+     * @throws MQBrokerException if there is any error with broker.
+     * @throws InterruptedException if the sending thread is interrupted.
+     * 同步批量发送消息
+     */
+    @Override
+    public SendResult send(Collection<Message> msgs) throws MQClientException, RemotingException, MQBrokerException, InterruptedException {
+        return this.defaultMQProducerImpl.send(batch(msgs));
+    }
+
+    /**
+     * Same to {@link #send(Collection)} with send timeout specified in addition.
+     *
+     * @param msgs Messages to send.
+     * @param timeout send timeout.
+     * @return {@link SendResult} instance of the batch.
+     * @throws MQClientException if there is any client error.
+     * @throws RemotingException if there is any network-tier error.
+     * @throws MQBrokerException if there is any error with broker.
+     * @throws InterruptedException if the sending thread is interrupted.
+     */
+    @Override
+    public SendResult send(Collection<Message> msgs, long timeout) throws MQClientException, RemotingException, MQBrokerException, InterruptedException {
+        return this.defaultMQProducerImpl.send(batch(msgs), timeout);
+    }
+
+    /**
+     * Same to {@link #send(Collection)} with target message queue specified.
+     *
+     * @param msgs Messages to send.
+     * @param mq Target message queue.
+     * @return {@link SendResult} instance of the batch.
+     * @throws MQClientException if there is any client error.
+     * @throws RemotingException if there is any network-tier error.
+     * @throws MQBrokerException if there is any error with broker.
+     * @throws InterruptedException if the sending thread is interrupted.
+     */
+    @Override
+    public SendResult send(Collection<Message> msgs, MessageQueue mq) throws MQClientException, RemotingException, MQBrokerException, InterruptedException {
+        return this.defaultMQProducerImpl.send(batch(msgs), mq);
+    }
+
+    /**
+     * Same to {@link #send(Collection)} with target message queue and send timeout specified.
+     *
+     * @param msgs Messages to send.
+     * @param mq Target message queue.
+     * @param timeout send timeout.
+     * @return {@link SendResult} instance of the batch.
+     * @throws MQClientException if there is any client error.
+     * @throws RemotingException if there is any network-tier error.
+     * @throws MQBrokerException if there is any error with broker.
+     * @throws InterruptedException if the sending thread is interrupted.
+     */
+    @Override
+    public SendResult send(Collection<Message> msgs, MessageQueue mq, long timeout) throws MQClientException, RemotingException, MQBrokerException, InterruptedException {
+        return this.defaultMQProducerImpl.send(batch(msgs), mq, timeout);
+    }
+
+    /**
+     * 打包批量消息：逐条校验、设置唯一编号，并编码成一个 body
+     *
+     * @param msgs 消息集合
+     * @return 批量消息
+     * @throws MQClientException 当消息不合法或不能合并成一批
+     */
+    private MessageBatch batch(Collection<Message> msgs) throws MQClientException {
+        if (null == msgs || msgs.isEmpty()) {
+            throw new MQClientException(ResponseCode.MESSAGE_ILLEGAL, "the message collection is empty");
+        }
+        MessageBatch msgBatch;
+        try {
+            msgBatch = MessageBatch.generateFromList(msgs);
+            for (Message message : msgBatch) {
+                Validators.checkMessage(message, this);
+                MessageClientIDSetter.setUniqID(message);
+            }
+            msgBatch.setBody(msgBatch.encode());
+        } catch (MQClientException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new MQClientException("Failed to initiate the MessageBatch", e);
+        }
+        return msgBatch;
+    }
+
     /**
      * Create a topic on broker.
      * @param key accesskey
@@ -619,6 +727,14 @@ public class DefaultMQProducer extends ClientConfig implements MQProducer {
         this.compressMsgBodyOverHowmuch = compressMsgBodyOverHowmuch;
     }
 
+    public boolean isCompressBatch() {
+        return compressBatch;
+    }
+
+    public void setCompressBatch(boolean compressBatch) {
+        this.compressBatch = compressBatch;
+    }
+
     public DefaultMQProducerImpl getDefaultMQProducerImpl() {
         return defaultMQProducerImpl;
     }
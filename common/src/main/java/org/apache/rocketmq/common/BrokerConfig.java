@@ -107,6 +107,16 @@ public class BrokerConfig {
 
     private boolean traceOn = true;
 
+    /**
+     * 是否异步处理发送消息请求。开启后 SYNC_FLUSH / SYNC_MASTER 时不阻塞发送线程，由刷盘、同步复制完成回调写响应
+     */
+    private boolean asyncSendEnable = false;
+
+    /**
+     * 是否支持按消息属性（SQL92 表达式）过滤消息
+     */
+    private boolean enablePropertyFilter = false;
+
     public static String localHostName() {
         try {
             return InetAddress.getLocalHost().getHostName();
@@ -492,4 +502,20 @@ public class BrokerConfig {
     public void setCommercialBaseCount(int commercialBaseCount) {
         this.commercialBaseCount = commercialBaseCount;
     }
+
+    public boolean isAsyncSendEnable() {
+        return asyncSendEnable;
+    }
+
+    public void setAsyncSendEnable(boolean asyncSendEnable) {
+        this.asyncSendEnable = asyncSendEnable;
+    }
+
+    public boolean isEnablePropertyFilter() {
+        return enablePropertyFilter;
+    }
+
+    public void setEnablePropertyFilter(boolean enablePropertyFilter) {
+        this.enablePropertyFilter = enablePropertyFilter;
+    }
 }
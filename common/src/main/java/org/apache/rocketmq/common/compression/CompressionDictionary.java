@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.common.compression;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Adler32;
+
+/**
+ * 压缩字典表
+ * 按 topic 注册预置字典（一般由该 topic 的消息样本训练得到），生产者压缩时使用，消费者解压时按字典编号查找
+ * 字典编号为字典的 Adler32 校验和，与 zlib 流中记录的字典编号一致，因此消费者只需注册相同的字典
+ */
+public class CompressionDictionary {
+
+    private static final ConcurrentHashMap<String/* topic */, byte[]> TOPIC_DICTIONARIES = new ConcurrentHashMap<>();
+
+    private static final ConcurrentHashMap<Integer/* id */, byte[]> ID_DICTIONARIES = new ConcurrentHashMap<>();
+
+    /**
+     * 注册 topic 的预置字典
+     *
+     * @param topic topic
+     * @param dictionary 字典
+     */
+    public static void register(final String topic, final byte[] dictionary) {
+        TOPIC_DICTIONARIES.put(topic, dictionary);
+        ID_DICTIONARIES.put(dictionaryId(dictionary), dictionary);
+    }
+
+    /**
+     * 注销 topic 的预置字典。按编号查找的字典保留，已发送的消息仍可解压
+     *
+     * @param topic topic
+     */
+    public static void unregister(final String topic) {
+        TOPIC_DICTIONARIES.remove(topic);
+    }
+
+    public static byte[] findByTopic(final String topic) {
+        return TOPIC_DICTIONARIES.get(topic);
+    }
+
+    public static byte[] findById(final int id) {
+        return ID_DICTIONARIES.get(id);
+    }
+
+    /**
+     * 计算字典编号
+     *
+     * @param dictionary 字典
+     * @return 编号
+     */
+    public static int dictionaryId(final byte[] dictionary) {
+        Adler32 adler32 = new Adler32();
+        adler32.update(dictionary, 0, dictionary.length);
+        return (int) adler32.getValue();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.common.compression;
+
+import org.apache.rocketmq.common.sysflag.MessageSysFlag;
+
+/**
+ * 压缩类型，记录在消息 sysFlag 的 {@link MessageSysFlag#COMPRESSION_TYPE_COMPARATOR} 位
+ */
+public enum CompressionType {
+    /**
+     * zlib（Deflater），支持预置字典。值为0，与旧版本压缩消息兼容
+     */
+    ZLIB(0),
+    /**
+     * LZ4 块格式，压缩率略低于 zlib，压缩/解压速度快很多。旧版本客户端无法解压
+     */
+    LZ4(MessageSysFlag.COMPRESSION_LZ4_TYPE);
+
+    private final int compressionFlag;
+
+    CompressionType(final int compressionFlag) {
+        this.compressionFlag = compressionFlag;
+    }
+
+    /**
+     * 根据消息 sysFlag 获取压缩类型
+     *
+     * @param sysFlag 消息 sysFlag
+     * @return 压缩类型
+     */
+    public static CompressionType findBySysFlag(final int sysFlag) {
+        final int flag = sysFlag & MessageSysFlag.COMPRESSION_TYPE_COMPARATOR;
+        for (CompressionType type : CompressionType.values()) {
+            if (type.compressionFlag == flag) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("unknown compression type, sysFlag: " + sysFlag);
+    }
+
+    /**
+     * 根据名称获取压缩类型，忽略大小写
+     *
+     * @param name 名称
+     * @return 压缩类型
+     */
+    public static CompressionType of(final String name) {
+        return CompressionType.valueOf(name.trim().toUpperCase());
+    }
+
+    public int getCompressionFlag() {
+        return compressionFlag;
+    }
+}
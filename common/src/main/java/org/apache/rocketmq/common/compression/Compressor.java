@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.common.compression;
+
+import java.io.IOException;
+
+/**
+ * 消息内容压缩器
+ * 实现需线程安全，由 {@link CompressorFactory} 按 {@link CompressionType} 提供单例
+ */
+public interface Compressor {
+
+    /**
+     * 压缩
+     *
+     * @param src 原始内容
+     * @param level 压缩级别，不支持级别的实现忽略
+     * @param dictionary 预置字典，为 null 时不使用；不支持字典的实现忽略
+     * @return 压缩后内容
+     * @throws IOException 当压缩失败
+     */
+    byte[] compress(final byte[] src, final int level, final byte[] dictionary) throws IOException;
+
+    /**
+     * 解压
+     *
+     * @param src 压缩后内容
+     * @return 原始内容
+     * @throws IOException 当内容损坏 或 缺少压缩时使用的字典
+     */
+    byte[] decompress(final byte[] src) throws IOException;
+}
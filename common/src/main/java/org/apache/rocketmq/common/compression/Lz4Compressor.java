@@ -0,0 +1,239 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.common.compression;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * LZ4 压缩器，纯 Java 实现的 LZ4 块格式（贪心匹配，等同 LZ4 fast 级别）
+ * 输出格式：原始长度（4字节） + LZ4 块
+ * 不支持压缩级别与字典，传入时忽略
+ */
+public class Lz4Compressor implements Compressor {
+
+    private static final int MIN_MATCH = 4;
+    /**
+     * 块末尾至少5字节为字面量
+     */
+    private static final int LAST_LITERALS = 5;
+    /**
+     * 最后一个匹配至少在块末尾12字节之前开始
+     */
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int HASH_LOG = 12;
+    private static final int RUN_MASK = 15;
+    private static final int ML_MASK = 15;
+    /**
+     * LZ4 最大压缩率约为 255
+     */
+    private static final int MAX_RATIO = 255;
+
+    private final ThreadLocal<int[]> hashTableThreadLocal = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1 << HASH_LOG];
+        }
+    };
+
+    @Override
+    public byte[] compress(final byte[] src, final int level, final byte[] dictionary) throws IOException {
+        final int srcLen = src.length;
+        final byte[] dest = new byte[4 + srcLen + srcLen / 255 + 16];
+        writeInt(dest, 0, srcLen);
+        int dOff = 4;
+
+        int anchor = 0;
+        if (srcLen > MF_LIMIT) {
+            final int[] hashTable = this.hashTableThreadLocal.get();
+            Arrays.fill(hashTable, -1);
+            final int limit = srcLen - MF_LIMIT;
+            final int matchLimit = srcLen - LAST_LITERALS;
+
+            int sOff = 0;
+            while (sOff < limit) {
+                final int sequence = readInt(src, sOff);
+                final int h = hash(sequence);
+                int ref = hashTable[h];
+                hashTable[h] = sOff;
+                if (ref < 0 || sOff - ref > MAX_DISTANCE || readInt(src, ref) != sequence) {
+                    sOff++;
+                    continue;
+                }
+
+                // 向前扩展匹配
+                while (sOff > anchor && ref > 0 && src[sOff - 1] == src[ref - 1]) {
+                    sOff--;
+                    ref--;
+                }
+                // 向后扩展匹配
+                int matchLen = MIN_MATCH;
+                while (sOff + matchLen < matchLimit && src[sOff + matchLen] == src[ref + matchLen]) {
+                    matchLen++;
+                }
+
+                dOff = writeSequence(src, anchor, sOff - anchor, dest, dOff, sOff - ref, matchLen);
+                sOff += matchLen;
+                anchor = sOff;
+            }
+        }
+
+        dOff = writeSequence(src, anchor, srcLen - anchor, dest, dOff, 0, 0);
+        return Arrays.copyOf(dest, dOff);
+    }
+
+    @Override
+    public byte[] decompress(final byte[] src) throws IOException {
+        if (src.length < 4) {
+            throw new IOException("malformed lz4 block, length: " + src.length);
+        }
+        final int destLen = readIntBigEndian(src);
+        if (destLen < 0 || (long) destLen > (long) (src.length - 4) * MAX_RATIO + 16) {
+            throw new IOException("malformed lz4 block, original length: " + destLen);
+        }
+        final byte[] dest = new byte[destLen];
+
+        int sOff = 4;
+        int dOff = 0;
+        while (sOff < src.length) {
+            final int token = src[sOff++] & 0xFF;
+
+            // 字面量
+            int literalLen = token >>> 4;
+            if (literalLen == RUN_MASK) {
+                int b;
+                do {
+                    checkRange(sOff + 1, src.length);
+                    b = src[sOff++] & 0xFF;
+                    literalLen += b;
+                }
+                while (b == 0xFF);
+            }
+            checkRange(sOff + literalLen, src.length);
+            checkRange(dOff + literalLen, destLen);
+            System.arraycopy(src, sOff, dest, dOff, literalLen);
+            sOff += literalLen;
+            dOff += literalLen;
+            if (sOff == src.length) {
+                break;
+            }
+
+            // 匹配
+            checkRange(sOff + 2, src.length);
+            final int offset = (src[sOff] & 0xFF) | ((src[sOff + 1] & 0xFF) << 8);
+            sOff += 2;
+            if (offset == 0 || offset > dOff) {
+                throw new IOException("malformed lz4 block, offset: " + offset);
+            }
+            int matchLen = token & ML_MASK;
+            if (matchLen == ML_MASK) {
+                int b;
+                do {
+                    checkRange(sOff + 1, src.length);
+                    b = src[sOff++] & 0xFF;
+                    matchLen += b;
+                }
+                while (b == 0xFF);
+            }
+            matchLen += MIN_MATCH;
+            checkRange(dOff + matchLen, destLen);
+            int ref = dOff - offset;
+            if (offset >= matchLen) {
+                System.arraycopy(dest, ref, dest, dOff, matchLen);
+                dOff += matchLen;
+            } else {
+                // 重叠复制，需逐字节进行
+                for (int i = 0; i < matchLen; i++) {
+                    dest[dOff++] = dest[ref++];
+                }
+            }
+        }
+
+        if (dOff != destLen) {
+            throw new IOException("malformed lz4 block, expect length: " + destLen + ", actual: " + dOff);
+        }
+        return dest;
+    }
+
+    /**
+     * 写入一个序列：token + 字面量长度 + 字面量 + 匹配偏移 + 匹配长度
+     * matchLen 为0时表示最后一个序列，只有字面量
+     */
+    private static int writeSequence(final byte[] src, final int literalOff, final int literalLen,
+        final byte[] dest, int dOff, final int offset, final int matchLen) {
+        final int tokenOff = dOff++;
+        int token;
+        if (literalLen >= RUN_MASK) {
+            token = RUN_MASK << 4;
+            dOff = writeLength(dest, dOff, literalLen - RUN_MASK);
+        } else {
+            token = literalLen << 4;
+        }
+        System.arraycopy(src, literalOff, dest, dOff, literalLen);
+        dOff += literalLen;
+
+        if (matchLen > 0) {
+            dest[dOff++] = (byte) offset;
+            dest[dOff++] = (byte) (offset >>> 8);
+            final int len = matchLen - MIN_MATCH;
+            if (len >= ML_MASK) {
+                token |= ML_MASK;
+                dOff = writeLength(dest, dOff, len - ML_MASK);
+            } else {
+                token |= len;
+            }
+        }
+        dest[tokenOff] = (byte) token;
+        return dOff;
+    }
+
+    private static int writeLength(final byte[] dest, int dOff, int len) {
+        while (len >= 0xFF) {
+            dest[dOff++] = (byte) 0xFF;
+            len -= 0xFF;
+        }
+        dest[dOff++] = (byte) len;
+        return dOff;
+    }
+
+    private static int hash(final int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int readInt(final byte[] buf, final int off) {
+        return (buf[off] & 0xFF) | ((buf[off + 1] & 0xFF) << 8) | ((buf[off + 2] & 0xFF) << 16) | ((buf[off + 3] & 0xFF) << 24);
+    }
+
+    private static int readIntBigEndian(final byte[] buf) {
+        return ((buf[0] & 0xFF) << 24) | ((buf[1] & 0xFF) << 16) | ((buf[2] & 0xFF) << 8) | (buf[3] & 0xFF);
+    }
+
+    private static void writeInt(final byte[] buf, final int off, final int value) {
+        buf[off] = (byte) (value >>> 24);
+        buf[off + 1] = (byte) (value >>> 16);
+        buf[off + 2] = (byte) (value >>> 8);
+        buf[off + 3] = (byte) value;
+    }
+
+    private static void checkRange(final int end, final int limit) throws IOException {
+        if (end > limit || end < 0) {
+            throw new IOException("malformed lz4 block");
+        }
+    }
+}
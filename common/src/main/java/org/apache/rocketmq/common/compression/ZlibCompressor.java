@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.common.compression;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * zlib 压缩器，输出与 {@link org.apache.rocketmq.common.UtilAll#compress(byte[], int)} 相同的 zlib 流
+ * 每个线程复用 Deflater / Inflater 及输出缓冲区，避免每条消息分配 native 内存
+ * 使用字典时，zlib 流头部记录字典编号（Adler32），解压时按编号在 {@link CompressionDictionary} 中查找
+ */
+public class ZlibCompressor implements Compressor {
+
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * 超过该大小的输出缓冲区不再缓存，避免个别大消息使线程长期占用大块内存
+     */
+    private static final int MAX_CACHED_BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * 按压缩级别（-1 ~ 9）缓存 Deflater，下标为 level + 1
+     */
+    private final ThreadLocal<Deflater[]> deflaterThreadLocal = new ThreadLocal<Deflater[]>() {
+        @Override
+        protected Deflater[] initialValue() {
+            return new Deflater[Deflater.BEST_COMPRESSION + 2];
+        }
+    };
+
+    private final ThreadLocal<Inflater> inflaterThreadLocal = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    private final ThreadLocal<byte[]> bufferThreadLocal = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    @Override
+    public byte[] compress(final byte[] src, final int level, final byte[] dictionary) throws IOException {
+        final Deflater deflater = this.getDeflater(level);
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(src);
+        deflater.finish();
+
+        byte[] buffer = this.bufferThreadLocal.get();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == buffer.length) {
+                buffer = this.growBuffer(buffer);
+            }
+            length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        return Arrays.copyOf(buffer, length);
+    }
+
+    @Override
+    public byte[] decompress(final byte[] src) throws IOException {
+        final Inflater inflater = this.inflaterThreadLocal.get();
+        inflater.reset();
+        inflater.setInput(src);
+
+        byte[] buffer = this.bufferThreadLocal.get();
+        int length = 0;
+        try {
+            while (!inflater.finished()) {
+                if (length == buffer.length) {
+                    buffer = this.growBuffer(buffer);
+                }
+                int len = inflater.inflate(buffer, length, buffer.length - length);
+                length += len;
+                if (len == 0) {
+                    if (inflater.needsDictionary()) {
+                        byte[] dictionary = CompressionDictionary.findById(inflater.getAdler());
+                        if (null == dictionary) {
+                            throw new IOException("compression dictionary not found, id: " + inflater.getAdler());
+                        }
+                        inflater.setDictionary(dictionary);
+                    } else if (inflater.needsInput()) {
+                        throw new IOException("unexpected end of zlib stream");
+                    }
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+        return Arrays.copyOf(buffer, length);
+    }
+
+    private Deflater getDeflater(final int level) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("illegal compression level: " + level);
+        }
+        final Deflater[] deflaters = this.deflaterThreadLocal.get();
+        Deflater deflater = deflaters[level + 1];
+        if (null == deflater) {
+            deflater = new Deflater(level);
+            deflaters[level + 1] = deflater;
+        }
+        return deflater;
+    }
+
+    private byte[] growBuffer(final byte[] buffer) {
+        byte[] newBuffer = Arrays.copyOf(buffer, buffer.length * 2);
+        if (newBuffer.length <= MAX_CACHED_BUFFER_SIZE) {
+            this.bufferThreadLocal.set(newBuffer);
+        }
+        return newBuffer;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.common.filter;
+
+/**
+ * 订阅表达式类型
+ */
+public class ExpressionType {
+
+    /**
+     * 按 tag 过滤，订阅表达式形如 TAG_A || TAG_B
+     */
+    public static final String TAG = "TAG";
+    /**
+     * 按消息属性过滤，订阅表达式为 SQL92 条件，形如 a > 5 AND region IN ('eu', 'us')
+     */
+    public static final String SQL92 = "SQL92";
+
+    public static boolean isTagType(final String type) {
+        return null == type || TAG.equals(type);
+    }
+
+    public static boolean isSql92Type(final String type) {
+        return SQL92.equals(type);
+    }
+}
@@ -16,6 +16,7 @@
  */
 package org.apache.rocketmq.common.filter;
 
+import org.apache.rocketmq.common.filter.expression.SqlExpression;
 import org.apache.rocketmq.common.protocol.heartbeat.SubscriptionData;
 
 import java.net.URL;
@@ -76,4 +77,31 @@ public class FilterAPI {
 
         return subscriptionData;
     }
+
+    /**
+     * 根据 Topic、订阅表达式 和 表达式类型 创建订阅数据
+     *
+     * @param consumerGroup 消费分组
+     * @param topic Topic
+     * @param subString 订阅表达式
+     * @param expressionType 表达式类型，为空时按 tag 解析
+     * @return 订阅数据
+     * @throws Exception 当解析订阅表达式时
+     */
+    public static SubscriptionData buildSubscriptionData(final String consumerGroup, String topic,
+        String subString, String expressionType) throws Exception {
+        if (ExpressionType.isTagType(expressionType)) {
+            return buildSubscriptionData(consumerGroup, topic, subString);
+        }
+        if (!ExpressionType.isSql92Type(expressionType)) {
+            throw new Exception("unsupported expression type: " + expressionType);
+        }
+        // 校验表达式语法
+        SqlExpression.compile(subString);
+        SubscriptionData subscriptionData = new SubscriptionData();
+        subscriptionData.setTopic(topic);
+        subscriptionData.setSubString(subString);
+        subscriptionData.setExpressionType(expressionType);
+        return subscriptionData;
+    }
 }
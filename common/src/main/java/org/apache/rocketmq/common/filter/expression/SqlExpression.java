@@ -0,0 +1,386 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.common.filter.expression;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 编译后的 SQL92 属性过滤表达式，不可变，可缓存后在多个线程中复用。
+ * 支持 AND / OR / NOT、比较（= &lt;&gt; != &gt; &gt;= &lt; &lt;=）、IN、BETWEEN、IS NULL，以及字符串、数字、TRUE / FALSE 常量。
+ * 属性不存在或无法比较时结果为未知，整个表达式结果为未知时视为不匹配。
+ */
+public class SqlExpression {
+
+    /**
+     * 表达式
+     */
+    private final String expression;
+    /**
+     * 语法树根节点
+     */
+    private final Node root;
+    /**
+     * 表达式成立时必须满足的属性取值
+     */
+    private final Map<String, Set<String>> equalityTerms;
+
+    SqlExpression(final String expression, final Node root) {
+        this.expression = expression;
+        this.root = root;
+        this.equalityTerms = Collections.unmodifiableMap(root.equalityTerms());
+    }
+
+    /**
+     * 编译表达式
+     *
+     * @param expression 表达式
+     * @return 编译后的表达式
+     * @throws IllegalArgumentException 当表达式语法错误时
+     */
+    public static SqlExpression compile(final String expression) {
+        if (null == expression || expression.trim().length() == 0) {
+            throw new IllegalArgumentException("empty expression");
+        }
+        return new SqlParser(expression).parse();
+    }
+
+    /**
+     * 消息属性是否匹配
+     *
+     * @param properties 消息属性
+     * @return 是否匹配
+     */
+    public boolean matches(final Map<String, String> properties) {
+        return Boolean.TRUE.equals(this.root.evaluate(properties != null ? properties : Collections.<String, String>emptyMap()));
+    }
+
+    /**
+     * 表达式成立的必要条件：属性 key 的值必须为集合中的一个。
+     * 只从 AND 连接的 = 与 IN 字符串常量条件中提取，可用于在读取消息前预先过滤。
+     *
+     * @return 属性 与 可选值集合
+     */
+    public Map<String, Set<String>> getEqualityTerms() {
+        return equalityTerms;
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    @Override
+    public String toString() {
+        return "SqlExpression [" + expression + "]";
+    }
+
+    /**
+     * 比较两个值，数字与字符串比较时将字符串转换为数字
+     *
+     * @return 比较结果，无法比较时为 null
+     */
+    static Integer compare(final Object left, final Object right) {
+        if (left instanceof Number || right instanceof Number) {
+            Number l = toNumber(left);
+            Number r = toNumber(right);
+            if (null == l || null == r) {
+                return null;
+            }
+            if (l instanceof Double || r instanceof Double) {
+                return Double.compare(l.doubleValue(), r.doubleValue());
+            }
+            return Long.compare(l.longValue(), r.longValue());
+        }
+        if (left instanceof Boolean || right instanceof Boolean) {
+            Boolean l = toBoolean(left);
+            Boolean r = toBoolean(right);
+            if (null == l || null == r) {
+                return null;
+            }
+            return l.compareTo(r);
+        }
+        return ((String) left).compareTo((String) right);
+    }
+
+    private static Number toNumber(final Object value) {
+        if (value instanceof Number) {
+            return (Number) value;
+        }
+        if (value instanceof String) {
+            String str = ((String) value).trim();
+            try {
+                return Long.parseLong(str);
+            } catch (NumberFormatException e) {
+                try {
+                    return Double.parseDouble(str);
+                } catch (NumberFormatException e2) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Boolean toBoolean(final Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if ("true".equalsIgnoreCase((String) value)) {
+            return Boolean.TRUE;
+        }
+        if ("false".equalsIgnoreCase((String) value)) {
+            return Boolean.FALSE;
+        }
+        return null;
+    }
+
+    /**
+     * 语法树节点。条件节点的计算结果为 Boolean，未知时为 null
+     */
+    abstract static class Node {
+
+        abstract Object evaluate(final Map<String, String> properties);
+
+        Map<String, Set<String>> equalityTerms() {
+            return new HashMap<>();
+        }
+    }
+
+    /**
+     * 常量
+     */
+    static class Constant extends Node {
+        private final Object value;
+
+        Constant(final Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object evaluate(final Map<String, String> properties) {
+            return value;
+        }
+    }
+
+    /**
+     * 消息属性
+     */
+    static class Property extends Node {
+        private final String name;
+
+        Property(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        Object evaluate(final Map<String, String> properties) {
+            return properties.get(name);
+        }
+    }
+
+    static class And extends Node {
+        private final Node left;
+        private final Node right;
+
+        And(final Node left, final Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(final Map<String, String> properties) {
+            Object l = left.evaluate(properties);
+            if (Boolean.FALSE.equals(l)) {
+                return Boolean.FALSE;
+            }
+            Object r = right.evaluate(properties);
+            if (Boolean.FALSE.equals(r)) {
+                return Boolean.FALSE;
+            }
+            return null == l || null == r ? null : Boolean.TRUE;
+        }
+
+        @Override
+        Map<String, Set<String>> equalityTerms() {
+            Map<String, Set<String>> terms = left.equalityTerms();
+            for (Map.Entry<String, Set<String>> entry : right.equalityTerms().entrySet()) {
+                Set<String> values = terms.get(entry.getKey());
+                if (null == values) {
+                    terms.put(entry.getKey(), entry.getValue());
+                } else {
+                    values.retainAll(entry.getValue());
+                }
+            }
+            return terms;
+        }
+    }
+
+    static class Or extends Node {
+        private final Node left;
+        private final Node right;
+
+        Or(final Node left, final Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(final Map<String, String> properties) {
+            Object l = left.evaluate(properties);
+            if (Boolean.TRUE.equals(l)) {
+                return Boolean.TRUE;
+            }
+            Object r = right.evaluate(properties);
+            if (Boolean.TRUE.equals(r)) {
+                return Boolean.TRUE;
+            }
+            return null == l || null == r ? null : Boolean.FALSE;
+        }
+    }
+
+    static class Not extends Node {
+        private final Node node;
+
+        Not(final Node node) {
+            this.node = node;
+        }
+
+        @Override
+        Object evaluate(final Map<String, String> properties) {
+            Object value = node.evaluate(properties);
+            return null == value ? null : !((Boolean) value);
+        }
+    }
+
+    /**
+     * 比较：= &lt;&gt; &gt; &gt;= &lt; &lt;=
+     */
+    static class Compare extends Node {
+        private final String operator;
+        private final Node left;
+        private final Node right;
+
+        Compare(final String operator, final Node left, final Node right) {
+            this.operator = "!=".equals(operator) ? "<>" : operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(final Map<String, String> properties) {
+            Object l = left.evaluate(properties);
+            Object r = right.evaluate(properties);
+            if (null == l || null == r) {
+                return null;
+            }
+            Integer result = compare(l, r);
+            if (null == result) {
+                return null;
+            }
+            switch (operator) {
+                case "=":
+                    return result == 0;
+                case "<>":
+                    return result != 0;
+                case ">":
+                    return result > 0;
+                case ">=":
+                    return result >= 0;
+                case "<":
+                    return result < 0;
+                default:
+                    return result <= 0;
+            }
+        }
+
+        @Override
+        Map<String, Set<String>> equalityTerms() {
+            Map<String, Set<String>> terms = new HashMap<>();
+            if ("=".equals(operator)) {
+                if (left instanceof Property && right instanceof Constant && ((Constant) right).value instanceof String) {
+                    terms.put(((Property) left).name, new HashSet<>(Collections.singleton((String) ((Constant) right).value)));
+                } else if (right instanceof Property && left instanceof Constant && ((Constant) left).value instanceof String) {
+                    terms.put(((Property) right).name, new HashSet<>(Collections.singleton((String) ((Constant) left).value)));
+                }
+            }
+            return terms;
+        }
+    }
+
+    /**
+     * IN (常量, ...)
+     */
+    static class In extends Node {
+        private final Node node;
+        private final List<Constant> values;
+
+        In(final Node node, final List<Constant> values) {
+            this.node = node;
+            this.values = values;
+        }
+
+        @Override
+        Object evaluate(final Map<String, String> properties) {
+            Object value = node.evaluate(properties);
+            if (null == value) {
+                return null;
+            }
+            for (Constant constant : values) {
+                if (constant.value != null) {
+                    Integer result = compare(value, constant.value);
+                    if (result != null && result == 0) {
+                        return Boolean.TRUE;
+                    }
+                }
+            }
+            return Boolean.FALSE;
+        }
+
+        @Override
+        Map<String, Set<String>> equalityTerms() {
+            Map<String, Set<String>> terms = new HashMap<>();
+            if (node instanceof Property) {
+                Set<String> set = new HashSet<>();
+                for (Constant constant : values) {
+                    if (!(constant.value instanceof String)) {
+                        return terms;
+                    }
+                    set.add((String) constant.value);
+                }
+                terms.put(((Property) node).name, set);
+            }
+            return terms;
+        }
+    }
+
+    static class IsNull extends Node {
+        private final Node node;
+
+        IsNull(final Node node) {
+            this.node = node;
+        }
+
+        @Override
+        Object evaluate(final Map<String, String> properties) {
+            return null == node.evaluate(properties);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.common.filter.expression;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SQL92 条件表达式的递归下降解析器
+ *
+ * <pre>
+ * or        := and ( OR and )*
+ * and       := not ( AND not )*
+ * not       := NOT not | predicate
+ * predicate := '(' or ')' | TRUE | FALSE
+ *            | operand ( compare operand | [NOT] IN '(' constant ( ',' constant )* ')'
+ *            | [NOT] BETWEEN operand AND operand | IS [NOT] NULL )
+ * operand   := property | constant
+ * </pre>
+ */
+class SqlParser {
+
+    private static final int EOF = 0;
+    private static final int IDENTIFIER = 1;
+    private static final int STRING = 2;
+    private static final int NUMBER = 3;
+    private static final int SYMBOL = 4;
+
+    private final String expression;
+    private int position = 0;
+    /**
+     * 当前记号类型
+     */
+    private int type;
+    /**
+     * 当前记号
+     */
+    private String token;
+
+    SqlParser(final String expression) {
+        this.expression = expression;
+    }
+
+    SqlExpression parse() {
+        this.next();
+        SqlExpression.Node root = this.parseOr();
+        if (this.type != EOF) {
+            throw this.error("unexpected token");
+        }
+        return new SqlExpression(this.expression, root);
+    }
+
+    private SqlExpression.Node parseOr() {
+        SqlExpression.Node node = this.parseAnd();
+        while (this.acceptKeyword("OR")) {
+            node = new SqlExpression.Or(node, this.parseAnd());
+        }
+        return node;
+    }
+
+    private SqlExpression.Node parseAnd() {
+        SqlExpression.Node node = this.parseNot();
+        while (this.acceptKeyword("AND")) {
+            node = new SqlExpression.And(node, this.parseNot());
+        }
+        return node;
+    }
+
+    private SqlExpression.Node parseNot() {
+        if (this.acceptKeyword("NOT")) {
+            return new SqlExpression.Not(this.parseNot());
+        }
+        return this.parsePredicate();
+    }
+
+    private SqlExpression.Node parsePredicate() {
+        if (this.acceptSymbol("(")) {
+            SqlExpression.Node node = this.parseOr();
+            this.expectSymbol(")");
+            return node;
+        }
+        if (this.isKeyword("TRUE") || this.isKeyword("FALSE")) {
+            SqlExpression.Node node = this.parseOperand();
+            if (!this.isComparison()) {
+                return node;
+            }
+            return this.parseComparison(node);
+        }
+        return this.parseComparison(this.parseOperand());
+    }
+
+    private SqlExpression.Node parseComparison(final SqlExpression.Node left) {
+        if (this.type == SYMBOL && this.isComparison()) {
+            String operator = this.token;
+            this.next();
+            return new SqlExpression.Compare(operator, left, this.parseOperand());
+        }
+        if (this.acceptKeyword("IS")) {
+            boolean not = this.acceptKeyword("NOT");
+            this.expectKeyword("NULL");
+            SqlExpression.Node node = new SqlExpression.IsNull(left);
+            return not ? new SqlExpression.Not(node) : node;
+        }
+        boolean not = this.acceptKeyword("NOT");
+        SqlExpression.Node node;
+        if (this.acceptKeyword("IN")) {
+            this.expectSymbol("(");
+            List<SqlExpression.Constant> values = new ArrayList<>();
+            do {
+                SqlExpression.Node value = this.parseOperand();
+                if (!(value instanceof SqlExpression.Constant)) {
+                    throw this.error("IN only supports constants");
+                }
+                values.add((SqlExpression.Constant) value);
+            } while (this.acceptSymbol(","));
+            this.expectSymbol(")");
+            node = new SqlExpression.In(left, values);
+        } else if (this.acceptKeyword("BETWEEN")) {
+            SqlExpression.Node low = this.parseOperand();
+            this.expectKeyword("AND");
+            SqlExpression.Node high = this.parseOperand();
+            node = new SqlExpression.And(new SqlExpression.Compare(">=", left, low), new SqlExpression.Compare("<=", left, high));
+        } else {
+            throw this.error("comparison expected");
+        }
+        return not ? new SqlExpression.Not(node) : node;
+    }
+
+    private SqlExpression.Node parseOperand() {
+        SqlExpression.Node node;
+        switch (this.type) {
+            case STRING:
+                node = new SqlExpression.Constant(this.token);
+                break;
+            case NUMBER:
+                try {
+                    if (this.token.indexOf('.') >= 0 || this.token.indexOf('e') >= 0 || this.token.indexOf('E') >= 0) {
+                        node = new SqlExpression.Constant(Double.parseDouble(this.token));
+                    } else {
+                        node = new SqlExpression.Constant(Long.parseLong(this.token));
+                    }
+                } catch (NumberFormatException e) {
+                    throw this.error("illegal number");
+                }
+                break;
+            case IDENTIFIER:
+                String upper = this.token.toUpperCase();
+                if ("TRUE".equals(upper)) {
+                    node = new SqlExpression.Constant(Boolean.TRUE);
+                } else if ("FALSE".equals(upper)) {
+                    node = new SqlExpression.Constant(Boolean.FALSE);
+                } else if ("NULL".equals(upper)) {
+                    node = new SqlExpression.Constant(null);
+                } else if ("AND".equals(upper) || "OR".equals(upper) || "NOT".equals(upper) || "IN".equals(upper)
+                    || "BETWEEN".equals(upper) || "IS".equals(upper)) {
+                    throw this.error("operand expected");
+                } else {
+                    node = new SqlExpression.Property(this.token);
+                }
+                break;
+            default:
+                throw this.error("operand expected");
+        }
+        this.next();
+        return node;
+    }
+
+    private boolean isComparison() {
+        return this.type == SYMBOL && !"(".equals(this.token) && !")".equals(this.token) && !",".equals(this.token);
+    }
+
+    private boolean isKeyword(final String keyword) {
+        return this.type == IDENTIFIER && keyword.equalsIgnoreCase(this.token);
+    }
+
+    private boolean acceptKeyword(final String keyword) {
+        if (this.isKeyword(keyword)) {
+            this.next();
+            return true;
+        }
+        return false;
+    }
+
+    private void expectKeyword(final String keyword) {
+        if (!this.acceptKeyword(keyword)) {
+            throw this.error(keyword + " expected");
+        }
+    }
+
+    private boolean acceptSymbol(final String symbol) {
+        if (this.type == SYMBOL && symbol.equals(this.token)) {
+            this.next();
+            return true;
+        }
+        return false;
+    }
+
+    private void expectSymbol(final String symbol) {
+        if (!this.acceptSymbol(symbol)) {
+            throw this.error(symbol + " expected");
+        }
+    }
+
+    private IllegalArgumentException error(final String message) {
+        return new IllegalArgumentException(message + " at position " + this.position + ": " + this.expression);
+    }
+
+    /**
+     * 读取下一个记号
+     */
+    private void next() {
+        final String expr = this.expression;
+        while (this.position < expr.length() && Character.isWhitespace(expr.charAt(this.position))) {
+            this.position++;
+        }
+        if (this.position >= expr.length()) {
+            this.type = EOF;
+            this.token = null;
+            return;
+        }
+        final int start = this.position;
+        char c = expr.charAt(this.position);
+        if (Character.isLetter(c) || c == '_' || c == '$') {
+            while (this.position < expr.length() && isIdentifierPart(expr.charAt(this.position))) {
+                this.position++;
+            }
+            this.type = IDENTIFIER;
+            this.token = expr.substring(start, this.position);
+        } else if (c == '\'') {
+            StringBuilder sb = new StringBuilder();
+            this.position++;
+            while (true) {
+                if (this.position >= expr.length()) {
+                    throw this.error("unterminated string");
+                }
+                char ch = expr.charAt(this.position++);
+                if (ch == '\'') {
+                    // 两个单引号表示一个单引号
+                    if (this.position < expr.length() && expr.charAt(this.position) == '\'') {
+                        this.position++;
+                    } else {
+                        break;
+                    }
+                }
+                sb.append(ch);
+            }
+            this.type = STRING;
+            this.token = sb.toString();
+        } else if (Character.isDigit(c) || ((c == '-' || c == '.') && this.position + 1 < expr.length()
+            && Character.isDigit(expr.charAt(this.position + 1)))) {
+            this.position++;
+            while (this.position < expr.length() && isNumberPart(expr.charAt(this.position), expr.charAt(this.position - 1))) {
+                this.position++;
+            }
+            this.type = NUMBER;
+            this.token = expr.substring(start, this.position);
+        } else {
+            this.type = SYMBOL;
+            if (this.position + 1 < expr.length()) {
+                String two = expr.substring(this.position, this.position + 2);
+                if ("<>".equals(two) || "!=".equals(two) || ">=".equals(two) || "<=".equals(two)) {
+                    this.position += 2;
+                    this.token = two;
+                    return;
+                }
+            }
+            if ("=<>(),".indexOf(c) < 0) {
+                throw this.error("illegal character '" + c + "'");
+            }
+            this.position++;
+            this.token = String.valueOf(c);
+        }
+    }
+
+    private static boolean isIdentifierPart(final char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '.';
+    }
+
+    private static boolean isNumberPart(final char c, final char previous) {
+        return Character.isDigit(c) || c == '.' || c == 'e' || c == 'E'
+            || ((c == '-' || c == '+') && (previous == 'e' || previous == 'E'));
+    }
+}
@@ -17,7 +17,11 @@
 package org.apache.rocketmq.common.message;
 
 import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.compression.CompressorFactory;
+import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.common.sysflag.MessageSysFlag;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
@@ -35,6 +39,7 @@ import java.util.Map;
  * 消息解析器
  */
 public class MessageDecoder {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.COMMON_LOGGER_NAME);
 
     /**
      * 消息编号长度
@@ -43,9 +48,16 @@ public class MessageDecoder {
 
     public final static Charset CHARSET_UTF8 = Charset.forName("UTF-8");
     public final static int MESSAGE_MAGIC_CODE_POSTION = 4;
+    public final static int MESSAGE_QUEUE_ID_POSTION = 12;
     public final static int MESSAGE_FLAG_POSTION = 16;
+    public final static int MESSAGE_QUEUE_OFFSET_POSTION = 20;
     public final static int MESSAGE_PHYSIC_OFFSET_POSTION = 28;
+    public final static int MESSAGE_SYS_FLAG_POSTION = 36;
+    public final static int MESSAGE_BORN_HOST_POSTION = 48;
     public final static int MESSAGE_STORE_TIMESTAMP_POSTION = 56;
+    public final static int MESSAGE_STORE_HOST_POSTION = 64;
+    public final static int MESSAGE_RECONSUME_TIMES_POSTION = 72;
+    public final static int MESSAGE_BODY_LENGTH_POSTION = 84;
     public final static int MESSAGE_MAGIC_CODE = 0xAABBCCDD ^ 1880681586 + 8;
     public static final char NAME_VALUE_SEPARATOR = 1;
     public static final char PROPERTY_SEPARATOR = 2;
@@ -118,7 +130,7 @@ public class MessageDecoder {
         int sysFlag = messageExt.getSysFlag();
         byte[] newBody = messageExt.getBody();
         if (needCompress && (sysFlag & MessageSysFlag.COMPRESSED_FLAG) == MessageSysFlag.COMPRESSED_FLAG) {
-            newBody = UtilAll.compress(body, 5);
+            newBody = CompressorFactory.getCompressor(sysFlag).compress(body, 5, null);
         }
         int bodyLength = newBody.length;
         int storeSize = messageExt.getStoreSize();
@@ -300,7 +312,7 @@ public class MessageDecoder {
 
                     // uncompress body
                     if (deCompressBody && (sysFlag & MessageSysFlag.COMPRESSED_FLAG) == MessageSysFlag.COMPRESSED_FLAG) {
-                        body = UtilAll.uncompress(body);
+                        body = CompressorFactory.getCompressor(sysFlag).decompress(body);
                     }
 
                     msgExt.setBody(body);
@@ -350,7 +362,15 @@ public class MessageDecoder {
         while (byteBuffer.hasRemaining()) {
             MessageExt msgExt = clientDecode(byteBuffer, readBody);
             if (null != msgExt) {
-                msgExts.add(msgExt);
+                if (readBody && (msgExt.getSysFlag() & MessageSysFlag.INNER_BATCH_FLAG) == MessageSysFlag.INNER_BATCH_FLAG) {
+                    List<MessageExt> innerMsgExts = decodeInnerBatch(msgExt);
+                    if (null == innerMsgExts) {
+                        break;
+                    }
+                    msgExts.addAll(innerMsgExts);
+                } else {
+                    msgExts.add(msgExt);
+                }
             } else {
                 break;
             }
@@ -358,6 +378,260 @@ public class MessageDecoder {
         return msgExts;
     }
 
+    /**
+     * 展开批量记录：body（已解压）为 {@link #encodeMessages(List)} 编码的多条消息，
+     * 每条消息继承记录的 topic、队列、存储信息，队列位置依次递增
+     *
+     * @param batch 批量记录
+     * @return 消息列表，记录损坏时返回 null
+     */
+    public static List<MessageExt> decodeInnerBatch(final MessageExt batch) {
+        try {
+            List<Message> messages = decodeMessages(ByteBuffer.wrap(batch.getBody()));
+            List<MessageExt> msgExts = new ArrayList<MessageExt>(messages.size());
+            final int sysFlag = MessageSysFlag.clearCompressedFlag(batch.getSysFlag()) & ~MessageSysFlag.INNER_BATCH_FLAG;
+            for (int i = 0; i < messages.size(); i++) {
+                Message message = messages.get(i);
+                MessageExt msgExt;
+                if (batch instanceof MessageClientExt) {
+                    msgExt = new MessageClientExt();
+                    ((MessageClientExt) msgExt).setOffsetMsgId(((MessageClientExt) batch).getOffsetMsgId());
+                } else {
+                    msgExt = new MessageExt();
+                    msgExt.setMsgId(batch.getMsgId());
+                }
+                msgExt.setTopic(batch.getTopic());
+                msgExt.setFlag(message.getFlag());
+                msgExt.setBody(message.getBody());
+                msgExt.setProperties(message.getProperties());
+                msgExt.setQueueId(batch.getQueueId());
+                msgExt.setStoreSize(batch.getStoreSize());
+                msgExt.setBodyCRC(batch.getBodyCRC());
+                msgExt.setQueueOffset(batch.getQueueOffset() + i);
+                msgExt.setCommitLogOffset(batch.getCommitLogOffset());
+                msgExt.setSysFlag(sysFlag);
+                msgExt.setBornTimestamp(batch.getBornTimestamp());
+                msgExt.setBornHost(batch.getBornHost());
+                msgExt.setStoreTimestamp(batch.getStoreTimestamp());
+                msgExt.setStoreHost(batch.getStoreHost());
+                msgExt.setReconsumeTimes(batch.getReconsumeTimes());
+                msgExt.setPreparedTransactionOffset(batch.getPreparedTransactionOffset());
+                msgExts.add(msgExt);
+            }
+            return msgExts;
+        } catch (Exception e) {
+            log.error("decode inner batch record error, topic: " + batch.getTopic() + ", queueId: " + batch.getQueueId()
+                + ", queueOffset: " + batch.getQueueOffset() + ", commitLogOffset: " + batch.getCommitLogOffset(), e);
+            return null;
+        }
+    }
+
+    /**
+     * 编码批量消息中的单条消息，只包含 flag、body、properties，其余字段由 broker 存储时填充
+     *
+     * @param message 消息
+     * @return 编码后字节
+     */
+    public static byte[] encodeMessage(Message message) {
+        byte[] body = message.getBody();
+        int bodyLen = body == null ? 0 : body.length;
+        String properties = messageProperties2String(message.getProperties());
+        byte[] propertiesBytes = properties.getBytes(CHARSET_UTF8);
+        // properties length must not be more than Short.MAX_VALUE
+        short propertiesLength = (short) propertiesBytes.length;
+        int storeSize = 4 // 1 TOTALSIZE
+            + 4 // 2 MAGICCODE
+            + 4 // 3 BODYCRC
+            + 4 // 4 FLAG
+            + 4 + bodyLen // 5 BODY
+            + 2 + propertiesLength; // 6 properties
+        ByteBuffer byteBuffer = ByteBuffer.allocate(storeSize);
+        // 1 TOTALSIZE
+        byteBuffer.putInt(storeSize);
+
+        // 2 MAGICCODE
+        byteBuffer.putInt(0);
+
+        // 3 BODYCRC
+        byteBuffer.putInt(0);
+
+        // 4 FLAG
+        byteBuffer.putInt(message.getFlag());
+
+        // 5 BODY
+        byteBuffer.putInt(bodyLen);
+        if (bodyLen > 0) {
+            byteBuffer.put(body);
+        }
+
+        // 6 properties
+        byteBuffer.putShort(propertiesLength);
+        byteBuffer.put(propertiesBytes);
+
+        return byteBuffer.array();
+    }
+
+    /**
+     * 按 CommitLog 存储格式编码单条消息（store record）
+     * broker 只需填充 queue id、queue offset、physical offset、born host、store timestamp、store host 等字段后即可追加到 CommitLog
+     *
+     * @param topic topic
+     * @param queueId 队列编号
+     * @param flag 消息flag
+     * @param sysFlag 系统flag
+     * @param bornTimestamp 产生时间
+     * @param reconsumeTimes 重新消费次数
+     * @param body 消息内容（已压缩时为压缩后内容）
+     * @param properties 消息属性字符串
+     * @return 编码后字节
+     */
+    public static byte[] encodeStoreRecord(final String topic, final int queueId, final int flag, final int sysFlag,
+        final long bornTimestamp, final int reconsumeTimes, final byte[] body, final String properties) {
+        final byte[] topicData = topic.getBytes(CHARSET_UTF8);
+        final byte[] propertiesData = properties == null ? null : properties.getBytes(CHARSET_UTF8);
+        final int bodyLength = body == null ? 0 : body.length;
+        final int topicLength = topicData.length;
+        final int propertiesLength = propertiesData == null ? 0 : propertiesData.length;
+        if (topicLength > Byte.MAX_VALUE || propertiesLength > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("topic or properties too long, can not encode store record");
+        }
+        final int storeSize = 4 // 1 TOTALSIZE
+            + 4 // 2 MAGICCODE
+            + 4 // 3 BODYCRC
+            + 4 // 4 QUEUEID
+            + 4 // 5 FLAG
+            + 8 // 6 QUEUEOFFSET
+            + 8 // 7 PHYSICALOFFSET
+            + 4 // 8 SYSFLAG
+            + 8 // 9 BORNTIMESTAMP
+            + 8 // 10 BORNHOST
+            + 8 // 11 STORETIMESTAMP
+            + 8 // 12 STOREHOSTADDRESS
+            + 4 // 13 RECONSUMETIMES
+            + 8 // 14 Prepared Transaction Offset
+            + 4 + bodyLength // 15 BODY
+            + 1 + topicLength // 16 TOPIC
+            + 2 + propertiesLength; // 17 propertiesLength
+        ByteBuffer byteBuffer = ByteBuffer.allocate(storeSize);
+        // 1 TOTALSIZE
+        byteBuffer.putInt(storeSize);
+        // 2 MAGICCODE
+        byteBuffer.putInt(MESSAGE_MAGIC_CODE);
+        // 3 BODYCRC
+        byteBuffer.putInt(bodyLength > 0 ? UtilAll.crc32(body) : 0);
+        // 4 QUEUEID
+        byteBuffer.putInt(queueId);
+        // 5 FLAG
+        byteBuffer.putInt(flag);
+        // 6 QUEUEOFFSET, 7 PHYSICALOFFSET, broker 填充
+        byteBuffer.putLong(0);
+        byteBuffer.putLong(0);
+        // 8 SYSFLAG
+        byteBuffer.putInt(sysFlag);
+        // 9 BORNTIMESTAMP
+        byteBuffer.putLong(bornTimestamp);
+        // 10 BORNHOST, 11 STORETIMESTAMP, 12 STOREHOSTADDRESS, broker 填充
+        byteBuffer.putLong(0);
+        byteBuffer.putLong(0);
+        byteBuffer.putLong(0);
+        // 13 RECONSUMETIMES
+        byteBuffer.putInt(reconsumeTimes);
+        // 14 Prepared Transaction Offset
+        byteBuffer.putLong(0);
+        // 15 BODY
+        byteBuffer.putInt(bodyLength);
+        if (bodyLength > 0) {
+            byteBuffer.put(body);
+        }
+        // 16 TOPIC
+        byteBuffer.put((byte) topicLength);
+        byteBuffer.put(topicData);
+        // 17 properties
+        byteBuffer.putShort((short) propertiesLength);
+        if (propertiesLength > 0) {
+            byteBuffer.put(propertiesData);
+        }
+        return byteBuffer.array();
+    }
+
+    /**
+     * 读取 store record 中的消息内容
+     *
+     * @param record {@link #encodeStoreRecord(String, int, int, int, long, int, byte[], String)} 编码后字节
+     * @return 消息内容
+     */
+    public static byte[] decodeStoreRecordBody(final byte[] record) {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(record);
+        int bodyLength = byteBuffer.getInt(MESSAGE_BODY_LENGTH_POSTION);
+        byte[] body = new byte[bodyLength];
+        byteBuffer.position(MESSAGE_BODY_LENGTH_POSTION + 4);
+        byteBuffer.get(body);
+        return body;
+    }
+
+    /**
+     * 编码批量消息，将每条消息按 {@link #encodeMessage(Message)} 的格式依次拼接
+     *
+     * @param messages 消息集合
+     * @return 编码后字节
+     */
+    public static byte[] encodeMessages(List<Message> messages) {
+        List<byte[]> encodedMessages = new ArrayList<byte[]>(messages.size());
+        int allSize = 0;
+        for (Message message : messages) {
+            byte[] tmp = encodeMessage(message);
+            encodedMessages.add(tmp);
+            allSize += tmp.length;
+        }
+        byte[] allBytes = new byte[allSize];
+        int pos = 0;
+        for (byte[] bytes : encodedMessages) {
+            System.arraycopy(bytes, 0, allBytes, pos, bytes.length);
+            pos += bytes.length;
+        }
+        return allBytes;
+    }
+
+    public static Message decodeMessage(ByteBuffer byteBuffer) throws Exception {
+        Message message = new Message();
+
+        // 1 TOTALSIZE
+        byteBuffer.getInt();
+
+        // 2 MAGICCODE
+        byteBuffer.getInt();
+
+        // 3 BODYCRC
+        byteBuffer.getInt();
+
+        // 4 FLAG
+        int flag = byteBuffer.getInt();
+        message.setFlag(flag);
+
+        // 5 BODY
+        int bodyLen = byteBuffer.getInt();
+        byte[] body = new byte[bodyLen];
+        byteBuffer.get(body);
+        message.setBody(body);
+
+        // 6 properties
+        short propertiesLen = byteBuffer.getShort();
+        byte[] propertiesBytes = new byte[propertiesLen];
+        byteBuffer.get(propertiesBytes);
+        message.setProperties(string2messageProperties(new String(propertiesBytes, CHARSET_UTF8)));
+
+        return message;
+    }
+
+    public static List<Message> decodeMessages(ByteBuffer byteBuffer) throws Exception {
+        List<Message> msgs = new ArrayList<Message>();
+        while (byteBuffer.hasRemaining()) {
+            Message msg = decodeMessage(byteBuffer);
+            msgs.add(msg);
+        }
+        return msgs;
+    }
+
     public static String messageProperties2String(Map<String, String> properties) {
         StringBuilder sb = new StringBuilder();
         if (properties != null) {
@@ -374,6 +648,33 @@ public class MessageDecoder {
         return sb.toString();
     }
 
+    /**
+     * 只解析存储消息的属性，不读取消息体。不改变 byteBuffer 的 position
+     *
+     * @param byteBuffer 存储消息，从 position 开始
+     * @return 消息属性，解析失败时为 null
+     */
+    public static Map<String, String> decodeProperties(final ByteBuffer byteBuffer) {
+        try {
+            final int start = byteBuffer.position();
+            final int bodyLen = byteBuffer.getInt(start + MESSAGE_BODY_LENGTH_POSTION);
+            final int topicLenPosition = start + MESSAGE_BODY_LENGTH_POSTION + 4 + bodyLen;
+            final byte topicLen = byteBuffer.get(topicLenPosition);
+            final int propertiesLenPosition = topicLenPosition + 1 + topicLen;
+            final short propertiesLength = byteBuffer.getShort(propertiesLenPosition);
+            if (propertiesLength <= 0) {
+                return new HashMap<String, String>();
+            }
+            byte[] properties = new byte[propertiesLength];
+            ByteBuffer slice = byteBuffer.duplicate();
+            slice.position(propertiesLenPosition + 2);
+            slice.get(properties);
+            return string2messageProperties(new String(properties, CHARSET_UTF8));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
     public static Map<String, String> string2messageProperties(final String properties) {
         Map<String, String> map = new HashMap<String, String>();
         if (properties != null) {
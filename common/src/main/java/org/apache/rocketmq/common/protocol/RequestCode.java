@@ -185,4 +185,26 @@ public class RequestCode {
      * get config from name server
      */
     public static final int GET_NAMESRV_CONFIG = 319;
+
+    /**
+     * 发送 批量消息
+     * Producer => Broker
+     * 请求：
+     *      - header：{@link org.apache.rocketmq.common.protocol.header.SendMessageRequestHeaderV2}
+     *      - body：{@link org.apache.rocketmq.common.message.MessageDecoder#encodeMessages(java.util.List)}
+     * 响应：
+     *      - header: {@link org.apache.rocketmq.common.protocol.header.SendMessageResponseHeader}，msgId 为逗号拼接
+     */
+    public static final int SEND_BATCH_MESSAGE = 320;
+
+    /**
+     * 发送 CommitLog 存储格式的消息，broker 填充 broker 字段后直接追加，无需重新编码
+     * Producer => Broker
+     * 请求：
+     *      - header：{@link org.apache.rocketmq.common.protocol.header.SendMessageRequestHeaderV2}
+     *      - body：{@link org.apache.rocketmq.common.message.MessageDecoder#encodeStoreRecord(String, int, int, int, long, int, byte[], String)}
+     * 响应：
+     *      - header: {@link org.apache.rocketmq.common.protocol.header.SendMessageResponseHeader}
+     */
+    public static final int SEND_MESSAGE_STORE_RECORD = 321;
 }
@@ -74,6 +74,11 @@ public class PullMessageRequestHeader implements CommandCustomHeader {
      */
     @CFNullable
     private String subscription;
+    /**
+     * 订阅表达式类型，为空时按 tag 过滤
+     */
+    @CFNullable
+    private String expressionType;
     /**
      * 订阅版本号
      */
@@ -156,6 +161,14 @@ public class PullMessageRequestHeader implements CommandCustomHeader {
         this.subscription = subscription;
     }
 
+    public String getExpressionType() {
+        return expressionType;
+    }
+
+    public void setExpressionType(String expressionType) {
+        this.expressionType = expressionType;
+    }
+
     public Long getSubVersion() {
         return subVersion;
     }
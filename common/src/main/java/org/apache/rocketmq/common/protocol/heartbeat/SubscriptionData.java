@@ -23,6 +23,7 @@ package org.apache.rocketmq.common.protocol.heartbeat;
 import com.alibaba.fastjson.annotation.JSONField;
 import java.util.HashSet;
 import java.util.Set;
+import org.apache.rocketmq.common.filter.ExpressionType;
 
 /**
  * 订阅数据。
@@ -46,6 +47,10 @@ public class SubscriptionData implements Comparable<SubscriptionData> {
      * 订阅表达式
      */
     private String subString;
+    /**
+     * 订阅表达式类型，见 {@link ExpressionType}
+     */
+    private String expressionType = ExpressionType.TAG;
     /**
      * 标签集合
      */
@@ -96,6 +101,14 @@ public class SubscriptionData implements Comparable<SubscriptionData> {
         this.subString = subString;
     }
 
+    public String getExpressionType() {
+        return expressionType;
+    }
+
+    public void setExpressionType(String expressionType) {
+        this.expressionType = expressionType;
+    }
+
     public Set<String> getTagsSet() {
         return tagsSet;
     }
@@ -134,6 +147,7 @@ public class SubscriptionData implements Comparable<SubscriptionData> {
         int result = 1;
         result = prime * result + (classFilterMode ? 1231 : 1237);
         result = prime * result + ((codeSet == null) ? 0 : codeSet.hashCode());
+        result = prime * result + ((expressionType == null) ? 0 : expressionType.hashCode());
         result = prime * result + ((subString == null) ? 0 : subString.hashCode());
         result = prime * result + ((tagsSet == null) ? 0 : tagsSet.hashCode());
         result = prime * result + ((topic == null) ? 0 : topic.hashCode());
@@ -156,6 +170,11 @@ public class SubscriptionData implements Comparable<SubscriptionData> {
                 return false;
         } else if (!codeSet.equals(other.codeSet))
             return false;
+        if (expressionType == null) {
+            if (other.expressionType != null)
+                return false;
+        } else if (!expressionType.equals(other.expressionType))
+            return false;
         if (subString == null) {
             if (other.subString != null)
                 return false;
@@ -179,7 +198,7 @@ public class SubscriptionData implements Comparable<SubscriptionData> {
     @Override
     public String toString() {
         return "SubscriptionData [classFilterMode=" + classFilterMode + ", topic=" + topic + ", subString="
-            + subString + ", tagsSet=" + tagsSet + ", codeSet=" + codeSet + ", subVersion=" + subVersion
+            + subString + ", expressionType=" + expressionType + ", tagsSet=" + tagsSet + ", codeSet=" + codeSet + ", subVersion=" + subVersion
             + "]";
     }
 
@@ -41,6 +41,19 @@ public class MessageSysFlag {
      * 事务类型 - 回滚
      */
     public final static int TRANSACTION_ROLLBACK_TYPE = 0x3 << 2;
+    /**
+     * 标记位 - 批量记录：一条 CommitLog 记录包含多条消息（body 为批量编码后的内容，通常整体压缩），
+     * 数量为属性 {@link org.apache.rocketmq.common.message.MessageConst#PROPERTY_INNER_NUM}，依次占用多个队列位置
+     */
+    public final static int INNER_BATCH_FLAG = 0x1 << 4;
+    /**
+     * 压缩类型 - 标记位。只在设置了 {@link #COMPRESSED_FLAG} 时有效，为0表示 zlib（兼容旧版本）
+     */
+    public final static int COMPRESSION_TYPE_COMPARATOR = 0x7 << 8;
+    /**
+     * 压缩类型 - LZ4
+     */
+    public final static int COMPRESSION_LZ4_TYPE = 0x1 << 8;
 
     public static int getTransactionValue(final int flag) {
         return flag & TRANSACTION_ROLLBACK_TYPE;
@@ -51,6 +64,6 @@ public class MessageSysFlag {
     }
 
     public static int clearCompressedFlag(final int flag) {
-        return flag & (~COMPRESSED_FLAG);
+        return flag & (~(COMPRESSED_FLAG | COMPRESSION_TYPE_COMPARATOR));
     }
 }
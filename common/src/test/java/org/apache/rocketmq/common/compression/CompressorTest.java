@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.common.compression;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.sysflag.MessageSysFlag;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class CompressorTest {
+
+    private static byte[] buildBody(final int size) {
+        StringBuilder sb = new StringBuilder();
+        Random random = new Random(size);
+        while (sb.length() < size) {
+            sb.append("{\"orderId\":").append(random.nextInt(1000)).append(",\"status\":\"PAID\"}");
+        }
+        return sb.substring(0, size).getBytes();
+    }
+
+    @Test
+    public void testZlibCompatibleWithUtilAll() throws Exception {
+        byte[] body = buildBody(10 * 1024);
+        Compressor compressor = CompressorFactory.getCompressor(CompressionType.ZLIB);
+        byte[] compressed = compressor.compress(body, 5, null);
+        assertThat(UtilAll.uncompress(compressed)).isEqualTo(body);
+        assertThat(compressor.decompress(UtilAll.compress(body, 5))).isEqualTo(body);
+    }
+
+    @Test
+    public void testZlibDictionary() throws Exception {
+        byte[] dictionary = "{\"orderId\":,\"status\":\"PAID\"}".getBytes();
+        CompressionDictionary.register("FooBar", dictionary);
+        try {
+            byte[] body = buildBody(100);
+            Compressor compressor = CompressorFactory.getCompressor(CompressionType.ZLIB);
+            byte[] compressed = compressor.compress(body, 5, CompressionDictionary.findByTopic("FooBar"));
+            assertThat(compressed.length).isLessThan(compressor.compress(body, 5, null).length);
+            assertThat(compressor.decompress(compressed)).isEqualTo(body);
+        } finally {
+            CompressionDictionary.unregister("FooBar");
+        }
+        assertThat(CompressionDictionary.findByTopic("FooBar")).isNull();
+    }
+
+    @Test
+    public void testLz4RoundTrip() throws Exception {
+        Compressor compressor = CompressorFactory.getCompressor(CompressionType.LZ4);
+        for (int size : new int[] {0, 1, 12, 13, 100, 4096, 1024 * 1024}) {
+            byte[] body = buildBody(size);
+            byte[] compressed = compressor.compress(body, 5, null);
+            assertThat(compressor.decompress(compressed)).isEqualTo(body);
+            if (size >= 4096) {
+                assertThat(compressed.length).isLessThan(size / 2);
+            }
+        }
+
+        // 不可压缩内容、长串重复内容
+        byte[] random = new byte[64 * 1024];
+        new Random(0).nextBytes(random);
+        assertThat(compressor.decompress(compressor.compress(random, 5, null))).isEqualTo(random);
+        byte[] zeros = new byte[64 * 1024];
+        assertThat(compressor.decompress(compressor.compress(zeros, 5, null))).isEqualTo(zeros);
+    }
+
+    @Test
+    public void testLz4Malformed() throws Exception {
+        Compressor compressor = CompressorFactory.getCompressor(CompressionType.LZ4);
+        byte[] compressed = compressor.compress(buildBody(4096), 5, null);
+        try {
+            compressor.decompress(Arrays.copyOf(compressed, compressed.length / 2));
+            fail("expect IOException");
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Test
+    public void testCompressionType() {
+        int sysFlag = MessageSysFlag.COMPRESSED_FLAG | CompressionType.LZ4.getCompressionFlag();
+        assertThat(CompressionType.findBySysFlag(sysFlag)).isEqualTo(CompressionType.LZ4);
+        assertThat(CompressionType.findBySysFlag(MessageSysFlag.COMPRESSED_FLAG)).isEqualTo(CompressionType.ZLIB);
+        assertThat(CompressionType.of("lz4")).isEqualTo(CompressionType.LZ4);
+        assertThat(MessageSysFlag.clearCompressedFlag(sysFlag)).isEqualTo(0);
+    }
+}
@@ -23,6 +23,7 @@ import org.apache.rocketmq.common.protocol.heartbeat.SubscriptionData;
 import org.junit.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
 
 public class FilterAPITest {
     private String topic = "FooBar";
@@ -42,4 +43,18 @@ public class FilterAPITest {
         }
         assertThat(subscriptionData.getTagsSet()).isEqualTo(tagSet);
     }
+
+    @Test
+    public void testBuildSql92SubscriptionData() throws Exception {
+        SubscriptionData subscriptionData =
+            FilterAPI.buildSubscriptionData(group, topic, "a > 5 AND region IN ('eu', 'us')", ExpressionType.SQL92);
+        assertThat(subscriptionData.getExpressionType()).isEqualTo(ExpressionType.SQL92);
+        assertThat(subscriptionData.getTagsSet()).isEmpty();
+
+        try {
+            FilterAPI.buildSubscriptionData(group, topic, "a >", ExpressionType.SQL92);
+            fail("illegal expression should be rejected");
+        } catch (IllegalArgumentException ignored) {
+        }
+    }
 }
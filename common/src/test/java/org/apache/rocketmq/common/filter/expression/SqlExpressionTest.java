@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.common.filter.expression;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class SqlExpressionTest {
+
+    @Test
+    public void testMatches() {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("a", "10");
+        properties.put("region", "eu");
+        properties.put("ratio", "0.5");
+        properties.put("flag", "true");
+
+        assertThat(SqlExpression.compile("a > 5 AND region IN ('eu', 'us')").matches(properties)).isTrue();
+        assertThat(SqlExpression.compile("a > 5 AND region NOT IN ('eu', 'us')").matches(properties)).isFalse();
+        assertThat(SqlExpression.compile("a BETWEEN 1 AND 10 and ratio < 1.0").matches(properties)).isTrue();
+        assertThat(SqlExpression.compile("a <> 10 OR (region = 'eu' AND flag = TRUE)").matches(properties)).isTrue();
+        assertThat(SqlExpression.compile("NOT (a >= 10)").matches(properties)).isFalse();
+        assertThat(SqlExpression.compile("missing IS NULL AND a IS NOT NULL").matches(properties)).isTrue();
+        assertThat(SqlExpression.compile("region = 'it''s'").matches(properties)).isFalse();
+        assertThat(SqlExpression.compile("TRUE").matches(properties)).isTrue();
+    }
+
+    @Test
+    public void testUnknown() {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("region", "eu");
+
+        // 属性不存在或无法按数字比较时结果为未知，NOT 未知仍为未知
+        assertThat(SqlExpression.compile("a > 5").matches(properties)).isFalse();
+        assertThat(SqlExpression.compile("NOT (a > 5)").matches(properties)).isFalse();
+        assertThat(SqlExpression.compile("region > 5").matches(properties)).isFalse();
+        assertThat(SqlExpression.compile("a > 5 OR region = 'eu'").matches(properties)).isTrue();
+        assertThat(SqlExpression.compile("a = 1").matches(null)).isFalse();
+    }
+
+    @Test
+    public void testEqualityTerms() {
+        SqlExpression expression = SqlExpression.compile("a > 5 AND region IN ('eu', 'us') AND zone = 'z1'");
+        assertThat(expression.getEqualityTerms().get("region")).isEqualTo(new HashSet<>(Arrays.asList("eu", "us")));
+        assertThat(expression.getEqualityTerms().get("zone")).isEqualTo(Collections.singleton("z1"));
+        assertThat(expression.getEqualityTerms().containsKey("a")).isFalse();
+
+        assertThat(SqlExpression.compile("region = 'eu' OR zone = 'z1'").getEqualityTerms()).isEmpty();
+        assertThat(SqlExpression.compile("NOT region = 'eu'").getEqualityTerms()).isEmpty();
+        assertThat(SqlExpression.compile("region IN ('eu', 1)").getEqualityTerms()).isEmpty();
+    }
+
+    @Test
+    public void testIllegalExpression() {
+        String[] expressions = {"", "a >", "a = 'x", "(a = 1", "a = 1 b", "a IN (b)", "a # 1", "AND = 1", "a"};
+        for (String expression : expressions) {
+            try {
+                SqlExpression.compile(expression);
+                fail("expression should be illegal: " + expression);
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+    }
+}
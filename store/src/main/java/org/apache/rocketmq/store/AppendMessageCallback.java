@@ -35,4 +35,16 @@ public interface AppendMessageCallback {
      */
     AppendMessageResult doAppend(final long fileFromOffset, final ByteBuffer byteBuffer,
         final int maxBlank, final MessageExtBrokerInner msg);
+
+    /**
+     * After batched message serialization, write MappedByteBuffer
+     *
+     * @param fileFromOffset 相对于整个 broker 的offset
+     * @param byteBuffer 文件字节流缓冲区
+     * @param maxBlank 剩余文件字节空间
+     * @param messageExtBatch 批量消息，已经预先编码
+     * @return How many bytes to write
+     */
+    AppendMessageResult doAppend(final long fileFromOffset, final ByteBuffer byteBuffer,
+        final int maxBlank, final MessageExtBatch messageExtBatch);
 }
@@ -52,6 +52,10 @@ public class AppendMessageResult {
      */
     @SuppressWarnings("SpellCheckingInspection")
     private long pagecacheRT = 0;
+    /**
+     * 写入的消息条数，批量消息时大于 1
+     */
+    private int msgNum = 1;
 
     public AppendMessageResult(AppendMessageStatus status) {
         this(status, 0, 0, "", 0, 0, 0);
@@ -68,6 +72,12 @@ public class AppendMessageResult {
         this.pagecacheRT = pagecacheRT;
     }
 
+    public AppendMessageResult(AppendMessageStatus status, long wroteOffset, int wroteBytes, String msgId,
+        long storeTimestamp, long logicsOffset, long pagecacheRT, int msgNum) {
+        this(status, wroteOffset, wroteBytes, msgId, storeTimestamp, logicsOffset, pagecacheRT);
+        this.msgNum = msgNum;
+    }
+
     public long getPagecacheRT() {
         return pagecacheRT;
     }
@@ -128,6 +138,14 @@ public class AppendMessageResult {
         this.logicsOffset = logicsOffset;
     }
 
+    public int getMsgNum() {
+        return msgNum;
+    }
+
+    public void setMsgNum(int msgNum) {
+        this.msgNum = msgNum;
+    }
+
     @Override
     public String toString() {
         return "AppendMessageResult{" +
@@ -138,6 +156,7 @@ public class AppendMessageResult {
             ", storeTimestamp=" + storeTimestamp +
             ", logicsOffset=" + logicsOffset +
             ", pagecacheRT=" + pagecacheRT +
+            ", msgNum=" + msgNum +
             '}';
     }
 }
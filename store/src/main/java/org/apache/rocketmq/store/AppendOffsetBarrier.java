@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * CommitLog 追加位置屏障
+ * 写入方每次追加（批量消息只追加一次）后发布可读的最大物理位置，读取方（重放线程）在屏障上等待，直到有新数据或超时
+ * 没有等待者时，发布只有一次 CAS，不加锁
+ */
+public class AppendOffsetBarrier {
+
+    /**
+     * 已发布的最大物理位置
+     */
+    private final AtomicLong publishedOffset = new AtomicLong(0);
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition appended = this.lock.newCondition();
+
+    /**
+     * 等待者数量，只在持有锁时修改
+     */
+    private volatile int waiters = 0;
+
+    /**
+     * 发布新的物理位置，位置只增不减
+     *
+     * @param offset 可读的最大物理位置
+     */
+    public void publish(final long offset) {
+        for (long current = this.publishedOffset.get(); offset > current; current = this.publishedOffset.get()) {
+            if (this.publishedOffset.compareAndSet(current, offset)) {
+                if (this.waiters > 0) {
+                    this.signalAll();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * 等待发布的物理位置超过 offset。被唤醒或超时后返回，调用方需自行判断是否有新数据
+     *
+     * @param offset 当前已读取的物理位置
+     * @param timeoutMillis 最长等待时间
+     * @return 已发布的最大物理位置
+     * @throws InterruptedException 当线程被打断
+     */
+    public long waitFor(final long offset, final long timeoutMillis) throws InterruptedException {
+        long current = this.publishedOffset.get();
+        if (current > offset) {
+            return current;
+        }
+
+        this.lock.lock();
+        try {
+            this.waiters++;
+            try {
+                // 先增加等待者再检查，保证不会错过发布
+                current = this.publishedOffset.get();
+                if (current <= offset) {
+                    this.appended.await(timeoutMillis, TimeUnit.MILLISECONDS);
+                    current = this.publishedOffset.get();
+                }
+            } finally {
+                this.waiters--;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        return current;
+    }
+
+    /**
+     * 唤醒所有等待者，用于关闭
+     */
+    public void signalAll() {
+        this.lock.lock();
+        try {
+            this.appended.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public long getPublishedOffset() {
+        return publishedOffset.get();
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.common.ThreadFactoryImpl;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 冷读调度：隔离读取硬盘数据（冷读）与读取 PageCache 数据（热读）
+ * 1. 冷读请求交给有界的冷读线程池执行，缺页等待不占用拉取线程；线程池已满时拒绝，由调用方让消费者稍后重试
+ * 2. 定时建议内核预读 CommitLog 末尾的热数据，被冷读换出的热数据尽快重新加载，减少写入及热读缺页
+ */
+public class ColdReadScheduler {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    private final DefaultMessageStore defaultMessageStore;
+
+    private ThreadPoolExecutor coldReadExecutor;
+
+    public ColdReadScheduler(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+    }
+
+    public boolean isEnable() {
+        return this.defaultMessageStore.getMessageStoreConfig().isColdReadIsolationEnable();
+    }
+
+    public void start() {
+        if (!isEnable()) {
+            return;
+        }
+        MessageStoreConfig messageStoreConfig = this.defaultMessageStore.getMessageStoreConfig();
+        this.coldReadExecutor = new ThreadPoolExecutor(//
+            messageStoreConfig.getColdReadThreadPoolNums(), //
+            messageStoreConfig.getColdReadThreadPoolNums(), //
+            1000 * 60, //
+            TimeUnit.MILLISECONDS, //
+            new ArrayBlockingQueue<Runnable>(messageStoreConfig.getColdReadThreadPoolQueueCapacity()), //
+            new ThreadFactoryImpl("ColdReadThread_"));
+    }
+
+    public void shutdown() {
+        if (this.coldReadExecutor != null) {
+            this.coldReadExecutor.shutdown();
+        }
+    }
+
+    /**
+     * 提交冷读任务
+     *
+     * @param task 任务
+     * @return 是否提交成功。未启用或线程池已满时为 false
+     */
+    public boolean execute(final Runnable task) {
+        if (this.coldReadExecutor == null) {
+            return false;
+        }
+        try {
+            this.coldReadExecutor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            log.warn("too many cold read requests, active: {}, queued: {}", this.coldReadExecutor.getActiveCount(),
+                this.coldReadExecutor.getQueue().size());
+            return false;
+        }
+    }
+
+    /**
+     * 建议内核预读 CommitLog 末尾 {@link MessageStoreConfig#getHotTailWarmBytes()} 字节
+     */
+    public void warmHotTail() {
+        final long hotTailWarmBytes = this.defaultMessageStore.getMessageStoreConfig().getHotTailWarmBytes();
+        if (!isEnable() || hotTailWarmBytes <= 0) {
+            return;
+        }
+        final CommitLog commitLog = this.defaultMessageStore.getCommitLog();
+        final long maxOffset = commitLog.getMaxOffset();
+        long offset = Math.max(commitLog.getMinOffset(), maxOffset - hotTailWarmBytes);
+        while (offset >= 0 && offset < maxOffset) {
+            long nextFileOffset = commitLog.rollNextFile(offset);
+            commitLog.adviseWillNeed(offset, (int) (Math.min(nextFileOffset, maxOffset) - offset));
+            offset = nextFileOffset;
+        }
+    }
+
+    public int getQueuedTaskNums() {
+        return this.coldReadExecutor != null ? this.coldReadExecutor.getQueue().size() : 0;
+    }
+}
@@ -17,6 +17,7 @@
 package org.apache.rocketmq.store;
 
 import org.apache.rocketmq.common.ServiceThread;
+import org.apache.rocketmq.common.ThreadFactoryImpl;
 import org.apache.rocketmq.common.UtilAll;
 import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.common.message.MessageAccessor;
@@ -26,17 +27,23 @@ import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.common.sysflag.MessageSysFlag;
 import org.apache.rocketmq.store.config.BrokerRole;
 import org.apache.rocketmq.store.config.FlushDiskType;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
 import org.apache.rocketmq.store.ha.HAService;
 import org.apache.rocketmq.store.schedule.ScheduleMessageService;
+import org.apache.rocketmq.store.timer.TimerMessageStore;
+import org.apache.rocketmq.store.tiered.TieredCommitLog;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
@@ -82,9 +89,13 @@ public class CommitLog {
      */
     private final AppendMessageCallback appendMessageCallback;
     /**
-     * topic消息队列 与 offset 的Map
+     * 追加位置屏障。写入后发布，重放线程在屏障上等待
      */
-    private HashMap<String/* topic-queue_id */, Long/* offset */> topicQueueTable = new HashMap<>(1024);
+    private final AppendOffsetBarrier appendOffsetBarrier = new AppendOffsetBarrier();
+    /**
+     * topic消息队列 与 offset 的映射
+     */
+    private volatile TopicQueueOffsetTable topicQueueTable = new TopicQueueOffsetTable(1024);
     /**
      * TODO
      */
@@ -103,6 +114,26 @@ public class CommitLog {
      * 添加消息重入锁
      */
     private ReentrantLock putMessageNormalLock = new ReentrantLock(); // Non fair Sync
+    /**
+     * 单条消息编码器，每个写入线程一个，在锁外完成编码
+     */
+    private final ThreadLocal<MessageExtEncoder> encoderThreadLocal;
+    /**
+     * 批量消息编码器，每个写入线程一个，在锁外完成编码
+     */
+    private final ThreadLocal<MessageExtBatchEncoder> batchEncoderThreadLocal;
+    /**
+     * 文件摘要，快速恢复时使用
+     */
+    private final CommitLogSummary commitLogSummary;
+    /**
+     * 按位置读取历史文件使用的缓冲池
+     */
+    private final HistoricReadBufferPool historicReadBufferPool;
+    /**
+     * 冷存储中的 CommitLog，未开启分层存储时为 null
+     */
+    private final TieredCommitLog tieredCommitLog;
 
     public CommitLog(final DefaultMessageStore defaultMessageStore) {
         this.mappedFileQueue = new MappedFileQueue(defaultMessageStore.getMessageStoreConfig().getStorePathCommitLog(),
@@ -117,12 +148,37 @@ public class CommitLog {
 
         this.commitLogService = new CommitRealTimeService();
 
-        this.appendMessageCallback = new DefaultAppendMessageCallback(defaultMessageStore.getMessageStoreConfig().getMaxMessageSize());
+        this.appendMessageCallback = new DefaultAppendMessageCallback();
+        this.commitLogSummary = new CommitLogSummary(defaultMessageStore.getMessageStoreConfig().getStorePathRootDir());
+        this.historicReadBufferPool = new HistoricReadBufferPool(defaultMessageStore.getMessageStoreConfig());
+        this.tieredCommitLog = defaultMessageStore.getMessageStoreConfig().isTieredStoreEnable()
+            ? new TieredCommitLog(defaultMessageStore.getMessageStoreConfig()) : null;
+        final int maxMessageSize = defaultMessageStore.getMessageStoreConfig().getMaxMessageSize();
+        this.encoderThreadLocal = new ThreadLocal<MessageExtEncoder>() {
+            @Override
+            protected MessageExtEncoder initialValue() {
+                return new MessageExtEncoder(maxMessageSize);
+            }
+        };
+        this.batchEncoderThreadLocal = new ThreadLocal<MessageExtBatchEncoder>() {
+            @Override
+            protected MessageExtBatchEncoder initialValue() {
+                return new MessageExtBatchEncoder(maxMessageSize);
+            }
+        };
     }
 
     public boolean load() {
         boolean result = this.mappedFileQueue.load();
+        if (result && this.tieredCommitLog != null) {
+            result = this.tieredCommitLog.load();
+        }
         log.info("load commit log " + (result ? "OK" : "Failed"));
+        // 摘要加载失败只影响恢复速度
+        if (result && this.defaultMessageStore.getMessageStoreConfig().isFastRecoverEnable()
+            && !this.commitLogSummary.load()) {
+            log.warn("load commit log summary failed, all files will be checked on recover");
+        }
         return result;
     }
 
@@ -166,7 +222,46 @@ public class CommitLog {
         final long intervalForcibly, //
         final boolean cleanImmediately//
     ) {
-        return this.mappedFileQueue.deleteExpiredFileByTime(expiredTime, deleteFilesInterval, intervalForcibly, cleanImmediately);
+        int deleteCount = 0;
+        // 开启分层存储时，本地文件通常在迁移后删除，冷存储中的段过期后删除
+        if (this.tieredCommitLog != null) {
+            deleteCount += this.tieredCommitLog.deleteExpiredSegments(expiredTime, deleteFilesInterval);
+        }
+        // 迁移持续失败（冷存储慢或不可用）时，本地文件仍按过期时间或磁盘空间不足强制删除，避免磁盘写满
+        deleteCount += this.mappedFileQueue.deleteExpiredFileByTime(expiredTime, deleteFilesInterval, intervalForcibly, cleanImmediately);
+        return deleteCount;
+    }
+
+    /**
+     * 将第一个文件迁移到冷存储，迁移后删除本地文件
+     * 只迁移已写满、已刷盘、已重放且不是最后一个的文件
+     *
+     * @param fileAge 文件最后修改时间早于该时长（毫秒）才迁移
+     * @param force 是否忽略文件时间，本地磁盘空间不足时使用
+     * @return 是否迁移并删除了文件
+     */
+    public boolean offloadFirstFile(final long fileAge, final boolean force) {
+        if (null == this.tieredCommitLog) {
+            return false;
+        }
+        MappedFile mappedFile = this.mappedFileQueue.getFirstMappedFile();
+        if (null == mappedFile || mappedFile == this.mappedFileQueue.getLastMappedFile() || !mappedFile.isFull()) {
+            return false;
+        }
+        final long fileEndOffset = mappedFile.getFileFromOffset() + mappedFile.getFileSize();
+        if (this.mappedFileQueue.getFlushedWhere() < fileEndOffset
+            || this.defaultMessageStore.getReputFromOffset() < fileEndOffset) {
+            return false;
+        }
+        if (!force && System.currentTimeMillis() - mappedFile.getLastModifiedTimestamp() < fileAge) {
+            return false;
+        }
+        // 先写入冷存储再删除本地文件，删除过程中的读取由冷存储提供
+        if (!this.tieredCommitLog.offload(mappedFile)) {
+            return false;
+        }
+        return this.mappedFileQueue.deleteFirstFile(mappedFile,
+            this.defaultMessageStore.getMessageStoreConfig().getDestroyMapedFileIntervalForcibly());
     }
 
     /**
@@ -208,6 +303,11 @@ public class CommitLog {
             if (index < 0)
                 index = 0;
 
+            if (this.defaultMessageStore.getMessageStoreConfig().isFastRecoverEnable()) {
+                this.recoverFast(mappedFiles, index);
+                return;
+            }
+
             MappedFile mappedFile = mappedFiles.get(index);
             ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
             long processOffset = mappedFile.getFileFromOffset();
@@ -350,18 +450,24 @@ public class CommitLog {
             String keys = "";
             @SuppressWarnings("SpellCheckingInspection")
             String uniqKey = null;
+            int batchSize = 1;
+            Map<String, String> propertiesMap = null;
 
             // 17 properties
             short propertiesLength = byteBuffer.getShort();
             if (propertiesLength > 0) {
                 byteBuffer.get(bytesContent, 0, propertiesLength);
                 String properties = new String(bytesContent, 0, propertiesLength, MessageDecoder.CHARSET_UTF8);
-                Map<String, String> propertiesMap = MessageDecoder.string2messageProperties(properties);
+                propertiesMap = MessageDecoder.string2messageProperties(properties);
 
                 keys = propertiesMap.get(MessageConst.PROPERTY_KEYS);
 
                 uniqKey = propertiesMap.get(MessageConst.PROPERTY_UNIQ_CLIENT_MESSAGE_ID_KEYIDX);
 
+                if ((sysFlag & MessageSysFlag.INNER_BATCH_FLAG) == MessageSysFlag.INNER_BATCH_FLAG) {
+                    batchSize = Integer.parseInt(propertiesMap.get(MessageConst.PROPERTY_INNER_NUM));
+                }
+
                 String tags = propertiesMap.get(MessageConst.PROPERTY_TAGS);
                 if (tags != null && tags.length() > 0) {
                     tagsCode = MessageExtBrokerInner.tagsString2tagsCode(MessageExt.parseTopicFilterType(sysFlag), tags);
@@ -382,6 +488,11 @@ public class CommitLog {
                                 storeTimestamp);
                         }
                     }
+                    // 定时消息的 tagsCode 为投递时间
+                    String deliverTimeMs = propertiesMap.get(MessageConst.PROPERTY_TIMER_DELIVER_MS);
+                    if (TimerMessageStore.TIMER_TOPIC.equals(topic) && deliverTimeMs != null) {
+                        tagsCode = Long.parseLong(deliverTimeMs);
+                    }
                 }
             }
 
@@ -398,7 +509,7 @@ public class CommitLog {
                 return new DispatchRequest(totalSize, false/* success */);
             }
 
-            return new DispatchRequest(//
+            DispatchRequest dispatchRequest = new DispatchRequest(//
                 topic, // 1
                 queueId, // 2
                 physicOffset, // 3
@@ -411,6 +522,9 @@ public class CommitLog {
                 sysFlag, // 9
                 preparedTransactionOffset// 10
             );
+            dispatchRequest.setBatchSize(batchSize);
+            dispatchRequest.setPropertiesMap(propertiesMap);
+            return dispatchRequest;
         } catch (Exception e) {
         }
 
@@ -425,7 +539,7 @@ public class CommitLog {
      * @param propertiesLength 拓展属性长度
      * @return 消息长度
      */
-    private int calMsgLength(int bodyLength, int topicLength, int propertiesLength) {
+    private static int calMsgLength(int bodyLength, int topicLength, int propertiesLength) {
         final int msgLen = 4 // 1 TOTALSIZE
             + 4 // 2 MAGICCODE
             + 4 // 3 BODYCRC
@@ -477,6 +591,15 @@ public class CommitLog {
                 mappedFile = mappedFiles.get(index);
             }
 
+            if (this.defaultMessageStore.getMessageStoreConfig().isFastRecoverEnable()) {
+                long processOffset = this.recoverFast(mappedFiles, index);
+
+                // Clear ConsumeQueue redundant data, then rebuild the missing tail
+                this.defaultMessageStore.truncateDirtyLogicFiles(processOffset);
+                this.redispatch(this.getRedispatchFromOffset(mappedFile), processOffset);
+                return;
+            }
+
             ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
             long processOffset = mappedFile.getFileFromOffset();
             long mappedFileOffset = 0;
@@ -537,6 +660,294 @@ public class CommitLog {
         }
     }
 
+    /**
+     * 快速恢复：摘要校验通过的文件跳过，其余文件并行校验，再按顺序确定 CommitLog 有效数据的结束位置
+     *
+     * @param mappedFiles 映射文件列表
+     * @param fromIndex 开始恢复的文件下标
+     * @return CommitLog 有效数据的结束位置
+     */
+    private long recoverFast(final List<MappedFile> mappedFiles, final int fromIndex) {
+        final boolean checkCRCOnRecover = this.defaultMessageStore.getMessageStoreConfig().isCheckCRCOnRecover();
+        final int fileNums = mappedFiles.size() - fromIndex;
+        final FileScanResult[] results = new FileScanResult[fileNums];
+        final List<Integer> scanIndexes = new ArrayList<>();
+        for (int i = 0; i < fileNums; i++) {
+            MappedFile mappedFile = mappedFiles.get(fromIndex + i);
+            CommitLogFileSummary summary = this.commitLogSummary.get(mappedFile.getFileFromOffset());
+            if (summary != null && this.checkFileSummary(mappedFile, summary)) {
+                results[i] = new FileScanResult(summary.getValidLength(), true, summary.getMsgCount());
+            } else {
+                scanIndexes.add(i);
+            }
+        }
+
+        int threadNums = Math.min(Runtime.getRuntime().availableProcessors(), scanIndexes.size());
+        if (threadNums > 1) {
+            ExecutorService executorService = Executors.newFixedThreadPool(threadNums, new ThreadFactoryImpl("CommitLogRecoverThread_"));
+            try {
+                List<Future<FileScanResult>> futures = new ArrayList<>(scanIndexes.size());
+                for (final Integer i : scanIndexes) {
+                    final MappedFile mappedFile = mappedFiles.get(fromIndex + i);
+                    futures.add(executorService.submit(new Callable<FileScanResult>() {
+                        @Override
+                        public FileScanResult call() throws Exception {
+                            return scanFile(mappedFile, checkCRCOnRecover);
+                        }
+                    }));
+                }
+                for (int j = 0; j < scanIndexes.size(); j++) {
+                    int i = scanIndexes.get(j);
+                    try {
+                        results[i] = futures.get(j).get();
+                    } catch (Exception e) {
+                        log.warn("recover physics file in parallel failed, " + mappedFiles.get(fromIndex + i).getFileName(), e);
+                        results[i] = this.scanFile(mappedFiles.get(fromIndex + i), checkCRCOnRecover);
+                    }
+                }
+            } finally {
+                executorService.shutdown();
+            }
+        } else {
+            for (Integer i : scanIndexes) {
+                results[i] = this.scanFile(mappedFiles.get(fromIndex + i), checkCRCOnRecover);
+            }
+        }
+
+        long processOffset = mappedFiles.get(fromIndex).getFileFromOffset();
+        for (int i = 0; i < fileNums; i++) {
+            MappedFile mappedFile = mappedFiles.get(fromIndex + i);
+            processOffset = mappedFile.getFileFromOffset() + results[i].getValidLength();
+            if (!results[i].isReachedEnd()) {
+                log.info("recover physics file end, " + mappedFile.getFileName());
+                break;
+            }
+        }
+        log.info("fast recover physics files over, {} files skipped by summary, {} files checked, processOffset {}",
+            fileNums - scanIndexes.size(), scanIndexes.size(), processOffset);
+
+        this.mappedFileQueue.setFlushedWhere(processOffset);
+        this.mappedFileQueue.setCommittedWhere(processOffset);
+        this.mappedFileQueue.truncateDirtyFiles(processOffset);
+        this.commitLogSummary.truncate(processOffset);
+        return processOffset;
+    }
+
+    /**
+     * 逐条校验文件中的消息
+     *
+     * @param mappedFile 映射文件
+     * @param checkCRC 是否校验消息体CRC
+     * @return 校验结果
+     */
+    private FileScanResult scanFile(final MappedFile mappedFile, final boolean checkCRC) {
+        ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+        int validLength = 0;
+        int msgCount = 0;
+        while (true) {
+            DispatchRequest dispatchRequest = this.checkMessageAndReturnSize(byteBuffer, checkCRC);
+            int size = dispatchRequest.getMsgSize();
+            if (dispatchRequest.isSuccess() && size > 0) {
+                validLength += size;
+                msgCount++;
+            } else {
+                // size == 0 时到达文件末尾空白
+                return new FileScanResult(validLength, dispatchRequest.isSuccess() && size == 0, msgCount);
+            }
+        }
+    }
+
+    /**
+     * 校验文件摘要：有效数据结束位置为空白标记，且末尾数据CRC一致
+     *
+     * @param mappedFile 映射文件
+     * @param summary 文件摘要
+     * @return 是否一致
+     */
+    private boolean checkFileSummary(final MappedFile mappedFile, final CommitLogFileSummary summary) {
+        final int validLength = summary.getValidLength();
+        if (validLength < 0 || validLength + 8 > mappedFile.getFileSize()) {
+            return false;
+        }
+        ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+        if (byteBuffer.getInt(validLength + 4) != BLANK_MAGIC_CODE) {
+            return false;
+        }
+        return tailCrc(byteBuffer, validLength) == summary.getTailCrc();
+    }
+
+    /**
+     * 只读取消息头计算文件摘要，文件须已写满
+     *
+     * @param mappedFile 映射文件
+     * @return 文件摘要，文件数据不完整时为 null
+     */
+    private CommitLogFileSummary computeFileSummary(final MappedFile mappedFile) {
+        ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+        final int fileSize = mappedFile.getFileSize();
+        int position = 0;
+        int msgCount = 0;
+        while (position + 8 <= fileSize) {
+            int totalSize = byteBuffer.getInt(position);
+            int magicCode = byteBuffer.getInt(position + 4);
+            if (magicCode == MESSAGE_MAGIC_CODE && totalSize > 0) {
+                position += totalSize;
+                msgCount++;
+            } else if (magicCode == BLANK_MAGIC_CODE) {
+                return new CommitLogFileSummary(mappedFile.getFileFromOffset(), position, msgCount, tailCrc(byteBuffer, position));
+            } else {
+                break;
+            }
+        }
+        return null;
+    }
+
+    private static int tailCrc(final ByteBuffer byteBuffer, final int validLength) {
+        int length = Math.min(CommitLogSummary.TAIL_CRC_LENGTH, validLength);
+        byte[] bytes = new byte[length];
+        ByteBuffer tail = byteBuffer.duplicate();
+        tail.position(validLength - length);
+        tail.get(bytes);
+        return UtilAll.crc32(bytes);
+    }
+
+    /**
+     * 为已写满并刷盘的文件记录摘要，移除已删除文件的摘要。由 ConsumeQueue 刷盘线程在刷 check point 时调用
+     */
+    public void updateSummaries() {
+        if (!this.defaultMessageStore.getMessageStoreConfig().isFastRecoverEnable()) {
+            return;
+        }
+        boolean changed = false;
+        final long flushedWhere = this.mappedFileQueue.getFlushedWhere();
+        for (MappedFile mappedFile : this.mappedFileQueue.getMappedFiles()) {
+            if (mappedFile.getFileFromOffset() + mappedFile.getFileSize() > flushedWhere) {
+                break;
+            }
+            if (this.commitLogSummary.get(mappedFile.getFileFromOffset()) != null || !mappedFile.hold()) {
+                continue;
+            }
+            try {
+                CommitLogFileSummary summary = this.computeFileSummary(mappedFile);
+                if (summary != null) {
+                    this.commitLogSummary.put(summary);
+                    changed = true;
+                } else {
+                    log.warn("compute commit log summary failed, " + mappedFile.getFileName());
+                }
+            } finally {
+                mappedFile.release();
+            }
+        }
+
+        long minOffset = this.getMinOffset();
+        if (minOffset >= 0 && this.commitLogSummary.removeBefore(minOffset)) {
+            changed = true;
+        }
+        if (changed) {
+            this.commitLogSummary.persist();
+        }
+    }
+
+    /**
+     * 异常关闭后重建 ConsumeQueue 及 IndexFile 的开始位置
+     * check point 记录了已刷盘的 ConsumeQueue 对应的物理位置；IndexFile 取最后一个文件的结束位置。不早于按时间确定的恢复文件
+     *
+     * @param recoverMappedFile 按 check point 时间确定的恢复文件
+     * @return 开始位置
+     */
+    private long getRedispatchFromOffset(final MappedFile recoverMappedFile) {
+        long fromOffset = recoverMappedFile.getFileFromOffset();
+        long checkpointOffset = this.defaultMessageStore.getStoreCheckpoint().getLogicsPhyOffset();
+        if (checkpointOffset > 0) {
+            if (this.defaultMessageStore.getMessageStoreConfig().isMessageIndexEnable()//
+                && this.defaultMessageStore.getMessageStoreConfig().isMessageIndexSafe()) {
+                checkpointOffset = Math.min(checkpointOffset, this.defaultMessageStore.getIndexService().getLastEndPhyOffset());
+            }
+            fromOffset = Math.max(fromOffset, checkpointOffset);
+        }
+        return fromOffset;
+    }
+
+    /**
+     * 按顺序重新调度 [fromOffset, toOffset) 之间的消息，构建 ConsumeQueue 及 IndexFile
+     *
+     * @param fromOffset 开始物理位置
+     * @param toOffset 结束物理位置
+     */
+    private void redispatch(final long fromOffset, final long toOffset) {
+        final boolean duplicationEnable = this.defaultMessageStore.getMessageStoreConfig().isDuplicationEnable();
+        long offset = fromOffset;
+        long dispatchNums = 0;
+        while (offset < toOffset) {
+            SelectMappedBufferResult result = this.getData(offset, false);
+            if (null == result) {
+                break;
+            }
+            final long beginOffset = offset;
+            try {
+                ByteBuffer byteBuffer = result.getByteBuffer();
+                for (int readSize = 0; readSize < result.getSize() && offset < toOffset; ) {
+                    DispatchRequest dispatchRequest = this.checkMessageAndReturnSize(byteBuffer, false, false);
+                    int size = dispatchRequest.getMsgSize();
+                    if (dispatchRequest.isSuccess() && size > 0) {
+                        if (!duplicationEnable || dispatchRequest.getCommitLogOffset() < this.defaultMessageStore.getConfirmOffset()) {
+                            this.defaultMessageStore.doDispatch(dispatchRequest);
+                            dispatchNums++;
+                        }
+                        offset += size;
+                        readSize += size;
+                    } else if (dispatchRequest.isSuccess() && size == 0) {
+                        offset = this.rollNextFile(offset);
+                        break;
+                    } else {
+                        log.warn("redispatch stopped at illegal message, offset {}", offset);
+                        return;
+                    }
+                }
+            } finally {
+                result.release();
+            }
+            if (offset == beginOffset) {
+                break;
+            }
+        }
+        log.info("redispatch from {} to {} over, {} messages dispatched", fromOffset, offset, dispatchNums);
+    }
+
+    /**
+     * 文件校验结果
+     */
+    static class FileScanResult {
+        /**
+         * 有效数据长度
+         */
+        private final int validLength;
+        /**
+         * 是否到达文件末尾空白，否则文件在 validLength 处损坏或未写完
+         */
+        private final boolean reachedEnd;
+        private final int msgCount;
+
+        FileScanResult(int validLength, boolean reachedEnd, int msgCount) {
+            this.validLength = validLength;
+            this.reachedEnd = reachedEnd;
+            this.msgCount = msgCount;
+        }
+
+        int getValidLength() {
+            return validLength;
+        }
+
+        boolean isReachedEnd() {
+            return reachedEnd;
+        }
+
+        int getMsgCount() {
+            return msgCount;
+        }
+    }
+
     private boolean isMappedFileMatchedRecover(final MappedFile mappedFile) {
         ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
 
@@ -578,6 +989,10 @@ public class CommitLog {
         return this.mappedFileQueue.resetOffset(offset);
     }
 
+    public AppendOffsetBarrier getAppendOffsetBarrier() {
+        return appendOffsetBarrier;
+    }
+
     public long getBeginTimeInLock() {
         return beginTimeInLock;
     }
@@ -589,11 +1004,47 @@ public class CommitLog {
      * @return 结果
      */
     public PutMessageResult putMessage(final MessageExtBrokerInner msg) {
+        PutMessageResult putMessageResult = this.doPutMessage(msg);
+        if (putMessageResult.isOk()) {
+            //todo 刷盘 进行同步||异步 flush||commit
+            handleDiskFlush(putMessageResult.getAppendMessageResult(), putMessageResult, msg);
+            //todo HA Synchronous write double 如果是同步Master，同步到从节点
+            handleHA(putMessageResult.getAppendMessageResult(), putMessageResult, msg);
+        }
+        return putMessageResult;
+    }
+
+    /**
+     * 异步添加消息。写入后不等待刷盘及同步复制，完成时回调
+     *
+     * @param msg 消息
+     * @param callback 回调
+     */
+    public void asyncPutMessage(final MessageExtBrokerInner msg, final PutMessageCallback callback) {
+        PutMessageResult putMessageResult = this.doPutMessage(msg);
+        if (putMessageResult.isOk()) {
+            asyncHandleDiskFlush(putMessageResult, msg, callback);
+        } else {
+            callback.onComplete(putMessageResult);
+        }
+    }
+
+    /**
+     * 写入消息到 MappedFile，不包含刷盘及同步复制
+     *
+     * @param msg 消息
+     * @return 结果
+     */
+    private PutMessageResult doPutMessage(final MessageExtBrokerInner msg) {
         // Set the storage time
         msg.setStoreTimestamp(System.currentTimeMillis());
+        // 客户端已编码为 CommitLog 存储格式，body CRC 由客户端计算
+        final boolean preEncoded = msg.getEncodedBuff() != null;
         // Set the message body BODY CRC (consider the most appropriate setting
         // on the client)
-        msg.setBodyCRC(UtilAll.crc32(msg.getBody()));
+        if (!preEncoded) {
+            msg.setBodyCRC(UtilAll.crc32(msg.getBody()));
+        }
         // Back to Results
         AppendMessageResult result = null;
 
@@ -604,6 +1055,14 @@ public class CommitLog {
 
         // 定时消息处理
         final int tranType = MessageSysFlag.getTransactionValue(msg.getSysFlag());
+
+        // 批量记录占用多个队列位置，不支持事务消息与延迟消息
+        if ((msg.getSysFlag() & MessageSysFlag.INNER_BATCH_FLAG) == MessageSysFlag.INNER_BATCH_FLAG) {
+            if (innerBatchNum(msg) <= 0 || tranType != MessageSysFlag.TRANSACTION_NOT_TYPE || msg.getDelayTimeLevel() > 0
+                || TimerMessageStore.isTimerMessage(msg)) {
+                return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+            }
+        }
         if (tranType == MessageSysFlag.TRANSACTION_NOT_TYPE//
             || tranType == MessageSysFlag.TRANSACTION_COMMIT_TYPE) {
             // Delay Delivery，如果消息的延迟级别大于0，把原消息的主题和队列放在消息属性中，用延迟主题和队列更新原消息的主题和队列（这是并发消息消费重试关键的一步）
@@ -625,9 +1084,42 @@ public class CommitLog {
 
                 msg.setTopic(topic);
                 msg.setQueueId(queueId);
+            } else if (TimerMessageStore.isTimerMessage(msg) && this.defaultMessageStore.getTimerMessageStore() != null) {
+                // 指定投递时间的定时消息进入 `TIMER_TOPIC_XXXX`，已到期的直接存储
+                final long deliverTimeMs;
+                try {
+                    deliverTimeMs = Long.parseLong(msg.getProperty(MessageConst.PROPERTY_TIMER_DELIVER_MS));
+                } catch (NumberFormatException e) {
+                    return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+                }
+                final long now = msg.getStoreTimestamp();
+                if (deliverTimeMs - now > this.defaultMessageStore.getMessageStoreConfig().getTimerMaxDelaySec() * 1000L) {
+                    return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+                }
+                if (deliverTimeMs > now) {
+                    topic = TimerMessageStore.TIMER_TOPIC;
+                    queueId = 0;
+
+                    MessageAccessor.putProperty(msg, MessageConst.PROPERTY_REAL_TOPIC, msg.getTopic());
+                    MessageAccessor.putProperty(msg, MessageConst.PROPERTY_REAL_QUEUE_ID, String.valueOf(msg.getQueueId()));
+                    msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+
+                    msg.setTopic(topic);
+                    msg.setQueueId(queueId);
+                }
             }
         }
 
+        // 在锁外编码消息（已编码时校验并填充 broker 字段），锁内只分配位置并拷贝
+        MessageExtEncoder encoder = encoderThreadLocal.get();
+        AppendMessageStatus encodeStatus = preEncoded ? encoder.patch(msg) : encoder.encode(msg);
+        if (AppendMessageStatus.PUT_OK != encodeStatus) {
+            return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, new AppendMessageResult(encodeStatus));
+        }
+        if (!preEncoded) {
+            msg.setEncodedBuff(encoder.getEncodedBuff());
+        }
+
         long eclipseTimeInLock = 0;
 
         // 获取当前写入的映射文件
@@ -693,10 +1185,16 @@ public class CommitLog {
         } finally {
             // 释放写入锁
             releasePutMessageLock();
+            if (!preEncoded) {
+                msg.setEncodedBuff(null);
+            }
         }
 
+        // 在锁外生成 msgId
+        result.setMsgId(encoder.createMessageId(msg, result.getWroteOffset()));
+
         if (eclipseTimeInLock > 500) {
-            log.warn("[NOTIFYME]putMessage in lock cost time(ms)={}, bodyLength={} AppendMessageResult={}", eclipseTimeInLock, msg.getBody().length, result);
+            log.warn("[NOTIFYME]putMessage in lock cost time(ms)={}, msgLength={} AppendMessageResult={}", eclipseTimeInLock, result.getWroteBytes(), result);
         }
 
         // TODO 待读：
@@ -704,24 +1202,38 @@ public class CommitLog {
             this.defaultMessageStore.unlockMappedFile(unlockMappedFile);
         }
 
+        // 发布追加位置，唤醒重放线程构建 ConsumeQueue 和 IndexFile。开启 TransientStorePool 时，commit 后才可读
+        if (!this.defaultMessageStore.getMessageStoreConfig().isTransientStorePoolEnable()) {
+            this.appendOffsetBarrier.publish(result.getWroteOffset() + result.getWroteBytes());
+        }
+
         PutMessageResult putMessageResult = new PutMessageResult(PutMessageStatus.PUT_OK, result);
 
         // Statistics（统计）
         storeStatsService.getSinglePutMessageTopicTimesTotal(msg.getTopic()).incrementAndGet();
         storeStatsService.getSinglePutMessageTopicSizeTotal(topic).addAndGet(result.getWroteBytes());
 
-        //todo 刷盘 进行同步||异步 flush||commit
-        GroupCommitRequest request = null;
+        return putMessageResult;
+    }
+
+    /**
+     * 刷盘：同步刷盘时等待 GroupCommitService 完成，异步刷盘时唤醒刷盘线程
+     *
+     * @param result 追加结果
+     * @param putMessageResult 存储结果，超时时修改状态
+     * @param messageExt 消息（批量消息时为整个批次）
+     */
+    public void handleDiskFlush(AppendMessageResult result, PutMessageResult putMessageResult, MessageExt messageExt) {
         // Synchronization flush
         if (FlushDiskType.SYNC_FLUSH == this.defaultMessageStore.getMessageStoreConfig().getFlushDiskType()) {
             final GroupCommitService service = (GroupCommitService) this.flushCommitLogService;
-            if (msg.isWaitStoreMsgOK()) {
-                request = new GroupCommitRequest(result.getWroteOffset() + result.getWroteBytes());
+            if (messageExt.isWaitStoreMsgOK()) {
+                GroupCommitRequest request = new GroupCommitRequest(result.getWroteOffset() + result.getWroteBytes());
                 service.putRequest(request);
                 boolean flushOK = request.waitForFlush(this.defaultMessageStore.getMessageStoreConfig().getSyncFlushTimeout());
                 if (!flushOK) {
-                    log.error("do groupcommit, wait for flush failed, topic: " + msg.getTopic() + " tags: " + msg.getTags()
-                        + " client address: " + msg.getBornHostString());
+                    log.error("do groupcommit, wait for flush failed, topic: " + messageExt.getTopic() + " tags: " + messageExt.getTags()
+                        + " client address: " + messageExt.getBornHostString());
                     putMessageResult.setPutMessageStatus(PutMessageStatus.FLUSH_DISK_TIMEOUT);
                 }
             } else {
@@ -736,16 +1248,22 @@ public class CommitLog {
                 commitLogService.wakeup();
             }
         }
+    }
 
-        //todo HA Synchronous write double 如果是同步Master，同步到从节点
+    /**
+     * 同步双写：SYNC_MASTER 时等待从节点复制到 result 对应的位置
+     *
+     * @param result 追加结果
+     * @param putMessageResult 存储结果，超时或从节点不可用时修改状态
+     * @param messageExt 消息（批量消息时为整个批次）
+     */
+    public void handleHA(AppendMessageResult result, PutMessageResult putMessageResult, MessageExt messageExt) {
         if (BrokerRole.SYNC_MASTER == this.defaultMessageStore.getMessageStoreConfig().getBrokerRole()) {
             HAService service = this.defaultMessageStore.getHaService();
-            if (msg.isWaitStoreMsgOK()) {
+            if (messageExt.isWaitStoreMsgOK()) {
                 // Determine whether to wait
                 if (service.isSlaveOK(result.getWroteOffset() + result.getWroteBytes())) {
-                    if (null == request) {
-                        request = new GroupCommitRequest(result.getWroteOffset() + result.getWroteBytes());
-                    }
+                    GroupCommitRequest request = new GroupCommitRequest(result.getWroteOffset() + result.getWroteBytes());
                     service.putRequest(request);
 
                     // 唤醒WriteSocketService
@@ -753,8 +1271,8 @@ public class CommitLog {
 
                     boolean flushOK = request.waitForFlush(this.defaultMessageStore.getMessageStoreConfig().getSyncFlushTimeout());
                     if (!flushOK) {
-                        log.error("do sync transfer other node, wait return, but failed, topic: " + msg.getTopic() + " tags: "
-                            + msg.getTags() + " client address: " + msg.getBornHostString());
+                        log.error("do sync transfer other node, wait return, but failed, topic: " + messageExt.getTopic() + " tags: "
+                            + messageExt.getTags() + " client address: " + messageExt.getBornHostString());
                         putMessageResult.setPutMessageStatus(PutMessageStatus.FLUSH_SLAVE_TIMEOUT);
                     }
                 }
@@ -765,81 +1283,376 @@ public class CommitLog {
                 }
             }
         }
-
-        return putMessageResult;
     }
 
     /**
-     * According to receive certain message or offset storage time if an error
-     * occurs, it returns -1
+     * 异步刷盘：同步刷盘且需要等待时，由 GroupCommitService 完成刷盘后回调，再进行同步双写
+     *
+     * @param putMessageResult 存储结果，超时时修改状态
+     * @param messageExt 消息（批量消息时为整个批次）
+     * @param callback 回调
      */
-    public long pickupStoreTimestamp(final long offset, final int size) {
-        if (offset >= this.getMinOffset()) {
-            SelectMappedBufferResult result = this.getMessage(offset, size);
-            if (null != result) {
-                try {
-                    return result.getByteBuffer().getLong(MessageDecoder.MESSAGE_STORE_TIMESTAMP_POSTION);
-                } finally {
-                    result.release();
+    private void asyncHandleDiskFlush(final PutMessageResult putMessageResult, final MessageExt messageExt, final PutMessageCallback callback) {
+        final AppendMessageResult result = putMessageResult.getAppendMessageResult();
+        if (FlushDiskType.SYNC_FLUSH == this.defaultMessageStore.getMessageStoreConfig().getFlushDiskType() && messageExt.isWaitStoreMsgOK()) {
+            final GroupCommitService service = (GroupCommitService) this.flushCommitLogService;
+            GroupCommitRequest request = new GroupCommitRequest(result.getWroteOffset() + result.getWroteBytes(), new GroupCommitCallback() {
+                @Override
+                public void onComplete(boolean flushOK) {
+                    if (!flushOK) {
+                        log.error("do groupcommit, wait for flush failed, topic: " + messageExt.getTopic() + " tags: " + messageExt.getTags()
+                            + " client address: " + messageExt.getBornHostString());
+                        putMessageResult.setPutMessageStatus(PutMessageStatus.FLUSH_DISK_TIMEOUT);
+                    }
+                    asyncHandleHA(putMessageResult, messageExt, callback);
                 }
-            }
+            });
+            service.putRequest(request);
+        } else {
+            // 不需要等待时只唤醒刷盘线程，不会阻塞
+            handleDiskFlush(result, putMessageResult, messageExt);
+            asyncHandleHA(putMessageResult, messageExt, callback);
         }
-
-        return -1;
     }
 
-    //获取当前 Commitlog 目录最小偏移 量 ，首先获取目录 下 的第一个文件，
-    // 如果该文件 可 用， 则返回该文件的起始偏移量 ，否则返回下一个文件的起始偏移量
-    public long getMinOffset() {
-        MappedFile mappedFile = this.mappedFileQueue.getFirstMappedFile();
-        if (mappedFile != null) {
-            if (mappedFile.isAvailable()) {
-                return mappedFile.getFileFromOffset();
-            } else {
-                return this.rollNextFile(mappedFile.getFileFromOffset());
+    /**
+     * 异步同步双写：SYNC_MASTER 时由 GroupTransferService 在从节点复制完成后回调
+     *
+     * @param putMessageResult 存储结果，超时或从节点不可用时修改状态
+     * @param messageExt 消息（批量消息时为整个批次）
+     * @param callback 回调
+     */
+    private void asyncHandleHA(final PutMessageResult putMessageResult, final MessageExt messageExt, final PutMessageCallback callback) {
+        final AppendMessageResult result = putMessageResult.getAppendMessageResult();
+        if (BrokerRole.SYNC_MASTER == this.defaultMessageStore.getMessageStoreConfig().getBrokerRole() && messageExt.isWaitStoreMsgOK()) {
+            HAService service = this.defaultMessageStore.getHaService();
+            if (service.isSlaveOK(result.getWroteOffset() + result.getWroteBytes())) {
+                GroupCommitRequest request = new GroupCommitRequest(result.getWroteOffset() + result.getWroteBytes(), new GroupCommitCallback() {
+                    @Override
+                    public void onComplete(boolean transferOK) {
+                        if (!transferOK) {
+                            log.error("do sync transfer other node, wait return, but failed, topic: " + messageExt.getTopic() + " tags: "
+                                + messageExt.getTags() + " client address: " + messageExt.getBornHostString());
+                            putMessageResult.setPutMessageStatus(PutMessageStatus.FLUSH_SLAVE_TIMEOUT);
+                        }
+                        callback.onComplete(putMessageResult);
+                    }
+                });
+                service.putRequest(request);
+
+                // 唤醒WriteSocketService
+                service.getWaitNotifyObject().wakeupAll();
+                return;
             }
+            // Tell the producer, slave not available
+            putMessageResult.setPutMessageStatus(PutMessageStatus.SLAVE_NOT_AVAILABLE);
         }
-
-        return -1;
+        callback.onComplete(putMessageResult);
     }
 
     /**
-     * 首先根据偏移找到所在的物理偏移量，然后用 offset 与文件长度取余得到在文件内的偏移量，从该偏移量读取 size长度的内容返回即可。
-     * 如果 只根据消息偏移查找消息， 则首先找到文件内的偏移量 ，然后尝试读取 4个字节获取消息 的实际长度 ， 最后读取指定字节 即可 。
-     * @param offset
-     * @param size
-     * @return
+     * 批量添加消息，返回消息结果
+     * 消息在加锁前完成编码，一次加锁写入整个批次，分配连续的队列位置，并只等待一次刷盘与同步复制
+     *
+     * @param messageExtBatch 批量消息
+     * @return 结果
      */
-    public SelectMappedBufferResult getMessage(final long offset, final int size) {
-        int mappedFileSize = this.defaultMessageStore.getMessageStoreConfig().getMapedFileSizeCommitLog();
-        MappedFile mappedFile = this.mappedFileQueue.findMappedFileByOffset(offset, offset == 0);
-        if (mappedFile != null) {
-            int pos = (int) (offset % mappedFileSize);
-            return mappedFile.selectMappedBuffer(pos, size);
+    public PutMessageResult putMessages(final MessageExtBatch messageExtBatch) {
+        PutMessageResult putMessageResult = this.doPutMessages(messageExtBatch);
+        if (putMessageResult.isOk()) {
+            // 整个批次只等待一次刷盘与同步复制
+            handleDiskFlush(putMessageResult.getAppendMessageResult(), putMessageResult, messageExtBatch);
+            handleHA(putMessageResult.getAppendMessageResult(), putMessageResult, messageExtBatch);
         }
-        return null;
+        return putMessageResult;
     }
 
     /**
-     * 根据该 offset返回下一个文件的起始偏移量。 首先获取一个文件的大小， 减去(offset% mappedFileSize)其目 的是 回到下一文件的起始偏移量。
-     * @param offset
-     * @return
+     * 异步批量添加消息，同 {@link #asyncPutMessage(MessageExtBrokerInner, PutMessageCallback)}
+     *
+     * @param messageExtBatch 批量消息
+     * @param callback 回调
      */
-    public long rollNextFile(final long offset) {
-        int mappedFileSize = this.defaultMessageStore.getMessageStoreConfig().getMapedFileSizeCommitLog();
-        return offset + mappedFileSize - offset % mappedFileSize;
-    }
+    public void asyncPutMessages(final MessageExtBatch messageExtBatch, final PutMessageCallback callback) {
+        PutMessageResult putMessageResult = this.doPutMessages(messageExtBatch);
+        if (putMessageResult.isOk()) {
+            asyncHandleDiskFlush(putMessageResult, messageExtBatch, callback);
+        } else {
+            callback.onComplete(putMessageResult);
+        }
+    }
+
+    private PutMessageResult doPutMessages(final MessageExtBatch messageExtBatch) {
+        messageExtBatch.setStoreTimestamp(System.currentTimeMillis());
+        AppendMessageResult result;
+
+        StoreStatsService storeStatsService = this.defaultMessageStore.getStoreStatsService();
+
+        // 批量消息不支持事务消息与延迟消息
+        final int tranType = MessageSysFlag.getTransactionValue(messageExtBatch.getSysFlag());
+        if (tranType != MessageSysFlag.TRANSACTION_NOT_TYPE) {
+            return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+        }
+        if (messageExtBatch.getDelayTimeLevel() > 0) {
+            return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+        }
+
+        long eclipseTimeInLock = 0;
+        MappedFile unlockMappedFile = null;
+        MappedFile mappedFile = this.mappedFileQueue.getLastMappedFile();
+
+        // 在锁外完成编码与 CRC 计算，锁内只填充 offset 并拷贝
+        MessageExtBatchEncoder batchEncoder = batchEncoderThreadLocal.get();
+        ByteBuffer encodedBuff = batchEncoder.encode(messageExtBatch);
+        if (null == encodedBuff) {
+            return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+        }
+        messageExtBatch.setEncodedBuff(encodedBuff);
+
+        lockForPutMessage(); //spin...
+        try {
+            long beginLockTimestamp = this.defaultMessageStore.getSystemClock().now();
+            this.beginTimeInLock = beginLockTimestamp;
+
+            // Here settings are stored timestamp, in order to ensure an orderly
+            // global
+            messageExtBatch.setStoreTimestamp(beginLockTimestamp);
+
+            if (null == mappedFile || mappedFile.isFull()) {
+                mappedFile = this.mappedFileQueue.getLastMappedFile(0); // Mark: NewFile may be cause noise
+            }
+            if (null == mappedFile) {
+                log.error("Create mapped file1 error, topic: {} clientAddr: {}", messageExtBatch.getTopic(), messageExtBatch.getBornHostString());
+                beginTimeInLock = 0;
+                return new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, null);
+            }
+
+            result = mappedFile.appendMessages(messageExtBatch, this.appendMessageCallback);
+            switch (result.getStatus()) {
+                case PUT_OK:
+                    break;
+                case END_OF_FILE:
+                    unlockMappedFile = mappedFile;
+                    // Create a new file, re-write the message
+                    mappedFile = this.mappedFileQueue.getLastMappedFile(0);
+                    if (null == mappedFile) {
+                        // XXX: warn and notify me
+                        log.error("Create mapped file2 error, topic: {} clientAddr: {}", messageExtBatch.getTopic(), messageExtBatch.getBornHostString());
+                        beginTimeInLock = 0;
+                        return new PutMessageResult(PutMessageStatus.CREATE_MAPEDFILE_FAILED, result);
+                    }
+                    result = mappedFile.appendMessages(messageExtBatch, this.appendMessageCallback);
+                    break;
+                case MESSAGE_SIZE_EXCEEDED:
+                case PROPERTIES_SIZE_EXCEEDED:
+                    beginTimeInLock = 0;
+                    return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, result);
+                case UNKNOWN_ERROR:
+                default:
+                    beginTimeInLock = 0;
+                    return new PutMessageResult(PutMessageStatus.UNKNOWN_ERROR, result);
+            }
+
+            eclipseTimeInLock = this.defaultMessageStore.getSystemClock().now() - beginLockTimestamp;
+            beginTimeInLock = 0;
+        } finally {
+            releasePutMessageLock();
+            messageExtBatch.setEncodedBuff(null);
+        }
+
+        if (eclipseTimeInLock > 500) {
+            log.warn("[NOTIFYME]putMessages in lock cost time(ms)={}, bodyLength={} AppendMessageResult={}", eclipseTimeInLock, messageExtBatch.getBody().length, result);
+        }
+
+        if (null != unlockMappedFile && this.defaultMessageStore.getMessageStoreConfig().isWarmMapedFileEnable()) {
+            this.defaultMessageStore.unlockMappedFile(unlockMappedFile);
+        }
+
+        // 发布追加位置，唤醒重放线程构建 ConsumeQueue 和 IndexFile。开启 TransientStorePool 时，commit 后才可读
+        if (!this.defaultMessageStore.getMessageStoreConfig().isTransientStorePoolEnable()) {
+            this.appendOffsetBarrier.publish(result.getWroteOffset() + result.getWroteBytes());
+        }
+
+        PutMessageResult putMessageResult = new PutMessageResult(PutMessageStatus.PUT_OK, result);
+
+        // Statistics（统计）
+        storeStatsService.getSinglePutMessageTopicTimesTotal(messageExtBatch.getTopic()).addAndGet(result.getMsgNum());
+        storeStatsService.getSinglePutMessageTopicSizeTotal(messageExtBatch.getTopic()).addAndGet(result.getWroteBytes());
+
+        return putMessageResult;
+    }
+
+    /**
+     * According to receive certain message or offset storage time if an error
+     * occurs, it returns -1
+     */
+    public long pickupStoreTimestamp(final long offset, final int size) {
+        if (offset >= this.getMinOffset()) {
+            SelectMappedBufferResult result = this.getMessage(offset, size);
+            if (null != result) {
+                try {
+                    return result.getByteBuffer().getLong(MessageDecoder.MESSAGE_STORE_TIMESTAMP_POSTION);
+                } finally {
+                    result.release();
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    //获取当前 Commitlog 目录最小偏移 量 ，首先获取目录 下 的第一个文件，
+    // 如果该文件 可 用， 则返回该文件的起始偏移量 ，否则返回下一个文件的起始偏移量
+    public long getMinOffset() {
+        if (this.tieredCommitLog != null) {
+            long tieredMinOffset = this.tieredCommitLog.getMinOffset();
+            if (tieredMinOffset >= 0) {
+                return tieredMinOffset;
+            }
+        }
+        MappedFile mappedFile = this.mappedFileQueue.getFirstMappedFile();
+        if (mappedFile != null) {
+            if (mappedFile.isAvailable()) {
+                return mappedFile.getFileFromOffset();
+            } else {
+                return this.rollNextFile(mappedFile.getFileFromOffset());
+            }
+        }
 
-    public HashMap<String, Long> getTopicQueueTable() {
+        return -1;
+    }
+
+    /**
+     * 首先根据偏移找到所在的物理偏移量，然后用 offset 与文件长度取余得到在文件内的偏移量，从该偏移量读取 size长度的内容返回即可。
+     * 如果 只根据消息偏移查找消息， 则首先找到文件内的偏移量 ，然后尝试读取 4个字节获取消息 的实际长度 ， 最后读取指定字节 即可 。
+     * @param offset
+     * @param size
+     * @return
+     */
+    public SelectMappedBufferResult getMessage(final long offset, final int size) {
+        if (this.isTieredOffset(offset)) {
+            return this.tieredCommitLog.getMessage(offset, size);
+        }
+        int mappedFileSize = this.defaultMessageStore.getMessageStoreConfig().getMapedFileSizeCommitLog();
+        MappedFile mappedFile = this.mappedFileQueue.findMappedFileByOffset(offset, offset == 0);
+        SelectMappedBufferResult result = null;
+        if (mappedFile != null) {
+            int pos = (int) (offset % mappedFileSize);
+            result = mappedFile.selectMappedBuffer(pos, size);
+        }
+        // 文件迁移后正在删除
+        if (null == result && this.tieredCommitLog != null) {
+            result = this.tieredCommitLog.getMessage(offset, size);
+        }
+        return result;
+    }
+
+    /**
+     * 物理位置是否在已迁移到冷存储的文件中（早于本地第一个文件）
+     */
+    private boolean isTieredOffset(final long offset) {
+        if (null == this.tieredCommitLog) {
+            return false;
+        }
+        MappedFile firstMappedFile = this.mappedFileQueue.getFirstMappedFile();
+        return null == firstMappedFile || offset < firstMappedFile.getFileFromOffset();
+    }
+
+    public TieredCommitLog getTieredCommitLog() {
+        return tieredCommitLog;
+    }
+
+    public MappedFileQueue getMappedFileQueue() {
+        return mappedFileQueue;
+    }
+
+    /**
+     * 读取消息用于传输给消费者
+     * 开启 historicReadByChannelEnable 时，历史文件使用 FileChannel 按位置读取到池化缓冲区，不访问文件映射；其余文件同 {@link #getMessage(long, int)}
+     *
+     * @param offset 物理位置
+     * @param size 字节数
+     * @return 读取结果，需要调用方释放
+     */
+    public SelectMappedBufferResult getMessageForTransfer(final long offset, final int size) {
+        final MessageStoreConfig storeConfig = this.defaultMessageStore.getMessageStoreConfig();
+        if (!storeConfig.isHistoricReadByChannelEnable() || this.isTieredOffset(offset)) {
+            return this.getMessage(offset, size);
+        }
+        int mappedFileSize = storeConfig.getMapedFileSizeCommitLog();
+        MappedFile mappedFile = this.mappedFileQueue.findMappedFileByOffset(offset, offset == 0);
+        if (mappedFile == null) {
+            return null;
+        }
+        int pos = (int) (offset % mappedFileSize);
+        if (!this.isHistoricFile(mappedFile)) {
+            return mappedFile.selectMappedBuffer(pos, size);
+        }
+        ByteBuffer buffer = this.historicReadBufferPool.borrowBuffer(size);
+        if (!mappedFile.readByChannel(pos, buffer, storeConfig.isHistoricReadDropCacheEnable())) {
+            this.historicReadBufferPool.returnBuffer(buffer);
+            return this.tieredCommitLog != null ? this.tieredCommitLog.getMessage(offset, size) : null;
+        }
+        buffer.flip();
+        return new HistoricReadBufferPool.PooledBufferResult(offset, buffer, size, this.historicReadBufferPool);
+    }
+
+    /**
+     * 是否为历史文件：已写满且最后修改时间早于 historicFileAge
+     */
+    private boolean isHistoricFile(final MappedFile mappedFile) {
+        return mappedFile.isFull()
+            && System.currentTimeMillis() - mappedFile.getLastModifiedTimestamp()
+            > this.defaultMessageStore.getMessageStoreConfig().getHistoricFileAge();
+    }
+
+    public HistoricReadBufferPool getHistoricReadBufferPool() {
+        return historicReadBufferPool;
+    }
+
+    /**
+     * 建议内核预读 offset 开始的数据，只在 offset 所在文件内预读
+     *
+     * @param offset 物理位置
+     * @param size 预读字节数
+     */
+    public void adviseWillNeed(final long offset, final int size) {
+        int mappedFileSize = this.defaultMessageStore.getMessageStoreConfig().getMapedFileSizeCommitLog();
+        MappedFile mappedFile = this.mappedFileQueue.findMappedFileByOffset(offset, false);
+        // 按位置读取的历史文件不预读，避免换出热数据
+        if (mappedFile != null && !(this.defaultMessageStore.getMessageStoreConfig().isHistoricReadByChannelEnable()
+            && this.isHistoricFile(mappedFile))) {
+            mappedFile.adviseWillNeed((int) (offset % mappedFileSize), size);
+        }
+    }
+
+    /**
+     * 根据该 offset返回下一个文件的起始偏移量。 首先获取一个文件的大小， 减去(offset% mappedFileSize)其目 的是 回到下一文件的起始偏移量。
+     * @param offset
+     * @return
+     */
+    public long rollNextFile(final long offset) {
+        int mappedFileSize = this.defaultMessageStore.getMessageStoreConfig().getMapedFileSizeCommitLog();
+        return offset + mappedFileSize - offset % mappedFileSize;
+    }
+
+    public TopicQueueOffsetTable getTopicQueueTable() {
         return topicQueueTable;
     }
 
-    public void setTopicQueueTable(HashMap<String, Long> topicQueueTable) {
+    public void setTopicQueueTable(TopicQueueOffsetTable topicQueueTable) {
         this.topicQueueTable = topicQueueTable;
     }
 
     public void destroy() {
         this.mappedFileQueue.destroy();
+        if (this.tieredCommitLog != null) {
+            this.tieredCommitLog.destroy();
+        }
+    }
+
+    public CommitLogSummary getCommitLogSummary() {
+        return commitLogSummary;
     }
 
     /**
@@ -865,15 +1678,30 @@ public class CommitLog {
         }
     }
 
+    /**
+     * Slave 直接将 Master 传输的 ByteBuffer 写入映射文件，避免中间字节数组拷贝
+     */
+    public boolean appendData(long startOffset, ByteBuffer data) {
+        lockForPutMessage(); //spin...
+        try {
+            MappedFile mappedFile = this.mappedFileQueue.getLastMappedFile(startOffset);
+            if (null == mappedFile) {
+                log.error("appendData getLastMappedFile error  " + startOffset);
+                return false;
+            }
+
+            return mappedFile.appendMessage(data);
+        } finally {
+            releasePutMessageLock();
+        }
+    }
+
     public boolean retryDeleteFirstFile(final long intervalForcibly) {
         return this.mappedFileQueue.retryDeleteFirstFile(intervalForcibly);
     }
 
     public void removeQueueFromTopicQueueTable(final String topic, final int queueId) {
-        String key = topic + "-" + queueId;
-        synchronized (this) {
-            this.topicQueueTable.remove(key);
-        }
+        this.topicQueueTable.remove(topic, queueId);
 
         log.info("removeQueueFromTopicQueueTable OK Topic: {} QueueId: {}", topic, queueId);
     }
@@ -923,13 +1751,29 @@ public class CommitLog {
         }
     }
 
+    /**
+     * GroupCommitRequest 完成回调。在 GroupCommitService / GroupTransferService 线程执行
+     */
+    public interface GroupCommitCallback {
+        void onComplete(boolean flushOK);
+    }
+
     public static class GroupCommitRequest {
         private final long nextOffset;
         private final CountDownLatch countDownLatch = new CountDownLatch(1);
         private volatile boolean flushOK = false;
+        /**
+         * 完成回调，异步添加消息时设置
+         */
+        private final GroupCommitCallback callback;
 
         public GroupCommitRequest(long nextOffset) {
+            this(nextOffset, null);
+        }
+
+        public GroupCommitRequest(long nextOffset, GroupCommitCallback callback) {
             this.nextOffset = nextOffset;
+            this.callback = callback;
         }
 
         public long getNextOffset() {
@@ -939,6 +1783,13 @@ public class CommitLog {
         public void wakeupCustomer(final boolean flushOK) {
             this.flushOK = flushOK;
             this.countDownLatch.countDown();
+            if (this.callback != null) {
+                try {
+                    this.callback.onComplete(flushOK);
+                } catch (Throwable e) {
+                    log.error("GroupCommitRequest callback exception, nextOffset: " + this.nextOffset, e);
+                }
+            }
         }
 
         public boolean waitForFlush(long timeout) {
@@ -998,6 +1849,8 @@ public class CommitLog {
                         //now wake up flush thread.
                         flushCommitLogService.wakeup();
                     }
+                    // 发布已提交的位置，唤醒重放线程
+                    CommitLog.this.appendOffsetBarrier.publish(CommitLog.this.getMaxOffset());
 
                     if (end - begin > 500) {
                         log.info("Commit data to file costs {} ms", end - begin);
@@ -1230,6 +2083,23 @@ public class CommitLog {
         }
     }
 
+    /**
+     * 获取批量记录包含的消息数量
+     *
+     * @param msg 消息
+     * @return 非批量记录为1；批量记录的数量属性不合法时为-1
+     */
+    static int innerBatchNum(final MessageExt msg) {
+        if ((msg.getSysFlag() & MessageSysFlag.INNER_BATCH_FLAG) != MessageSysFlag.INNER_BATCH_FLAG) {
+            return 1;
+        }
+        try {
+            return Integer.parseInt(msg.getProperty(MessageConst.PROPERTY_INNER_NUM));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     /**
      * 写入消息到Buffer默认实现
      */
@@ -1241,63 +2111,37 @@ public class CommitLog {
          */
         private final ByteBuffer msgIdMemory;
         /**
-         * Store the message content
-         * 存储在内存中的消息字节Buffer
-         * 当消息传递到{@link #doAppend(long, ByteBuffer, int, MessageExtBrokerInner)}方法时，最终写到该参数
+         * 文件尾空白字节Buffer
          */
         private final ByteBuffer msgStoreItemMemory;
-        /**
-         * The maximum length of the message
-         * 消息最大长度
-         */
-        private final int maxMessageSize;
-        /**
-         * Build Message Key
-         * {@link #topicQueueTable}的key
-         * 计算方式：topic + "-" + queueId
-         */
-        private final StringBuilder keyBuilder = new StringBuilder();
         /**
          * host字节buffer
          * 用于重复计算host的字节内容
          */
         private final ByteBuffer hostHolder = ByteBuffer.allocate(8);
 
-        DefaultAppendMessageCallback(final int size) {
+        DefaultAppendMessageCallback() {
             this.msgIdMemory = ByteBuffer.allocate(MessageDecoder.MSG_ID_LENGTH);
-            this.msgStoreItemMemory = ByteBuffer.allocate(size + END_FILE_MIN_BLANK_LENGTH);
-            this.maxMessageSize = size;
-        }
-
-        public ByteBuffer getMsgStoreItemMemory() {
-            return msgStoreItemMemory;
+            this.msgStoreItemMemory = ByteBuffer.allocate(END_FILE_MIN_BLANK_LENGTH);
         }
 
+        /**
+         * 追加单条消息。消息已在锁外由 {@link MessageExtEncoder} 编码，这里只分配 queue offset、填充 broker 字段并拷贝
+         * msgId 由调用方在释放锁后生成
+         */
         public AppendMessageResult doAppend(final long fileFromOffset, final ByteBuffer byteBuffer, final int maxBlank, final MessageExtBrokerInner msgInner) {
             // STORETIMESTAMP + STOREHOSTADDRESS + OFFSET <br>
 
-            //创建全局唯一消息 ID，消息 ID 有 16 字节,msgId
             // PHY OFFSET
             long wroteOffset = fileFromOffset + byteBuffer.position();
 
-            // 计算commitLog里的msgId
-            this.resetByteBuffer(hostHolder, 8);
-            //4字节IP，4字节消息端口号，8字节消息偏移量
-            String msgId = MessageDecoder.createMessageId(this.msgIdMemory, msgInner.getStoreHostBytes(hostHolder), wroteOffset);
-
             // 获取该消息在消息 队列的偏移量。 CommitLog 中保存了当前所有消息队列的当前待写入偏移量。
-            keyBuilder.setLength(0);
-            keyBuilder.append(msgInner.getTopic());
-            keyBuilder.append('-');
-            keyBuilder.append(msgInner.getQueueId());
-            String key = keyBuilder.toString();
-            Long queueOffset = CommitLog.this.topicQueueTable.get(key);
-            if (null == queueOffset) {
-                queueOffset = 0L;
-                CommitLog.this.topicQueueTable.put(key, queueOffset);
-            }
-
-            // Transaction messages that require special handling // TODO 疑问：用途
+            final TopicQueueOffsetTable queueOffsetTable = CommitLog.this.topicQueueTable;
+            long queueOffset = queueOffsetTable.get(msgInner.getTopic(), msgInner.getQueueId());
+            // 批量记录占用多个队列位置
+            final int msgNum = innerBatchNum(msgInner);
+
+            // Transaction messages that require special handling
             final int tranType = MessageSysFlag.getTransactionValue(msgInner.getSysFlag());
             switch (tranType) {
                 // Prepared and Rollback message is not consumed, will not enter the
@@ -1312,13 +2156,162 @@ public class CommitLog {
                     break;
             }
 
+            final long beginTimeMills = CommitLog.this.defaultMessageStore.now();
+            final ByteBuffer preEncodeBuffer = msgInner.getEncodedBuff();
+            final int msgLen = preEncodeBuffer.limit();
+
+            // Determines(确定) whether there is sufficient(足够) free space
+            if ((msgLen + END_FILE_MIN_BLANK_LENGTH) > maxBlank) {
+                //Broker会重新创建一个新的 CommitLog文件来存储该消息。
+                this.resetByteBuffer(this.msgStoreItemMemory, END_FILE_MIN_BLANK_LENGTH);
+                //每个 CommitLog文件最少会空闲8个字节，高4字节存储当前文件剩余空间，低4字节存储魔数 : CommitLog.BLANK MAGIC CODE 。
+                // 1 TOTAL_SIZE
+                this.msgStoreItemMemory.putInt(maxBlank);
+                // 2 MAGIC_CODE
+                this.msgStoreItemMemory.putInt(CommitLog.BLANK_MAGIC_CODE);
+                // 3 The remaining space may be any value
+                byteBuffer.put(this.msgStoreItemMemory.array(), 0, END_FILE_MIN_BLANK_LENGTH);
+                return new AppendMessageResult(AppendMessageStatus.END_OF_FILE, wroteOffset, maxBlank, null, msgInner.getStoreTimestamp(),
+                    queueOffset, CommitLog.this.defaultMessageStore.now() - beginTimeMills);
+            }
+
+            // 填充 broker 字段：队列位置、物理位置、存储时间
+            // 6 QUEUE_OFFSET
+            preEncodeBuffer.putLong(MessageDecoder.MESSAGE_QUEUE_OFFSET_POSTION, queueOffset);
+            // 7 PHYSICAL_OFFSET
+            preEncodeBuffer.putLong(MessageDecoder.MESSAGE_PHYSIC_OFFSET_POSTION, wroteOffset);
+            // 11 STORE_TIMESTAMP
+            preEncodeBuffer.putLong(MessageDecoder.MESSAGE_STORE_TIMESTAMP_POSTION, msgInner.getStoreTimestamp());
+
+            // Write messages to the queue buffer
+            preEncodeBuffer.position(0);
+            byteBuffer.put(preEncodeBuffer);
+            AppendMessageResult result = new AppendMessageResult(AppendMessageStatus.PUT_OK, wroteOffset, msgLen, null,
+                msgInner.getStoreTimestamp(), queueOffset, CommitLog.this.defaultMessageStore.now() - beginTimeMills, msgNum);
+
+            switch (tranType) {
+                case MessageSysFlag.TRANSACTION_PREPARED_TYPE:
+                case MessageSysFlag.TRANSACTION_ROLLBACK_TYPE:
+                    break;
+                    //更新消息队列逻辑偏移量 。
+                case MessageSysFlag.TRANSACTION_NOT_TYPE:
+                case MessageSysFlag.TRANSACTION_COMMIT_TYPE:
+                    // The next update ConsumeQueue information 更新队列的offset
+                    queueOffsetTable.put(msgInner.getTopic(), msgInner.getQueueId(), queueOffset + msgNum);
+                    break;
+                default:
+                    break;
+            }
+            return result;
+        }
+
+        public AppendMessageResult doAppend(final long fileFromOffset, final ByteBuffer byteBuffer, final int maxBlank,
+            final MessageExtBatch messageExtBatch) {
+            // PHY OFFSET
+            long wroteOffset = fileFromOffset + byteBuffer.position();
+
+            final TopicQueueOffsetTable queueOffsetTable = CommitLog.this.topicQueueTable;
+            long queueOffset = queueOffsetTable.get(messageExtBatch.getTopic(), messageExtBatch.getQueueId());
+            final long beginQueueOffset = queueOffset;
+
+            final long beginTimeMills = CommitLog.this.defaultMessageStore.now();
+            final ByteBuffer messagesByteBuff = messageExtBatch.getEncodedBuff();
+            final int totalMsgLen = messagesByteBuff.limit();
+
+            // 整个批次必须写入同一个文件，空间不足时写入文件尾空白，由调用方在新文件重试
+            if ((totalMsgLen + END_FILE_MIN_BLANK_LENGTH) > maxBlank) {
+                this.resetByteBuffer(this.msgStoreItemMemory, END_FILE_MIN_BLANK_LENGTH);
+                // 1 TOTAL_SIZE
+                this.msgStoreItemMemory.putInt(maxBlank);
+                // 2 MAGIC_CODE
+                this.msgStoreItemMemory.putInt(CommitLog.BLANK_MAGIC_CODE);
+                // 3 The remaining space may be any value
+                byteBuffer.put(this.msgStoreItemMemory.array(), 0, END_FILE_MIN_BLANK_LENGTH);
+                return new AppendMessageResult(AppendMessageStatus.END_OF_FILE, wroteOffset, maxBlank, "", messageExtBatch.getStoreTimestamp(),
+                    beginQueueOffset, CommitLog.this.defaultMessageStore.now() - beginTimeMills);
+            }
+
+            // 填充每条消息的 broker 字段：队列位置、物理位置、存储时间
+            this.resetByteBuffer(hostHolder, 8);
+            final ByteBuffer storeHostBytes = messageExtBatch.getStoreHostBytes(hostHolder);
+            final StringBuilder msgIdBuilder = new StringBuilder();
+            int msgNum = 0;
+            for (int msgPos = 0; msgPos < totalMsgLen; ) {
+                final int msgLen = messagesByteBuff.getInt(msgPos);
+                final long msgWroteOffset = wroteOffset + msgPos;
+                messagesByteBuff.putLong(msgPos + MessageDecoder.MESSAGE_QUEUE_OFFSET_POSTION, queueOffset);
+                messagesByteBuff.putLong(msgPos + MessageDecoder.MESSAGE_PHYSIC_OFFSET_POSTION, msgWroteOffset);
+                messagesByteBuff.putLong(msgPos + MessageDecoder.MESSAGE_STORE_TIMESTAMP_POSTION, messageExtBatch.getStoreTimestamp());
+
+                storeHostBytes.rewind();
+                String msgId = MessageDecoder.createMessageId(this.msgIdMemory, storeHostBytes, msgWroteOffset);
+                if (msgIdBuilder.length() > 0) {
+                    msgIdBuilder.append(',');
+                }
+                msgIdBuilder.append(msgId);
+
+                queueOffset++;
+                msgNum++;
+                msgPos += msgLen;
+            }
+
+            messagesByteBuff.position(0);
+            byteBuffer.put(messagesByteBuff);
+
+            AppendMessageResult result = new AppendMessageResult(AppendMessageStatus.PUT_OK, wroteOffset, totalMsgLen, msgIdBuilder.toString(),
+                messageExtBatch.getStoreTimestamp(), beginQueueOffset, CommitLog.this.defaultMessageStore.now() - beginTimeMills, msgNum);
+            // The next update ConsumeQueue information 更新队列的offset
+            queueOffsetTable.put(messageExtBatch.getTopic(), messageExtBatch.getQueueId(), queueOffset);
+            return result;
+        }
+
+        /**
+         * 重置字节缓冲区
+         *
+         * @param byteBuffer 字节缓冲区
+         * @param limit 长度
+         */
+        private void resetByteBuffer(final ByteBuffer byteBuffer, final int limit) {
+            byteBuffer.flip();
+            byteBuffer.limit(limit);
+        }
+    }
+
+    /**
+     * 单条消息编码器
+     * 在锁外将消息编码为 CommitLog 存储格式（含 body CRC），queue offset、physical offset、store timestamp 先填 0，追加时再填充
+     */
+    static class MessageExtEncoder {
+        /**
+         * 编码后的消息
+         */
+        private final ByteBuffer msgStoreItemMemory;
+        /**
+         * The maximum length of the message
+         */
+        private final int maxMessageSize;
+        private final ByteBuffer msgIdMemory = ByteBuffer.allocate(MessageDecoder.MSG_ID_LENGTH);
+        private final ByteBuffer hostHolder = ByteBuffer.allocate(8);
+
+        MessageExtEncoder(final int size) {
+            this.msgStoreItemMemory = ByteBuffer.allocate(size);
+            this.maxMessageSize = size;
+        }
+
+        /**
+         * 编码消息，成功后通过 {@link #getEncodedBuff()} 获取
+         *
+         * @param msgInner 消息
+         * @return PUT_OK 或 消息不合法的状态
+         */
+        public AppendMessageStatus encode(final MessageExtBrokerInner msgInner) {
             // 计算消息长度
             final byte[] propertiesData =
                 msgInner.getPropertiesString() == null ? null : msgInner.getPropertiesString().getBytes(MessageDecoder.CHARSET_UTF8);
             final int propertiesLength = propertiesData == null ? 0 : propertiesData.length;
             if (propertiesLength > Short.MAX_VALUE) {
                 log.warn("putMessage message properties length too long. length={}", propertiesData.length);
-                return new AppendMessageResult(AppendMessageStatus.PROPERTIES_SIZE_EXCEEDED);
+                return AppendMessageStatus.PROPERTIES_SIZE_EXCEEDED;
             }
             final byte[] topicData = msgInner.getTopic().getBytes(MessageDecoder.CHARSET_UTF8);
             final int topicLength = topicData.length;
@@ -1329,26 +2322,7 @@ public class CommitLog {
             if (msgLen > this.maxMessageSize) {
                 CommitLog.log.warn("message size exceeded, msg total size: " + msgLen + ", msg body size: " + bodyLength
                     + ", maxMessageSize: " + this.maxMessageSize);
-                return new AppendMessageResult(AppendMessageStatus.MESSAGE_SIZE_EXCEEDED);
-            }
-
-            // Determines(确定) whether there is sufficient(足够) free space
-            if ((msgLen + END_FILE_MIN_BLANK_LENGTH) > maxBlank) {
-                //Broker会重新创建一个新的 CommitLog文件来存储该消息。
-                this.resetByteBuffer(this.msgStoreItemMemory, maxBlank);
-                //每个 CommitLog文件最少会空闲8个字节，高4字节存储当前文件剩余空间，低4字节存储魔数 : CommitLog.BLANK MAGIC CODE 。
-                // 1 TOTAL_SIZE
-                this.msgStoreItemMemory.putInt(maxBlank);
-                // 2 MAGIC_CODE
-                this.msgStoreItemMemory.putInt(CommitLog.BLANK_MAGIC_CODE);
-                // 3 The remaining space may be any value
-                //
-
-                // 将消息内容存储到 ByteBuffer 中，然后创建 AppendMessageResult。 这里只 是将消息存储在 MappedFile对应的内存映射 Buffer中，并没有刷写到磁盘
-                final long beginTimeMills = CommitLog.this.defaultMessageStore.now();
-                byteBuffer.put(this.msgStoreItemMemory.array(), 0, maxBlank);
-                return new AppendMessageResult(AppendMessageStatus.END_OF_FILE, wroteOffset, maxBlank, msgId, msgInner.getStoreTimestamp(),
-                    queueOffset, CommitLog.this.defaultMessageStore.now() - beginTimeMills);
+                return AppendMessageStatus.MESSAGE_SIZE_EXCEEDED;
             }
 
             // Initialization of storage space
@@ -1364,9 +2338,9 @@ public class CommitLog {
             // 5 FLAG
             this.msgStoreItemMemory.putInt(msgInner.getFlag());
             // 6 QUEUE_OFFSET
-            this.msgStoreItemMemory.putLong(queueOffset);
+            this.msgStoreItemMemory.putLong(0);
             // 7 PHYSICAL_OFFSET
-            this.msgStoreItemMemory.putLong(fileFromOffset + byteBuffer.position());
+            this.msgStoreItemMemory.putLong(0);
             // 8 SYS_FLAG
             this.msgStoreItemMemory.putInt(msgInner.getSysFlag());
             // 9 BORN_TIMESTAMP
@@ -1375,11 +2349,10 @@ public class CommitLog {
             this.resetByteBuffer(hostHolder, 8);
             this.msgStoreItemMemory.put(msgInner.getBornHostBytes(hostHolder));
             // 11 STORE_TIMESTAMP
-            this.msgStoreItemMemory.putLong(msgInner.getStoreTimestamp());
+            this.msgStoreItemMemory.putLong(0);
             // 12 STORE_HOST_ADDRESS
             this.resetByteBuffer(hostHolder, 8);
             this.msgStoreItemMemory.put(msgInner.getStoreHostBytes(hostHolder));
-            //this.msgStoreItemMemory.put(msgInner.getStoreHostBytes());
             // 13 RECONSUME_TIMES
             this.msgStoreItemMemory.putInt(msgInner.getReconsumeTimes());
             // 14 Prepared Transaction Offset
@@ -1396,36 +2369,210 @@ public class CommitLog {
             if (propertiesLength > 0)
                 this.msgStoreItemMemory.put(propertiesData);
 
-            final long beginTimeMills = CommitLog.this.defaultMessageStore.now();
-            // Write messages to the queue buffer
-            //todo 方法前面是内存写入位置和偏移量的计算，以及一些消息数据的封装准备。
-            byteBuffer.put(this.msgStoreItemMemory.array(), 0, msgLen);
-            //todo 后边最终调用byteBuffer.put()方法写入内存，并计算了耗时，将消息写入的内存的位置信息、写入耗时封装为AppendMessageResult对象返回。
-                    AppendMessageResult result = new AppendMessageResult(AppendMessageStatus.PUT_OK, wroteOffset, msgLen, msgId,
-                msgInner.getStoreTimestamp(), queueOffset, CommitLog.this.defaultMessageStore.now() - beginTimeMills);
+            this.msgStoreItemMemory.flip();
+            return AppendMessageStatus.PUT_OK;
+        }
 
-            switch (tranType) {
-                case MessageSysFlag.TRANSACTION_PREPARED_TYPE:
-                case MessageSysFlag.TRANSACTION_ROLLBACK_TYPE:
-                    break;
-                    //更新消息队列逻辑偏移量 。
-                case MessageSysFlag.TRANSACTION_NOT_TYPE:
-                case MessageSysFlag.TRANSACTION_COMMIT_TYPE:
-                    // The next update ConsumeQueue information 更新队列的offset
-                    CommitLog.this.topicQueueTable.put(key, ++queueOffset);
-                    break;
-                default:
-                    break;
+        public ByteBuffer getEncodedBuff() {
+            return msgStoreItemMemory;
+        }
+
+        /**
+         * 校验客户端编码的 CommitLog 存储格式消息，并填充 broker 字段：queue id、sys flag、born host、store host、reconsume times
+         * queue offset、physical offset、store timestamp 在追加时填充
+         *
+         * @param msgInner 消息，{@link MessageExtBrokerInner#getEncodedBuff()} 为客户端编码的消息
+         * @return PUT_OK 或 消息不合法的状态
+         */
+        public AppendMessageStatus patch(final MessageExtBrokerInner msgInner) {
+            final ByteBuffer record = msgInner.getEncodedBuff();
+            final int msgLen = record.limit();
+            if (msgLen > this.maxMessageSize) {
+                CommitLog.log.warn("message size exceeded, msg total size: " + msgLen + ", maxMessageSize: " + this.maxMessageSize);
+                return AppendMessageStatus.MESSAGE_SIZE_EXCEEDED;
             }
-            return result;
+            if (msgLen < MessageDecoder.MESSAGE_BODY_LENGTH_POSTION + 4 + 1 + 2
+                || record.getInt(0) != msgLen
+                || record.getInt(MessageDecoder.MESSAGE_MAGIC_CODE_POSTION) != CommitLog.MESSAGE_MAGIC_CODE) {
+                CommitLog.log.warn("illegal store record, topic: {} length: {}", msgInner.getTopic(), msgLen);
+                return AppendMessageStatus.UNKNOWN_ERROR;
+            }
+
+            // 校验各部分长度 及 topic 与请求一致
+            final int bodyLength = record.getInt(MessageDecoder.MESSAGE_BODY_LENGTH_POSTION);
+            final int topicPos = MessageDecoder.MESSAGE_BODY_LENGTH_POSTION + 4 + bodyLength;
+            if (bodyLength < 0 || topicPos + 1 + 2 > msgLen) {
+                CommitLog.log.warn("illegal store record, topic: {} body length: {}", msgInner.getTopic(), bodyLength);
+                return AppendMessageStatus.UNKNOWN_ERROR;
+            }
+            final int topicLength = record.get(topicPos);
+            final byte[] topicData = msgInner.getTopic().getBytes(MessageDecoder.CHARSET_UTF8);
+            boolean topicMatched = topicLength == topicData.length && topicPos + 1 + topicLength + 2 <= msgLen;
+            for (int i = 0; topicMatched && i < topicLength; i++) {
+                topicMatched = record.get(topicPos + 1 + i) == topicData[i];
+            }
+            if (!topicMatched) {
+                CommitLog.log.warn("illegal store record, topic not matched: {}", msgInner.getTopic());
+                return AppendMessageStatus.UNKNOWN_ERROR;
+            }
+            final int propertiesLength = record.getShort(topicPos + 1 + topicLength);
+            if (calMsgLength(bodyLength, topicLength, propertiesLength) != msgLen) {
+                CommitLog.log.warn("illegal store record, topic: {} properties length: {}", msgInner.getTopic(), propertiesLength);
+                return AppendMessageStatus.UNKNOWN_ERROR;
+            }
+
+            msgInner.setBodyCRC(record.getInt(8));
+            // 4 QUEUE_ID
+            record.putInt(MessageDecoder.MESSAGE_QUEUE_ID_POSTION, msgInner.getQueueId());
+            // 8 SYS_FLAG
+            record.putInt(MessageDecoder.MESSAGE_SYS_FLAG_POSTION, msgInner.getSysFlag());
+            // 10 BORN_HOST
+            this.resetByteBuffer(hostHolder, 8);
+            record.position(MessageDecoder.MESSAGE_BORN_HOST_POSTION);
+            record.put(msgInner.getBornHostBytes(hostHolder));
+            // 12 STORE_HOST_ADDRESS
+            this.resetByteBuffer(hostHolder, 8);
+            record.position(MessageDecoder.MESSAGE_STORE_HOST_POSTION);
+            record.put(msgInner.getStoreHostBytes(hostHolder));
+            // 13 RECONSUME_TIMES
+            record.putInt(MessageDecoder.MESSAGE_RECONSUME_TIMES_POSTION, msgInner.getReconsumeTimes());
+            record.position(0);
+            return AppendMessageStatus.PUT_OK;
         }
 
         /**
-         * 重置字节缓冲区
+         * 计算commitLog里的msgId：4字节IP，4字节消息端口号，8字节消息偏移量
          *
-         * @param byteBuffer 字节缓冲区
-         * @param limit 长度
+         * @param msgInner 消息
+         * @param wroteOffset 消息物理位置
+         * @return msgId
+         */
+        public String createMessageId(final MessageExtBrokerInner msgInner, final long wroteOffset) {
+            this.resetByteBuffer(hostHolder, 8);
+            return MessageDecoder.createMessageId(this.msgIdMemory, msgInner.getStoreHostBytes(hostHolder), wroteOffset);
+        }
+
+        private void resetByteBuffer(final ByteBuffer byteBuffer, final int limit) {
+            byteBuffer.flip();
+            byteBuffer.limit(limit);
+        }
+    }
+
+    /**
+     * 批量消息编码器
+     * 将客户端格式的批量消息编码为 CommitLog 存储格式，queue offset、physical offset、store timestamp 先填 0，追加时再填充
+     */
+    static class MessageExtBatchEncoder {
+        /**
+         * 编码后的批量消息
          */
+        private final ByteBuffer msgBatchMemory;
+        /**
+         * The maximum length of the message
+         */
+        private final int maxMessageSize;
+        private final ByteBuffer hostHolder = ByteBuffer.allocate(8);
+
+        MessageExtBatchEncoder(final int size) {
+            this.msgBatchMemory = ByteBuffer.allocate(size);
+            this.maxMessageSize = size;
+        }
+
+        /**
+         * 编码批量消息
+         *
+         * @param messageExtBatch 批量消息
+         * @return 编码后的 buffer（position 0，limit 为总长度）；消息不合法时返回 null
+         */
+        public ByteBuffer encode(final MessageExtBatch messageExtBatch) {
+            msgBatchMemory.clear(); // not thread-safe
+            final byte[] batchBody = messageExtBatch.getBody();
+            if (batchBody == null) {
+                return null;
+            }
+
+            final byte[] topicData = messageExtBatch.getTopic().getBytes(MessageDecoder.CHARSET_UTF8);
+            final int topicLength = topicData.length;
+
+            ByteBuffer messagesByteBuff = messageExtBatch.wrap();
+            while (messagesByteBuff.hasRemaining()) {
+                // 1 TOTALSIZE
+                messagesByteBuff.getInt();
+                // 2 MAGICCODE
+                messagesByteBuff.getInt();
+                // 3 BODYCRC
+                messagesByteBuff.getInt();
+                // 4 FLAG
+                int flag = messagesByteBuff.getInt();
+                // 5 BODY
+                int bodyLen = messagesByteBuff.getInt();
+                int bodyPos = messagesByteBuff.position();
+                int bodyCrc = UtilAll.crc32(batchBody, bodyPos, bodyLen);
+                messagesByteBuff.position(bodyPos + bodyLen);
+                // 6 properties
+                short propertiesLen = messagesByteBuff.getShort();
+                int propertiesPos = messagesByteBuff.position();
+                messagesByteBuff.position(propertiesPos + propertiesLen);
+
+                final int msgLen = calMsgLength(bodyLen, topicLength, propertiesLen);
+
+                // Exceeds the maximum message
+                if (msgLen > this.maxMessageSize) {
+                    CommitLog.log.warn("message size exceeded, msg total size: " + msgLen + ", msg body size: " + bodyLen
+                        + ", maxMessageSize: " + this.maxMessageSize);
+                    return null;
+                }
+                if (msgLen > msgBatchMemory.remaining()) {
+                    CommitLog.log.warn("message batch size exceeded, maxMessageSize: " + this.maxMessageSize);
+                    return null;
+                }
+
+                // 1 TOTALSIZE
+                this.msgBatchMemory.putInt(msgLen);
+                // 2 MAGICCODE
+                this.msgBatchMemory.putInt(CommitLog.MESSAGE_MAGIC_CODE);
+                // 3 BODYCRC
+                this.msgBatchMemory.putInt(bodyCrc);
+                // 4 QUEUEID
+                this.msgBatchMemory.putInt(messageExtBatch.getQueueId());
+                // 5 FLAG
+                this.msgBatchMemory.putInt(flag);
+                // 6 QUEUEOFFSET
+                this.msgBatchMemory.putLong(0);
+                // 7 PHYSICALOFFSET
+                this.msgBatchMemory.putLong(0);
+                // 8 SYSFLAG
+                this.msgBatchMemory.putInt(messageExtBatch.getSysFlag());
+                // 9 BORNTIMESTAMP
+                this.msgBatchMemory.putLong(messageExtBatch.getBornTimestamp());
+                // 10 BORNHOST
+                this.resetByteBuffer(hostHolder, 8);
+                this.msgBatchMemory.put(messageExtBatch.getBornHostBytes(hostHolder));
+                // 11 STORETIMESTAMP
+                this.msgBatchMemory.putLong(0);
+                // 12 STOREHOSTADDRESS
+                this.resetByteBuffer(hostHolder, 8);
+                this.msgBatchMemory.put(messageExtBatch.getStoreHostBytes(hostHolder));
+                // 13 RECONSUMETIMES
+                this.msgBatchMemory.putInt(messageExtBatch.getReconsumeTimes());
+                // 14 Prepared Transaction Offset, batch does not support transaction
+                this.msgBatchMemory.putLong(0);
+                // 15 BODY
+                this.msgBatchMemory.putInt(bodyLen);
+                if (bodyLen > 0)
+                    this.msgBatchMemory.put(batchBody, bodyPos, bodyLen);
+                // 16 TOPIC
+                this.msgBatchMemory.put((byte) topicLength);
+                this.msgBatchMemory.put(topicData);
+                // 17 PROPERTIES
+                this.msgBatchMemory.putShort(propertiesLen);
+                if (propertiesLen > 0)
+                    this.msgBatchMemory.put(batchBody, propertiesPos, propertiesLen);
+            }
+            msgBatchMemory.flip();
+            return msgBatchMemory;
+        }
+
         private void resetByteBuffer(final ByteBuffer byteBuffer, final int limit) {
             byteBuffer.flip();
             byteBuffer.limit(limit);
@@ -0,0 +1,284 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.rocketmq.common.ServiceThread;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.common.sysflag.MessageSysFlag;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * CommitLog 流水线调度服务
+ * ReputMessageService 只负责解析 {@link DispatchRequest}，之后：
+ * 1. ConsumeQueue 按 topic + queueId 分片到多个线程构建，同一个队列始终由同一个线程按顺序写入
+ * 2. IndexFile 及 其他注册的 {@link CommitLogDispatcher} 由单独线程按 CommitLog 顺序异步构建，不影响消息对消费者可见
+ */
+public class CommitLogDispatchService {
+
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    /**
+     * 每个分片队列容量。队列满时重放线程阻塞，积压留在 CommitLog 中
+     */
+    private static final int DISPATCH_QUEUE_CAPACITY = 1024 * 16;
+
+    private final DefaultMessageStore defaultMessageStore;
+
+    private final ConsumeQueueDispatchService[] consumeQueueDispatchServices;
+
+    private final AsyncDispatchService asyncDispatchService;
+
+    /**
+     * 已解析但未构建 ConsumeQueue 的字节数，计入 dispatchBehindBytes
+     */
+    private final AtomicLong pendingConsumeQueueBytes = new AtomicLong(0);
+
+    /**
+     * 最后一个交给分片线程的请求的存储时间
+     */
+    private volatile long lastDispatchedTimestamp = 0;
+
+    /**
+     * 最后一个交给分片线程的请求的结束物理位置
+     */
+    private volatile long lastDispatchedPhyOffset = 0;
+
+    public CommitLogDispatchService(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+        int threadNums = defaultMessageStore.getMessageStoreConfig().getDispatchConsumeQueueThreadNums();
+        this.consumeQueueDispatchServices = new ConsumeQueueDispatchService[Math.max(threadNums, 0)];
+        for (int i = 0; i < this.consumeQueueDispatchServices.length; i++) {
+            this.consumeQueueDispatchServices[i] = new ConsumeQueueDispatchService(i);
+        }
+        this.asyncDispatchService = new AsyncDispatchService();
+    }
+
+    /**
+     * 是否启用流水线调度。未启用时，重放线程同步调用 {@link DefaultMessageStore#doDispatch(DispatchRequest)}
+     *
+     * @return 是否启用
+     */
+    public boolean isEnable() {
+        return this.consumeQueueDispatchServices.length > 0;
+    }
+
+    public void start() {
+        if (!isEnable()) {
+            return;
+        }
+        for (ConsumeQueueDispatchService service : this.consumeQueueDispatchServices) {
+            service.start();
+        }
+        this.asyncDispatchService.start();
+    }
+
+    /**
+     * 关闭。先处理完分片队列中剩余的请求，再关闭异步调度线程
+     */
+    public void shutdown() {
+        if (!isEnable()) {
+            return;
+        }
+        for (ConsumeQueueDispatchService service : this.consumeQueueDispatchServices) {
+            service.shutdown();
+        }
+        this.asyncDispatchService.shutdown();
+    }
+
+    /**
+     * 调度请求。由重放线程按 CommitLog 顺序调用，分片队列满时阻塞
+     *
+     * @param request 调度请求
+     * @throws InterruptedException 当线程被打断
+     */
+    public void dispatch(final DispatchRequest request) throws InterruptedException {
+        if (isConsumeQueueRequired(request)) {
+            this.pendingConsumeQueueBytes.addAndGet(request.getMsgSize());
+            this.lastDispatchedTimestamp = request.getStoreTimestamp();
+            this.consumeQueueDispatchServices[shard(request)].putRequest(request);
+            // 入队后再更新，check point 计算时不会越过尚未入队的请求
+            this.lastDispatchedPhyOffset = request.getCommitLogOffset() + request.getMsgSize();
+        }
+        if (this.defaultMessageStore.getDispatcherList().size() > 1) {
+            this.asyncDispatchService.putRequest(request);
+        }
+    }
+
+    public long getPendingConsumeQueueBytes() {
+        return pendingConsumeQueueBytes.get();
+    }
+
+    private int shard(final DispatchRequest request) {
+        int hash = request.getTopic().hashCode() * 31 + request.getQueueId();
+        return (hash & Integer.MAX_VALUE) % this.consumeQueueDispatchServices.length;
+    }
+
+    private static boolean isConsumeQueueRequired(final DispatchRequest request) {
+        final int tranType = MessageSysFlag.getTransactionValue(request.getSysFlag());
+        return tranType == MessageSysFlag.TRANSACTION_NOT_TYPE || tranType == MessageSysFlag.TRANSACTION_COMMIT_TYPE;
+    }
+
+    /**
+     * 更新 ConsumeQueue 存储 check point
+     * 各分片进度不同，取所有分片中 未完成请求 的最小存储时间及物理位置，保证 check point 之前的消息都已构建 ConsumeQueue
+     */
+    private void updateLogicsCheckpoint() {
+        // 必须先读取，之后入队的请求存储时间、物理位置不小于该值
+        long timestamp = this.lastDispatchedTimestamp;
+        long phyOffset = this.lastDispatchedPhyOffset;
+        for (ConsumeQueueDispatchService service : this.consumeQueueDispatchServices) {
+            DispatchRequest head = service.requestQueue.peek();
+            if (head != null) {
+                timestamp = Math.min(timestamp, head.getStoreTimestamp());
+                phyOffset = Math.min(phyOffset, head.getCommitLogOffset());
+            }
+        }
+        if (timestamp > 1) {
+            this.defaultMessageStore.getStoreCheckpoint().setLogicsMsgTimestamp(timestamp - 1);
+        }
+        if (phyOffset > 0) {
+            this.defaultMessageStore.setLogicsPhyOffset(phyOffset);
+        }
+    }
+
+    /**
+     * ConsumeQueue 分片构建线程
+     */
+    class ConsumeQueueDispatchService extends ServiceThread {
+
+        private final BlockingQueue<DispatchRequest> requestQueue = new ArrayBlockingQueue<>(DISPATCH_QUEUE_CAPACITY);
+
+        private final int index;
+
+        ConsumeQueueDispatchService(final int index) {
+            this.index = index;
+            this.thread.setName(this.getServiceName() + index);
+        }
+
+        void putRequest(final DispatchRequest request) throws InterruptedException {
+            this.requestQueue.put(request);
+            this.wakeup();
+        }
+
+        /**
+         * 处理队头请求。处理完成后才出队，保证 check point 计算时未完成的请求一定在队列中
+         *
+         * @return 是否处理了请求
+         */
+        private boolean doDispatch() {
+            DispatchRequest request = this.requestQueue.peek();
+            if (request == null) {
+                return false;
+            }
+            try {
+                ConsumeQueue cq = defaultMessageStore.findConsumeQueue(request.getTopic(), request.getQueueId());
+                for (int i = 0; i < request.getBatchSize(); i++) {
+                    cq.putMessagePositionInfoWithRetry(request.getCommitLogOffset(), request.getMsgSize(), request.getTagsCode(),
+                        request.getConsumeQueueOffset() + i);
+                }
+                cq.putSideFiles(request);
+            } finally {
+                this.requestQueue.poll();
+                pendingConsumeQueueBytes.addAndGet(-request.getMsgSize());
+            }
+            updateLogicsCheckpoint();
+            // 构建完成后再通知有新消息
+            defaultMessageStore.onDispatchComplete(request);
+            return true;
+        }
+
+        @Override
+        public void run() {
+            log.info(this.getServiceName() + this.index + " service started");
+
+            while (!this.isStopped()) {
+                try {
+                    if (!this.doDispatch()) {
+                        this.waitForRunning(10);
+                    }
+                } catch (Exception e) {
+                    log.warn(this.getServiceName() + this.index + " service has exception. ", e);
+                }
+            }
+
+            // 关闭前处理完剩余请求
+            while (this.doDispatch()) {
+            }
+
+            log.info(this.getServiceName() + this.index + " service end");
+        }
+
+        @Override
+        public String getServiceName() {
+            return ConsumeQueueDispatchService.class.getSimpleName();
+        }
+    }
+
+    /**
+     * 异步调度线程：构建 IndexFile 及 执行其他注册的调度器
+     */
+    class AsyncDispatchService extends ServiceThread {
+
+        private final BlockingQueue<DispatchRequest> requestQueue = new ArrayBlockingQueue<>(DISPATCH_QUEUE_CAPACITY);
+
+        void putRequest(final DispatchRequest request) throws InterruptedException {
+            this.requestQueue.put(request);
+        }
+
+        private void doDispatch(final DispatchRequest request) {
+            for (CommitLogDispatcher dispatcher : defaultMessageStore.getDispatcherList()) {
+                // ConsumeQueue 已由分片线程构建
+                if (!(dispatcher instanceof DefaultMessageStore.CommitLogDispatcherBuildConsumeQueue)) {
+                    dispatcher.dispatch(request);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            log.info(this.getServiceName() + " service started");
+
+            while (!this.isStopped()) {
+                try {
+                    DispatchRequest request = this.requestQueue.poll(10, TimeUnit.MILLISECONDS);
+                    if (request != null) {
+                        this.doDispatch(request);
+                    }
+                } catch (Exception e) {
+                    log.warn(this.getServiceName() + " service has exception. ", e);
+                }
+            }
+
+            // 关闭前处理完剩余请求
+            for (DispatchRequest request = this.requestQueue.poll(); request != null; request = this.requestQueue.poll()) {
+                this.doDispatch(request);
+            }
+
+            log.info(this.getServiceName() + " service end");
+        }
+
+        @Override
+        public String getServiceName() {
+            return AsyncDispatchService.class.getSimpleName();
+        }
+    }
+}
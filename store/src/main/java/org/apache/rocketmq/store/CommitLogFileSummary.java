@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+/**
+ * CommitLog 文件摘要，文件写满并刷盘后记录，用于快速恢复时校验文件
+ */
+public class CommitLogFileSummary {
+    /**
+     * 文件起始物理位置
+     */
+    private long fromOffset;
+    /**
+     * 有效数据长度，即文件末尾空白标记所在位置
+     */
+    private int validLength;
+    /**
+     * 文件中的记录数
+     */
+    private int msgCount;
+    /**
+     * 有效数据末尾 {@link CommitLogSummary#TAIL_CRC_LENGTH} 字节的 CRC
+     */
+    private int tailCrc;
+
+    public CommitLogFileSummary() {
+    }
+
+    public CommitLogFileSummary(long fromOffset, int validLength, int msgCount, int tailCrc) {
+        this.fromOffset = fromOffset;
+        this.validLength = validLength;
+        this.msgCount = msgCount;
+        this.tailCrc = tailCrc;
+    }
+
+    public long getFromOffset() {
+        return fromOffset;
+    }
+
+    public void setFromOffset(long fromOffset) {
+        this.fromOffset = fromOffset;
+    }
+
+    public int getValidLength() {
+        return validLength;
+    }
+
+    public void setValidLength(int validLength) {
+        this.validLength = validLength;
+    }
+
+    public int getMsgCount() {
+        return msgCount;
+    }
+
+    public void setMsgCount(int msgCount) {
+        this.msgCount = msgCount;
+    }
+
+    public int getTailCrc() {
+        return tailCrc;
+    }
+
+    public void setTailCrc(int tailCrc) {
+        this.tailCrc = tailCrc;
+    }
+
+    @Override
+    public String toString() {
+        return "CommitLogFileSummary [fromOffset=" + fromOffset + ", validLength=" + validLength
+            + ", msgCount=" + msgCount + ", tailCrc=" + tailCrc + "]";
+    }
+}
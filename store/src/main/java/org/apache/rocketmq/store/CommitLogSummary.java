@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import org.apache.rocketmq.common.ConfigManager;
+import org.apache.rocketmq.store.config.StorePathConfigHelper;
+
+/**
+ * CommitLog 文件摘要表，持久化到 {@link StorePathConfigHelper#getCommitLogSummary(String)}
+ * 快速恢复时，摘要校验通过的文件不再逐条校验消息
+ */
+public class CommitLogSummary extends ConfigManager {
+
+    /**
+     * 校验文件有效数据末尾的字节数
+     */
+    public static final int TAIL_CRC_LENGTH = 4096;
+
+    private final String storePathRootDir;
+
+    private final ConcurrentSkipListMap<Long /* fromOffset */, CommitLogFileSummary> summaryTable = new ConcurrentSkipListMap<>();
+
+    public CommitLogSummary(final String storePathRootDir) {
+        this.storePathRootDir = storePathRootDir;
+    }
+
+    public CommitLogFileSummary get(final long fromOffset) {
+        return this.summaryTable.get(fromOffset);
+    }
+
+    public void put(final CommitLogFileSummary summary) {
+        this.summaryTable.put(summary.getFromOffset(), summary);
+    }
+
+    /**
+     * 移除已删除文件的摘要
+     *
+     * @param minOffset CommitLog 最小物理位置
+     * @return 是否有摘要被移除
+     */
+    public boolean removeBefore(final long minOffset) {
+        Map<Long, CommitLogFileSummary> expired = this.summaryTable.headMap(minOffset);
+        if (expired.isEmpty()) {
+            return false;
+        }
+        expired.clear();
+        return true;
+    }
+
+    /**
+     * 移除有效数据超过 processOffset 的文件的摘要，用于恢复截断 CommitLog 后
+     *
+     * @param processOffset 恢复后的 CommitLog 最大物理位置
+     */
+    public void truncate(final long processOffset) {
+        Iterator<Map.Entry<Long, CommitLogFileSummary>> it = this.summaryTable.entrySet().iterator();
+        while (it.hasNext()) {
+            CommitLogFileSummary summary = it.next().getValue();
+            if (summary.getFromOffset() + summary.getValidLength() > processOffset) {
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public String encode() {
+        return this.encode(false);
+    }
+
+    @Override
+    public String configFilePath() {
+        return StorePathConfigHelper.getCommitLogSummary(this.storePathRootDir);
+    }
+
+    @Override
+    public void decode(String jsonString) {
+        if (jsonString != null) {
+            CommitLogSummarySerializeWrapper wrapper =
+                CommitLogSummarySerializeWrapper.fromJson(jsonString, CommitLogSummarySerializeWrapper.class);
+            if (wrapper != null && wrapper.getSummaryTable() != null) {
+                this.summaryTable.putAll(wrapper.getSummaryTable());
+            }
+        }
+    }
+
+    @Override
+    public String encode(final boolean prettyFormat) {
+        CommitLogSummarySerializeWrapper wrapper = new CommitLogSummarySerializeWrapper();
+        wrapper.setSummaryTable(new ConcurrentHashMap<>(this.summaryTable));
+        return wrapper.toJson(prettyFormat);
+    }
+}
@@ -0,0 +1,885 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 紧凑格式消费队列
+ * 文件按固定大小分块，每块由块头和位置信息组成。位置信息只记录相对块头 commitLog 位置的差值，tagsCode 能用 int 表示时只占 4 字节：
+ * <pre>
+ * 块头(36)：magic(4) | 位置信息大小(4) | 第一条的队列位置(8) | 第一条的 commitLog 位置(8) | 第一条的存储时间(8) | 块大小(4)
+ * 位置信息(12/16)：commitLog 位置差值(4) | 消息长度(4) | tagsCode(4/8)
+ * </pre>
+ * 差值超过 int、tagsCode 超过 int 或队列位置不连续时开始新块。内存中按块头建立块索引，按队列位置、存储时间二分查找块
+ * 读取时解码成 {@link ConsumeQueue#CQ_STORE_UNIT_SIZE} 格式返回，调用方不需要区分格式
+ * 块大小记录在块头中，加载已有队列时使用文件中记录的块大小，修改 compactConsumeQueueBlockSize 只影响新建的队列
+ */
+public class CompactConsumeQueue extends ConsumeQueue {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+    private static final Logger LOG_ERROR = LoggerFactory.getLogger(LoggerName.STORE_ERROR_LOGGER_NAME);
+
+    public static final int BLOCK_MAGIC = 0xAABBCC18;
+    public static final int BLOCK_HEADER_SIZE = 36;
+    /**
+     * tagsCode 使用 int 存储的位置信息大小
+     */
+    public static final int NARROW_UNIT_SIZE = 12;
+    /**
+     * tagsCode 使用 long 存储的位置信息大小，例如定时消息的投递时间
+     */
+    public static final int WIDE_UNIT_SIZE = 16;
+
+    private final int blockSize;
+    /**
+     * 块索引，新增、删除块时加写锁
+     */
+    private final BlockIndex blockIndex = new BlockIndex();
+    private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+    /**
+     * 下一条位置信息的队列位置，写入位置信息后更新
+     */
+    private volatile long maxOffsetInQueue = 0;
+
+    // 当前块，只在写入线程访问
+    private long currentBlockPosition = -1;
+    private int currentUnitSize = 0;
+    private long currentBasePhyOffset = -1;
+
+    private final ByteBuffer narrowUnit = ByteBuffer.allocate(NARROW_UNIT_SIZE);
+    private final ByteBuffer wideUnit = ByteBuffer.allocate(WIDE_UNIT_SIZE);
+    private final ByteBuffer narrowBlock = ByteBuffer.allocate(BLOCK_HEADER_SIZE + NARROW_UNIT_SIZE);
+    private final ByteBuffer wideBlock = ByteBuffer.allocate(BLOCK_HEADER_SIZE + WIDE_UNIT_SIZE);
+
+    public CompactConsumeQueue(
+        final String topic,
+        final int queueId,
+        final String storePath,
+        final int mappedFileSize,
+        final int blockSize,
+        final DefaultMessageStore defaultMessageStore) {
+        super(topic, queueId, storePath, mappedFileSize, defaultMessageStore);
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * 读取已有文件中记录的块大小
+     *
+     * @param queueDir 队列目录
+     * @return 块大小，没有文件或第一块无效时返回 -1
+     */
+    public static int readBlockSize(final String queueDir) {
+        File[] files = new File(queueDir).listFiles();
+        if (null == files || files.length == 0) {
+            return -1;
+        }
+        Arrays.sort(files);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(files[0], "r")) {
+            if (randomAccessFile.length() < BLOCK_HEADER_SIZE) {
+                return -1;
+            }
+            byte[] header = new byte[BLOCK_HEADER_SIZE];
+            randomAccessFile.readFully(header);
+            ByteBuffer byteBuffer = ByteBuffer.wrap(header);
+            if (byteBuffer.getInt(0) != BLOCK_MAGIC) {
+                return -1;
+            }
+            return byteBuffer.getInt(32);
+        } catch (IOException e) {
+            log.warn("read compact consume queue block size failed, " + files[0], e);
+            return -1;
+        }
+    }
+
+    @Override
+    public void recover() {
+        final List<MappedFile> mappedFiles = this.mappedFileQueue.getMappedFiles();
+        this.indexLock.writeLock().lock();
+        try {
+            this.blockIndex.clear();
+            if (!mappedFiles.isEmpty()) {
+                long processOffset = mappedFiles.get(0).getFileFromOffset();
+                recover:
+                for (MappedFile mappedFile : mappedFiles) {
+                    ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+                    for (int blockStart = 0; blockStart < this.mappedFileSize; blockStart += this.blockSize) {
+                        final int unitNums = this.countUnits(byteBuffer, blockStart);
+                        if (unitNums > 0 && byteBuffer.getInt(blockStart + 32) != this.blockSize) {
+                            LOG_ERROR.error("compact consume queue block size not matched, " + mappedFile.getFileName() + " " + blockStart
+                                + ", expected: " + this.blockSize + ", actual: " + byteBuffer.getInt(blockStart + 32));
+                            break recover;
+                        }
+                        if (unitNums <= 0) {
+                            log.info("recover compact consume queue over, " + mappedFile.getFileName() + " " + blockStart);
+                            break recover;
+                        }
+                        final int unitSize = byteBuffer.getInt(blockStart + 4);
+                        final long firstOffset = byteBuffer.getLong(blockStart + 8);
+                        final long basePhyOffset = byteBuffer.getLong(blockStart + 16);
+                        this.blockIndex.append(mappedFile.getFileFromOffset() + blockStart, firstOffset,
+                            byteBuffer.getLong(blockStart + 24), unitNums);
+                        final int lastUnit = blockStart + BLOCK_HEADER_SIZE + (unitNums - 1) * unitSize;
+                        this.maxPhysicOffset = basePhyOffset + byteBuffer.getInt(lastUnit);
+                        this.maxOffsetInQueue = firstOffset + unitNums;
+                        processOffset = mappedFile.getFileFromOffset() + lastUnit + unitSize;
+                    }
+                }
+
+                this.mappedFileQueue.setFlushedWhere(processOffset);
+                this.mappedFileQueue.setCommittedWhere(processOffset);
+                this.mappedFileQueue.truncateDirtyFiles(processOffset);
+                if (this.blockIndex.size() > 0) {
+                    this.minLogicOffset = Math.max(this.minLogicOffset, this.blockIndex.getFirstOffset(0) * CQ_STORE_UNIT_SIZE);
+                }
+                log.info("recover compact consume queue " + this.topic + "-" + this.queueId + ", blocks: "
+                    + this.blockIndex.size() + ", max offset: " + this.maxOffsetInQueue);
+            }
+            this.resetCurrentBlock();
+        } finally {
+            this.indexLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public long getOffsetInQueueByTime(final long timestamp) {
+        this.ensureLoaded();
+        final long indexOffset = this.lookupTimeIndex(timestamp);
+        if (indexOffset >= 0) {
+            return indexOffset;
+        }
+        final long minOffset = this.getMinOffsetInQueue();
+        long firstOffset;
+        int unitNums;
+        long blockPosition;
+        long nextOffset = -1;
+        long nextTimestamp = -1;
+        this.indexLock.readLock().lock();
+        try {
+            final int size = this.blockIndex.size();
+            if (size == 0) {
+                return 0;
+            }
+            int i = Math.max(0, this.blockIndex.floorByTime(timestamp));
+            // 跳过已过期的块
+            while (i < size - 1 && this.blockIndex.getFirstOffset(i) + this.blockUnitNums(i) <= minOffset) {
+                i++;
+            }
+            firstOffset = this.blockIndex.getFirstOffset(i);
+            unitNums = this.blockUnitNums(i);
+            blockPosition = this.blockIndex.getPosition(i);
+            if (i < size - 1) {
+                nextOffset = this.blockIndex.getFirstOffset(i + 1);
+                nextTimestamp = this.blockIndex.getStoreTimestamp(i + 1);
+            }
+        } finally {
+            this.indexLock.readLock().unlock();
+        }
+
+        SelectMappedBufferResult block = this.selectBlock(blockPosition);
+        if (null == block) {
+            return 0;
+        }
+        try {
+            ByteBuffer byteBuffer = block.getByteBuffer();
+            unitNums = Math.min(unitNums, this.readableUnits(byteBuffer));
+            long low = Math.max(firstOffset, minOffset);
+            long high = firstOffset + unitNums - 1;
+            long targetOffset = -1, leftOffset = -1, rightOffset = nextOffset;
+            long leftIndexValue = -1L, rightIndexValue = nextTimestamp;
+            long minPhysicOffset = this.defaultMessageStore.getMinPhyOffset();
+            while (high >= low) {
+                long midOffset = (low + high) >>> 1;
+                int unit = (int) (midOffset - firstOffset);
+                long phyOffset = unitPhyOffset(byteBuffer, unit);
+                if (phyOffset < minPhysicOffset) {
+                    low = midOffset + 1;
+                    leftOffset = midOffset;
+                    continue;
+                }
+
+                long storeTime = this.defaultMessageStore.getCommitLog().pickupStoreTimestamp(phyOffset, unitMsgSize(byteBuffer, unit));
+                if (storeTime < 0) {
+                    return 0;
+                } else if (storeTime == timestamp) {
+                    // 与 ConsumeQueue 一致，返回存储时间相同的第一条
+                    high = midOffset - 1;
+                    targetOffset = midOffset;
+                } else if (storeTime > timestamp) {
+                    high = midOffset - 1;
+                    rightOffset = midOffset;
+                    rightIndexValue = storeTime;
+                } else {
+                    low = midOffset + 1;
+                    leftOffset = midOffset;
+                    leftIndexValue = storeTime;
+                }
+            }
+
+            if (targetOffset != -1) {
+                return targetOffset;
+            } else if (leftIndexValue == -1) {
+                return rightOffset != -1 ? rightOffset : Math.max(leftOffset, firstOffset);
+            } else if (rightIndexValue == -1) {
+                return leftOffset;
+            } else {
+                return Math.abs(timestamp - leftIndexValue) > Math.abs(timestamp - rightIndexValue) ? rightOffset : leftOffset;
+            }
+        } finally {
+            block.release();
+        }
+    }
+
+    @Override
+    public void truncateDirtyLogicFiles(long phyOffet) {
+        if (!this.isLoaded() && this.maxPhysicOffset < phyOffet) {
+            return;
+        }
+        this.ensureLoaded();
+
+        this.maxPhysicOffset = phyOffet - 1;
+        long truncateWhere = -1;
+        this.indexLock.writeLock().lock();
+        try {
+            while (this.blockIndex.size() > 0) {
+                final int last = this.blockIndex.size() - 1;
+                final long blockPosition = this.blockIndex.getPosition(last);
+                final long firstOffset = this.blockIndex.getFirstOffset(last);
+                final ByteBuffer byteBuffer = this.sliceBlock(blockPosition);
+                if (null == byteBuffer) {
+                    break;
+                }
+                final int unitNums = Math.min(this.blockUnitNums(last), this.readableUnits(byteBuffer));
+                if (unitNums <= 0 || unitPhyOffset(byteBuffer, 0) >= phyOffet) {
+                    // 整块删除，前一块成为当前块
+                    this.blockIndex.removeLast();
+                    truncateWhere = blockPosition;
+                    this.maxOffsetInQueue = this.blockIndex.size() > 0
+                        ? this.blockIndex.getFirstOffset(last - 1) + this.blockIndex.getUnitNums(last - 1) : firstOffset;
+                    continue;
+                }
+
+                // 保留 commitLog 位置小于 phyOffet 的位置信息
+                int keep = 1;
+                int high = unitNums;
+                while (keep < high) {
+                    int mid = (keep + high + 1) >>> 1;
+                    if (unitPhyOffset(byteBuffer, mid - 1) < phyOffet) {
+                        keep = mid;
+                    } else {
+                        high = mid - 1;
+                    }
+                }
+                if (keep < unitNums || truncateWhere != -1) {
+                    truncateWhere = blockPosition + BLOCK_HEADER_SIZE + keep * byteBuffer.getInt(4);
+                }
+                this.blockIndex.setUnitNums(last, keep);
+                this.maxOffsetInQueue = firstOffset + keep;
+                this.maxPhysicOffset = unitPhyOffset(byteBuffer, keep - 1);
+                break;
+            }
+
+            if (truncateWhere != -1) {
+                this.clearDirtyData(truncateWhere);
+                this.mappedFileQueue.truncateDirtyFiles(truncateWhere);
+                this.mappedFileQueue.setFlushedWhere(Math.min(this.mappedFileQueue.getFlushedWhere(), truncateWhere));
+                this.mappedFileQueue.setCommittedWhere(Math.min(this.mappedFileQueue.getCommittedWhere(), truncateWhere));
+                log.info("truncate compact consume queue " + this.topic + "-" + this.queueId + " to " + truncateWhere
+                    + ", max offset: " + this.maxOffsetInQueue);
+            }
+            this.resetCurrentBlock();
+        } finally {
+            this.indexLock.writeLock().unlock();
+        }
+        this.truncateTimeIndex();
+    }
+
+    @Override
+    public long getLastOffset() {
+        this.ensureLoaded();
+        long blockPosition;
+        int unitNums;
+        this.indexLock.readLock().lock();
+        try {
+            final int size = this.blockIndex.size();
+            if (size == 0) {
+                return -1;
+            }
+            blockPosition = this.blockIndex.getPosition(size - 1);
+            unitNums = this.blockUnitNums(size - 1);
+        } finally {
+            this.indexLock.readLock().unlock();
+        }
+
+        SelectMappedBufferResult block = this.selectBlock(blockPosition);
+        if (null == block) {
+            return -1;
+        }
+        try {
+            unitNums = Math.min(unitNums, this.readableUnits(block.getByteBuffer()));
+            if (unitNums <= 0) {
+                return -1;
+            }
+            return unitPhyOffset(block.getByteBuffer(), unitNums - 1) + unitMsgSize(block.getByteBuffer(), unitNums - 1);
+        } finally {
+            block.release();
+        }
+    }
+
+    @Override
+    public int deleteExpiredFile(long offset) {
+        // 未加载的队列加载后再清理
+        if (!this.isLoaded()) {
+            return 0;
+        }
+        int cnt = 0;
+        List<MappedFile> mappedFiles = new ArrayList<>(this.mappedFileQueue.getMappedFiles());
+        for (int i = 0; i < mappedFiles.size() - 1; i++) {
+            MappedFile mappedFile = mappedFiles.get(i);
+            // 非最后一个文件写满后才使用下一个文件，最后一块一定存在
+            ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+            int lastBlock = this.mappedFileSize - this.blockSize;
+            int unitNums = this.countUnits(byteBuffer, lastBlock);
+            if (unitNums <= 0) {
+                log.warn("compact consume queue file has no last block, " + mappedFile.getFileName());
+                break;
+            }
+            long maxOffsetInLogicQueue = byteBuffer.getLong(lastBlock + 16)
+                + byteBuffer.getInt(lastBlock + BLOCK_HEADER_SIZE + (unitNums - 1) * byteBuffer.getInt(lastBlock + 4));
+            if (maxOffsetInLogicQueue >= offset || !this.mappedFileQueue.deleteFirstFile(mappedFile, 1000 * 60)) {
+                break;
+            }
+            log.info("physic min offset " + offset + ", logics in current mappedFile max offset "
+                + maxOffsetInLogicQueue + ", delete it");
+
+            this.indexLock.writeLock().lock();
+            try {
+                this.blockIndex.removeBefore(mappedFile.getFileFromOffset() + this.mappedFileSize);
+            } finally {
+                this.indexLock.writeLock().unlock();
+            }
+            cnt++;
+        }
+        this.correctMinOffset(offset);
+        this.deleteExpiredSideFiles();
+        return cnt;
+    }
+
+    @Override
+    public void correctMinOffset(long phyMinOffset) {
+        if (!this.isLoaded()) {
+            return;
+        }
+        this.indexLock.readLock().lock();
+        try {
+            for (int i = 0; i < this.blockIndex.size(); i++) {
+                SelectMappedBufferResult block = this.selectBlock(this.blockIndex.getPosition(i));
+                if (null == block) {
+                    continue;
+                }
+                try {
+                    ByteBuffer byteBuffer = block.getByteBuffer();
+                    int unitNums = Math.min(this.blockUnitNums(i), this.readableUnits(byteBuffer));
+                    if (unitNums <= 0 || unitPhyOffset(byteBuffer, unitNums - 1) < phyMinOffset) {
+                        continue;
+                    }
+                    // 第一条 commitLog 位置不小于 phyMinOffset 的位置信息
+                    int low = 0;
+                    int high = unitNums - 1;
+                    while (low < high) {
+                        int mid = (low + high) >>> 1;
+                        if (unitPhyOffset(byteBuffer, mid) >= phyMinOffset) {
+                            high = mid;
+                        } else {
+                            low = mid + 1;
+                        }
+                    }
+                    this.minLogicOffset = (this.blockIndex.getFirstOffset(i) + low) * CQ_STORE_UNIT_SIZE;
+                    log.info("compute logics min offset: " + this.getMinOffsetInQueue() + ", topic: "
+                        + this.topic + ", queueId: " + this.queueId);
+                    return;
+                } finally {
+                    block.release();
+                }
+            }
+        } finally {
+            this.indexLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    protected boolean putMessagePositionInfo(final long offset, final int size, final long tagsCode,
+        final long cqOffset) {
+        // 如果已经重放过，直接返回成功。批量记录的多个位置信息 commitLog存储位置 相同，需再按队列位置判断
+        if (offset < this.maxPhysicOffset || (offset == this.maxPhysicOffset && cqOffset < this.maxOffsetInQueue)) {
+            return true;
+        }
+        if (this.currentUnitSize != 0 && cqOffset != this.maxOffsetInQueue) {
+            LOG_ERROR.warn("[BUG]logic queue order maybe wrong, expectLogicOffset: {} currentLogicOffset: {} Topic: {} QID: {} Diff: {}",
+                cqOffset, this.maxOffsetInQueue, this.topic, this.queueId, cqOffset - this.maxOffsetInQueue);
+            if (cqOffset < this.maxOffsetInQueue) {
+                // 块内队列位置必须递增，忽略
+                return true;
+            }
+        }
+
+        final boolean wideTags = tagsCode < Integer.MIN_VALUE || tagsCode > Integer.MAX_VALUE;
+        final MappedFile mappedFile = this.mappedFileQueue.getLastMappedFile();
+        final boolean newBlock = null == mappedFile
+            || this.currentUnitSize == 0
+            || cqOffset != this.maxOffsetInQueue
+            || offset - this.currentBasePhyOffset > Integer.MAX_VALUE
+            || (wideTags && this.currentUnitSize != WIDE_UNIT_SIZE)
+            || mappedFile.getFileFromOffset() + mappedFile.getWrotePosition() + this.currentUnitSize
+            > this.currentBlockPosition + this.blockSize;
+
+        if (newBlock) {
+            if (!this.appendBlock(offset, size, tagsCode, cqOffset, wideTags ? WIDE_UNIT_SIZE : NARROW_UNIT_SIZE)) {
+                return false;
+            }
+        } else {
+            ByteBuffer unit = this.currentUnitSize == WIDE_UNIT_SIZE ? this.wideUnit : this.narrowUnit;
+            unit.clear();
+            putUnit(unit, offset - this.currentBasePhyOffset, size, tagsCode, this.currentUnitSize);
+            if (!mappedFile.appendMessage(unit.array())) {
+                return false;
+            }
+        }
+        this.maxPhysicOffset = offset;
+        this.maxOffsetInQueue = cqOffset + 1;
+        return true;
+    }
+
+    /**
+     * 在下一个块边界开始新块，当前文件剩余空间不足一块时补齐并使用下一个文件
+     */
+    private boolean appendBlock(final long offset, final int size, final long tagsCode, final long cqOffset,
+        final int unitSize) {
+        MappedFile mappedFile = this.mappedFileQueue.getLastMappedFile(0);
+        if (null == mappedFile) {
+            return false;
+        }
+        int wrotePosition = mappedFile.getWrotePosition();
+        int blockStart = (wrotePosition + this.blockSize - 1) / this.blockSize * this.blockSize;
+        if (blockStart >= this.mappedFileSize) {
+            if (wrotePosition < this.mappedFileSize && !mappedFile.appendMessage(new byte[this.mappedFileSize - wrotePosition])) {
+                return false;
+            }
+            mappedFile = this.mappedFileQueue.getLastMappedFile(0);
+            if (null == mappedFile) {
+                return false;
+            }
+            wrotePosition = mappedFile.getWrotePosition();
+            blockStart = 0;
+        }
+        if (blockStart > wrotePosition && !mappedFile.appendMessage(new byte[blockStart - wrotePosition])) {
+            return false;
+        }
+
+        long storeTimestamp = this.defaultMessageStore.getCommitLog().pickupStoreTimestamp(offset, size);
+        if (storeTimestamp < 0) {
+            storeTimestamp = this.lastStoreTimestamp();
+        }
+        ByteBuffer block = unitSize == WIDE_UNIT_SIZE ? this.wideBlock : this.narrowBlock;
+        block.clear();
+        block.putInt(BLOCK_MAGIC);
+        block.putInt(unitSize);
+        block.putLong(cqOffset);
+        block.putLong(offset);
+        block.putLong(storeTimestamp);
+        block.putInt(this.blockSize);
+        putUnit(block, 0, size, tagsCode, unitSize);
+        if (!mappedFile.appendMessage(block.array())) {
+            return false;
+        }
+
+        final long blockPosition = mappedFile.getFileFromOffset() + blockStart;
+        this.indexLock.writeLock().lock();
+        try {
+            final int blockNums = this.blockIndex.size();
+            if (blockNums > 0) {
+                // 上一块不再写入，记录位置信息数量
+                this.blockIndex.setUnitNums(blockNums - 1, (int) (this.maxOffsetInQueue - this.blockIndex.getFirstOffset(blockNums - 1)));
+            } else {
+                this.minLogicOffset = cqOffset * CQ_STORE_UNIT_SIZE;
+            }
+            this.blockIndex.append(blockPosition, cqOffset, storeTimestamp, 0);
+        } finally {
+            this.indexLock.writeLock().unlock();
+        }
+        this.currentBlockPosition = blockPosition;
+        this.currentUnitSize = unitSize;
+        this.currentBasePhyOffset = offset;
+        return true;
+    }
+
+    private long lastStoreTimestamp() {
+        this.indexLock.readLock().lock();
+        try {
+            final int size = this.blockIndex.size();
+            return size > 0 ? this.blockIndex.getStoreTimestamp(size - 1) : 0;
+        } finally {
+            this.indexLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 获取映射Buffer结果，解码为 {@link ConsumeQueue#CQ_STORE_UNIT_SIZE} 格式，只返回 startIndex 所在块内的位置信息
+     *
+     * @param startIndex 队列开始位置 queueOffset
+     * @return 映射Buffer结果
+     */
+    @Override
+    public SelectMappedBufferResult getIndexBuffer(final long startIndex) {
+        this.ensureLoaded();
+        if (startIndex * CQ_STORE_UNIT_SIZE < this.getMinLogicOffset()) {
+            return null;
+        }
+        long firstOffset;
+        int unitNums;
+        long blockPosition;
+        this.indexLock.readLock().lock();
+        try {
+            int i = this.blockIndex.floor(startIndex);
+            if (i < 0) {
+                return null;
+            }
+            firstOffset = this.blockIndex.getFirstOffset(i);
+            unitNums = this.blockUnitNums(i);
+            blockPosition = this.blockIndex.getPosition(i);
+        } finally {
+            this.indexLock.readLock().unlock();
+        }
+        if (startIndex >= firstOffset + unitNums) {
+            return null;
+        }
+
+        SelectMappedBufferResult block = this.selectBlock(blockPosition);
+        if (null == block) {
+            return null;
+        }
+        try {
+            ByteBuffer byteBuffer = block.getByteBuffer();
+            unitNums = Math.min(unitNums, this.readableUnits(byteBuffer));
+            final int from = (int) (startIndex - firstOffset);
+            if (from >= unitNums) {
+                return null;
+            }
+            final int unitSize = byteBuffer.getInt(4);
+            ByteBuffer result = ByteBuffer.allocate((unitNums - from) * CQ_STORE_UNIT_SIZE);
+            for (int i = from; i < unitNums; i++) {
+                result.putLong(unitPhyOffset(byteBuffer, i));
+                result.putInt(unitMsgSize(byteBuffer, i));
+                int tagsPosition = BLOCK_HEADER_SIZE + i * unitSize + 8;
+                result.putLong(unitSize == WIDE_UNIT_SIZE ? byteBuffer.getLong(tagsPosition) : byteBuffer.getInt(tagsPosition));
+            }
+            result.flip();
+            return new SelectMappedBufferResult(startIndex * CQ_STORE_UNIT_SIZE, result, result.limit(), null);
+        } finally {
+            block.release();
+        }
+    }
+
+    @Override
+    public SelectMappedBufferResult getMappedIndexBuffer(final long startIndex) {
+        return this.getIndexBuffer(startIndex);
+    }
+
+    /**
+     * 跳过不存在的位置，返回下一块的第一条位置
+     */
+    @Override
+    public long rollNextFile(final long index) {
+        this.indexLock.readLock().lock();
+        try {
+            int next = this.blockIndex.floor(index) + 1;
+            if (next < this.blockIndex.size()) {
+                return this.blockIndex.getFirstOffset(next);
+            }
+        } finally {
+            this.indexLock.readLock().unlock();
+        }
+        return Math.max(index, this.maxOffsetInQueue);
+    }
+
+    @Override
+    public void destroy() {
+        super.destroy();
+        this.indexLock.writeLock().lock();
+        try {
+            this.blockIndex.clear();
+            this.maxOffsetInQueue = 0;
+            this.resetCurrentBlock();
+        } finally {
+            this.indexLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public long getMaxOffsetInQueue() {
+        if (!this.isLoaded()) {
+            return super.getMaxOffsetInQueue();
+        }
+        return this.maxOffsetInQueue;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getBlockNums() {
+        this.indexLock.readLock().lock();
+        try {
+            return this.blockIndex.size();
+        } finally {
+            this.indexLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 块内位置信息数量。最后一块仍在写入，按队列最大位置计算
+     */
+    private int blockUnitNums(final int i) {
+        if (i == this.blockIndex.size() - 1) {
+            return (int) Math.max(0, this.maxOffsetInQueue - this.blockIndex.getFirstOffset(i));
+        }
+        return this.blockIndex.getUnitNums(i);
+    }
+
+    /**
+     * 从最后一块的块头恢复写入状态，调用方持有写锁
+     */
+    private void resetCurrentBlock() {
+        final int size = this.blockIndex.size();
+        ByteBuffer byteBuffer = size > 0 ? this.sliceBlock(this.blockIndex.getPosition(size - 1)) : null;
+        if (null == byteBuffer) {
+            this.currentBlockPosition = -1;
+            this.currentUnitSize = 0;
+            this.currentBasePhyOffset = -1;
+        } else {
+            this.currentBlockPosition = this.blockIndex.getPosition(size - 1);
+            this.currentUnitSize = byteBuffer.getInt(4);
+            this.currentBasePhyOffset = byteBuffer.getLong(16);
+        }
+    }
+
+    /**
+     * 清零 truncateWhere 之后已写入的数据，避免重启恢复时读到
+     */
+    private void clearDirtyData(final long truncateWhere) {
+        MappedFile mappedFile = this.mappedFileQueue.findMappedFileByOffset(truncateWhere);
+        if (mappedFile != null) {
+            ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+            for (int i = (int) (truncateWhere % this.mappedFileSize); i < mappedFile.getWrotePosition(); i++) {
+                byteBuffer.put(i, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * 块的映射Buffer，不持有引用，只在恢复、截断等写入线程使用
+     */
+    private ByteBuffer sliceBlock(final long blockPosition) {
+        MappedFile mappedFile = this.mappedFileQueue.findMappedFileByOffset(blockPosition);
+        if (null == mappedFile) {
+            return null;
+        }
+        ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+        byteBuffer.position((int) (blockPosition % this.mappedFileSize));
+        ByteBuffer block = byteBuffer.slice();
+        block.limit(this.blockSize);
+        return block;
+    }
+
+    /**
+     * 块的映射Buffer结果，只包含已写入的数据
+     */
+    private SelectMappedBufferResult selectBlock(final long blockPosition) {
+        MappedFile mappedFile = this.mappedFileQueue.findMappedFileByOffset(blockPosition);
+        if (null == mappedFile) {
+            return null;
+        }
+        SelectMappedBufferResult result = mappedFile.selectMappedBuffer((int) (blockPosition % this.mappedFileSize));
+        if (result != null && result.getByteBuffer().limit() > this.blockSize) {
+            result.getByteBuffer().limit(this.blockSize);
+        }
+        return result;
+    }
+
+    private int readableUnits(final ByteBuffer block) {
+        if (block.limit() < BLOCK_HEADER_SIZE) {
+            return 0;
+        }
+        return (block.limit() - BLOCK_HEADER_SIZE) / block.getInt(4);
+    }
+
+    /**
+     * 块内有效位置信息数量，块头无效时返回 -1。位置信息之后的空间都是 0，二分查找最后一条
+     */
+    private int countUnits(final ByteBuffer byteBuffer, final int blockStart) {
+        if (byteBuffer.getInt(blockStart) != BLOCK_MAGIC) {
+            return -1;
+        }
+        final int unitSize = byteBuffer.getInt(blockStart + 4);
+        if (unitSize != NARROW_UNIT_SIZE && unitSize != WIDE_UNIT_SIZE) {
+            return -1;
+        }
+        int low = 0;
+        int high = (this.blockSize - BLOCK_HEADER_SIZE) / unitSize;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (byteBuffer.getInt(blockStart + BLOCK_HEADER_SIZE + (mid - 1) * unitSize + 4) > 0) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private static void putUnit(final ByteBuffer buffer, final long delta, final int size, final long tagsCode,
+        final int unitSize) {
+        buffer.putInt((int) delta);
+        buffer.putInt(size);
+        if (unitSize == WIDE_UNIT_SIZE) {
+            buffer.putLong(tagsCode);
+        } else {
+            buffer.putInt((int) tagsCode);
+        }
+    }
+
+    private static long unitPhyOffset(final ByteBuffer block, final int unit) {
+        return block.getLong(16) + block.getInt(BLOCK_HEADER_SIZE + unit * block.getInt(4));
+    }
+
+    private static int unitMsgSize(final ByteBuffer block, final int unit) {
+        return block.getInt(BLOCK_HEADER_SIZE + unit * block.getInt(4) + 4);
+    }
+
+    /**
+     * 块索引：块位置、第一条的队列位置、第一条的存储时间、位置信息数量，按块顺序排列
+     */
+    static class BlockIndex {
+        private long[] positions = new long[16];
+        private long[] firstOffsets = new long[16];
+        private long[] storeTimestamps = new long[16];
+        private int[] unitNums = new int[16];
+        private int size = 0;
+
+        void append(final long position, final long firstOffset, final long storeTimestamp, final int nums) {
+            if (this.size == this.positions.length) {
+                int capacity = this.size * 2;
+                this.positions = Arrays.copyOf(this.positions, capacity);
+                this.firstOffsets = Arrays.copyOf(this.firstOffsets, capacity);
+                this.storeTimestamps = Arrays.copyOf(this.storeTimestamps, capacity);
+                this.unitNums = Arrays.copyOf(this.unitNums, capacity);
+            }
+            this.positions[this.size] = position;
+            this.firstOffsets[this.size] = firstOffset;
+            this.storeTimestamps[this.size] = storeTimestamp;
+            this.unitNums[this.size] = nums;
+            this.size++;
+        }
+
+        void removeLast() {
+            this.size--;
+        }
+
+        /**
+         * 删除位置在 position 之前的块
+         */
+        void removeBefore(final long position) {
+            int n = 0;
+            while (n < this.size && this.positions[n] < position) {
+                n++;
+            }
+            if (n > 0) {
+                int remain = this.size - n;
+                System.arraycopy(this.positions, n, this.positions, 0, remain);
+                System.arraycopy(this.firstOffsets, n, this.firstOffsets, 0, remain);
+                System.arraycopy(this.storeTimestamps, n, this.storeTimestamps, 0, remain);
+                System.arraycopy(this.unitNums, n, this.unitNums, 0, remain);
+                this.size = remain;
+            }
+        }
+
+        void clear() {
+            this.size = 0;
+        }
+
+        /**
+         * 第一条队列位置不大于 offset 的最后一块
+         */
+        int floor(final long offset) {
+            return floor(this.firstOffsets, this.size, offset);
+        }
+
+        /**
+         * 第一条存储时间不大于 timestamp 的最后一块
+         */
+        int floorByTime(final long timestamp) {
+            return floor(this.storeTimestamps, this.size, timestamp);
+        }
+
+        private static int floor(final long[] values, final int size, final long key) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (values[mid] <= key) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return high;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long getPosition(final int i) {
+            return positions[i];
+        }
+
+        long getFirstOffset(final int i) {
+            return firstOffsets[i];
+        }
+
+        long getStoreTimestamp(final int i) {
+            return storeTimestamps[i];
+        }
+
+        int getUnitNums(final int i) {
+            return unitNums[i];
+        }
+
+        void setUnitNums(final int i, final int nums) {
+            this.unitNums[i] = nums;
+        }
+    }
+}
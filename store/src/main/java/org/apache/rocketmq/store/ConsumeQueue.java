@@ -17,6 +17,8 @@
 package org.apache.rocketmq.store;
 
 import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.config.StorePathConfigHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,19 +35,19 @@ public class ConsumeQueue {
     private static final Logger log = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
     private static final Logger LOG_ERROR = LoggerFactory.getLogger(LoggerName.STORE_ERROR_LOGGER_NAME);
 
-    private final DefaultMessageStore defaultMessageStore;
+    protected final DefaultMessageStore defaultMessageStore;
     /**
      * 映射文件队列
      */
-    private final MappedFileQueue mappedFileQueue;
+    protected final MappedFileQueue mappedFileQueue;
     /**
      * Topic
      */
-    private final String topic;
+    protected final String topic;
     /**
      * 队列编号
      */
-    private final int queueId;
+    protected final int queueId;
     /**
      * 消息位置信息ByteBuffer
      */
@@ -57,12 +59,35 @@ public class ConsumeQueue {
     /**
      * 每个映射文件大小
      */
-    private final int mappedFileSize;
+    protected final int mappedFileSize;
     /**
      * 最大重放消息commitLog存储位置
      */
-    private long maxPhysicOffset = -1;
-    private volatile long minLogicOffset = 0;
+    protected long maxPhysicOffset = -1;
+    /**
+     * 队列最小位置 * CQ_STORE_UNIT_SIZE
+     */
+    protected volatile long minLogicOffset = 0;
+    /**
+     * 末尾缓存的槽，未分配时为 null
+     */
+    private volatile ConsumeQueueTailCache.Slot tailSlot;
+    /**
+     * 是否读取过末尾附近的位置信息，下次写入时分配末尾缓存的槽
+     */
+    private volatile boolean tailCacheRequested = false;
+    /**
+     * 延迟加载的摘要，为 null 表示文件已加载
+     */
+    private volatile ConsumeQueueSummary lazySummary;
+    /**
+     * 布隆过滤附加文件，未开启时为 null
+     */
+    private final ConsumeQueueBloom bloom;
+    /**
+     * 时间索引附加文件，未开启时为 null
+     */
+    private final ConsumeQueueTimeIndex timeIndex;
 
     public ConsumeQueue(
         final String topic,
@@ -84,14 +109,93 @@ public class ConsumeQueue {
         this.mappedFileQueue = new MappedFileQueue(queueDir, mappedFileSize, null);
 
         this.byteBufferIndex = ByteBuffer.allocate(CQ_STORE_UNIT_SIZE);
+
+        final MessageStoreConfig storeConfig = defaultMessageStore.getMessageStoreConfig();
+        if (storeConfig.isConsumeQueueBloomEnable()) {
+            this.bloom = new ConsumeQueueBloom(
+                topic,
+                queueId,
+                StorePathConfigHelper.getStorePathConsumeQueueBloom(storeConfig.getStorePathRootDir()),
+                storeConfig.getMapedFileSizeConsumeQueueBloom(),
+                storeConfig.getConsumeQueueBloomProperties().isEmpty() ? new String[0] : storeConfig.getConsumeQueueBloomProperties().split(","));
+        } else {
+            this.bloom = null;
+        }
+        if (storeConfig.isConsumeQueueTimeIndexEnable()) {
+            this.timeIndex = new ConsumeQueueTimeIndex(
+                topic,
+                queueId,
+                StorePathConfigHelper.getStorePathConsumeQueueTime(storeConfig.getStorePathRootDir()),
+                storeConfig.getMapedFileSizeConsumeQueueTime(),
+                storeConfig.getConsumeQueueTimeIndexInterval(),
+                storeConfig.getMapedFileSizeConsumeQueue() / CQ_STORE_UNIT_SIZE);
+        } else {
+            this.timeIndex = null;
+        }
     }
 
     public boolean load() {
         boolean result = this.mappedFileQueue.load();
+        if (this.bloom != null) {
+            result = result && this.bloom.load();
+        }
+        if (this.timeIndex != null) {
+            result = result && this.timeIndex.load();
+        }
         log.info("load consume queue " + this.topic + "-" + this.queueId + " " + (result ? "OK" : "Failed"));
         return result;
     }
 
+    /**
+     * 延迟加载：不映射文件，加载前使用摘要中的队列位置
+     *
+     * @param summary 正常关闭时记录的摘要
+     */
+    public void loadLazily(final ConsumeQueueSummary summary) {
+        this.minLogicOffset = summary.getMinLogicOffset();
+        this.maxPhysicOffset = summary.getMaxPhysicOffset();
+        this.lazySummary = summary;
+    }
+
+    /**
+     * 延迟加载的队列在首次访问时加载并恢复文件
+     */
+    public void ensureLoaded() {
+        if (null == this.lazySummary) {
+            return;
+        }
+        synchronized (this) {
+            if (null == this.lazySummary) {
+                return;
+            }
+            final long beginTime = System.currentTimeMillis();
+            if (!this.mappedFileQueue.load() || (this.bloom != null && !this.bloom.load())
+                || (this.timeIndex != null && !this.timeIndex.load())) {
+                log.error("load consume queue " + this.topic + "-" + this.queueId + " lazily failed");
+            }
+            this.recover();
+            this.lazySummary = null;
+            this.correctMinOffset(this.defaultMessageStore.getCommitLog().getMinOffset());
+            log.info("load consume queue " + this.topic + "-" + this.queueId + " lazily OK, "
+                + (System.currentTimeMillis() - beginTime) + "ms");
+        }
+    }
+
+    public boolean isLoaded() {
+        return null == this.lazySummary;
+    }
+
+    /**
+     * 当前摘要
+     */
+    public ConsumeQueueSummary summary() {
+        ConsumeQueueSummary summary = this.lazySummary;
+        if (summary != null) {
+            return summary;
+        }
+        return new ConsumeQueueSummary(this.minLogicOffset, this.getMaxOffsetInQueue(), this.maxPhysicOffset);
+    }
+
     public void recover() {
         final List<MappedFile> mappedFiles = this.mappedFileQueue.getMappedFiles();
         if (!mappedFiles.isEmpty()) {
@@ -151,79 +255,43 @@ public class ConsumeQueue {
         }
     }
 
+    /**
+     * 按时间查询队列位置：存在存储时间等于 timestamp 的消息时返回第一条的位置，否则返回前后两条消息中存储时间更接近的一条。
+     * 开启时间索引时只在索引确定的范围内查找 commitLog，否则二分查找 ConsumeQueue 文件，两者结果相同
+     *
+     * @param timestamp 时间
+     * @return 队列位置
+     */
     public long getOffsetInQueueByTime(final long timestamp) {
+        this.ensureLoaded();
+        final long indexOffset = this.lookupTimeIndex(timestamp);
+        if (indexOffset >= 0) {
+            return indexOffset;
+        }
         MappedFile mappedFile = this.mappedFileQueue.getMappedFileByTime(timestamp);
         if (mappedFile != null) {
-            long offset = 0;
-            int low =
-                minLogicOffset > mappedFile.getFileFromOffset() ? (int) (minLogicOffset - mappedFile
-                    .getFileFromOffset()) : 0;
-            int high = 0;
-            int midOffset = -1, targetOffset = -1, leftOffset = -1, rightOffset = -1;
-            long leftIndexValue = -1L, rightIndexValue = -1L;
-            long minPhysicOffset = this.defaultMessageStore.getMinPhyOffset();
-            SelectMappedBufferResult sbr = mappedFile.selectMappedBuffer(0);
-            if (null != sbr) {
-                ByteBuffer byteBuffer = sbr.getByteBuffer();
-                high = byteBuffer.limit() - CQ_STORE_UNIT_SIZE;
-                try {
-                    while (high >= low) {
-                        midOffset = (low + high) / (2 * CQ_STORE_UNIT_SIZE) * CQ_STORE_UNIT_SIZE;
-                        byteBuffer.position(midOffset);
-                        long phyOffset = byteBuffer.getLong();
-                        int size = byteBuffer.getInt();
-                        if (phyOffset < minPhysicOffset) {
-                            low = midOffset + CQ_STORE_UNIT_SIZE;
-                            leftOffset = midOffset;
-                            continue;
-                        }
-
-                        long storeTime =
-                            this.defaultMessageStore.getCommitLog().pickupStoreTimestamp(phyOffset, size);
-                        if (storeTime < 0) {
-                            return 0;
-                        } else if (storeTime == timestamp) {
-                            targetOffset = midOffset;
-                            break;
-                        } else if (storeTime > timestamp) {
-                            high = midOffset - CQ_STORE_UNIT_SIZE;
-                            rightOffset = midOffset;
-                            rightIndexValue = storeTime;
-                        } else {
-                            low = midOffset + CQ_STORE_UNIT_SIZE;
-                            leftOffset = midOffset;
-                            leftIndexValue = storeTime;
-                        }
-                    }
-
-                    if (targetOffset != -1) {
-
-                        offset = targetOffset;
-                    } else {
-                        if (leftIndexValue == -1) {
-
-                            offset = rightOffset;
-                        } else if (rightIndexValue == -1) {
-
-                            offset = leftOffset;
-                        } else {
-                            offset =
-                                Math.abs(timestamp - leftIndexValue) > Math.abs(timestamp
-                                    - rightIndexValue) ? rightOffset : leftOffset;
-                        }
-                    }
-
-                    return (mappedFile.getFileFromOffset() + offset) / CQ_STORE_UNIT_SIZE;
-                } finally {
-                    sbr.release();
-                }
-            }
+            final long fileFromIndex = mappedFile.getFileFromOffset() / CQ_STORE_UNIT_SIZE;
+            final long low = Math.max(fileFromIndex, minLogicOffset / CQ_STORE_UNIT_SIZE);
+            final long high = fileFromIndex + mappedFile.getReadPosition() / CQ_STORE_UNIT_SIZE - 1;
+            return Math.max(0, this.searchOffsetByTime(timestamp, low, high));
         }
         return 0;
     }
 
     public void truncateDirtyLogicFiles(long phyOffet) {
+        if (!this.isLoaded() && this.maxPhysicOffset < phyOffet) {
+            return;
+        }
+        this.ensureLoaded();
+        this.releaseTailCache();
+        this.truncateUnits(phyOffet);
+        this.truncateTimeIndex();
+    }
 
+    /**
+     * 删除 commitLog 位置不小于 phyOffet 的位置信息
+     */
+    private void truncateUnits(long phyOffet) {
         int logicFileSize = this.mappedFileSize;
 
         this.maxPhysicOffset = phyOffet - 1;
@@ -282,6 +350,7 @@ public class ConsumeQueue {
     }
 
     public long getLastOffset() {
+        this.ensureLoaded();
         long lastOffset = -1;
 
         int logicFileSize = this.mappedFileSize;
@@ -312,16 +381,127 @@ public class ConsumeQueue {
     }
 
     public boolean flush(final int flushLeastPages) {
-        return this.mappedFileQueue.flush(flushLeastPages);
+        boolean result = this.mappedFileQueue.flush(flushLeastPages);
+        if (this.bloom != null) {
+            result = this.bloom.flush(flushLeastPages) && result;
+        }
+        if (this.timeIndex != null) {
+            result = this.timeIndex.flush(flushLeastPages) && result;
+        }
+        return result;
     }
 
     public int deleteExpiredFile(long offset) {
+        // 未加载的队列加载后再清理
+        if (!this.isLoaded()) {
+            return 0;
+        }
         int cnt = this.mappedFileQueue.deleteExpiredFileByOffset(offset, CQ_STORE_UNIT_SIZE);
         this.correctMinOffset(offset);
+        this.deleteExpiredSideFiles();
         return cnt;
     }
 
+    /**
+     * 删除队列最小位置之前的布隆过滤、时间索引文件
+     */
+    protected void deleteExpiredSideFiles() {
+        if (this.bloom != null) {
+            this.bloom.deleteExpiredFile(this.getMinOffsetInQueue());
+        }
+        if (this.timeIndex != null) {
+            this.timeIndex.deleteExpiredFile(this.getMinOffsetInQueue());
+        }
+    }
+
+    /**
+     * 截断队列最大位置之后的时间索引，在位置信息截断后调用
+     */
+    protected void truncateTimeIndex() {
+        if (this.timeIndex != null) {
+            this.timeIndex.truncate(this.getMaxOffsetInQueue());
+        }
+    }
+
+    /**
+     * 使用时间索引按时间查询队列位置：索引确定范围后在范围内二分查找 commitLog，结果与不使用索引时相同
+     *
+     * @return 队列位置，未开启或索引未覆盖时返回 -1
+     */
+    protected long lookupTimeIndex(final long timestamp) {
+        if (null == this.timeIndex) {
+            return -1;
+        }
+        long[] range = this.timeIndex.lookupRange(timestamp, this.getMinOffsetInQueue(), this.getMaxOffsetInQueue());
+        if (null == range) {
+            return -1;
+        }
+        return this.searchOffsetByTime(timestamp, range[0], range[1]);
+    }
+
+    /**
+     * 在 [low, high] 范围内按存储时间二分查找：存在存储时间等于 timestamp 的消息时返回第一条的位置，
+     * 否则返回前后两条消息中存储时间与 timestamp 更接近的一条，相同时取前一条
+     *
+     * @return 队列位置，读取失败时返回 -1
+     */
+    protected long searchOffsetByTime(final long timestamp, long low, long high) {
+        long targetOffset = -1, leftOffset = -1, rightOffset = -1;
+        long leftIndexValue = -1L, rightIndexValue = -1L;
+        long minPhysicOffset = this.defaultMessageStore.getMinPhyOffset();
+        while (high >= low) {
+            long midOffset = (low + high) >>> 1;
+            SelectMappedBufferResult sbr = this.getIndexBuffer(midOffset);
+            if (null == sbr) {
+                return -1;
+            }
+            long phyOffset;
+            int size;
+            try {
+                phyOffset = sbr.getByteBuffer().getLong();
+                size = sbr.getByteBuffer().getInt();
+            } finally {
+                sbr.release();
+            }
+            if (phyOffset < minPhysicOffset) {
+                low = midOffset + 1;
+                leftOffset = midOffset;
+                continue;
+            }
+
+            long storeTime = this.defaultMessageStore.getCommitLog().pickupStoreTimestamp(phyOffset, size);
+            if (storeTime < 0) {
+                return -1;
+            } else if (storeTime == timestamp) {
+                // 继续向前查找存储时间相同的第一条
+                high = midOffset - 1;
+                targetOffset = midOffset;
+            } else if (storeTime > timestamp) {
+                high = midOffset - 1;
+                rightOffset = midOffset;
+                rightIndexValue = storeTime;
+            } else {
+                low = midOffset + 1;
+                leftOffset = midOffset;
+                leftIndexValue = storeTime;
+            }
+        }
+
+        if (targetOffset != -1) {
+            return targetOffset;
+        } else if (leftIndexValue == -1) {
+            return rightOffset != -1 ? rightOffset : leftOffset;
+        } else if (rightIndexValue == -1) {
+            return leftOffset;
+        } else {
+            return Math.abs(timestamp - leftIndexValue) > Math.abs(timestamp - rightIndexValue) ? rightOffset : leftOffset;
+        }
+    }
+
     public void correctMinOffset(long phyMinOffset) {
+        if (!this.isLoaded()) {
+            return;
+        }
         MappedFile mappedFile = this.mappedFileQueue.getFirstMappedFile();
         if (mappedFile != null) {
             SelectMappedBufferResult result = mappedFile.selectMappedBuffer(0);
@@ -364,6 +544,24 @@ public class ConsumeQueue {
      */
     public void putMessagePositionInfoWrapper(long offset, int size, long tagsCode, long storeTimestamp,
         long logicOffset) {
+        if (this.putMessagePositionInfoWithRetry(offset, size, tagsCode, logicOffset)) {
+            // 添加成功，使用消息存储时间 作为 存储check point。
+            this.defaultMessageStore.getStoreCheckpoint().setLogicsMsgTimestamp(storeTimestamp);
+            this.defaultMessageStore.setLogicsPhyOffset(offset + size);
+        }
+    }
+
+    /**
+     * 添加位置信息，失败时重试。不更新存储check point，由调用方维护
+     *
+     * @param offset commitLog存储位置
+     * @param size 消息长度
+     * @param tagsCode 消息tagsCode
+     * @param logicOffset 队列位置
+     * @return 是否成功
+     */
+    public boolean putMessagePositionInfoWithRetry(long offset, int size, long tagsCode, long logicOffset) {
+        this.ensureLoaded();
         final int maxRetries = 30;
         boolean canWrite = this.defaultMessageStore.getRunningFlags().isWriteable();
         // 多次循环写，直到成功
@@ -371,9 +569,7 @@ public class ConsumeQueue {
             // 调用添加位置信息
             boolean result = this.putMessagePositionInfo(offset, size, tagsCode, logicOffset);
             if (result) {
-                // 添加成功，使用消息存储时间 作为 存储check point。
-                this.defaultMessageStore.getStoreCheckpoint().setLogicsMsgTimestamp(storeTimestamp);
-                return;
+                return true;
             } else {
                 // XXX: warn and notify me
                 log.warn("[BUG]put commit log position info to " + topic + ":" + queueId + " " + offset
@@ -390,6 +586,7 @@ public class ConsumeQueue {
         // XXX: warn and notify me 设置异常不可写入
         log.error("[BUG]consume queue can not write, {} {}", this.topic, this.queueId);
         this.defaultMessageStore.getRunningFlags().makeLogicsQueueError();
+        return false;
     }
 
     /**
@@ -404,10 +601,11 @@ public class ConsumeQueue {
      * @param cqOffset 队列位置
      * @return 是否成功
      */
-    private boolean putMessagePositionInfo(final long offset, final int size, final long tagsCode,
+    protected boolean putMessagePositionInfo(final long offset, final int size, final long tagsCode,
         final long cqOffset) {
-        // 如果已经重放过，直接返回成功
-        if (offset <= this.maxPhysicOffset) {
+        // 如果已经重放过，直接返回成功。批量记录的多个位置信息 commitLog存储位置 相同，需再按队列位置判断
+        if (offset < this.maxPhysicOffset
+            || (offset == this.maxPhysicOffset && cqOffset * CQ_STORE_UNIT_SIZE < this.mappedFileQueue.getMaxOffset())) {
             return true;
         }
         // 写入位置信息到byteBuffer
@@ -446,7 +644,13 @@ public class ConsumeQueue {
             // 设置commitLog重放消息到ConsumeQueue位置。
             this.maxPhysicOffset = offset;
             // 插入mappedFile
-            return mappedFile.appendMessage(this.byteBufferIndex.array());
+            if (mappedFile.appendMessage(this.byteBufferIndex.array())) {
+                ConsumeQueueTailCache tailCache = this.defaultMessageStore.getConsumeQueueTailCache();
+                if (tailCache != null) {
+                    tailCache.append(this, cqOffset, this.byteBufferIndex.array());
+                }
+                return true;
+            }
         }
         return false;
     }
@@ -477,6 +681,24 @@ public class ConsumeQueue {
      * @return 映射Buffer结果
      */
     public SelectMappedBufferResult getIndexBuffer(final long startIndex) {
+        ConsumeQueueTailCache tailCache = this.defaultMessageStore.getConsumeQueueTailCache();
+        if (tailCache != null && startIndex * CQ_STORE_UNIT_SIZE >= this.getMinLogicOffset()) {
+            SelectMappedBufferResult result = tailCache.read(this, startIndex);
+            if (result != null) {
+                return result;
+            }
+        }
+        return this.getMappedIndexBuffer(startIndex);
+    }
+
+    /**
+     * 从映射文件获取映射Buffer结果，不使用末尾缓存
+     *
+     * @param startIndex 队列开始位置 queueOffset
+     * @return 映射Buffer结果
+     */
+    public SelectMappedBufferResult getMappedIndexBuffer(final long startIndex) {
+        this.ensureLoaded();
         int mappedFileSize = this.mappedFileSize;
         long offset = startIndex * CQ_STORE_UNIT_SIZE;
         if (offset >= this.getMinLogicOffset()) {
@@ -519,10 +741,66 @@ public class ConsumeQueue {
         this.maxPhysicOffset = maxPhysicOffset;
     }
 
+    ConsumeQueueTailCache.Slot getTailSlot() {
+        return tailSlot;
+    }
+
+    void setTailSlot(ConsumeQueueTailCache.Slot tailSlot) {
+        this.tailSlot = tailSlot;
+    }
+
+    boolean isTailCacheRequested() {
+        return tailCacheRequested;
+    }
+
+    void setTailCacheRequested(boolean tailCacheRequested) {
+        this.tailCacheRequested = tailCacheRequested;
+    }
+
+    /**
+     * 释放末尾缓存的槽
+     */
+    private void releaseTailCache() {
+        ConsumeQueueTailCache tailCache = this.defaultMessageStore.getConsumeQueueTailCache();
+        if (tailCache != null) {
+            tailCache.release(this);
+        }
+    }
+
     public void destroy() {
+        this.ensureLoaded();
+        this.releaseTailCache();
         this.maxPhysicOffset = -1;
         this.minLogicOffset = 0;
         this.mappedFileQueue.destroy();
+        if (this.bloom != null) {
+            this.bloom.destroy();
+        }
+        if (this.timeIndex != null) {
+            this.timeIndex.destroy();
+        }
+    }
+
+    /**
+     * 记录调度请求中消息的布隆过滤位、存储时间，在位置信息写入后调用
+     *
+     * @param request 调度请求
+     */
+    public void putSideFiles(final DispatchRequest request) {
+        if (this.bloom != null) {
+            this.bloom.put(request.getConsumeQueueOffset(), request.getBatchSize(), request.getPropertiesMap());
+        }
+        if (this.timeIndex != null) {
+            this.timeIndex.put(request.getConsumeQueueOffset(), request.getStoreTimestamp());
+        }
+    }
+
+    public ConsumeQueueBloom getBloom() {
+        return bloom;
+    }
+
+    public ConsumeQueueTimeIndex getTimeIndex() {
+        return timeIndex;
     }
 
     public long getMessageTotalInQueue() {
@@ -530,6 +808,10 @@ public class ConsumeQueue {
     }
 
     public long getMaxOffsetInQueue() {
+        ConsumeQueueSummary summary = this.lazySummary;
+        if (summary != null) {
+            return summary.getMaxOffset();
+        }
         return this.mappedFileQueue.getMaxOffset() / CQ_STORE_UNIT_SIZE;
     }
 
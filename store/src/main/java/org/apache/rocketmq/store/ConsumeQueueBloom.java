@@ -0,0 +1,379 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.common.filter.expression.SqlExpression;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.protocol.heartbeat.SubscriptionData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ConsumeQueue 布隆过滤附加文件，与 ConsumeQueue 按队列位置一一对应
+ * 每 {@link #BLOCK_UNITS} 条位置信息一块：
+ * <pre>
+ * 块摘要(64)：已写入位置掩码(8) | tag、指定属性的布隆过滤位(56)
+ * 位置信息(8 * 64)：tag、keys、指定属性的布隆过滤位(8)
+ * </pre>
+ * 拉取消息时，块内已写入的位置都不可能匹配订阅的 tag（或 SQL92 订阅的属性取值）时跳过整块。未写入的位置（例如开启前的消息）所在块不跳过
+ * keys 基本不重复，只记录在每条消息的过滤位中，避免块摘要饱和
+ */
+public class ConsumeQueueBloom {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    public static final int BLOCK_UNITS = 64;
+    public static final int SUMMARY_SIZE = 64;
+    public static final int UNIT_SIZE = 8;
+    public static final int BLOCK_SIZE = SUMMARY_SIZE + BLOCK_UNITS * UNIT_SIZE;
+    /**
+     * 块摘要布隆过滤位数
+     */
+    private static final int SUMMARY_BITS = (SUMMARY_SIZE - 8) * 8;
+    private static final int UNIT_BITS = UNIT_SIZE * 8;
+    private static final int HASH_NUMS = 3;
+    /**
+     * 一次最多检查的块数量
+     */
+    private static final int MAX_SKIP_BLOCKS = 1024;
+
+    private static final String TAG_PREFIX = "T";
+    private static final String KEY_PREFIX = "K";
+    private static final String PROPERTY_PREFIX = "P";
+
+    private final MappedFileQueue mappedFileQueue;
+    private final int mappedFileSize;
+    /**
+     * 记录到块摘要的消息属性
+     */
+    private final String[] properties;
+
+    public ConsumeQueueBloom(
+        final String topic,
+        final int queueId,
+        final String storePath,
+        final int mappedFileSize,
+        final String[] properties) {
+        this.mappedFileSize = mappedFileSize;
+        this.properties = properties;
+        String queueDir = storePath
+            + File.separator + topic
+            + File.separator + queueId;
+        this.mappedFileQueue = new MappedFileQueue(queueDir, mappedFileSize, null);
+    }
+
+    public boolean load() {
+        return this.mappedFileQueue.load();
+    }
+
+    /**
+     * 记录消息的布隆过滤位。批量记录的每条消息使用相同的过滤位
+     *
+     * @param cqOffset 第一条消息的队列位置
+     * @param batchSize 消息数量
+     * @param propertiesMap 消息属性
+     */
+    public void put(final long cqOffset, final int batchSize, final Map<String, String> propertiesMap) {
+        long unitBits = 0;
+        final long[] summaryBits = new long[SUMMARY_BITS / 64];
+        if (propertiesMap != null) {
+            String tags = propertiesMap.get(MessageConst.PROPERTY_TAGS);
+            if (tags != null && tags.length() > 0) {
+                unitBits |= unitBits(TAG_PREFIX + tags);
+                addSummaryBits(summaryBits, TAG_PREFIX + tags);
+            }
+            String keys = propertiesMap.get(MessageConst.PROPERTY_KEYS);
+            if (keys != null && keys.length() > 0) {
+                for (String key : keys.split(MessageConst.KEY_SEPARATOR)) {
+                    if (key.length() > 0) {
+                        unitBits |= unitBits(KEY_PREFIX + key);
+                    }
+                }
+            }
+            for (String property : this.properties) {
+                String value = propertiesMap.get(property);
+                if (value != null) {
+                    unitBits |= unitBits(PROPERTY_PREFIX + property + "=" + value);
+                    addSummaryBits(summaryBits, PROPERTY_PREFIX + property + "=" + value);
+                }
+            }
+        }
+
+        for (int i = 0; i < batchSize; i++) {
+            final long offset = cqOffset + i;
+            final long blockPosition = offset / BLOCK_UNITS * BLOCK_SIZE;
+            final int unitIndex = (int) (offset % BLOCK_UNITS);
+            MappedFile mappedFile = this.mappedFileFor(blockPosition);
+            if (null == mappedFile) {
+                log.warn("bloom file can not be created, offset: " + offset);
+                return;
+            }
+            ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+            final int position = (int) (blockPosition % this.mappedFileSize);
+            byteBuffer.putLong(position + SUMMARY_SIZE + unitIndex * UNIT_SIZE, unitBits);
+            for (int j = 0; j < summaryBits.length; j++) {
+                final int summaryPosition = position + 8 + j * 8;
+                byteBuffer.putLong(summaryPosition, byteBuffer.getLong(summaryPosition) | summaryBits[j]);
+            }
+            // 最后设置掩码，掩码已设置的位置过滤位一定已写入
+            byteBuffer.putLong(position, byteBuffer.getLong(position) | (1L << unitIndex));
+            if (mappedFile.getWrotePosition() < position + BLOCK_SIZE) {
+                mappedFile.setWrotePosition(position + BLOCK_SIZE);
+                mappedFile.setCommittedPosition(position + BLOCK_SIZE);
+            }
+        }
+    }
+
+    /**
+     * 根据订阅生成过滤位。SQL92 订阅使用表达式中记录到附加文件的属性的 = 或 IN 条件
+     *
+     * @param subscriptionData 订阅数据
+     * @param sqlExpression 编译后的 SQL92 表达式，按 tag 过滤时为 null
+     * @return 过滤位，无法预先过滤时为 null
+     */
+    public FilterBits buildFilterBits(final SubscriptionData subscriptionData, final SqlExpression sqlExpression) {
+        if (null == sqlExpression) {
+            return FilterBits.build(subscriptionData);
+        }
+        for (String property : this.properties) {
+            Set<String> values = sqlExpression.getEqualityTerms().get(property);
+            if (values != null) {
+                List<String> elements = new ArrayList<>();
+                for (String value : values) {
+                    elements.add(PROPERTY_PREFIX + property + "=" + value);
+                }
+                return FilterBits.build(elements);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 跳过不可能匹配的块
+     *
+     * @param cqOffset 开始的队列位置
+     * @param maxOffset 队列最大位置
+     * @param filterBits 订阅的过滤位
+     * @return 第一个可能匹配的队列位置，不超过 maxOffset
+     */
+    public long skipUnmatchedBlocks(final long cqOffset, final long maxOffset, final FilterBits filterBits) {
+        long offset = cqOffset;
+        for (int n = 0; n < MAX_SKIP_BLOCKS && offset < maxOffset; n++) {
+            final long blockStart = offset / BLOCK_UNITS * BLOCK_UNITS;
+            final long blockEnd = Math.min(blockStart + BLOCK_UNITS, maxOffset);
+            final long blockPosition = blockStart / BLOCK_UNITS * BLOCK_SIZE;
+            MappedFile mappedFile = this.mappedFileQueue.findMappedFileByOffset(blockPosition);
+            if (null == mappedFile) {
+                break;
+            }
+            SelectMappedBufferResult summary = mappedFile.selectMappedBuffer((int) (blockPosition % this.mappedFileSize), SUMMARY_SIZE);
+            if (null == summary) {
+                break;
+            }
+            try {
+                ByteBuffer byteBuffer = summary.getByteBuffer();
+                // [offset, blockEnd) 的过滤位都已写入
+                final long required = mask((int) (offset - blockStart), (int) (blockEnd - blockStart));
+                if ((byteBuffer.getLong(0) & required) != required || filterBits.isSummaryMatched(byteBuffer)) {
+                    break;
+                }
+            } finally {
+                summary.release();
+            }
+            offset = blockEnd;
+        }
+        return offset;
+    }
+
+    /**
+     * 消息是否可能匹配订阅的过滤位。过滤位未写入时返回 true
+     *
+     * @param cqOffset 队列位置
+     * @param filterBits 订阅的过滤位
+     * @return 是否可能匹配
+     */
+    public boolean isMatched(final long cqOffset, final FilterBits filterBits) {
+        final long blockPosition = cqOffset / BLOCK_UNITS * BLOCK_SIZE;
+        final int unitIndex = (int) (cqOffset % BLOCK_UNITS);
+        MappedFile mappedFile = this.mappedFileQueue.findMappedFileByOffset(blockPosition);
+        if (null == mappedFile) {
+            return true;
+        }
+        SelectMappedBufferResult block = mappedFile.selectMappedBuffer((int) (blockPosition % this.mappedFileSize), BLOCK_SIZE);
+        if (null == block) {
+            return true;
+        }
+        try {
+            ByteBuffer byteBuffer = block.getByteBuffer();
+            return (byteBuffer.getLong(0) & (1L << unitIndex)) == 0
+                || filterBits.isUnitMatched(byteBuffer.getLong(SUMMARY_SIZE + unitIndex * UNIT_SIZE));
+        } finally {
+            block.release();
+        }
+    }
+
+    /**
+     * 删除队列最小位置之前的文件
+     *
+     * @param minOffsetInQueue 队列最小位置
+     * @return 删除数量
+     */
+    public int deleteExpiredFile(final long minOffsetInQueue) {
+        final long minPosition = minOffsetInQueue / BLOCK_UNITS * BLOCK_SIZE;
+        int cnt = 0;
+        MappedFile mappedFile = this.mappedFileQueue.getFirstMappedFile();
+        while (mappedFile != null && mappedFile != this.mappedFileQueue.getLastMappedFile()
+            && mappedFile.getFileFromOffset() + this.mappedFileSize <= minPosition
+            && this.mappedFileQueue.deleteFirstFile(mappedFile, 1000 * 60)) {
+            cnt++;
+            mappedFile = this.mappedFileQueue.getFirstMappedFile();
+        }
+        return cnt;
+    }
+
+    public boolean flush(final int flushLeastPages) {
+        return this.mappedFileQueue.flush(flushLeastPages);
+    }
+
+    public void destroy() {
+        this.mappedFileQueue.destroy();
+    }
+
+    /**
+     * 获取 position 所在文件，不存在时依次创建。写入位置之前的文件不再写入，标记为已写满
+     */
+    private MappedFile mappedFileFor(final long position) {
+        MappedFile mappedFile = this.mappedFileQueue.getLastMappedFile();
+        if (mappedFile != null && position < mappedFile.getFileFromOffset()) {
+            return this.mappedFileQueue.findMappedFileByOffset(position);
+        }
+        while (null == mappedFile || position >= mappedFile.getFileFromOffset() + this.mappedFileSize) {
+            if (mappedFile != null) {
+                mappedFile.setWrotePosition(this.mappedFileSize);
+                mappedFile.setCommittedPosition(this.mappedFileSize);
+            }
+            mappedFile = this.mappedFileQueue.getLastMappedFile(position);
+            if (null == mappedFile) {
+                return null;
+            }
+        }
+        return mappedFile;
+    }
+
+    private static long mask(final int from, final int to) {
+        long mask = to == 64 ? -1L : (1L << to) - 1;
+        return mask & (-1L << from);
+    }
+
+    private static int hash2(final int hash1) {
+        int h = hash1 * 0x9E3779B9;
+        return (h ^ (h >>> 16)) | 1;
+    }
+
+    private static long unitBits(final String element) {
+        final int hash1 = element.hashCode();
+        final int hash2 = hash2(hash1);
+        long bits = 0;
+        for (int i = 0; i < HASH_NUMS; i++) {
+            bits |= 1L << (((hash1 + i * hash2) & Integer.MAX_VALUE) % UNIT_BITS);
+        }
+        return bits;
+    }
+
+    private static void addSummaryBits(final long[] summaryBits, final String element) {
+        final int hash1 = element.hashCode();
+        final int hash2 = hash2(hash1);
+        for (int i = 0; i < HASH_NUMS; i++) {
+            int bit = ((hash1 + i * hash2) & Integer.MAX_VALUE) % SUMMARY_BITS;
+            summaryBits[bit / 64] |= 1L << (bit % 64);
+        }
+    }
+
+    /**
+     * 订阅的过滤位，多个元素（如订阅多个 tag）任意一个匹配即可
+     */
+    public static class FilterBits {
+        private final long[] unitBits;
+        private final long[][] summaryBits;
+
+        private FilterBits(final long[] unitBits, final long[][] summaryBits) {
+            this.unitBits = unitBits;
+            this.summaryBits = summaryBits;
+        }
+
+        /**
+         * 根据订阅的 tag 生成过滤位
+         *
+         * @param subscriptionData 订阅数据
+         * @return 过滤位，不按 tag 过滤时为 null
+         */
+        public static FilterBits build(final SubscriptionData subscriptionData) {
+            if (null == subscriptionData || subscriptionData.isClassFilterMode()
+                || SubscriptionData.SUB_ALL.equals(subscriptionData.getSubString())
+                || null == subscriptionData.getTagsSet() || subscriptionData.getTagsSet().isEmpty()) {
+                return null;
+            }
+            List<String> elements = new ArrayList<>();
+            for (String tag : subscriptionData.getTagsSet()) {
+                elements.add(TAG_PREFIX + tag);
+            }
+            return build(elements);
+        }
+
+        private static FilterBits build(final Collection<String> elements) {
+            final int size = elements.size();
+            long[] unitBits = new long[size];
+            long[][] summaryBits = new long[size][SUMMARY_BITS / 64];
+            int i = 0;
+            for (String element : elements) {
+                unitBits[i] = ConsumeQueueBloom.unitBits(element);
+                addSummaryBits(summaryBits[i], element);
+                i++;
+            }
+            return new FilterBits(unitBits, summaryBits);
+        }
+
+        boolean isUnitMatched(final long bits) {
+            for (long tagBits : this.unitBits) {
+                if ((bits & tagBits) == tagBits) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean isSummaryMatched(final ByteBuffer summary) {
+            for (long[] tagBits : this.summaryBits) {
+                boolean matched = true;
+                for (int j = 0; j < tagBits.length && matched; j++) {
+                    matched = (summary.getLong(8 + j * 8) & tagBits[j]) == tagBits[j];
+                }
+                if (matched) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
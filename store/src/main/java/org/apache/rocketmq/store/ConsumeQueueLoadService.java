@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.rocketmq.common.ServiceThread;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 后台加载延迟加载的 ConsumeQueue，全部加载后退出
+ * 每加载一个队列间隔 consumeQueueBackgroundLoadInterval，避免启动时与读写争抢 IO
+ */
+public class ConsumeQueueLoadService extends ServiceThread {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    private final DefaultMessageStore defaultMessageStore;
+
+    public ConsumeQueueLoadService(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+    }
+
+    @Override
+    public void run() {
+        log.info(this.getServiceName() + " service started");
+
+        final long beginTime = System.currentTimeMillis();
+        int loadCount = 0;
+        try {
+            for (ConcurrentHashMap<Integer, ConsumeQueue> maps : this.defaultMessageStore.getConsumeQueueTable().values()) {
+                for (ConsumeQueue logic : maps.values()) {
+                    if (this.isStopped()) {
+                        break;
+                    }
+                    if (!logic.isLoaded()) {
+                        logic.ensureLoaded();
+                        loadCount++;
+                        this.waitForRunning(this.defaultMessageStore.getMessageStoreConfig().getConsumeQueueBackgroundLoadInterval());
+                    }
+                }
+            }
+        } catch (Throwable e) {
+            log.warn(this.getServiceName() + " service has exception. ", e);
+        }
+
+        log.info(this.getServiceName() + " service end, load {} consume queues, {}ms", loadCount,
+            System.currentTimeMillis() - beginTime);
+    }
+
+    @Override
+    public String getServiceName() {
+        return ConsumeQueueLoadService.class.getSimpleName();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+/**
+ * ConsumeQueue 摘要，正常关闭时记录，延迟加载时在加载前代替文件提供队列位置
+ */
+public class ConsumeQueueSummary {
+    /**
+     * 最小逻辑位置（字节）
+     */
+    private long minLogicOffset;
+    /**
+     * 最大队列位置
+     */
+    private long maxOffset;
+    /**
+     * 最大重放消息 commitLog 存储位置
+     */
+    private long maxPhysicOffset;
+
+    public ConsumeQueueSummary() {
+    }
+
+    public ConsumeQueueSummary(long minLogicOffset, long maxOffset, long maxPhysicOffset) {
+        this.minLogicOffset = minLogicOffset;
+        this.maxOffset = maxOffset;
+        this.maxPhysicOffset = maxPhysicOffset;
+    }
+
+    public long getMinLogicOffset() {
+        return minLogicOffset;
+    }
+
+    public void setMinLogicOffset(long minLogicOffset) {
+        this.minLogicOffset = minLogicOffset;
+    }
+
+    public long getMaxOffset() {
+        return maxOffset;
+    }
+
+    public void setMaxOffset(long maxOffset) {
+        this.maxOffset = maxOffset;
+    }
+
+    public long getMaxPhysicOffset() {
+        return maxPhysicOffset;
+    }
+
+    public void setMaxPhysicOffset(long maxPhysicOffset) {
+        this.maxPhysicOffset = maxPhysicOffset;
+    }
+}
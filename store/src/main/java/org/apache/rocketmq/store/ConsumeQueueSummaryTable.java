@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.rocketmq.common.ConfigManager;
+import org.apache.rocketmq.store.config.StorePathConfigHelper;
+
+/**
+ * ConsumeQueue 摘要表，正常关闭时持久化到 {@link StorePathConfigHelper#getConsumeQueueSummary(String)}
+ * 只对紧接着的一次启动有效：启动加载后删除文件，异常关闭后不使用
+ */
+public class ConsumeQueueSummaryTable extends ConfigManager {
+
+    private static final String TOPIC_QUEUEID_SEPARATOR = "@";
+
+    private final String storePathRootDir;
+
+    private final ConcurrentHashMap<String /* topic@queueId */, ConsumeQueueSummary> summaryTable = new ConcurrentHashMap<>();
+
+    public ConsumeQueueSummaryTable(final String storePathRootDir) {
+        this.storePathRootDir = storePathRootDir;
+    }
+
+    public ConsumeQueueSummary get(final String topic, final int queueId) {
+        return this.summaryTable.get(topic + TOPIC_QUEUEID_SEPARATOR + queueId);
+    }
+
+    public void put(final String topic, final int queueId, final ConsumeQueueSummary summary) {
+        this.summaryTable.put(topic + TOPIC_QUEUEID_SEPARATOR + queueId, summary);
+    }
+
+    public void clear() {
+        this.summaryTable.clear();
+    }
+
+    public int size() {
+        return this.summaryTable.size();
+    }
+
+    /**
+     * 删除摘要文件及备份文件
+     */
+    public void deleteFile() {
+        new File(this.configFilePath()).delete();
+        new File(this.configFilePath() + ".bak").delete();
+    }
+
+    @Override
+    public String encode() {
+        return this.encode(false);
+    }
+
+    @Override
+    public String configFilePath() {
+        return StorePathConfigHelper.getConsumeQueueSummary(this.storePathRootDir);
+    }
+
+    @Override
+    public void decode(String jsonString) {
+        if (jsonString != null) {
+            ConsumeQueueSummarySerializeWrapper wrapper =
+                ConsumeQueueSummarySerializeWrapper.fromJson(jsonString, ConsumeQueueSummarySerializeWrapper.class);
+            if (wrapper != null && wrapper.getSummaryTable() != null) {
+                this.summaryTable.putAll(wrapper.getSummaryTable());
+            }
+        }
+    }
+
+    @Override
+    public String encode(final boolean prettyFormat) {
+        ConsumeQueueSummarySerializeWrapper wrapper = new ConsumeQueueSummarySerializeWrapper();
+        wrapper.setSummaryTable(this.summaryTable);
+        return wrapper.toJson(prettyFormat);
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.nio.ByteBuffer;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ConsumeQueue 末尾缓存：所有队列共享一块堆外内存，切分为固定数量的槽，每个槽以环形缓冲保存一个队列最近的 N 个位置信息
+ * 1. 读取队列末尾附近的位置信息时登记，该队列下次写入时分配槽，并从映射文件预热
+ * 2. 之后写入同步追加到槽中，读取末尾附近的位置信息不访问映射文件
+ * 3. 槽不足时按 CLOCK（近似 LRU）淘汰最近未读取的队列
+ * 每个队列只有一个写入线程（重放），槽内读写在槽上加锁，加锁时间只有复制几个位置信息
+ */
+public class ConsumeQueueTailCache {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    private static final int UNIT_SIZE = ConsumeQueue.CQ_STORE_UNIT_SIZE;
+
+    /**
+     * 每个槽缓存的位置信息数量
+     */
+    private final int unitsPerSlot;
+
+    private final Slot[] slots;
+
+    /**
+     * CLOCK 指针，在 this 上加锁访问
+     */
+    private int clockHand = 0;
+
+    public ConsumeQueueTailCache(final MessageStoreConfig storeConfig) {
+        this.unitsPerSlot = storeConfig.getConsumeQueueTailCacheUnits();
+        final int slotSize = this.unitsPerSlot * UNIT_SIZE;
+        final int slotNums = (int) Math.min(storeConfig.getConsumeQueueTailCacheQueueNums(), Integer.MAX_VALUE / slotSize);
+        // 一次分配，所有槽共享
+        final ByteBuffer arena = ByteBuffer.allocateDirect(slotNums * slotSize);
+        this.slots = new Slot[slotNums];
+        for (int i = 0; i < slotNums; i++) {
+            arena.limit((i + 1) * slotSize);
+            arena.position(i * slotSize);
+            this.slots[i] = new Slot(arena.slice());
+        }
+        log.info("consume queue tail cache, slots: {}, units per slot: {}", slotNums, this.unitsPerSlot);
+    }
+
+    /**
+     * 读取从 startIndex 开始的位置信息
+     *
+     * @param consumeQueue 队列
+     * @param startIndex 队列位置
+     * @return 读取结果，不在缓存时为 null
+     */
+    public SelectMappedBufferResult read(final ConsumeQueue consumeQueue, final long startIndex) {
+        final Slot slot = consumeQueue.getTailSlot();
+        if (slot != null) {
+            synchronized (slot) {
+                if (slot.owner == consumeQueue && startIndex >= slot.startIndex && startIndex < slot.endIndex) {
+                    slot.referenced = true;
+                    final int units = (int) (slot.endIndex - startIndex);
+                    ByteBuffer result = ByteBuffer.allocate(units * UNIT_SIZE);
+                    for (long index = startIndex; index < slot.endIndex; index++) {
+                        final int pos = (int) (index % this.unitsPerSlot) * UNIT_SIZE;
+                        ByteBuffer unit = slot.buffer.duplicate();
+                        unit.limit(pos + UNIT_SIZE);
+                        unit.position(pos);
+                        result.put(unit);
+                    }
+                    result.flip();
+                    return new SelectMappedBufferResult(startIndex * UNIT_SIZE, result, result.limit(), null);
+                }
+            }
+        }
+        // 读取末尾附近时登记，下次写入时分配槽
+        if (null == slot && startIndex >= consumeQueue.getMaxOffsetInQueue() - this.unitsPerSlot) {
+            consumeQueue.setTailCacheRequested(true);
+        }
+        return null;
+    }
+
+    /**
+     * 位置信息写入映射文件后追加到槽中，只由队列的写入线程调用
+     *
+     * @param consumeQueue 队列
+     * @param cqIndex 队列位置
+     * @param unit 位置信息
+     */
+    public void append(final ConsumeQueue consumeQueue, final long cqIndex, final byte[] unit) {
+        Slot slot = consumeQueue.getTailSlot();
+        if (null == slot) {
+            if (consumeQueue.isTailCacheRequested()) {
+                consumeQueue.setTailCacheRequested(false);
+                slot = this.acquire(consumeQueue);
+                if (slot != null) {
+                    // 位置信息已写入映射文件，预热时包含在内
+                    this.warm(slot, consumeQueue, cqIndex + 1);
+                }
+            }
+            return;
+        }
+        synchronized (slot) {
+            if (slot.owner != consumeQueue) {
+                return;
+            }
+            // 不连续（补空白、截断后重放）时清空
+            if (cqIndex != slot.endIndex) {
+                slot.startIndex = cqIndex;
+                slot.endIndex = cqIndex;
+            }
+            final int pos = (int) (cqIndex % this.unitsPerSlot) * UNIT_SIZE;
+            ByteBuffer buffer = slot.buffer.duplicate();
+            buffer.position(pos);
+            buffer.put(unit, 0, UNIT_SIZE);
+            slot.endIndex = cqIndex + 1;
+            slot.startIndex = Math.max(slot.startIndex, slot.endIndex - this.unitsPerSlot);
+        }
+    }
+
+    /**
+     * 释放队列的槽，队列截断或删除时调用
+     */
+    public void release(final ConsumeQueue consumeQueue) {
+        final Slot slot = consumeQueue.getTailSlot();
+        consumeQueue.setTailCacheRequested(false);
+        if (slot != null) {
+            synchronized (slot) {
+                if (slot.owner == consumeQueue) {
+                    slot.owner = null;
+                    slot.startIndex = 0;
+                    slot.endIndex = 0;
+                    slot.referenced = false;
+                }
+                consumeQueue.setTailSlot(null);
+            }
+        }
+    }
+
+    /**
+     * 按 CLOCK 分配槽，淘汰最近未读取的队列
+     */
+    private synchronized Slot acquire(final ConsumeQueue consumeQueue) {
+        for (int scanned = 0; scanned < this.slots.length * 2; scanned++) {
+            final Slot slot = this.slots[this.clockHand];
+            this.clockHand = (this.clockHand + 1) % this.slots.length;
+            if (slot.referenced) {
+                slot.referenced = false;
+                continue;
+            }
+            synchronized (slot) {
+                final ConsumeQueue previous = slot.owner;
+                if (previous != null) {
+                    previous.setTailSlot(null);
+                }
+                slot.owner = consumeQueue;
+                slot.startIndex = 0;
+                slot.endIndex = 0;
+                slot.referenced = true;
+                consumeQueue.setTailSlot(slot);
+            }
+            return slot;
+        }
+        return null;
+    }
+
+    /**
+     * 从映射文件预热 endIndex 之前最多 N 个位置信息
+     */
+    private void warm(final Slot slot, final ConsumeQueue consumeQueue, final long endIndex) {
+        long index = Math.max(endIndex - this.unitsPerSlot, consumeQueue.getMinOffsetInQueue());
+        synchronized (slot) {
+            if (slot.owner != consumeQueue) {
+                return;
+            }
+            slot.startIndex = index;
+            slot.endIndex = index;
+            while (index < endIndex) {
+                SelectMappedBufferResult result = consumeQueue.getMappedIndexBuffer(index);
+                if (null == result) {
+                    // 预热失败，只缓存之后写入的位置信息
+                    slot.startIndex = endIndex;
+                    slot.endIndex = endIndex;
+                    return;
+                }
+                try {
+                    final int units = (int) Math.min(endIndex - index, result.getSize() / UNIT_SIZE);
+                    ByteBuffer src = result.getByteBuffer();
+                    byte[] unit = new byte[UNIT_SIZE];
+                    for (int i = 0; i < units; i++, index++) {
+                        src.get(unit);
+                        final int pos = (int) (index % this.unitsPerSlot) * UNIT_SIZE;
+                        ByteBuffer buffer = slot.buffer.duplicate();
+                        buffer.position(pos);
+                        buffer.put(unit);
+                    }
+                    slot.endIndex = index;
+                } finally {
+                    result.release();
+                }
+            }
+        }
+    }
+
+    public int getSlotNums() {
+        return this.slots.length;
+    }
+
+    /**
+     * 槽，在槽上加锁访问
+     */
+    static class Slot {
+        private final ByteBuffer buffer;
+        private ConsumeQueue owner;
+        /**
+         * 缓存的队列位置范围 [startIndex, endIndex)
+         */
+        private long startIndex;
+        private long endIndex;
+        /**
+         * 分配后是否被读取过，CLOCK 淘汰使用
+         */
+        private volatile boolean referenced;
+
+        Slot(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ConsumeQueue 时间索引附加文件，稀疏记录 存储时间 -> 队列位置
+ * <pre>
+ * 索引条目(16)：存储时间(8) | 队列位置(8)
+ * </pre>
+ * 以下情况记录一条：队列第一条消息、ConsumeQueue 文件的第一条消息、距上一条记录超过 interval 条位置信息、存储时间距上一条记录超过 1 秒
+ * 因此相邻两条记录之间未记录的消息，存储时间都小于前一条记录的存储时间 + 1 秒，按时间查询时只需要读取索引缩小的范围内的消息
+ */
+public class ConsumeQueueTimeIndex {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    public static final int UNIT_SIZE = 16;
+    /**
+     * 两条记录之间最大存储时间间隔
+     */
+    public static final long TIME_INTERVAL = 1000;
+
+    private final MappedFileQueue mappedFileQueue;
+    private final int mappedFileSize;
+    /**
+     * 最多间隔多少条位置信息记录一条
+     */
+    private final int interval;
+    /**
+     * ConsumeQueue 文件包含的位置信息数量
+     */
+    private final long cqFileUnits;
+    private final ByteBuffer byteBufferIndex;
+
+    private volatile long lastOffset = -1;
+    private volatile long lastTimestamp = -1;
+
+    public ConsumeQueueTimeIndex(
+        final String topic,
+        final int queueId,
+        final String storePath,
+        final int mappedFileSize,
+        final int interval,
+        final long cqFileUnits) {
+        this.mappedFileSize = mappedFileSize;
+        this.interval = interval;
+        this.cqFileUnits = cqFileUnits;
+        this.byteBufferIndex = ByteBuffer.allocate(UNIT_SIZE);
+        String queueDir = storePath
+            + File.separator + topic
+            + File.separator + queueId;
+        this.mappedFileQueue = new MappedFileQueue(queueDir, mappedFileSize, null);
+    }
+
+    /**
+     * 加载文件，并恢复最后一个文件的写入位置
+     */
+    public boolean load() {
+        if (!this.mappedFileQueue.load()) {
+            return false;
+        }
+        final List<MappedFile> mappedFiles = this.mappedFileQueue.getMappedFiles();
+        if (mappedFiles.isEmpty()) {
+            return true;
+        }
+        MappedFile mappedFile = mappedFiles.get(mappedFiles.size() - 1);
+        ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+        long prevOffset = -1;
+        long prevTimestamp = -1;
+        if (mappedFiles.size() > 1) {
+            // 前一个文件已写满，取其最后一条记录
+            long[] entry = this.readEntry(mappedFile.getFileFromOffset() - UNIT_SIZE);
+            if (entry != null) {
+                prevTimestamp = entry[0];
+                prevOffset = entry[1];
+            }
+        }
+        int position = 0;
+        while (position < this.mappedFileSize) {
+            long timestamp = byteBuffer.getLong(position);
+            long offset = byteBuffer.getLong(position + 8);
+            // 截断后未覆盖的旧记录队列位置不递增
+            if (timestamp <= 0 || offset <= prevOffset) {
+                break;
+            }
+            prevTimestamp = timestamp;
+            prevOffset = offset;
+            position += UNIT_SIZE;
+        }
+        long processOffset = mappedFile.getFileFromOffset() + position;
+        this.mappedFileQueue.setFlushedWhere(processOffset);
+        this.mappedFileQueue.setCommittedWhere(processOffset);
+        this.mappedFileQueue.truncateDirtyFiles(processOffset);
+        this.lastOffset = prevOffset;
+        this.lastTimestamp = prevTimestamp;
+        return true;
+    }
+
+    /**
+     * 记录消息的存储时间，不满足记录条件时忽略
+     *
+     * @param cqOffset 队列位置
+     * @param storeTimestamp 存储时间
+     */
+    public void put(final long cqOffset, final long storeTimestamp) {
+        if (cqOffset <= this.lastOffset || storeTimestamp <= 0) {
+            return;
+        }
+        if (this.lastOffset >= 0
+            && cqOffset - this.lastOffset < this.interval
+            && storeTimestamp - this.lastTimestamp < TIME_INTERVAL
+            && cqOffset % this.cqFileUnits != 0) {
+            return;
+        }
+
+        MappedFile mappedFile = this.mappedFileQueue.getLastMappedFile(0);
+        if (null == mappedFile) {
+            log.warn("time index file can not be created, offset: " + cqOffset);
+            return;
+        }
+        this.byteBufferIndex.flip();
+        this.byteBufferIndex.limit(UNIT_SIZE);
+        this.byteBufferIndex.putLong(storeTimestamp);
+        this.byteBufferIndex.putLong(cqOffset);
+        if (mappedFile.appendMessage(this.byteBufferIndex.array())) {
+            this.lastOffset = cqOffset;
+            this.lastTimestamp = storeTimestamp;
+        }
+    }
+
+    /**
+     * 按时间确定查询范围：范围内包含存储时间小于 timestamp 的最后一条消息和不小于 timestamp 的第一条消息（存在时），
+     * 由调用方在范围内读取 commitLog 精确查找。相邻记录之间的消息存储时间相差不超过 1 秒，范围最多 interval + 1 条
+     *
+     * @param timestamp 时间
+     * @param minOffset 队列最小位置
+     * @param maxOffset 队列最大位置
+     * @return {起始位置, 结束位置}，包含两端；索引未覆盖时返回 null
+     */
+    public long[] lookupRange(final long timestamp, final long minOffset, final long maxOffset) {
+        if (maxOffset <= minOffset) {
+            return null;
+        }
+        final long first = this.mappedFileQueue.getMinOffset() / UNIT_SIZE;
+        final long end = this.mappedFileQueue.getMaxWrotePosition() / UNIT_SIZE;
+        if (first < 0 || end <= first) {
+            return null;
+        }
+
+        // 最后一条存储时间早于 timestamp 的记录
+        long low = first;
+        long high = end - 1;
+        long floor = -1;
+        long[] floorEntry = null;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            long[] entry = this.readEntry(mid * UNIT_SIZE);
+            if (null == entry) {
+                return null;
+            }
+            if (entry[0] < timestamp) {
+                floor = mid;
+                floorEntry = entry;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        long from;
+        long to;
+        if (null == floorEntry) {
+            long[] entry = this.readEntry(first * UNIT_SIZE);
+            if (null == entry || entry[1] > minOffset) {
+                // 第一条记录之前的消息未记录（例如开启前的消息）
+                return null;
+            }
+            from = minOffset;
+            to = minOffset;
+        } else if (floor == end - 1) {
+            // 最后一条记录之后的消息都早于记录时间 + 1 秒
+            from = timestamp - floorEntry[0] >= TIME_INTERVAL ? maxOffset - 1 : floorEntry[1];
+            to = maxOffset - 1;
+        } else {
+            long[] entry = this.readEntry((floor + 1) * UNIT_SIZE);
+            if (null == entry) {
+                return null;
+            }
+            from = timestamp - floorEntry[0] >= TIME_INTERVAL ? entry[1] - 1 : floorEntry[1];
+            to = entry[1];
+        }
+        return new long[] {
+            Math.max(minOffset, Math.min(from, maxOffset - 1)),
+            Math.max(minOffset, Math.min(to, maxOffset - 1))
+        };
+    }
+
+    /**
+     * 获取记录的消息存储时间
+     *
+     * @param cqOffset 队列位置
+     * @return 存储时间，该位置未记录时返回 -1
+     */
+    public long getStoreTime(final long cqOffset) {
+        final long first = this.mappedFileQueue.getMinOffset() / UNIT_SIZE;
+        long low = first;
+        long high = this.mappedFileQueue.getMaxWrotePosition() / UNIT_SIZE - 1;
+        if (first < 0) {
+            return -1;
+        }
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            long[] entry = this.readEntry(mid * UNIT_SIZE);
+            if (null == entry) {
+                return -1;
+            }
+            if (entry[1] == cqOffset) {
+                return entry[0];
+            } else if (entry[1] < cqOffset) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 删除队列位置不小于 maxOffsetInQueue 的记录
+     *
+     * @param maxOffsetInQueue 截断后的队列最大位置
+     */
+    public void truncate(final long maxOffsetInQueue) {
+        long position = this.mappedFileQueue.getMaxWrotePosition();
+        final long minPosition = Math.max(0, this.mappedFileQueue.getMinOffset());
+        long truncateWhere = -1;
+        while (position > minPosition) {
+            long[] entry = this.readEntry(position - UNIT_SIZE);
+            if (null == entry || entry[1] < maxOffsetInQueue) {
+                break;
+            }
+            position -= UNIT_SIZE;
+            truncateWhere = position;
+        }
+        if (truncateWhere == -1) {
+            return;
+        }
+
+        // 清空截断的记录，避免恢复时读到
+        for (long p = truncateWhere; p < this.mappedFileQueue.getMaxWrotePosition(); p += UNIT_SIZE) {
+            MappedFile mappedFile = this.mappedFileQueue.findMappedFileByOffset(p);
+            if (mappedFile != null) {
+                ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+                byteBuffer.putLong((int) (p % this.mappedFileSize), 0L);
+                byteBuffer.putLong((int) (p % this.mappedFileSize) + 8, 0L);
+            }
+        }
+        if (truncateWhere % this.mappedFileSize == 0) {
+            // 截断位置所在文件为空，保留前一个已写满的文件
+            while (this.mappedFileQueue.getLastMappedFile() != null
+                && this.mappedFileQueue.getLastMappedFile().getFileFromOffset() >= truncateWhere) {
+                this.mappedFileQueue.deleteLastMappedFile();
+            }
+        }
+        this.mappedFileQueue.truncateDirtyFiles(truncateWhere);
+        this.mappedFileQueue.setFlushedWhere(Math.min(this.mappedFileQueue.getFlushedWhere(), truncateWhere));
+        this.mappedFileQueue.setCommittedWhere(Math.min(this.mappedFileQueue.getCommittedWhere(), truncateWhere));
+
+        long[] entry = truncateWhere > minPosition ? this.readEntry(truncateWhere - UNIT_SIZE) : null;
+        this.lastTimestamp = entry != null ? entry[0] : -1;
+        this.lastOffset = entry != null ? entry[1] : -1;
+    }
+
+    /**
+     * 删除队列最小位置之前的文件。下一个文件的第一条记录不大于队列最小位置时才删除，保证最小位置之后的消息都能查询
+     *
+     * @param minOffsetInQueue 队列最小位置
+     * @return 删除数量
+     */
+    public int deleteExpiredFile(final long minOffsetInQueue) {
+        int cnt = 0;
+        MappedFile mappedFile = this.mappedFileQueue.getFirstMappedFile();
+        while (mappedFile != null && mappedFile != this.mappedFileQueue.getLastMappedFile()) {
+            long[] entry = this.readEntry(mappedFile.getFileFromOffset() + this.mappedFileSize);
+            if (null == entry || entry[1] > minOffsetInQueue || !this.mappedFileQueue.deleteFirstFile(mappedFile, 1000 * 60)) {
+                break;
+            }
+            cnt++;
+            mappedFile = this.mappedFileQueue.getFirstMappedFile();
+        }
+        return cnt;
+    }
+
+    public boolean flush(final int flushLeastPages) {
+        return this.mappedFileQueue.flush(flushLeastPages);
+    }
+
+    public void destroy() {
+        this.lastOffset = -1;
+        this.lastTimestamp = -1;
+        this.mappedFileQueue.destroy();
+    }
+
+    public long getLastOffset() {
+        return lastOffset;
+    }
+
+    /**
+     * 读取索引条目
+     *
+     * @return {存储时间, 队列位置}，不存在时返回 null
+     */
+    private long[] readEntry(final long position) {
+        MappedFile mappedFile = this.mappedFileQueue.findMappedFileByOffset(position);
+        if (null == mappedFile) {
+            return null;
+        }
+        SelectMappedBufferResult result = mappedFile.selectMappedBuffer((int) (position % this.mappedFileSize), UNIT_SIZE);
+        if (null == result) {
+            return null;
+        }
+        try {
+            ByteBuffer byteBuffer = result.getByteBuffer();
+            return new long[] {byteBuffer.getLong(0), byteBuffer.getLong(8)};
+        } finally {
+            result.release();
+        }
+    }
+}
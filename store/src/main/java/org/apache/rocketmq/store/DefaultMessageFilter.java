@@ -16,12 +16,31 @@
  */
 package org.apache.rocketmq.store;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.common.filter.ExpressionType;
+import org.apache.rocketmq.common.filter.expression.SqlExpression;
 import org.apache.rocketmq.common.protocol.heartbeat.SubscriptionData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * 消息过滤实现
  */
 public class DefaultMessageFilter implements MessageFilter {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    /**
+     * 缓存的 SQL92 表达式最大数量，超过时清空重新编译
+     */
+    private static final int MAX_CACHED_EXPRESSIONS = 4096;
+
+    /**
+     * 编译后的 SQL92 表达式缓存。key：表达式
+     */
+    private final ConcurrentMap<String, SqlExpression> sqlExpressionCache = new ConcurrentHashMap<>();
 
     @Override
     public boolean isMessageMatched(SubscriptionData subscriptionData, Long tagsCode) {
@@ -36,6 +55,10 @@ public class DefaultMessageFilter implements MessageFilter {
         // classFilter
         if (subscriptionData.isClassFilterMode())
             return true;
+        // 按消息属性过滤，tagsCode 不参与过滤
+        if (ExpressionType.isSql92Type(subscriptionData.getExpressionType())) {
+            return true;
+        }
         // 订阅表达式 全匹配
         if (subscriptionData.getSubString().equals(SubscriptionData.SUB_ALL)) {
             return true;
@@ -44,4 +67,39 @@ public class DefaultMessageFilter implements MessageFilter {
         return subscriptionData.getCodeSet().contains(tagsCode.intValue());
     }
 
+    @Override
+    public boolean isMatchedByProperties(SubscriptionData subscriptionData, Map<String, String> properties) {
+        if (null == subscriptionData || !ExpressionType.isSql92Type(subscriptionData.getExpressionType())) {
+            return true;
+        }
+        SqlExpression sqlExpression = this.getSqlExpression(subscriptionData);
+        return sqlExpression != null && sqlExpression.matches(properties);
+    }
+
+    /**
+     * 获取订阅编译后的 SQL92 表达式，每个表达式只编译一次
+     *
+     * @param subscriptionData 订阅数据
+     * @return 编译后的表达式，非 SQL92 订阅或表达式语法错误时为 null
+     */
+    public SqlExpression getSqlExpression(final SubscriptionData subscriptionData) {
+        if (null == subscriptionData || !ExpressionType.isSql92Type(subscriptionData.getExpressionType())) {
+            return null;
+        }
+        final String expression = subscriptionData.getSubString();
+        SqlExpression sqlExpression = this.sqlExpressionCache.get(expression);
+        if (null == sqlExpression) {
+            try {
+                sqlExpression = SqlExpression.compile(expression);
+            } catch (IllegalArgumentException e) {
+                log.warn("compile sql92 expression failed, topic: {}, expression: {}", subscriptionData.getTopic(), expression, e);
+                return null;
+            }
+            if (this.sqlExpressionCache.size() >= MAX_CACHED_EXPRESSIONS) {
+                this.sqlExpressionCache.clear();
+            }
+            this.sqlExpressionCache.put(expression, sqlExpression);
+        }
+        return sqlExpression;
+    }
 }
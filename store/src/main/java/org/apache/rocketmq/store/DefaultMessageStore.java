@@ -18,6 +18,8 @@ package org.apache.rocketmq.store;
 
 import org.apache.rocketmq.common.*;
 import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.common.filter.ExpressionType;
+import org.apache.rocketmq.common.filter.expression.SqlExpression;
 import org.apache.rocketmq.common.message.MessageDecoder;
 import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.common.protocol.heartbeat.SubscriptionData;
@@ -30,7 +32,9 @@ import org.apache.rocketmq.store.ha.HAService;
 import org.apache.rocketmq.store.index.IndexService;
 import org.apache.rocketmq.store.index.QueryOffsetResult;
 import org.apache.rocketmq.store.schedule.ScheduleMessageService;
+import org.apache.rocketmq.store.timer.TimerMessageStore;
 import org.apache.rocketmq.store.stats.BrokerStatsManager;
+import org.apache.rocketmq.store.tiered.TieredStoreService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,7 +59,7 @@ public class DefaultMessageStore implements MessageStore {
     /**
      * 消息过滤器
      */
-    private final MessageFilter messageFilter = new DefaultMessageFilter();
+    private final DefaultMessageFilter messageFilter = new DefaultMessageFilter();
     /**
      * MessageStore配置
      */
@@ -91,10 +95,42 @@ public class DefaultMessageStore implements MessageStore {
     @SuppressWarnings("SpellCheckingInspection")
     private final ReputMessageService reputMessageService;
 
+    /**
+     * 流水线调度服务：分片构建consumequeue，异步构建indexfile
+     */
+    private final CommitLogDispatchService commitLogDispatchService;
+
+    /**
+     * 冷读调度
+     */
+    private final ColdReadScheduler coldReadScheduler;
+    /**
+     * 分层存储服务，未开启分层存储时为 null
+     */
+    private final TieredStoreService tieredStoreService;
+    /**
+     * ConsumeQueue 末尾缓存，未开启时为 null
+     */
+    private final ConsumeQueueTailCache consumeQueueTailCache;
+    /**
+     * ConsumeQueue 摘要表，延迟加载时使用
+     */
+    private final ConsumeQueueSummaryTable consumeQueueSummaryTable;
+    private final ConsumeQueueLoadService consumeQueueLoadService;
+
+    /**
+     * CommitLog 调度器。第一个为构建consumequeue，其次为构建indexfile
+     */
+    private final LinkedList<CommitLogDispatcher> dispatcherList;
+
     //存储ha机制
     private final HAService haService;
 
     private final ScheduleMessageService scheduleMessageService;
+    /**
+     * 任意投递时间的定时消息，未开启时为 null
+     */
+    private final TimerMessageStore timerMessageStore;
 
     private final StoreStatsService storeStatsService;
 
@@ -116,6 +152,10 @@ public class DefaultMessageStore implements MessageStore {
 
     //文件刷盘监测点
     private StoreCheckpoint storeCheckpoint;
+    /**
+     * 已构建 ConsumeQueue 的 CommitLog 物理位置，ConsumeQueue 刷盘后写入 check point
+     */
+    private volatile long logicsPhyOffset = 0;
 
     private AtomicLong printTimes = new AtomicLong(0);
 
@@ -138,7 +178,20 @@ public class DefaultMessageStore implements MessageStore {
 
         this.reputMessageService = new ReputMessageService();
 
+        this.dispatcherList = new LinkedList<>();
+        this.dispatcherList.addLast(new CommitLogDispatcherBuildConsumeQueue());
+        this.dispatcherList.addLast(new CommitLogDispatcherBuildIndex());
+
+        this.commitLogDispatchService = new CommitLogDispatchService(this);
+        this.coldReadScheduler = new ColdReadScheduler(this);
+        this.tieredStoreService = messageStoreConfig.isTieredStoreEnable() ? new TieredStoreService(this) : null;
+        this.consumeQueueTailCache = messageStoreConfig.isConsumeQueueTailCacheEnable()
+            ? new ConsumeQueueTailCache(messageStoreConfig) : null;
+        this.consumeQueueSummaryTable = new ConsumeQueueSummaryTable(messageStoreConfig.getStorePathRootDir());
+        this.consumeQueueLoadService = new ConsumeQueueLoadService(this);
+
         this.scheduleMessageService = new ScheduleMessageService(this);
+        this.timerMessageStore = messageStoreConfig.isTimerWheelEnable() ? new TimerMessageStore(this) : null;
 
         this.transientStorePool = new TransientStorePool(messageStoreConfig);
 
@@ -179,7 +232,11 @@ public class DefaultMessageStore implements MessageStore {
             result = result && this.commitLog.load();
 
             // load Consume Queue
-            result = result && this.loadConsumeQueue(); // TODO 待读
+            result = result && this.loadConsumeQueue(lastExitOK); // TODO 待读
+
+            if (null != timerMessageStore) {
+                result = result && this.timerMessageStore.load();
+            }
 
             if (result) {
                 this.storeCheckpoint =
@@ -214,6 +271,9 @@ public class DefaultMessageStore implements MessageStore {
         if (this.scheduleMessageService != null && SLAVE != messageStoreConfig.getBrokerRole()) {
             this.scheduleMessageService.start();
         }
+        if (this.timerMessageStore != null && SLAVE != messageStoreConfig.getBrokerRole()) {
+            this.timerMessageStore.start();
+        }
 
         //setReputFromOffset该参数的含义是 ReputMessageService从哪个物理偏移量开始转发消息 给 ConsumeQueu巳和 IndexFile
         //如果允许重复转发， reputFromOffset设置为 CommitLog的 提交指针;如果不允许重复转发， reputFromOffset设置为 Commitlog 的内存中最大偏移量。
@@ -223,9 +283,17 @@ public class DefaultMessageStore implements MessageStore {
             this.reputMessageService.setReputFromOffset(this.commitLog.getMaxOffset());
         }
         //逻辑在内部类reputMessageService的run方法
+        this.commitLogDispatchService.start();
         this.reputMessageService.start();
 
         this.haService.start();
+        this.coldReadScheduler.start();
+        if (this.tieredStoreService != null) {
+            this.tieredStoreService.start();
+        }
+        if (this.messageStoreConfig.isConsumeQueueLazyLoadEnable() && this.messageStoreConfig.isConsumeQueueBackgroundLoadEnable()) {
+            this.consumeQueueLoadService.start();
+        }
 
         this.createTempFile();
         this.addScheduleTask();
@@ -251,19 +319,33 @@ public class DefaultMessageStore implements MessageStore {
             if (this.scheduleMessageService != null) {
                 this.scheduleMessageService.shutdown();
             }
+            if (this.timerMessageStore != null) {
+                this.timerMessageStore.shutdown();
+            }
 
             this.haService.shutdown();
+            this.coldReadScheduler.shutdown();
+            if (this.tieredStoreService != null) {
+                this.tieredStoreService.shutdown();
+            }
+            if (this.messageStoreConfig.isConsumeQueueLazyLoadEnable() && this.messageStoreConfig.isConsumeQueueBackgroundLoadEnable()) {
+                this.consumeQueueLoadService.shutdown();
+            }
 
             this.storeStatsService.shutdown();
             this.indexService.shutdown();
             this.commitLog.shutdown();
             this.reputMessageService.shutdown();
+            this.commitLogDispatchService.shutdown();
             this.flushConsumeQueueService.shutdown();
             this.allocateMappedFileService.shutdown();
             this.storeCheckpoint.flush();
             this.storeCheckpoint.shutdown();
 
             if (this.runningFlags.isWriteable()) {
+                if (this.messageStoreConfig.isConsumeQueueLazyLoadEnable()) {
+                    this.persistConsumeQueueSummary();
+                }
                 this.deleteFile(StorePathConfigHelper.getAbortFile(this.messageStoreConfig.getStorePathRootDir()));
             } else {
                 log.warn("the store may be wrong, so shutdown abnormally, and keep abort file.");
@@ -277,8 +359,12 @@ public class DefaultMessageStore implements MessageStore {
         this.destroyLogics();
         this.commitLog.destroy();
         this.indexService.destroy();
+        if (this.timerMessageStore != null) {
+            this.timerMessageStore.destroy();
+        }
         this.deleteFile(StorePathConfigHelper.getAbortFile(this.messageStoreConfig.getStorePathRootDir()));
         this.deleteFile(StorePathConfigHelper.getStoreCheckpoint(this.messageStoreConfig.getStorePathRootDir()));
+        this.deleteFile(StorePathConfigHelper.getCommitLogSummary(this.messageStoreConfig.getStorePathRootDir()));
     }
 
     public void destroyLogics() {
@@ -290,9 +376,100 @@ public class DefaultMessageStore implements MessageStore {
     }
 
     public PutMessageResult putMessage(MessageExtBrokerInner msg) {
+        PutMessageStatus checkStatus = this.checkStoreStatus();
+        if (checkStatus == null) {
+            checkStatus = this.checkMessage(msg);
+        }
+        if (checkStatus != null) {
+            return new PutMessageResult(checkStatus, null);
+        }
+
+        long beginTime = this.getSystemClock().now();
+        // 添加消息到commitLog
+        //todo 前面的都是一些验证，后边最终调用了CommitLog的putMessage()方法
+        //延迟消息在内部处理
+        PutMessageResult result = this.commitLog.putMessage(msg);
+
+        this.onPutMessageComplete(result, beginTime, bodyLength(msg));
+
+        return result;
+    }
+
+    /**
+     * 批量添加消息到commitLog，整个批次共享一次加锁、一次刷盘等待
+     *
+     * @param messageExtBatch 批量消息
+     * @return 结果
+     */
+    public PutMessageResult putMessages(MessageExtBatch messageExtBatch) {
+        PutMessageStatus checkStatus = this.checkStoreStatus();
+        if (checkStatus == null) {
+            checkStatus = this.checkMessages(messageExtBatch);
+        }
+        if (checkStatus != null) {
+            return new PutMessageResult(checkStatus, null);
+        }
+
+        long beginTime = this.getSystemClock().now();
+        PutMessageResult result = this.commitLog.putMessages(messageExtBatch);
+
+        this.onPutMessageComplete(result, beginTime, messageExtBatch.getBody().length);
+
+        return result;
+    }
+
+    @Override
+    public void asyncPutMessage(final MessageExtBrokerInner msg, final PutMessageCallback callback) {
+        PutMessageStatus checkStatus = this.checkStoreStatus();
+        if (checkStatus == null) {
+            checkStatus = this.checkMessage(msg);
+        }
+        if (checkStatus != null) {
+            callback.onComplete(new PutMessageResult(checkStatus, null));
+            return;
+        }
+
+        final long beginTime = this.getSystemClock().now();
+        this.commitLog.asyncPutMessage(msg, new PutMessageCallback() {
+            @Override
+            public void onComplete(PutMessageResult putMessageResult) {
+                onPutMessageComplete(putMessageResult, beginTime, bodyLength(msg));
+                callback.onComplete(putMessageResult);
+            }
+        });
+    }
+
+    @Override
+    public void asyncPutMessages(final MessageExtBatch messageExtBatch, final PutMessageCallback callback) {
+        PutMessageStatus checkStatus = this.checkStoreStatus();
+        if (checkStatus == null) {
+            checkStatus = this.checkMessages(messageExtBatch);
+        }
+        if (checkStatus != null) {
+            callback.onComplete(new PutMessageResult(checkStatus, null));
+            return;
+        }
+
+        final long beginTime = this.getSystemClock().now();
+        final int bodyLength = messageExtBatch.getBody().length;
+        this.commitLog.asyncPutMessages(messageExtBatch, new PutMessageCallback() {
+            @Override
+            public void onComplete(PutMessageResult putMessageResult) {
+                onPutMessageComplete(putMessageResult, beginTime, bodyLength);
+                callback.onComplete(putMessageResult);
+            }
+        });
+    }
+
+    /**
+     * 校验 store 是否允许写入
+     *
+     * @return 不允许写入时返回对应状态，否则返回null
+     */
+    private PutMessageStatus checkStoreStatus() {
         if (this.shutdown) {
             log.warn("message store has shutdown, so putMessage is forbidden");
-            return new PutMessageResult(PutMessageStatus.SERVICE_NOT_AVAILABLE, null);
+            return PutMessageStatus.SERVICE_NOT_AVAILABLE;
         }
 
         // 从节点不允许写入
@@ -302,7 +479,7 @@ public class DefaultMessageStore implements MessageStore {
                 log.warn("message store is slave mode, so putMessage is forbidden ");
             }
 
-            return new PutMessageResult(PutMessageStatus.SERVICE_NOT_AVAILABLE, null);
+            return PutMessageStatus.SERVICE_NOT_AVAILABLE;
         }
 
         // store是否允许写入
@@ -312,44 +489,88 @@ public class DefaultMessageStore implements MessageStore {
                 log.warn("message store is not writeable, so putMessage is forbidden " + this.runningFlags.getFlagBits());
             }
 
-            return new PutMessageResult(PutMessageStatus.SERVICE_NOT_AVAILABLE, null);
+            return PutMessageStatus.SERVICE_NOT_AVAILABLE;
         } else {
             this.printTimes.set(0);
         }
 
+        if (this.isOSPageCacheBusy()) {
+            return PutMessageStatus.OS_PAGECACHE_BUSY;
+        }
+        return null;
+    }
+
+    /**
+     * 校验消息
+     *
+     * @param msg 消息
+     * @return 不合法时返回对应状态，否则返回null
+     */
+    private PutMessageStatus checkMessage(MessageExtBrokerInner msg) {
         // 消息过长
         if (msg.getTopic().length() > Byte.MAX_VALUE) {
             log.warn("putMessage message topic length too long " + msg.getTopic().length());
-            return new PutMessageResult(PutMessageStatus.MESSAGE_ILLEGAL, null);
+            return PutMessageStatus.MESSAGE_ILLEGAL;
         }
 
         // 消息附加属性过长
         if (msg.getPropertiesString() != null && msg.getPropertiesString().length() > Short.MAX_VALUE) {
             log.warn("putMessage message properties length too long " + msg.getPropertiesString().length());
-            return new PutMessageResult(PutMessageStatus.PROPERTIES_SIZE_EXCEEDED, null);
+            return PutMessageStatus.PROPERTIES_SIZE_EXCEEDED;
         }
+        return null;
+    }
 
-        if (this.isOSPageCacheBusy()) {
-            return new PutMessageResult(PutMessageStatus.OS_PAGECACHE_BUSY, null);
+    /**
+     * 校验批量消息
+     *
+     * @param messageExtBatch 批量消息
+     * @return 不合法时返回对应状态，否则返回null
+     */
+    private PutMessageStatus checkMessages(MessageExtBatch messageExtBatch) {
+        // 消息过长
+        if (messageExtBatch.getTopic().length() > Byte.MAX_VALUE) {
+            log.warn("PutMessages topic length too long " + messageExtBatch.getTopic().length());
+            return PutMessageStatus.MESSAGE_ILLEGAL;
         }
 
-        long beginTime = this.getSystemClock().now();
-        // 添加消息到commitLog
-        //todo 前面的都是一些验证，后边最终调用了CommitLog的putMessage()方法
-        //延迟消息在内部处理
-        PutMessageResult result = this.commitLog.putMessage(msg);
+        if (messageExtBatch.getBody() == null || messageExtBatch.getBody().length > messageStoreConfig.getMaxMessageSize()) {
+            log.warn("PutMessages body length too long " + (messageExtBatch.getBody() == null ? 0 : messageExtBatch.getBody().length));
+            return PutMessageStatus.MESSAGE_ILLEGAL;
+        }
+        return null;
+    }
+
+    /**
+     * 消息内容长度。客户端已编码为 CommitLog 存储格式时，body 为空，返回编码后长度
+     *
+     * @param msg 消息
+     * @return 长度
+     */
+    private static int bodyLength(MessageExtBrokerInner msg) {
+        if (msg.getBody() != null) {
+            return msg.getBody().length;
+        }
+        return msg.getEncodedBuff() != null ? msg.getEncodedBuff().limit() : 0;
+    }
 
+    /**
+     * 添加消息完成后的统计
+     *
+     * @param result 结果
+     * @param beginTime 开始时间
+     * @param bodyLength 消息体长度
+     */
+    private void onPutMessageComplete(PutMessageResult result, long beginTime, int bodyLength) {
         long eclipseTime = this.getSystemClock().now() - beginTime;
         if (eclipseTime > 500) {
-            log.warn("putMessage not in lock eclipse time(ms)={}, bodyLength={}", eclipseTime, msg.getBody().length);
+            log.warn("putMessage not in lock eclipse time(ms)={}, bodyLength={}", eclipseTime, bodyLength);
         }
         this.storeStatsService.setPutMessageEntireTimeMax(eclipseTime);
 
         if (null == result || !result.isOk()) {
             this.storeStatsService.getPutMessageFailedTimes().incrementAndGet();
         }
-
-        return result;
     }
 
     @Override
@@ -445,15 +666,47 @@ public class DefaultMessageStore implements MessageStore {
 
                         long nextPhyFileStartOffset = Long.MIN_VALUE; // commitLog下一个文件(MappedFile)对应的开始offset。
                         long maxPhyOffsetPulling = 0; // 消息物理位置拉取到的最大offset
+                        long lastOffsetPy = -1; // 上一条返回的消息物理位置
+                        final MessageRegion region = new MessageRegion(); // 待读取的物理连续消息
+                        long prefetchOffset = -1; // 从硬盘读取时，建议预读的开始物理位置
 
                         int i = 0;
                         final int maxFilterMessageCount = 16000;
                         final boolean diskFallRecorded = this.messageStoreConfig.isDiskFallRecorded();
+                        final int mappedFileSize = this.messageStoreConfig.getMapedFileSizeCommitLog();
+                        // 按布隆过滤附加文件跳过不可能匹配的块，跳过的位置信息不计入过滤数量
+                        final ConsumeQueueBloom bloom = consumeQueue.getBloom();
+                        // SQL92 订阅：tagsCode 匹配后读取消息属性计算表达式
+                        final SqlExpression sqlExpression = this.messageFilter.getSqlExpression(subscriptionData);
+                        final boolean matchByProperties = subscriptionData != null
+                            && ExpressionType.isSql92Type(subscriptionData.getExpressionType());
+                        final ConsumeQueueBloom.FilterBits filterBits = bloom != null ? bloom.buildFilterBits(subscriptionData, sqlExpression) : null;
+                        int skipped = 0;
                         // 循环获取 消息位置信息
-                        for (; i < bufferConsumeQueue.getSize() && i < maxFilterMessageCount; i += ConsumeQueue.CQ_STORE_UNIT_SIZE) {
+                        for (; i < bufferConsumeQueue.getSize() && i - skipped < maxFilterMessageCount; i += ConsumeQueue.CQ_STORE_UNIT_SIZE) {
+                            if (filterBits != null) {
+                                final long cqOffset = offset + i / ConsumeQueue.CQ_STORE_UNIT_SIZE;
+                                if (i == 0 || cqOffset % ConsumeQueueBloom.BLOCK_UNITS == 0) {
+                                    final long matchOffset = bloom.skipUnmatchedBlocks(cqOffset, maxOffset, filterBits);
+                                    if (matchOffset > cqOffset) {
+                                        final int skip = (int) Math.min((matchOffset - cqOffset) * ConsumeQueue.CQ_STORE_UNIT_SIZE,
+                                            bufferConsumeQueue.getSize() - i);
+                                        i += skip;
+                                        skipped += skip;
+                                        if (i >= bufferConsumeQueue.getSize()) {
+                                            break;
+                                        }
+                                        bufferConsumeQueue.getByteBuffer().position(i);
+                                    }
+                                }
+                            }
                             long offsetPy = bufferConsumeQueue.getByteBuffer().getLong(); // 消息物理位置offset
                             int sizePy = bufferConsumeQueue.getByteBuffer().getInt(); // 消息长度
                             long tagsCode = bufferConsumeQueue.getByteBuffer().getLong(); // 消息tagsCode
+                            // 批量记录的后续位置信息与前一条指向同一记录，记录已整体返回，跳过且不截断批量记录
+                            if (offsetPy == lastOffsetPy) {
+                                continue;
+                            }
                             // 设置消息物理位置拉取到的最大offset
                             maxPhyOffsetPulling = offsetPy;
                             // 当 offsetPy 小于 nextPhyFileStartOffset 时，意味着对应的 Message 已经移除，所以直接continue，直到可读取的Message。
@@ -463,27 +716,36 @@ public class DefaultMessageStore implements MessageStore {
                             }
                             // 校验 commitLog 是否需要硬盘，无法全部放在内存
                             boolean isInDisk = checkInDiskByCommitOffset(offsetPy, maxOffsetPy);
-                            // 是否已经获得足够消息
-                            if (this.isTheBatchFull(sizePy, maxMsgNums, getResult.getBufferTotalSize(), getResult.getMessageCount(),
-                                isInDisk)) {
+                            // 是否已经获得足够消息（包括待读取的消息）
+                            if (this.isTheBatchFull(sizePy, maxMsgNums, getResult.getBufferTotalSize() + region.getSize(),
+                                getResult.getMessageCount() + region.getMsgNums(), isInDisk)) {
                                 break;
                             }
-                            // 判断消息是否符合条件
-                            if (this.messageFilter.isMessageMatched(subscriptionData, tagsCode)) {
-                                // 从commitLog获取对应消息ByteBuffer
-                                SelectMappedBufferResult selectResult = this.commitLog.getMessage(offsetPy, sizePy);
-                                if (selectResult != null) {
-                                    this.storeStatsService.getGetMessageTransferedMsgCount().incrementAndGet();
-                                    getResult.addMessage(selectResult);
-                                    status = GetMessageStatus.FOUND;
-                                    nextPhyFileStartOffset = Long.MIN_VALUE;
-                                } else {
-                                    // 从commitLog无法读取到消息，说明该消息对应的文件（MappedFile）已经删除，计算下一个MappedFile的起始位置
-                                    if (getResult.getBufferTotalSize() == 0) {
-                                        status = GetMessageStatus.MESSAGE_WAS_REMOVING;
+                            // 判断消息是否符合条件。按消息属性过滤时，先用布隆过滤位排除，避免读取消息
+                            if (this.messageFilter.isMessageMatched(subscriptionData, tagsCode)
+                                && (!matchByProperties
+                                    || ((filterBits == null || bloom.isMatched(offset + i / ConsumeQueue.CQ_STORE_UNIT_SIZE, filterBits))
+                                        && this.isMatchedByProperties(subscriptionData, offsetPy, sizePy)))) {
+                                // 与待读取的消息物理不连续时，先读取待读取的消息
+                                if (!region.isEmpty() && !region.isContiguous(offsetPy, mappedFileSize)) {
+                                    if (this.fetchMessageRegion(region, getResult)) {
+                                        status = GetMessageStatus.FOUND;
+                                        nextPhyFileStartOffset = Long.MIN_VALUE;
+                                        prefetchOffset = region.isInDisk() ? region.getStartOffset() + region.getSize() : -1;
+                                    } else {
+                                        // 从commitLog无法读取到消息，说明该消息对应的文件（MappedFile）已经删除，计算下一个MappedFile的起始位置
+                                        if (getResult.getBufferTotalSize() == 0) {
+                                            status = GetMessageStatus.MESSAGE_WAS_REMOVING;
+                                        }
+                                        nextPhyFileStartOffset = this.commitLog.rollNextFile(region.getStartOffset());
+                                    }
+                                    region.reset();
+                                    if (offsetPy < nextPhyFileStartOffset) {
+                                        continue;
                                     }
-                                    nextPhyFileStartOffset = this.commitLog.rollNextFile(offsetPy);
                                 }
+                                region.append(offsetPy, sizePy, isInDisk);
+                                lastOffsetPy = offsetPy;
                             } else {
                                 if (getResult.getBufferTotalSize() == 0) {
                                     status = GetMessageStatus.NO_MATCHED_MESSAGE;
@@ -494,6 +756,19 @@ public class DefaultMessageStore implements MessageStore {
                                 }
                             }
                         }
+                        if (!region.isEmpty()) {
+                            if (this.fetchMessageRegion(region, getResult)) {
+                                status = GetMessageStatus.FOUND;
+                                prefetchOffset = region.isInDisk() ? region.getStartOffset() + region.getSize() : -1;
+                            } else if (getResult.getBufferTotalSize() == 0) {
+                                status = GetMessageStatus.MESSAGE_WAS_REMOVING;
+                            }
+                        }
+                        // 从硬盘读取时，建议内核预读之后的数据，下次拉取不再等待磁盘
+                        final int prefetchBytes = this.messageStoreConfig.getPrefetchBytesOnMessageInDisk();
+                        if (prefetchOffset >= 0 && prefetchBytes > 0) {
+                            this.commitLog.adviseWillNeed(prefetchOffset, prefetchBytes);
+                        }
                         // 统计剩余可拉取消息字节数
                         if (diskFallRecorded) {
                             long fallBehind = maxOffsetPy - maxPhyOffsetPulling;
@@ -536,6 +811,27 @@ public class DefaultMessageStore implements MessageStore {
         return getResult;
     }
 
+    /**
+     * 读取消息属性判断是否匹配订阅。消息无法读取（例如已删除）时视为匹配，由读取消息时处理
+     *
+     * @param subscriptionData 订阅数据
+     * @param offsetPy 消息物理位置
+     * @param sizePy 消息长度
+     * @return 是否匹配
+     */
+    private boolean isMatchedByProperties(final SubscriptionData subscriptionData, final long offsetPy, final int sizePy) {
+        SelectMappedBufferResult result = this.commitLog.getMessage(offsetPy, sizePy);
+        if (null == result) {
+            return true;
+        }
+        try {
+            Map<String, String> properties = MessageDecoder.decodeProperties(result.getByteBuffer());
+            return this.messageFilter.isMatchedByProperties(subscriptionData, properties);
+        } finally {
+            result.release();
+        }
+    }
+
     /**
 
      */
@@ -672,6 +968,14 @@ public class DefaultMessageStore implements MessageStore {
     public long getEarliestMessageTime(String topic, int queueId) {
         ConsumeQueue logicQueue = this.findConsumeQueue(topic, queueId);
         if (logicQueue != null) {
+            // 时间索引记录了最小位置时不读取 commitLog
+            final ConsumeQueueTimeIndex timeIndex = logicQueue.getTimeIndex();
+            if (timeIndex != null) {
+                final long storeTime = timeIndex.getStoreTime(logicQueue.getMinOffsetInQueue());
+                if (storeTime > 0) {
+                    return storeTime;
+                }
+            }
             long minLogicOffset = logicQueue.getMinLogicOffset();
 
             SelectMappedBufferResult result = logicQueue.getIndexBuffer(minLogicOffset / ConsumeQueue.CQ_STORE_UNIT_SIZE);
@@ -756,7 +1060,7 @@ public class DefaultMessageStore implements MessageStore {
 
         boolean result = this.commitLog.appendData(startOffset, data);
         if (result) {
-            this.reputMessageService.wakeup();
+            this.commitLog.getAppendOffsetBarrier().publish(startOffset + data.length);
         } else {
             log.error("appendToPhyQueue failed " + startOffset + " " + data.length);
         }
@@ -764,6 +1068,24 @@ public class DefaultMessageStore implements MessageStore {
         return result;
     }
 
+    @Override
+    public boolean appendToCommitLog(long startOffset, ByteBuffer data) {
+        if (this.shutdown) {
+            log.warn("message store has shutdown, so appendToPhyQueue is forbidden");
+            return false;
+        }
+
+        int size = data.remaining();
+        boolean result = this.commitLog.appendData(startOffset, data);
+        if (result) {
+            this.commitLog.getAppendOffsetBarrier().publish(startOffset + size);
+        } else {
+            log.error("appendToPhyQueue failed " + startOffset + " " + size);
+        }
+
+        return result;
+    }
+
     @Override
     public void excuteDeleteFilesManualy() {
         this.cleanCommitLogService.excuteDeleteFilesManualy();
@@ -792,10 +1114,6 @@ public class DefaultMessageStore implements MessageStore {
                 try {
 
                     boolean match = true;
-                    MessageExt msg = this.lookMessageByOffset(offset);
-                    if (0 == m) {
-                        lastQueryMsgTime = msg.getStoreTimestamp();
-                    }
 
 //                    String[] keyArray = msg.getKeys().split(MessageConst.KEY_SEPARATOR);
 //                    if (topic.equals(msg.getTopic())) {
@@ -810,6 +1128,10 @@ public class DefaultMessageStore implements MessageStore {
                     if (match) {
                         SelectMappedBufferResult result = this.commitLog.getData(offset, false);
                         if (result != null) {
+                            // 下次从最早一条消息的存储时间继续查询，直接读取存储时间，不解析整条消息
+                            if (0 == m) {
+                                lastQueryMsgTime = result.getByteBuffer().getLong(MessageDecoder.MESSAGE_STORE_TIMESTAMP_POSTION);
+                            }
                             int size = result.getByteBuffer().getInt(0);
                             result.getByteBuffer().limit(size);
                             result.setSize(size);
@@ -857,7 +1179,8 @@ public class DefaultMessageStore implements MessageStore {
             Entry<String, ConcurrentHashMap<Integer, ConsumeQueue>> next = it.next();
             String topic = next.getKey();
 
-            if (!topics.contains(topic) && !topic.equals(ScheduleMessageService.SCHEDULE_TOPIC)) {
+            if (!topics.contains(topic) && !topic.equals(ScheduleMessageService.SCHEDULE_TOPIC)
+                && !topic.equals(TimerMessageStore.TIMER_TOPIC)) {
                 ConcurrentHashMap<Integer, ConsumeQueue> queueTable = next.getValue();
                 for (ConsumeQueue cq : queueTable.values()) {
                     cq.destroy();
@@ -964,6 +1287,15 @@ public class DefaultMessageStore implements MessageStore {
         return messageIds;
     }
 
+    @Override
+    public boolean executeColdRead(final Runnable task) {
+        return this.coldReadScheduler.execute(task);
+    }
+
+    public ColdReadScheduler getColdReadScheduler() {
+        return coldReadScheduler;
+    }
+
     @Override
     public boolean checkInDiskByConsumeOffset(final String topic, final int queueId, long consumeOffset) {
 
@@ -994,6 +1326,25 @@ public class DefaultMessageStore implements MessageStore {
         return this.reputMessageService.behind();
     }
 
+    /**
+     * 已重放的 CommitLog 物理位置
+     */
+    public long getReputFromOffset() {
+        return this.reputMessageService.getReputFromOffset();
+    }
+
+    public TieredStoreService getTieredStoreService() {
+        return tieredStoreService;
+    }
+
+    public ConsumeQueueTailCache getConsumeQueueTailCache() {
+        return consumeQueueTailCache;
+    }
+
+    public ConsumeQueueSummaryTable getConsumeQueueSummaryTable() {
+        return consumeQueueSummaryTable;
+    }
+
     @Override
     public long flush() {
         return this.commitLog.flush();
@@ -1049,12 +1400,7 @@ public class DefaultMessageStore implements MessageStore {
         // 获取 queueId 对应的 消费队列
         ConsumeQueue logic = map.get(queueId);
         if (null == logic) {
-            ConsumeQueue newLogic = new ConsumeQueue(//
-                topic, //
-                queueId, //
-                StorePathConfigHelper.getStorePathConsumeQueue(this.messageStoreConfig.getStorePathRootDir()), //
-                this.getMessageStoreConfig().getMapedFileSizeConsumeQueue(), //
-                this);
+            ConsumeQueue newLogic = this.createConsumeQueue(topic, queueId, this.messageStoreConfig.isCompactConsumeQueueEnable());
             ConsumeQueue oldLogic = map.putIfAbsent(queueId, newLogic);
             if (oldLogic != null) {
                 logic = oldLogic;
@@ -1066,6 +1412,41 @@ public class DefaultMessageStore implements MessageStore {
         return logic;
     }
 
+    /**
+     * 创建消费队列
+     *
+     * @param topic 主题
+     * @param queueId 队列编号
+     * @param compact 是否使用紧凑格式
+     * @return 消费队列
+     */
+    private ConsumeQueue createConsumeQueue(final String topic, final int queueId, final boolean compact) {
+        if (compact) {
+            final String storePath = StorePathConfigHelper.getStorePathCompactConsumeQueue(this.messageStoreConfig.getStorePathRootDir());
+            // 已有的队列使用文件中记录的块大小
+            int blockSize = CompactConsumeQueue.readBlockSize(storePath + File.separator + topic + File.separator + queueId);
+            if (blockSize <= 0) {
+                blockSize = this.messageStoreConfig.getCompactConsumeQueueBlockSize();
+            } else if (blockSize != this.messageStoreConfig.getCompactConsumeQueueBlockSize()) {
+                log.warn("compact consume queue {}-{} block size {} differs from config {}, use the stored one",
+                    topic, queueId, blockSize, this.messageStoreConfig.getCompactConsumeQueueBlockSize());
+            }
+            return new CompactConsumeQueue(//
+                topic, //
+                queueId, //
+                storePath, //
+                this.messageStoreConfig.getMapedFileSizeCompactConsumeQueue(blockSize), //
+                blockSize, //
+                this);
+        }
+        return new ConsumeQueue(//
+            topic, //
+            queueId, //
+            StorePathConfigHelper.getStorePathConsumeQueue(this.messageStoreConfig.getStorePathRootDir()), //
+            this.messageStoreConfig.getMapedFileSizeConsumeQueue(), //
+            this);
+    }
+
     /**
      * 下一个获取队列offset修正
      * 修正条件：主节点 或者 从节点开启校验offset开关
@@ -1134,6 +1515,24 @@ public class DefaultMessageStore implements MessageStore {
         return false;
     }
 
+    /**
+     * 读取物理连续的消息：只查找、引用一次映射文件
+     *
+     * @param region 物理连续的消息
+     * @param getResult 获取消息结果
+     * @return 是否读取成功，失败时消息所在文件已删除
+     */
+    private boolean fetchMessageRegion(final MessageRegion region, final GetMessageResult getResult) {
+        SelectMappedBufferResult selectResult = this.commitLog.getMessageForTransfer(region.getStartOffset(), region.getSize());
+        if (selectResult == null) {
+            return false;
+        }
+        this.storeStatsService.getGetMessageTransferedMsgCount().addAndGet(region.getMsgNums());
+        getResult.addMessageRegion(selectResult, region.getMsgSizes(), region.getMsgNums());
+        getResult.addMessageFromDisk(region.getDiskMsgNums(), region.getDiskSize());
+        return true;
+    }
+
     private void deleteFile(final String fileName) {
         File file = new File(fileName);
         boolean result = file.delete();
@@ -1188,6 +1587,19 @@ public class DefaultMessageStore implements MessageStore {
             }
         }, 1, 1, TimeUnit.SECONDS);
 
+        if (this.coldReadScheduler.isEnable()) {
+            this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        DefaultMessageStore.this.coldReadScheduler.warmHotTail();
+                    } catch (Throwable e) {
+                        log.warn("warm hot tail exception", e);
+                    }
+                }
+            }, 1000, this.messageStoreConfig.getHotTailWarmInterval(), TimeUnit.MILLISECONDS);
+        }
+
         // this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
         // @Override
         // public void run() {
@@ -1221,8 +1633,28 @@ public class DefaultMessageStore implements MessageStore {
         return file.exists();
     }
 
-    private boolean loadConsumeQueue() {
-        File dirLogic = new File(StorePathConfigHelper.getStorePathConsumeQueue(this.messageStoreConfig.getStorePathRootDir()));
+    private boolean loadConsumeQueue(final boolean lastExitOK) {
+        // 摘要只对正常关闭后的下一次启动有效，加载后立即删除，避免之后异常关闭时使用过期摘要
+        final boolean lazyLoad = this.messageStoreConfig.isConsumeQueueLazyLoadEnable() && lastExitOK;
+        if (lazyLoad) {
+            this.consumeQueueSummaryTable.load();
+        }
+        this.consumeQueueSummaryTable.deleteFile();
+
+        // 两种格式的队列都加载，与 compactConsumeQueueEnable 无关
+        if (!this.loadConsumeQueue(StorePathConfigHelper.getStorePathConsumeQueue(this.messageStoreConfig.getStorePathRootDir()), false, lazyLoad)
+            || !this.loadConsumeQueue(StorePathConfigHelper.getStorePathCompactConsumeQueue(this.messageStoreConfig.getStorePathRootDir()), true, lazyLoad)) {
+            return false;
+        }
+
+        this.consumeQueueSummaryTable.clear();
+        log.info("load logics queue all over, OK");
+
+        return true;
+    }
+
+    private boolean loadConsumeQueue(final String storePath, final boolean compact, final boolean lazyLoad) {
+        File dirLogic = new File(storePath);
         File[] fileTopicList = dirLogic.listFiles();
         if (fileTopicList != null) {
 
@@ -1238,23 +1670,23 @@ public class DefaultMessageStore implements MessageStore {
                         } catch (NumberFormatException e) {
                             continue;
                         }
-                        ConsumeQueue logic = new ConsumeQueue(
-                            topic,
-                            queueId,
-                            StorePathConfigHelper.getStorePathConsumeQueue(this.messageStoreConfig.getStorePathRootDir()),
-                            this.getMessageStoreConfig().getMapedFileSizeConsumeQueue(),
-                            this);
+                        ConcurrentHashMap<Integer, ConsumeQueue> map = this.consumeQueueTable.get(topic);
+                        if (map != null && map.containsKey(queueId)) {
+                            log.warn("consume queue {}-{} exists in both formats, ignore {}", topic, queueId, storePath);
+                            continue;
+                        }
+                        ConsumeQueue logic = this.createConsumeQueue(topic, queueId, compact);
                         this.putConsumeQueue(topic, queueId, logic);
-                        if (!logic.load()) {
+                        ConsumeQueueSummary summary = lazyLoad ? this.consumeQueueSummaryTable.get(topic, queueId) : null;
+                        if (summary != null) {
+                            logic.loadLazily(summary);
+                        } else if (!logic.load()) {
                             return false;
                         }
                     }
                 }
             }
         }
-
-        log.info("load logics queue all over, OK");
-
         return true;
     }
 
@@ -1292,18 +1724,19 @@ public class DefaultMessageStore implements MessageStore {
     private void recoverConsumeQueue() {
         for (ConcurrentHashMap<Integer, ConsumeQueue> maps : this.consumeQueueTable.values()) {
             for (ConsumeQueue logic : maps.values()) {
-                logic.recover();
+                if (logic.isLoaded()) {
+                    logic.recover();
+                }
             }
         }
     }
 
     private void recoverTopicQueueTable() {
-        HashMap<String/* topic-queueid */, Long/* offset */> table = new HashMap<String, Long>(1024);
+        TopicQueueOffsetTable table = new TopicQueueOffsetTable(1024);
         long minPhyOffset = this.commitLog.getMinOffset();
         for (ConcurrentHashMap<Integer, ConsumeQueue> maps : this.consumeQueueTable.values()) {
             for (ConsumeQueue logic : maps.values()) {
-                String key = logic.getTopic() + "-" + logic.getQueueId();
-                table.put(key, logic.getMaxOffsetInQueue());
+                table.put(logic.getTopic(), logic.getQueueId(), logic.getMaxOffsetInQueue());
                 logic.correctMinOffset(minPhyOffset);
             }
         }
@@ -1311,6 +1744,20 @@ public class DefaultMessageStore implements MessageStore {
         this.commitLog.setTopicQueueTable(table);
     }
 
+    /**
+     * 正常关闭时记录所有 ConsumeQueue 的摘要，下次启动时延迟加载
+     */
+    private void persistConsumeQueueSummary() {
+        this.consumeQueueSummaryTable.clear();
+        for (ConcurrentHashMap<Integer, ConsumeQueue> maps : this.consumeQueueTable.values()) {
+            for (ConsumeQueue logic : maps.values()) {
+                this.consumeQueueSummaryTable.put(logic.getTopic(), logic.getQueueId(), logic.summary());
+            }
+        }
+        this.consumeQueueSummaryTable.persist();
+        log.info("persist {} consume queue summaries", this.consumeQueueSummaryTable.size());
+    }
+
     public AllocateMappedFileService getAllocateMappedFileService() {
         return allocateMappedFileService;
     }
@@ -1331,6 +1778,18 @@ public class DefaultMessageStore implements MessageStore {
         return storeCheckpoint;
     }
 
+    public long getLogicsPhyOffset() {
+        return logicsPhyOffset;
+    }
+
+    public void setLogicsPhyOffset(long logicsPhyOffset) {
+        this.logicsPhyOffset = logicsPhyOffset;
+    }
+
+    public IndexService getIndexService() {
+        return indexService;
+    }
+
     public HAService getHaService() {
         return haService;
     }
@@ -1339,33 +1798,95 @@ public class DefaultMessageStore implements MessageStore {
         return scheduleMessageService;
     }
 
+    public TimerMessageStore getTimerMessageStore() {
+        return timerMessageStore;
+    }
+
     public RunningFlags getRunningFlags() {
         return runningFlags;
     }
 
     /**
-     * 执行调度请求
+     * 执行调度请求，依次交给 {@link #dispatcherList} 处理
      * 1. 非事务消息 或 事务提交消息 建立 消息位置信息 到 ConsumeQueue
      * 2. 建立 索引信息 到 IndexFile
      *
      * @param req 调度请求
      */
     public void doDispatch(DispatchRequest req) {
-        // 非事务消息 或 事务提交消息 建立 消息位置信息 到 ConsumeQueue
-        final int tranType = MessageSysFlag.getTransactionValue(req.getSysFlag());
-        switch (tranType) {
-            case MessageSysFlag.TRANSACTION_NOT_TYPE: // 非事务消息
-            case MessageSysFlag.TRANSACTION_COMMIT_TYPE: // 事务消息COMMIT
-                DefaultMessageStore.this.putMessagePositionInfo(req.getTopic(), req.getQueueId(), req.getCommitLogOffset(), req.getMsgSize(),
-                    req.getTagsCode(), req.getStoreTimestamp(), req.getConsumeQueueOffset());
-                break;
-            case MessageSysFlag.TRANSACTION_PREPARED_TYPE: // 事务消息PREPARED
-            case MessageSysFlag.TRANSACTION_ROLLBACK_TYPE: // 事务消息ROLLBACK
-                break;
+        for (CommitLogDispatcher dispatcher : this.dispatcherList) {
+            dispatcher.dispatch(req);
         }
-        // 建立 索引信息 到 IndexFile
-        if (DefaultMessageStore.this.getMessageStoreConfig().isMessageIndexEnable()) {
-            DefaultMessageStore.this.indexService.buildIndex(req);
+    }
+
+    /**
+     * 消息已构建 ConsumeQueue，对消费者可见：统计 存储到调度 的延迟，并通知有新消息
+     *
+     * @param req 调度请求
+     */
+    public void onDispatchComplete(DispatchRequest req) {
+        this.storeStatsService.setDispatchLatency(this.systemClock.now() - req.getStoreTimestamp());
+        this.notifyMessageArriving(req);
+    }
+
+    /**
+     * 通知有新消息，唤醒长轮询的拉取请求
+     *
+     * @param req 调度请求
+     */
+    public void notifyMessageArriving(DispatchRequest req) {
+        if (BrokerRole.SLAVE != this.getMessageStoreConfig().getBrokerRole()
+            && this.brokerConfig.isLongPollingEnable()) {
+            this.messageArrivingListener.arriving(req.getTopic(),
+                req.getQueueId(), req.getConsumeQueueOffset() + req.getBatchSize(),
+                req.getTagsCode());
+        }
+    }
+
+    /**
+     * CommitLog 调度器列表。可在启动前添加自定义调度器，流水线调度时自定义调度器与构建IndexFile在同一线程异步执行
+     *
+     * @return 调度器列表
+     */
+    public LinkedList<CommitLogDispatcher> getDispatcherList() {
+        return dispatcherList;
+    }
+
+    /**
+     * 构建 ConsumeQueue：非事务消息 或 事务提交消息
+     */
+    class CommitLogDispatcherBuildConsumeQueue implements CommitLogDispatcher {
+
+        @Override
+        public void dispatch(DispatchRequest request) {
+            final int tranType = MessageSysFlag.getTransactionValue(request.getSysFlag());
+            switch (tranType) {
+                case MessageSysFlag.TRANSACTION_NOT_TYPE: // 非事务消息
+                case MessageSysFlag.TRANSACTION_COMMIT_TYPE: // 事务消息COMMIT
+                    // 批量记录的每条消息占用一个队列位置，位置信息均指向该记录
+                    for (int i = 0; i < request.getBatchSize(); i++) {
+                        DefaultMessageStore.this.putMessagePositionInfo(request.getTopic(), request.getQueueId(), request.getCommitLogOffset(),
+                            request.getMsgSize(), request.getTagsCode(), request.getStoreTimestamp(), request.getConsumeQueueOffset() + i);
+                    }
+                    DefaultMessageStore.this.findConsumeQueue(request.getTopic(), request.getQueueId()).putSideFiles(request);
+                    break;
+                case MessageSysFlag.TRANSACTION_PREPARED_TYPE: // 事务消息PREPARED
+                case MessageSysFlag.TRANSACTION_ROLLBACK_TYPE: // 事务消息ROLLBACK
+                    break;
+            }
+        }
+    }
+
+    /**
+     * 构建 IndexFile
+     */
+    class CommitLogDispatcherBuildIndex implements CommitLogDispatcher {
+
+        @Override
+        public void dispatch(DispatchRequest request) {
+            if (DefaultMessageStore.this.messageStoreConfig.isMessageIndexEnable()) {
+                DefaultMessageStore.this.indexService.buildIndex(request);
+            }
         }
     }
 
@@ -1610,6 +2131,87 @@ public class DefaultMessageStore implements MessageStore {
         }
     }
 
+    /**
+     * 拉取消息时待读取的物理连续消息，不跨 CommitLog 文件
+     */
+    static class MessageRegion {
+        private long startOffset = -1;
+        private int size = 0;
+        private int msgNums = 0;
+        private int[] msgSizes = new int[16];
+        /**
+         * 在硬盘中的消息数量及字节数
+         */
+        private int diskMsgNums = 0;
+        private int diskSize = 0;
+
+        boolean isEmpty() {
+            return this.msgNums == 0;
+        }
+
+        /**
+         * 消息是否紧接在区域之后，且在同一个文件内
+         *
+         * @param offsetPy 消息物理位置
+         * @param mappedFileSize CommitLog 文件大小
+         * @return 是否连续
+         */
+        boolean isContiguous(final long offsetPy, final int mappedFileSize) {
+            return this.startOffset + this.size == offsetPy && this.startOffset / mappedFileSize == offsetPy / mappedFileSize;
+        }
+
+        void append(final long offsetPy, final int sizePy, final boolean isInDisk) {
+            if (this.msgNums == 0) {
+                this.startOffset = offsetPy;
+            }
+            if (this.msgNums == this.msgSizes.length) {
+                this.msgSizes = Arrays.copyOf(this.msgSizes, this.msgSizes.length * 2);
+            }
+            this.msgSizes[this.msgNums++] = sizePy;
+            this.size += sizePy;
+            if (isInDisk) {
+                this.diskMsgNums++;
+                this.diskSize += sizePy;
+            }
+        }
+
+        void reset() {
+            this.startOffset = -1;
+            this.size = 0;
+            this.msgNums = 0;
+            this.diskMsgNums = 0;
+            this.diskSize = 0;
+        }
+
+        long getStartOffset() {
+            return startOffset;
+        }
+
+        int getSize() {
+            return size;
+        }
+
+        int getMsgNums() {
+            return msgNums;
+        }
+
+        int[] getMsgSizes() {
+            return msgSizes;
+        }
+
+        boolean isInDisk() {
+            return diskMsgNums > 0;
+        }
+
+        int getDiskMsgNums() {
+            return diskMsgNums;
+        }
+
+        int getDiskSize() {
+            return diskSize;
+        }
+    }
+
     /**
      * flush 消费队列 线程服务
      */
@@ -1629,6 +2231,7 @@ public class DefaultMessageStore implements MessageStore {
             }
             // 当时间满足flushConsumeQueueThoroughInterval时，即使写入的数量不足flushConsumeQueueLeastPages，也进行flush
             long logicsMsgTimestamp = 0;
+            long logicsPhyOffset = 0;
             int flushConsumeQueueThoroughInterval = DefaultMessageStore.this.getMessageStoreConfig().getFlushConsumeQueueThoroughInterval();
             long currentTimeMillis = System.currentTimeMillis();
             if (currentTimeMillis >= (this.lastFlushTimestamp + flushConsumeQueueThoroughInterval)) {
@@ -1636,6 +2239,9 @@ public class DefaultMessageStore implements MessageStore {
                 flushConsumeQueueLeastPages = 0;
                 logicsMsgTimestamp = DefaultMessageStore.this.getStoreCheckpoint().getLogicsMsgTimestamp();
             }
+            if (0 == flushConsumeQueueLeastPages) {
+                logicsPhyOffset = DefaultMessageStore.this.logicsPhyOffset;
+            }
             // flush消费队列
             ConcurrentHashMap<String, ConcurrentHashMap<Integer, ConsumeQueue>> tables = DefaultMessageStore.this.consumeQueueTable;
             for (ConcurrentHashMap<Integer, ConsumeQueue> maps : tables.values()) {
@@ -1651,7 +2257,11 @@ public class DefaultMessageStore implements MessageStore {
                 if (logicsMsgTimestamp > 0) {
                     DefaultMessageStore.this.getStoreCheckpoint().setLogicsMsgTimestamp(logicsMsgTimestamp);
                 }
+                if (logicsPhyOffset > 0) {
+                    DefaultMessageStore.this.getStoreCheckpoint().setLogicsPhyOffset(logicsPhyOffset);
+                }
                 DefaultMessageStore.this.getStoreCheckpoint().flush();
+                DefaultMessageStore.this.commitLog.updateSummaries();
             }
         }
 
@@ -1719,6 +2329,8 @@ public class DefaultMessageStore implements MessageStore {
                     DefaultMessageStore.this.commitLog.getMaxOffset(), this.reputFromOffset);
             }
 
+            this.makeStop();
+            DefaultMessageStore.this.commitLog.getAppendOffsetBarrier().signalAll();
             super.shutdown();
         }
 
@@ -1728,7 +2340,8 @@ public class DefaultMessageStore implements MessageStore {
          * @return 字节数
          */
         public long behind() {
-            return DefaultMessageStore.this.commitLog.getMaxOffset() - this.reputFromOffset;
+            return DefaultMessageStore.this.commitLog.getMaxOffset() - this.reputFromOffset
+                + DefaultMessageStore.this.commitLogDispatchService.getPendingConsumeQueueBytes();
         }
 
         /**
@@ -1740,7 +2353,7 @@ public class DefaultMessageStore implements MessageStore {
             return this.reputFromOffset < DefaultMessageStore.this.commitLog.getMaxOffset();
         }
 
-        private void doReput() {
+        private void doReput() throws InterruptedException {
             for (boolean doNext = true; this.isCommitLogAvailable() && doNext; ) {
 
                 // TODO 疑问：这个是啥
@@ -1764,13 +2377,13 @@ public class DefaultMessageStore implements MessageStore {
                             // 根据请求的结果处理
                             if (dispatchRequest.isSuccess()) { // 读取成功
                                 if (size > 0) { // 读取Message
-                                    DefaultMessageStore.this.doDispatch(dispatchRequest);
-                                    // 通知有新消息
-                                    if (BrokerRole.SLAVE != DefaultMessageStore.this.getMessageStoreConfig().getBrokerRole()
-                                        && DefaultMessageStore.this.brokerConfig.isLongPollingEnable()) {
-                                        DefaultMessageStore.this.messageArrivingListener.arriving(dispatchRequest.getTopic(),
-                                            dispatchRequest.getQueueId(), dispatchRequest.getConsumeQueueOffset() + 1,
-                                            dispatchRequest.getTagsCode());
+                                    if (DefaultMessageStore.this.commitLogDispatchService.isEnable()) {
+                                        // 流水线调度，构建完ConsumeQueue后通知有新消息
+                                        DefaultMessageStore.this.commitLogDispatchService.dispatch(dispatchRequest);
+                                    } else {
+                                        DefaultMessageStore.this.doDispatch(dispatchRequest);
+                                        // 通知有新消息
+                                        DefaultMessageStore.this.onDispatchComplete(dispatchRequest);
                                     }
                                     // FIXED BUG By shijia
                                     this.reputFromOffset += size;
@@ -1811,15 +2424,21 @@ public class DefaultMessageStore implements MessageStore {
             }
         }
 
-        //ReputMessageService线程每执行一次任务推送休息 1 毫秒就继续尝试推送消息到消息 消费队列和索引文件，消息消费转发的核心实现在 doReput方法中实现。
+        //ReputMessageService线程在 CommitLog 追加位置屏障上等待，写入新数据后被唤醒（最多等待 1 秒），推送消息到消息 消费队列和索引文件，消息消费转发的核心实现在 doReput方法中实现。
         @Override
         public void run() {
             DefaultMessageStore.log.info(this.getServiceName() + " service started");
 
+            final AppendOffsetBarrier barrier = DefaultMessageStore.this.commitLog.getAppendOffsetBarrier();
             while (!this.isStopped()) {
                 try {
-                    Thread.sleep(1);
+                    long offset = this.reputFromOffset;
+                    barrier.waitFor(offset, 1000);
                     this.doReput();
+                    // 有数据但未能重放（如等待 confirmOffset），避免空转
+                    if (this.reputFromOffset == offset && this.isCommitLogAvailable()) {
+                        this.waitForRunning(1);
+                    }
                 } catch (Exception e) {
                     DefaultMessageStore.log.warn(this.getServiceName() + " service has exception. ", e);
                 }
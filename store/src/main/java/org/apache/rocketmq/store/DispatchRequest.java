@@ -16,6 +16,8 @@
  */
 package org.apache.rocketmq.store;
 
+import java.util.Map;
+
 public class DispatchRequest {
     private final String topic;
     private final int queueId;
@@ -30,6 +32,14 @@ public class DispatchRequest {
 
     private final int sysFlag;
     private final long preparedTransactionOffset;
+    /**
+     * 记录包含的消息数量。批量记录占用 [consumeQueueOffset, consumeQueueOffset + batchSize) 队列位置
+     */
+    private int batchSize = 1;
+    /**
+     * 消息属性，用于构建布隆过滤附加文件
+     */
+    private Map<String, String> propertiesMap;
 
     public DispatchRequest(
         final String topic,
@@ -155,4 +165,19 @@ public class DispatchRequest {
         return uniqKey;
     }
 
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public Map<String, String> getPropertiesMap() {
+        return propertiesMap;
+    }
+
+    public void setPropertiesMap(Map<String, String> propertiesMap) {
+        this.propertiesMap = propertiesMap;
+    }
 }
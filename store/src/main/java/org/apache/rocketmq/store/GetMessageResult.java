@@ -43,6 +43,12 @@ public class GetMessageResult {
 
     private int msgCount4Commercial = 0;
 
+    /**
+     * 从硬盘读取的消息数量及字节数
+     */
+    private int msgCountFromDisk = 0;
+    private int bufferSizeFromDisk = 0;
+
     public GetMessageResult() {
     }
 
@@ -94,6 +100,42 @@ public class GetMessageResult {
             mapedBuffer.getSize() / BrokerStatsManager.SIZE_PER_COUNT);
     }
 
+    /**
+     * 添加物理连续的多条消息。区域只引用一次映射文件，按消息长度切分出每条消息的 ByteBuffer
+     *
+     * @param region 连续区域
+     * @param msgSizes 区域内依次每条消息的长度
+     * @param msgNums 消息数量
+     */
+    public void addMessageRegion(final SelectMappedBufferResult region, final int[] msgSizes, final int msgNums) {
+        this.messageMapedList.add(region);
+        final ByteBuffer regionBuffer = region.getByteBuffer();
+        int position = 0;
+        for (int i = 0; i < msgNums; i++) {
+            ByteBuffer byteBuffer = regionBuffer.duplicate();
+            byteBuffer.limit(position + msgSizes[i]);
+            byteBuffer.position(position);
+            this.messageBufferList.add(byteBuffer.slice());
+            this.bufferTotalSize += msgSizes[i];
+            this.msgCount4Commercial += (int) Math.ceil(
+                msgSizes[i] / BrokerStatsManager.SIZE_PER_COUNT);
+            position += msgSizes[i];
+        }
+    }
+
+    public void addMessageFromDisk(final int msgCount, final int bufferSize) {
+        this.msgCountFromDisk += msgCount;
+        this.bufferSizeFromDisk += bufferSize;
+    }
+
+    public int getMsgCountFromDisk() {
+        return msgCountFromDisk;
+    }
+
+    public int getBufferSizeFromDisk() {
+        return bufferSizeFromDisk;
+    }
+
     public void release() {
         for (SelectMappedBufferResult select : this.messageMapedList) {
             select.release();
@@ -109,7 +151,7 @@ public class GetMessageResult {
     }
 
     public int getMessageCount() {
-        return this.messageMapedList.size();
+        return this.messageBufferList.size();
     }
 
     public boolean isSuggestPullingFromSlave() {
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+
+/**
+ * 历史读缓冲池：按位置读取历史 CommitLog 文件时使用的堆外内存
+ * 缓冲区按需创建，最多 historicReadBufferNums 个，用完归还复用；读取超过缓冲区大小或缓冲区用尽时临时分配堆内存
+ */
+public class HistoricReadBufferPool {
+
+    private final int bufferSize;
+
+    private final int maxBufferNums;
+
+    private final Queue<ByteBuffer> availableBuffers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 已创建的堆外缓冲区数量
+     */
+    private final AtomicInteger allocatedNums = new AtomicInteger(0);
+
+    public HistoricReadBufferPool(final MessageStoreConfig storeConfig) {
+        this.bufferSize = storeConfig.getHistoricReadBufferSize();
+        this.maxBufferNums = storeConfig.getHistoricReadBufferNums();
+    }
+
+    /**
+     * 借出缓冲区，position 为 0，limit 为 size
+     *
+     * @param size 需要的字节数
+     * @return 缓冲区
+     */
+    public ByteBuffer borrowBuffer(final int size) {
+        ByteBuffer buffer = null;
+        if (size <= this.bufferSize) {
+            buffer = this.availableBuffers.poll();
+            if (null == buffer && this.allocatedNums.incrementAndGet() <= this.maxBufferNums) {
+                buffer = ByteBuffer.allocateDirect(this.bufferSize);
+            } else if (null == buffer) {
+                this.allocatedNums.decrementAndGet();
+            }
+        }
+        if (null == buffer) {
+            buffer = ByteBuffer.allocate(size);
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * 归还缓冲区，临时分配的堆内存直接丢弃
+     */
+    public void returnBuffer(final ByteBuffer buffer) {
+        if (buffer.isDirect() && buffer.capacity() == this.bufferSize) {
+            this.availableBuffers.offer(buffer);
+        }
+    }
+
+    public int getAllocatedNums() {
+        return allocatedNums.get();
+    }
+
+    public int getAvailableNums() {
+        return availableBuffers.size();
+    }
+
+    /**
+     * 持有池化缓冲区的读取结果，释放时归还缓冲区
+     */
+    public static class PooledBufferResult extends SelectMappedBufferResult {
+
+        private final HistoricReadBufferPool pool;
+
+        private ByteBuffer pooledBuffer;
+
+        public PooledBufferResult(final long startOffset, final ByteBuffer pooledBuffer, final int size,
+            final HistoricReadBufferPool pool) {
+            super(startOffset, pooledBuffer.slice(), size, null);
+            this.pooledBuffer = pooledBuffer;
+            this.pool = pool;
+        }
+
+        @Override
+        public synchronized void release() {
+            if (this.pooledBuffer != null) {
+                this.pool.returnBuffer(this.pooledBuffer);
+                this.pooledBuffer = null;
+            }
+        }
+    }
+}
@@ -20,6 +20,7 @@ import com.sun.jna.NativeLong;
 import com.sun.jna.Pointer;
 import org.apache.rocketmq.common.UtilAll;
 import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.store.config.FlushDiskType;
 import org.apache.rocketmq.store.util.LibC;
 import org.slf4j.Logger;
@@ -27,9 +28,11 @@ import org.slf4j.LoggerFactory;
 import sun.nio.ch.DirectBuffer;
 
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
@@ -59,6 +62,10 @@ public class MappedFile extends ReferenceResource {
      * 当前 JVM 实例中 MappedFile 对象个数 。
      */
     private static final AtomicInteger TOTAL_MAPPED_FILES = new AtomicInteger(0);
+    /**
+     * {@link FileDescriptor} 中的文件描述符字段，用于 posix_fadvise，获取失败时为 null
+     */
+    private static final Field FD_FIELD = fdField();
     /**
      * 当前写入位置，下次开始写入的开始位置
      */
@@ -82,6 +89,10 @@ public class MappedFile extends ReferenceResource {
      *
      */
     protected FileChannel fileChannel;
+    /**
+     * {@link #fileChannel} 的文件描述符
+     */
+    private FileDescriptor fileDescriptor;
     /**
      堆内存 ByteBuffer， 如果 不为空，数 据 首 先将存储在 该
      Buffer中， 然后提交到MappedFile对应的内存映射文件Buffer。 transientStorePoolEnable 为 true时不为空。
@@ -224,7 +235,9 @@ public class MappedFile extends ReferenceResource {
 
         try {
             //通过 RandomAccessFile创建读写文件通道
-            this.fileChannel = new RandomAccessFile(this.file, "rw").getChannel();
+            RandomAccessFile randomAccessFile = new RandomAccessFile(this.file, "rw");
+            this.fileChannel = randomAccessFile.getChannel();
+            this.fileDescriptor = randomAccessFile.getFD();
             //并将文件内容使用 NIO 的内存映射 Buffer将文件映 射到内存中。
             this.mappedByteBuffer = this.fileChannel.map(MapMode.READ_WRITE, 0, fileSize);
             TOTAL_MAPPED_VIRTUAL_MEMORY.addAndGet(fileSize);
@@ -264,7 +277,22 @@ public class MappedFile extends ReferenceResource {
      * @return 附加消息结果
      */
     public AppendMessageResult appendMessage(final MessageExtBrokerInner msg, final AppendMessageCallback cb) {
-        assert msg != null;
+        return appendMessagesInner(msg, cb);
+    }
+
+    /**
+     * 附加批量消息到文件。
+     *
+     * @param messageExtBatch 批量消息
+     * @param cb 逻辑
+     * @return 附加消息结果
+     */
+    public AppendMessageResult appendMessages(final MessageExtBatch messageExtBatch, final AppendMessageCallback cb) {
+        return appendMessagesInner(messageExtBatch, cb);
+    }
+
+    private AppendMessageResult appendMessagesInner(final MessageExt messageExt, final AppendMessageCallback cb) {
+        assert messageExt != null;
         assert cb != null;
 
         int currentPos = this.wrotePosition.get();
@@ -276,8 +304,14 @@ public class MappedFile extends ReferenceResource {
             //todo 调用了AppendMessageCallback.doAppend()方法，而AppendMessageCallback是个接口，它的实现类DefaultAppendMessageCallback就在CommitLog类中，是个内部类。
             //DefaultAppendMessageCallback(commitlog的内部类)#doAppend 只是将消息追加在内存中，
             // 需要根据是同步刷盘还是异步刷盘方式，将内存中的数据持久化到磁盘，然后执行HA主从同步复制
-            AppendMessageResult result =
-                cb.doAppend(this.getFileFromOffset(), byteBuffer, this.fileSize - currentPos, msg);
+            AppendMessageResult result;
+            if (messageExt instanceof MessageExtBrokerInner) {
+                result = cb.doAppend(this.getFileFromOffset(), byteBuffer, this.fileSize - currentPos, (MessageExtBrokerInner) messageExt);
+            } else if (messageExt instanceof MessageExtBatch) {
+                result = cb.doAppend(this.getFileFromOffset(), byteBuffer, this.fileSize - currentPos, (MessageExtBatch) messageExt);
+            } else {
+                return new AppendMessageResult(AppendMessageStatus.UNKNOWN_ERROR);
+            }
             this.wrotePosition.addAndGet(result.getWroteBytes());
             this.storeTimestamp = result.getStoreTimestamp();
             return result;
@@ -316,6 +350,34 @@ public class MappedFile extends ReferenceResource {
         return false;
     }
 
+    /**
+     * 直接写入映射内存，供 Slave 追加 Master 传输的数据。
+     * 使用 writeBuffer 时数据需经 commit 写入，故退回 fileChannel 写入
+     */
+    public boolean appendMessage(final ByteBuffer data) {
+        int currentPos = this.wrotePosition.get();
+        int size = data.remaining();
+
+        if ((currentPos + size) <= this.fileSize) {
+            try {
+                if (this.writeBuffer == null) {
+                    ByteBuffer byteBuffer = this.mappedByteBuffer.slice();
+                    byteBuffer.position(currentPos);
+                    byteBuffer.put(data);
+                } else {
+                    this.fileChannel.position(currentPos);
+                    this.fileChannel.write(data);
+                }
+            } catch (Throwable e) {
+                log.error("Error occurred when append message to mappedFile.", e);
+            }
+            this.wrotePosition.addAndGet(size);
+            return true;
+        }
+
+        return false;
+    }
+
     /**
      * flush
      *
@@ -686,6 +748,106 @@ public class MappedFile extends ReferenceResource {
         }
     }
 
+    /**
+     * 建议内核预读 [pos, pos + length) 之间的数据，按页对齐，不超过可读位置
+     *
+     * @param pos 开始位置
+     * @param length 长度
+     * @return 是否成功
+     */
+    public boolean adviseWillNeed(final int pos, final int length) {
+        final int alignedPos = pos - pos % OS_PAGE_SIZE;
+        final int alignedLength = Math.min(pos + length, this.getReadPosition()) - alignedPos;
+        if (alignedPos < 0 || alignedLength <= 0) {
+            return false;
+        }
+        if (!this.hold()) {
+            return false;
+        }
+        try {
+            final long address = ((DirectBuffer) (this.mappedByteBuffer)).address();
+            Pointer pointer = new Pointer(address + alignedPos);
+            return LibC.INSTANCE.madvise(pointer, new NativeLong(alignedLength), LibC.MADV_WILLNEED) == 0;
+        } catch (Throwable e) {
+            // 不支持 madvise 的平台
+            log.debug("madvise failed, " + this.fileName, e);
+            return false;
+        } finally {
+            this.release();
+        }
+    }
+
+    /**
+     * 使用 FileChannel 按位置读取（pread）数据到 dst，读取 dst 剩余的字节数，不访问文件映射
+     *
+     * @param pos 读取开始位置
+     * @param dst 目标 Buffer
+     * @param dropCache 读取后是否建议内核丢弃读取的 PageCache
+     * @return 是否读取成功
+     */
+    public boolean readByChannel(final int pos, final ByteBuffer dst, final boolean dropCache) {
+        final int size = dst.remaining();
+        if (pos + size > this.getReadPosition()) {
+            log.warn("readByChannel request pos invalid, request pos: " + pos + ", size: " + size
+                + ", fileFromOffset: " + this.fileFromOffset);
+            return false;
+        }
+        if (!this.hold()) {
+            return false;
+        }
+        try {
+            long position = pos;
+            while (dst.hasRemaining()) {
+                int readBytes = this.fileChannel.read(dst, position);
+                if (readBytes < 0) {
+                    return false;
+                }
+                position += readBytes;
+            }
+            if (dropCache) {
+                this.adviseDontNeedCache(pos, size);
+            }
+            return true;
+        } catch (IOException e) {
+            log.error("readByChannel failed, " + this.fileName, e);
+            return false;
+        } finally {
+            this.release();
+        }
+    }
+
+    /**
+     * 建议内核丢弃文件 pos 开始的 PageCache，只丢弃完整的页
+     */
+    private void adviseDontNeedCache(final int pos, final int length) {
+        if (null == FD_FIELD) {
+            return;
+        }
+        final int alignedPos = (pos + OS_PAGE_SIZE - 1) / OS_PAGE_SIZE * OS_PAGE_SIZE;
+        final int alignedLength = (pos + length) / OS_PAGE_SIZE * OS_PAGE_SIZE - alignedPos;
+        if (alignedLength <= 0) {
+            return;
+        }
+        try {
+            int fd = FD_FIELD.getInt(this.fileDescriptor);
+            LibC.INSTANCE.posix_fadvise(fd, alignedPos, alignedLength, LibC.POSIX_FADV_DONTNEED);
+        } catch (Throwable e) {
+            // 不支持 posix_fadvise 的平台
+            log.debug("posix_fadvise failed, " + this.fileName, e);
+        }
+    }
+
+    private static Field fdField() {
+        try {
+            Field field = FileDescriptor.class.getDeclaredField("fd");
+            field.setAccessible(true);
+            return field;
+        } catch (Throwable e) {
+            log.warn("FileDescriptor.fd is not accessible, posix_fadvise disabled");
+            return null;
+        }
+    }
+
     public void munlock() {
         final long beginTime = System.currentTimeMillis();
         final long address = ((DirectBuffer) (this.mappedByteBuffer)).address();
@@ -593,6 +593,23 @@ public class MappedFileQueue {
         return false;
     }
 
+    /**
+     * 删除第一个文件，文件已迁移到其他存储时使用
+     *
+     * @param mappedFile 第一个文件
+     * @param intervalForcibly 强制删除间隔
+     * @return 是否删除成功，引用未释放时返回 false，之后重试
+     */
+    public boolean deleteFirstFile(final MappedFile mappedFile, final long intervalForcibly) {
+        if (mappedFile != this.getFirstMappedFile() || !mappedFile.destroy(intervalForcibly)) {
+            return false;
+        }
+        List<MappedFile> tmpFiles = new ArrayList<MappedFile>();
+        tmpFiles.add(mappedFile);
+        this.deleteExpiredFile(tmpFiles);
+        return true;
+    }
+
     public void shutdown(final long intervalForcibly) {
         for (MappedFile mf : this.mappedFiles) {
             mf.shutdown(intervalForcibly);
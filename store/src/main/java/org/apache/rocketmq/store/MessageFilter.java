@@ -16,6 +16,7 @@
  */
 package org.apache.rocketmq.store;
 
+import java.util.Map;
 import org.apache.rocketmq.common.protocol.heartbeat.SubscriptionData;
 
 /**
@@ -31,4 +32,13 @@ public interface MessageFilter {
      * @return 是否匹配
      */
     boolean isMessageMatched(final SubscriptionData subscriptionData, final Long tagsCode);
+
+    /**
+     * 消息属性是否匹配。只对需要按消息属性过滤的订阅在 tagsCode 匹配后调用
+     *
+     * @param subscriptionData 订阅数据
+     * @param properties 消息属性
+     * @return 是否匹配
+     */
+    boolean isMatchedByProperties(final SubscriptionData subscriptionData, final Map<String, String> properties);
 }
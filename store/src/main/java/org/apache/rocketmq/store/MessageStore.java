@@ -19,6 +19,7 @@ package org.apache.rocketmq.store;
 import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.common.protocol.heartbeat.SubscriptionData;
 
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Set;
 
@@ -37,6 +38,24 @@ public interface MessageStore {
 
     PutMessageResult putMessage(final MessageExtBrokerInner msg);
 
+    PutMessageResult putMessages(final MessageExtBatch messageExtBatch);
+
+    /**
+     * 异步添加消息。写入 CommitLog 后立即返回，刷盘及同步复制完成时回调，调用线程不阻塞
+     *
+     * @param msg 消息
+     * @param callback 回调
+     */
+    void asyncPutMessage(final MessageExtBrokerInner msg, final PutMessageCallback callback);
+
+    /**
+     * 异步批量添加消息，同 {@link #asyncPutMessage(MessageExtBrokerInner, PutMessageCallback)}
+     *
+     * @param messageExtBatch 批量消息
+     * @param callback 回调
+     */
+    void asyncPutMessages(final MessageExtBatch messageExtBatch, final PutMessageCallback callback);
+
     GetMessageResult getMessage(final String group, final String topic, final int queueId,
         final long offset, final int maxMsgNums, final SubscriptionData subscriptionData);
 
@@ -74,6 +93,8 @@ public interface MessageStore {
 
     boolean appendToCommitLog(final long startOffset, final byte[] data);
 
+    boolean appendToCommitLog(final long startOffset, final ByteBuffer data);
+
     void excuteDeleteFilesManualy();
 
     QueryMessageResult queryMessage(final String topic, final String key, final int maxNum,
@@ -91,6 +112,14 @@ public interface MessageStore {
 
     boolean checkInDiskByConsumeOffset(final String topic, final int queueId, long consumeOffset);
 
+    /**
+     * 提交冷读（读取硬盘数据）任务到冷读线程池
+     *
+     * @param task 任务
+     * @return 是否提交成功。未启用冷读隔离或线程池已满时为 false
+     */
+    boolean executeColdRead(final Runnable task);
+
     long dispatchBehindBytes();
 
     long flush();
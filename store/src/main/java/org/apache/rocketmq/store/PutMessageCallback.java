@@ -0,0 +1,32 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+/**
+ * 异步添加消息回调接口
+ * 同步刷盘（SYNC_FLUSH）或同步双写（SYNC_MASTER）时，由 GroupCommitService / GroupTransferService 线程回调，
+ * 实现不应阻塞
+ */
+public interface PutMessageCallback {
+
+    /**
+     * 添加完成。包括刷盘、同步复制的结果
+     *
+     * @param putMessageResult 结果
+     */
+    void onComplete(PutMessageResult putMessageResult);
+}
@@ -38,6 +38,13 @@ public class StoreStatsService extends ServiceThread {
         "[<=0ms]", "[0~10ms]", "[10~50ms]", "[50~100ms]", "[100~200ms]", "[200~500ms]", "[500ms~1s]", "[1~2s]", "[2~3s]", "[3~4s]", "[4~5s]", "[5~10s]", "[10s~]",
     };
 
+    /**
+     * 存储到调度（构建完 ConsumeQueue，对消费者可见）的延迟分布
+     */
+    private static final String[] DISPATCH_LATENCY_DESC = new String[] {
+        "[<=0ms]", "[0~2ms]", "[2~5ms]", "[5~10ms]", "[10~50ms]", "[50~100ms]", "[100~500ms]", "[500ms~1s]", "[1s~]",
+    };
+
     private static int printTPSInterval = 60 * 1;
 
     private final AtomicLong putMessageFailedTimes = new AtomicLong(0);
@@ -56,6 +63,7 @@ public class StoreStatsService extends ServiceThread {
     private final LinkedList<CallSnapshot> getTimesMissList = new LinkedList<CallSnapshot>();
     private final LinkedList<CallSnapshot> transferedMsgCountList = new LinkedList<CallSnapshot>();
     private volatile AtomicLong[] putMessageDistributeTime;
+    private volatile AtomicLong[] dispatchLatencyDistribute;
     private long messageStoreBootTimestamp = System.currentTimeMillis();
     private volatile long putMessageEntireTimeMax = 0;
     private volatile long getMessageEntireTimeMax = 0;
@@ -71,6 +79,52 @@ public class StoreStatsService extends ServiceThread {
 
     public StoreStatsService() {
         this.initPutMessageDistributeTime();
+        this.initDispatchLatencyDistribute();
+    }
+
+    private AtomicLong[] initDispatchLatencyDistribute() {
+        AtomicLong[] next = new AtomicLong[DISPATCH_LATENCY_DESC.length];
+        for (int i = 0; i < next.length; i++) {
+            next[i] = new AtomicLong(0);
+        }
+
+        AtomicLong[] old = this.dispatchLatencyDistribute;
+
+        this.dispatchLatencyDistribute = next;
+
+        return old;
+    }
+
+    /**
+     * 记录 存储到调度 的延迟
+     *
+     * @param value 延迟（毫秒）
+     */
+    public void setDispatchLatency(long value) {
+        final AtomicLong[] times = this.dispatchLatencyDistribute;
+
+        if (null == times)
+            return;
+
+        if (value <= 0) {
+            times[0].incrementAndGet();
+        } else if (value < 2) {
+            times[1].incrementAndGet();
+        } else if (value < 5) {
+            times[2].incrementAndGet();
+        } else if (value < 10) {
+            times[3].incrementAndGet();
+        } else if (value < 50) {
+            times[4].incrementAndGet();
+        } else if (value < 100) {
+            times[5].incrementAndGet();
+        } else if (value < 500) {
+            times[6].incrementAndGet();
+        } else if (value < 1000) {
+            times[7].incrementAndGet();
+        } else {
+            times[8].incrementAndGet();
+        }
     }
 
     private AtomicLong[] initPutMessageDistributeTime() {
@@ -181,6 +235,7 @@ public class StoreStatsService extends ServiceThread {
         sb.append("\tputMessageAverageSize: " + (this.getPutMessageSizeTotal() / totalTimes.doubleValue())
             + "\r\n");
         sb.append("\tdispatchMaxBuffer: " + this.dispatchMaxBuffer + "\r\n");
+        sb.append("\tdispatchLatencyDistribute: " + this.dispatchLatencyDistributeToString() + "\r\n");
         sb.append("\tgetMessageEntireTimeMax: " + this.getMessageEntireTimeMax + "\r\n");
         sb.append("\tputTps: " + this.getPutTps() + "\r\n");
         sb.append("\tgetFoundTps: " + this.getGetFoundTps() + "\r\n");
@@ -311,6 +366,21 @@ public class StoreStatsService extends ServiceThread {
         return sb.toString();
     }
 
+    private String dispatchLatencyDistributeToString() {
+        final AtomicLong[] times = this.dispatchLatencyDistribute;
+        if (null == times)
+            return null;
+
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < times.length; i++) {
+            long value = times[i].get();
+            sb.append(String.format("%s:%d", DISPATCH_LATENCY_DESC[i], value));
+            sb.append(" ");
+        }
+
+        return sb.toString();
+    }
+
     private String getPutTps(int time) {
         String result = "";
         this.lockSampling.lock();
@@ -433,6 +503,7 @@ public class StoreStatsService extends ServiceThread {
         result.put("putMessageAverageSize",
             String.valueOf(this.getPutMessageSizeTotal() / totalTimes.doubleValue()));
         result.put("dispatchMaxBuffer", String.valueOf(this.dispatchMaxBuffer));
+        result.put("dispatchLatencyDistribute", String.valueOf(this.dispatchLatencyDistributeToString()));
         result.put("getMessageEntireTimeMax", String.valueOf(this.getMessageEntireTimeMax));
         result.put("putTps", String.valueOf(this.getPutTps()));
         result.put("getFoundTps", String.valueOf(this.getGetFoundTps()));
@@ -522,6 +593,21 @@ public class StoreStatsService extends ServiceThread {
             }
 
             log.info("[PAGECACHERT] TotalPut {}, PutMessageDistributeTime {}", totalPut, sb.toString());
+
+            final AtomicLong[] latencies = this.initDispatchLatencyDistribute();
+            if (null == latencies)
+                return;
+
+            final StringBuilder latencySb = new StringBuilder();
+            long totalDispatch = 0;
+            for (int i = 0; i < latencies.length; i++) {
+                long value = latencies[i].get();
+                totalDispatch += value;
+                latencySb.append(String.format("%s:%d", DISPATCH_LATENCY_DESC[i], value));
+                latencySb.append(" ");
+            }
+
+            log.info("[DISPATCHRT] TotalDispatch {}, DispatchLatencyDistribute {}", totalDispatch, latencySb.toString());
         }
     }
 
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * topic消息队列 与 下一条消息队列位置(queue offset) 的映射
+ * 按 topic 查找后，用 queueId 作为下标访问 long 数组，追加消息时不拼接 key、不装箱，不产生对象
+ * 写入（{@link #get(String, int)} / {@link #put(String, int, long)}）在 CommitLog 写入锁内进行
+ */
+public class TopicQueueOffsetTable {
+
+    private static final int INITIAL_QUEUE_NUMS = 8;
+
+    private final ConcurrentHashMap<String/* topic */, QueueOffsets> table;
+
+    public TopicQueueOffsetTable() {
+        this(1024);
+    }
+
+    public TopicQueueOffsetTable(final int initialCapacity) {
+        this.table = new ConcurrentHashMap<>(initialCapacity);
+    }
+
+    /**
+     * 获取队列下一条消息的位置
+     *
+     * @param topic topic
+     * @param queueId 队列编号
+     * @return 位置，不存在时为0
+     */
+    public long get(final String topic, final int queueId) {
+        QueueOffsets queueOffsets = this.table.get(topic);
+        if (null == queueOffsets) {
+            return 0L;
+        }
+        final long[] offsets = queueOffsets.offsets;
+        return queueId < offsets.length ? offsets[queueId] : 0L;
+    }
+
+    /**
+     * 设置队列下一条消息的位置
+     *
+     * @param topic topic
+     * @param queueId 队列编号
+     * @param offset 位置
+     */
+    public void put(final String topic, final int queueId, final long offset) {
+        QueueOffsets queueOffsets = this.table.get(topic);
+        if (null == queueOffsets) {
+            queueOffsets = new QueueOffsets(Math.max(INITIAL_QUEUE_NUMS, queueId + 1));
+            QueueOffsets old = this.table.putIfAbsent(topic, queueOffsets);
+            if (old != null) {
+                queueOffsets = old;
+            }
+        }
+        queueOffsets.set(queueId, offset);
+    }
+
+    /**
+     * 移除队列。之后该队列位置从0开始
+     *
+     * @param topic topic
+     * @param queueId 队列编号
+     */
+    public void remove(final String topic, final int queueId) {
+        QueueOffsets queueOffsets = this.table.get(topic);
+        if (queueOffsets != null) {
+            queueOffsets.set(queueId, 0L);
+        }
+    }
+
+    /**
+     * 同一个 topic 的各队列位置，数组下标为 queueId，不足时扩容
+     */
+    static class QueueOffsets {
+
+        private volatile long[] offsets;
+
+        QueueOffsets(final int queueNums) {
+            this.offsets = new long[queueNums];
+        }
+
+        synchronized void set(final int queueId, final long offset) {
+            long[] current = this.offsets;
+            if (queueId >= current.length) {
+                current = Arrays.copyOf(current, Math.max(queueId + 1, current.length * 2));
+                this.offsets = current;
+            }
+            current[queueId] = offset;
+        }
+    }
+}
@@ -18,6 +18,9 @@ package org.apache.rocketmq.store.config;
 
 import org.apache.rocketmq.common.annotation.ImportantField;
 import org.apache.rocketmq.store.ConsumeQueue;
+import org.apache.rocketmq.store.ConsumeQueueBloom;
+import org.apache.rocketmq.store.ConsumeQueueTimeIndex;
+import org.apache.rocketmq.store.timer.TimerLog;
 
 import java.io.File;
 
@@ -129,6 +132,106 @@ public class MessageStoreConfig {
     private int maxTransferBytesOnMessageInDisk = 1024 * 64;
     @ImportantField
     private int maxTransferCountOnMessageInDisk = 8;
+    /**
+     * 从硬盘拉取消息时，建议内核预读本次拉取之后的字节数，0 表示不预读
+     */
+    private int prefetchBytesOnMessageInDisk = 1024 * 1024;
+    /**
+     * 是否隔离冷读：读取硬盘数据的拉取请求交给冷读线程池执行，并定时预读 CommitLog 末尾的热数据
+     */
+    private boolean coldReadIsolationEnable = false;
+    private int coldReadThreadPoolNums = 4;
+    /**
+     * 冷读线程池队列容量，队列满时拒绝冷读请求，消费者稍后重试
+     */
+    private int coldReadThreadPoolQueueCapacity = 1024;
+    /**
+     * 隔离冷读时，定时预读 CommitLog 末尾的字节数，0 表示不预读
+     */
+    private long hotTailWarmBytes = 1024 * 1024 * 256;
+    private int hotTailWarmInterval = 1000;
+    /**
+     * 是否使用 FileChannel 按位置读取（pread）历史 CommitLog 文件，读取结果放入池化的堆外内存，不访问文件映射
+     */
+    private boolean historicReadByChannelEnable = false;
+    /**
+     * 最后修改时间早于该时长（毫秒）的已写满文件视为历史文件
+     */
+    private long historicFileAge = 1000 * 60 * 60;
+    /**
+     * 历史读缓冲区大小及最大数量，超过缓冲区大小或缓冲区用尽时临时分配堆内存
+     */
+    private int historicReadBufferSize = 1024 * 256;
+    private int historicReadBufferNums = 64;
+    /**
+     * 历史读完成后，建议内核丢弃读取的 PageCache（posix_fadvise DONTNEED），避免历史回放换出热数据
+     */
+    private boolean historicReadDropCacheEnable = true;
+    /**
+     * 是否开启分层存储：已写满的 CommitLog 文件迁移到冷存储，本地删除；冷存储文件超过 fileReservedTime 后删除
+     */
+    private boolean tieredStoreEnable = false;
+    /**
+     * 冷存储实现类，需提供参数为 {@link MessageStoreConfig} 的构造方法
+     */
+    private String tieredStorageClass = "org.apache.rocketmq.store.tiered.LocalTieredStorage";
+    /**
+     * 本地目录冷存储路径，通常挂载在更便宜的磁盘上
+     */
+    private String tieredStorePath = System.getProperty("user.home") + File.separator + "store"
+        + File.separator + "tiered";
+    /**
+     * 最后修改时间早于该时长（小时）的文件迁移到冷存储；本地磁盘空间不足时忽略该时长
+     */
+    private int tieredFileAge = 24;
+    private int tieredStoreInterval = 1000 * 10;
+    /**
+     * 迁移时的压缩类型（ZLIB、LZ4），为空时不压缩。按块压缩，读取时只解压需要的块
+     */
+    private String tieredCompressType = "";
+    /**
+     * 冷存储读写块大小，读取冷存储时一次读取 tieredReadAheadBlocks 个块，块缓存最多 tieredCacheBlockNums 个
+     */
+    private int tieredBlockSize = 1024 * 1024;
+    private int tieredReadAheadBlocks = 4;
+    private int tieredCacheBlockNums = 64;
+    /**
+     * 是否开启 ConsumeQueue 末尾缓存：堆外内存中保存最近读取的 consumeQueueTailCacheQueueNums 个队列各自最近的
+     * consumeQueueTailCacheUnits 个位置信息，读取末尾不访问映射文件
+     */
+    private boolean consumeQueueTailCacheEnable = false;
+    private int consumeQueueTailCacheUnits = 256;
+    private int consumeQueueTailCacheQueueNums = 4096;
+    /**
+     * 是否延迟加载 ConsumeQueue：正常关闭后启动时，有摘要的队列不映射文件，首次访问时加载
+     */
+    private boolean consumeQueueLazyLoadEnable = false;
+    /**
+     * 启动后是否在后台逐个加载未访问的队列，每个队列之间间隔 consumeQueueBackgroundLoadInterval 毫秒
+     * 未加载的队列不清理过期文件
+     */
+    private boolean consumeQueueBackgroundLoadEnable = true;
+    private int consumeQueueBackgroundLoadInterval = 10;
+    /**
+     * 新建的 ConsumeQueue 是否使用紧凑格式：按 compactConsumeQueueBlockSize 分块，块内记录相对块首的 commitLog 位置差值
+     * 已有的队列保持原格式，两种格式可以同时存在
+     */
+    private boolean compactConsumeQueueEnable = false;
+    private int compactConsumeQueueBlockSize = 4096;
+    /**
+     * 是否为 ConsumeQueue 记录布隆过滤附加文件，拉取消息时跳过不可能匹配订阅 tag 的块
+     * consumeQueueBloomProperties 为同时记录的消息属性，多个属性用逗号分隔
+     */
+    private boolean consumeQueueBloomEnable = false;
+    private String consumeQueueBloomProperties = "";
+    /**
+     * 是否为 ConsumeQueue 记录时间索引，按时间查询队列位置、队列最早消息时间时不再读取 commitLog
+     * 每 consumeQueueTimeIndexInterval 条位置信息或存储时间每增加 1 秒记录一条
+     * 关闭后重新开启时需删除 consumequeue_time 目录，否则关闭期间的消息无法正确查询
+     */
+    private boolean consumeQueueTimeIndexEnable = false;
+    private int consumeQueueTimeIndexInterval = 64;
+    private int mapedFileSizeConsumeQueueTime = 1024 * 1024;
     @ImportantField
     private int accessMessageInMemoryMaxRatio = 40;
     @ImportantField
@@ -136,12 +239,33 @@ public class MessageStoreConfig {
     private int maxHashSlotNum = 5000000;
     private int maxIndexNum = 5000000 * 4;
     private int maxMsgsNumBatch = 64;
+    /**
+     * 是否使用 64 位 key 指纹、按时间分桶的索引文件格式，开启前的索引文件仍可查询
+     * 新格式每条索引 24 字节，同样的 maxIndexNum 下文件比原格式大 20%
+     */
+    private boolean indexFingerprintEnable = false;
+    /**
+     * 指纹索引文件的时间桶数量
+     */
+    private int indexTimeBucketNum = 16;
+    /**
+     * 并行查询索引文件的线程数，不大于 1 时按文件顺序查询
+     */
+    private int indexQueryThreadPoolNums = 4;
     @ImportantField
     private boolean messageIndexSafe = false;
     private int haListenPort = 10912;
     private int haSendHeartbeatInterval = 1000 * 5;
     private int haHousekeepingInterval = 1000 * 20;
     private int haTransferBatchSize = 1024 * 32;
+    /**
+     * Master 向 Slave 传输时允许未被确认的最大批次数，超过后等待 Slave 上报进度。小于等于0表示不限制（默认）
+     */
+    private int haMaxInflightBatches = 0;
+    /**
+     * Master 传输 CommitLog 时是否使用 FileChannel.transferTo 零拷贝发送
+     */
+    private boolean haTransferZeroCopyEnable = true;
     @ImportantField
     private String haMasterAddress = null;
     private int haSlaveFallbehindMax = 1024 * 1024 * 256;
@@ -155,6 +279,22 @@ public class MessageStoreConfig {
      */
     private String messageDelayLevel = "1s 5s 10s 30s 1m 2m 3m 4m 5m 6m 7m 8m 9m 10m 20m 30m 1h 2h";
     private long flushDelayOffsetInterval = 1000 * 10;
+    /**
+     * 延迟消息每批投递的最大数量，批内连续异步写入 commitLog
+     */
+    private int scheduleDeliverBatchSize = 32;
+    /**
+     * 是否支持任意投递时间的定时消息（消息属性 TIMER_DELIVER_MS）
+     * 时间轮每 timerPrecisionMs 一个刻度，共 timerWheelSlots 个刻度，超出范围的消息到期后重新写入
+     * 投递时间不能晚于 timerMaxDelaySec 之后，须小于 commitLog 保留时间 fileReservedTime，否则加载失败
+     */
+    private boolean timerWheelEnable = false;
+    private long timerPrecisionMs = 1000;
+    private int timerWheelSlots = 2 * 24 * 3600;
+    private int timerMaxDelaySec = 2 * 24 * 3600;
+    private int mapedFileSizeTimerLog = 100 * 1024 * 1024;
+    private int timerDeliverThreadNums = 4;
+    private int timerDeliverBatchSize = 32;
     @ImportantField
     private boolean cleanFileForciblyEnable = true;
     private boolean warmMapedFileEnable = false;
@@ -174,6 +314,18 @@ public class MessageStoreConfig {
     private int transientStorePoolSize = 5;
     private boolean fastFailIfNoBufferInStorePool = false;
 
+    /**
+     * 构建 ConsumeQueue 的线程数，按 topic + queueId 分片；IndexFile 由单独线程异步构建
+     * 小于等于0时，在重放线程中同步构建 ConsumeQueue 及 IndexFile
+     */
+    private int dispatchConsumeQueueThreadNums = 4;
+
+    /**
+     * 是否启用快速恢复：已刷盘的 CommitLog 文件记录摘要，重启时跳过摘要校验通过的文件，其余文件并行校验；
+     * 异常关闭时只从 check point 记录的物理位置开始重建 ConsumeQueue 及 IndexFile
+     */
+    private boolean fastRecoverEnable = false;
+
     public boolean isDebugLockEnable() {
         return debugLockEnable;
     }
@@ -418,6 +570,14 @@ public class MessageStoreConfig {
         this.redeleteHangedFileInterval = redeleteHangedFileInterval;
     }
 
+    public int getPrefetchBytesOnMessageInDisk() {
+        return prefetchBytesOnMessageInDisk;
+    }
+
+    public void setPrefetchBytesOnMessageInDisk(int prefetchBytesOnMessageInDisk) {
+        this.prefetchBytesOnMessageInDisk = prefetchBytesOnMessageInDisk;
+    }
+
     public int getAccessMessageInMemoryMaxRatio() {
         return accessMessageInMemoryMaxRatio;
     }
@@ -450,6 +610,30 @@ public class MessageStoreConfig {
         this.maxIndexNum = maxIndexNum;
     }
 
+    public boolean isIndexFingerprintEnable() {
+        return indexFingerprintEnable;
+    }
+
+    public void setIndexFingerprintEnable(boolean indexFingerprintEnable) {
+        this.indexFingerprintEnable = indexFingerprintEnable;
+    }
+
+    public int getIndexTimeBucketNum() {
+        return indexTimeBucketNum;
+    }
+
+    public void setIndexTimeBucketNum(int indexTimeBucketNum) {
+        this.indexTimeBucketNum = indexTimeBucketNum;
+    }
+
+    public int getIndexQueryThreadPoolNums() {
+        return indexQueryThreadPoolNums;
+    }
+
+    public void setIndexQueryThreadPoolNums(int indexQueryThreadPoolNums) {
+        this.indexQueryThreadPoolNums = indexQueryThreadPoolNums;
+    }
+
     public int getMaxMsgsNumBatch() {
         return maxMsgsNumBatch;
     }
@@ -502,6 +686,22 @@ public class MessageStoreConfig {
         this.haTransferBatchSize = haTransferBatchSize;
     }
 
+    public int getHaMaxInflightBatches() {
+        return haMaxInflightBatches;
+    }
+
+    public void setHaMaxInflightBatches(int haMaxInflightBatches) {
+        this.haMaxInflightBatches = haMaxInflightBatches;
+    }
+
+    public boolean isHaTransferZeroCopyEnable() {
+        return haTransferZeroCopyEnable;
+    }
+
+    public void setHaTransferZeroCopyEnable(boolean haTransferZeroCopyEnable) {
+        this.haTransferZeroCopyEnable = haTransferZeroCopyEnable;
+    }
+
     public int getHaSlaveFallbehindMax() {
         return haSlaveFallbehindMax;
     }
@@ -671,4 +871,372 @@ public class MessageStoreConfig {
     public void setCommitCommitLogThoroughInterval(final int commitCommitLogThoroughInterval) {
         this.commitCommitLogThoroughInterval = commitCommitLogThoroughInterval;
     }
+
+    public int getDispatchConsumeQueueThreadNums() {
+        return dispatchConsumeQueueThreadNums;
+    }
+
+    public void setDispatchConsumeQueueThreadNums(final int dispatchConsumeQueueThreadNums) {
+        this.dispatchConsumeQueueThreadNums = dispatchConsumeQueueThreadNums;
+    }
+
+    public boolean isFastRecoverEnable() {
+        return fastRecoverEnable;
+    }
+
+    public void setFastRecoverEnable(boolean fastRecoverEnable) {
+        this.fastRecoverEnable = fastRecoverEnable;
+    }
+
+    public boolean isColdReadIsolationEnable() {
+        return coldReadIsolationEnable;
+    }
+
+    public void setColdReadIsolationEnable(boolean coldReadIsolationEnable) {
+        this.coldReadIsolationEnable = coldReadIsolationEnable;
+    }
+
+    public int getColdReadThreadPoolNums() {
+        return coldReadThreadPoolNums;
+    }
+
+    public void setColdReadThreadPoolNums(int coldReadThreadPoolNums) {
+        this.coldReadThreadPoolNums = coldReadThreadPoolNums;
+    }
+
+    public int getColdReadThreadPoolQueueCapacity() {
+        return coldReadThreadPoolQueueCapacity;
+    }
+
+    public void setColdReadThreadPoolQueueCapacity(int coldReadThreadPoolQueueCapacity) {
+        this.coldReadThreadPoolQueueCapacity = coldReadThreadPoolQueueCapacity;
+    }
+
+    public long getHotTailWarmBytes() {
+        return hotTailWarmBytes;
+    }
+
+    public void setHotTailWarmBytes(long hotTailWarmBytes) {
+        this.hotTailWarmBytes = hotTailWarmBytes;
+    }
+
+    public int getHotTailWarmInterval() {
+        return hotTailWarmInterval;
+    }
+
+    public void setHotTailWarmInterval(int hotTailWarmInterval) {
+        this.hotTailWarmInterval = hotTailWarmInterval;
+    }
+
+    public boolean isHistoricReadByChannelEnable() {
+        return historicReadByChannelEnable;
+    }
+
+    public void setHistoricReadByChannelEnable(boolean historicReadByChannelEnable) {
+        this.historicReadByChannelEnable = historicReadByChannelEnable;
+    }
+
+    public long getHistoricFileAge() {
+        return historicFileAge;
+    }
+
+    public void setHistoricFileAge(long historicFileAge) {
+        this.historicFileAge = historicFileAge;
+    }
+
+    public int getHistoricReadBufferSize() {
+        return historicReadBufferSize;
+    }
+
+    public void setHistoricReadBufferSize(int historicReadBufferSize) {
+        this.historicReadBufferSize = historicReadBufferSize;
+    }
+
+    public int getHistoricReadBufferNums() {
+        return historicReadBufferNums;
+    }
+
+    public void setHistoricReadBufferNums(int historicReadBufferNums) {
+        this.historicReadBufferNums = historicReadBufferNums;
+    }
+
+    public boolean isHistoricReadDropCacheEnable() {
+        return historicReadDropCacheEnable;
+    }
+
+    public void setHistoricReadDropCacheEnable(boolean historicReadDropCacheEnable) {
+        this.historicReadDropCacheEnable = historicReadDropCacheEnable;
+    }
+
+    public boolean isTieredStoreEnable() {
+        return tieredStoreEnable;
+    }
+
+    public void setTieredStoreEnable(boolean tieredStoreEnable) {
+        this.tieredStoreEnable = tieredStoreEnable;
+    }
+
+    public String getTieredStorageClass() {
+        return tieredStorageClass;
+    }
+
+    public void setTieredStorageClass(String tieredStorageClass) {
+        this.tieredStorageClass = tieredStorageClass;
+    }
+
+    public String getTieredStorePath() {
+        return tieredStorePath;
+    }
+
+    public void setTieredStorePath(String tieredStorePath) {
+        this.tieredStorePath = tieredStorePath;
+    }
+
+    public int getTieredFileAge() {
+        return tieredFileAge;
+    }
+
+    public void setTieredFileAge(int tieredFileAge) {
+        this.tieredFileAge = tieredFileAge;
+    }
+
+    public int getTieredStoreInterval() {
+        return tieredStoreInterval;
+    }
+
+    public void setTieredStoreInterval(int tieredStoreInterval) {
+        this.tieredStoreInterval = tieredStoreInterval;
+    }
+
+    public String getTieredCompressType() {
+        return tieredCompressType;
+    }
+
+    public void setTieredCompressType(String tieredCompressType) {
+        this.tieredCompressType = tieredCompressType;
+    }
+
+    public int getTieredBlockSize() {
+        return tieredBlockSize;
+    }
+
+    public void setTieredBlockSize(int tieredBlockSize) {
+        this.tieredBlockSize = tieredBlockSize;
+    }
+
+    public int getTieredReadAheadBlocks() {
+        return tieredReadAheadBlocks;
+    }
+
+    public void setTieredReadAheadBlocks(int tieredReadAheadBlocks) {
+        this.tieredReadAheadBlocks = tieredReadAheadBlocks;
+    }
+
+    public int getTieredCacheBlockNums() {
+        return tieredCacheBlockNums;
+    }
+
+    public void setTieredCacheBlockNums(int tieredCacheBlockNums) {
+        this.tieredCacheBlockNums = tieredCacheBlockNums;
+    }
+
+    public boolean isConsumeQueueTailCacheEnable() {
+        return consumeQueueTailCacheEnable;
+    }
+
+    public void setConsumeQueueTailCacheEnable(boolean consumeQueueTailCacheEnable) {
+        this.consumeQueueTailCacheEnable = consumeQueueTailCacheEnable;
+    }
+
+    public int getConsumeQueueTailCacheUnits() {
+        return consumeQueueTailCacheUnits;
+    }
+
+    public void setConsumeQueueTailCacheUnits(int consumeQueueTailCacheUnits) {
+        this.consumeQueueTailCacheUnits = consumeQueueTailCacheUnits;
+    }
+
+    public int getConsumeQueueTailCacheQueueNums() {
+        return consumeQueueTailCacheQueueNums;
+    }
+
+    public void setConsumeQueueTailCacheQueueNums(int consumeQueueTailCacheQueueNums) {
+        this.consumeQueueTailCacheQueueNums = consumeQueueTailCacheQueueNums;
+    }
+
+    public boolean isConsumeQueueLazyLoadEnable() {
+        return consumeQueueLazyLoadEnable;
+    }
+
+    public void setConsumeQueueLazyLoadEnable(boolean consumeQueueLazyLoadEnable) {
+        this.consumeQueueLazyLoadEnable = consumeQueueLazyLoadEnable;
+    }
+
+    public boolean isConsumeQueueBackgroundLoadEnable() {
+        return consumeQueueBackgroundLoadEnable;
+    }
+
+    public void setConsumeQueueBackgroundLoadEnable(boolean consumeQueueBackgroundLoadEnable) {
+        this.consumeQueueBackgroundLoadEnable = consumeQueueBackgroundLoadEnable;
+    }
+
+    public int getConsumeQueueBackgroundLoadInterval() {
+        return consumeQueueBackgroundLoadInterval;
+    }
+
+    public void setConsumeQueueBackgroundLoadInterval(int consumeQueueBackgroundLoadInterval) {
+        this.consumeQueueBackgroundLoadInterval = consumeQueueBackgroundLoadInterval;
+    }
+
+    public boolean isCompactConsumeQueueEnable() {
+        return compactConsumeQueueEnable;
+    }
+
+    public void setCompactConsumeQueueEnable(boolean compactConsumeQueueEnable) {
+        this.compactConsumeQueueEnable = compactConsumeQueueEnable;
+    }
+
+    public int getCompactConsumeQueueBlockSize() {
+        return compactConsumeQueueBlockSize;
+    }
+
+    public void setCompactConsumeQueueBlockSize(int compactConsumeQueueBlockSize) {
+        this.compactConsumeQueueBlockSize = compactConsumeQueueBlockSize;
+    }
+
+    /**
+     * 紧凑格式 ConsumeQueue 文件大小，为块大小的整数倍
+     */
+    public int getMapedFileSizeCompactConsumeQueue() {
+        return this.getMapedFileSizeCompactConsumeQueue(this.compactConsumeQueueBlockSize);
+    }
+
+    /**
+     * 指定块大小的紧凑格式 ConsumeQueue 文件大小，用于块大小与配置不同的已有队列
+     */
+    public int getMapedFileSizeCompactConsumeQueue(final int blockSize) {
+        int factor = (int) Math.ceil(this.mapedFileSizeConsumeQueue / (blockSize * 1.0));
+        return factor * blockSize;
+    }
+
+    public boolean isConsumeQueueBloomEnable() {
+        return consumeQueueBloomEnable;
+    }
+
+    public void setConsumeQueueBloomEnable(boolean consumeQueueBloomEnable) {
+        this.consumeQueueBloomEnable = consumeQueueBloomEnable;
+    }
+
+    public String getConsumeQueueBloomProperties() {
+        return consumeQueueBloomProperties;
+    }
+
+    public void setConsumeQueueBloomProperties(String consumeQueueBloomProperties) {
+        this.consumeQueueBloomProperties = consumeQueueBloomProperties;
+    }
+
+    /**
+     * 布隆过滤附加文件大小，与 ConsumeQueue 文件包含的位置信息数量相同
+     */
+    public int getMapedFileSizeConsumeQueueBloom() {
+        int units = this.getMapedFileSizeConsumeQueue() / ConsumeQueue.CQ_STORE_UNIT_SIZE;
+        int blocks = (units + ConsumeQueueBloom.BLOCK_UNITS - 1) / ConsumeQueueBloom.BLOCK_UNITS;
+        return blocks * ConsumeQueueBloom.BLOCK_SIZE;
+    }
+
+    public boolean isConsumeQueueTimeIndexEnable() {
+        return consumeQueueTimeIndexEnable;
+    }
+
+    public void setConsumeQueueTimeIndexEnable(boolean consumeQueueTimeIndexEnable) {
+        this.consumeQueueTimeIndexEnable = consumeQueueTimeIndexEnable;
+    }
+
+    public int getConsumeQueueTimeIndexInterval() {
+        return consumeQueueTimeIndexInterval;
+    }
+
+    public void setConsumeQueueTimeIndexInterval(int consumeQueueTimeIndexInterval) {
+        this.consumeQueueTimeIndexInterval = consumeQueueTimeIndexInterval;
+    }
+
+    /**
+     * 时间索引文件大小，为索引条目大小的整数倍
+     */
+    public int getMapedFileSizeConsumeQueueTime() {
+        int factor = (int) Math.ceil(this.mapedFileSizeConsumeQueueTime / (ConsumeQueueTimeIndex.UNIT_SIZE * 1.0));
+        return factor * ConsumeQueueTimeIndex.UNIT_SIZE;
+    }
+
+    public void setMapedFileSizeConsumeQueueTime(int mapedFileSizeConsumeQueueTime) {
+        this.mapedFileSizeConsumeQueueTime = mapedFileSizeConsumeQueueTime;
+    }
+
+    public boolean isTimerWheelEnable() {
+        return timerWheelEnable;
+    }
+
+    public void setTimerWheelEnable(boolean timerWheelEnable) {
+        this.timerWheelEnable = timerWheelEnable;
+    }
+
+    public long getTimerPrecisionMs() {
+        return timerPrecisionMs;
+    }
+
+    public void setTimerPrecisionMs(long timerPrecisionMs) {
+        this.timerPrecisionMs = timerPrecisionMs;
+    }
+
+    public int getTimerWheelSlots() {
+        return timerWheelSlots;
+    }
+
+    public void setTimerWheelSlots(int timerWheelSlots) {
+        this.timerWheelSlots = timerWheelSlots;
+    }
+
+    public int getTimerMaxDelaySec() {
+        return timerMaxDelaySec;
+    }
+
+    public void setTimerMaxDelaySec(int timerMaxDelaySec) {
+        this.timerMaxDelaySec = timerMaxDelaySec;
+    }
+
+    /**
+     * 时间轮日志文件大小，为记录大小的整数倍
+     */
+    public int getMapedFileSizeTimerLog() {
+        int factor = (int) Math.ceil(this.mapedFileSizeTimerLog / (TimerLog.UNIT_SIZE * 1.0));
+        return factor * TimerLog.UNIT_SIZE;
+    }
+
+    public void setMapedFileSizeTimerLog(int mapedFileSizeTimerLog) {
+        this.mapedFileSizeTimerLog = mapedFileSizeTimerLog;
+    }
+
+    public int getTimerDeliverThreadNums() {
+        return timerDeliverThreadNums;
+    }
+
+    public void setTimerDeliverThreadNums(int timerDeliverThreadNums) {
+        this.timerDeliverThreadNums = timerDeliverThreadNums;
+    }
+
+    public int getTimerDeliverBatchSize() {
+        return timerDeliverBatchSize;
+    }
+
+    public void setTimerDeliverBatchSize(int timerDeliverBatchSize) {
+        this.timerDeliverBatchSize = timerDeliverBatchSize;
+    }
+
+    public int getScheduleDeliverBatchSize() {
+        return scheduleDeliverBatchSize;
+    }
+
+    public void setScheduleDeliverBatchSize(int scheduleDeliverBatchSize) {
+        this.scheduleDeliverBatchSize = scheduleDeliverBatchSize;
+    }
 }
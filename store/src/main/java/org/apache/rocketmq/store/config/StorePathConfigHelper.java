@@ -24,14 +24,50 @@ public class StorePathConfigHelper {
         return rootDir + File.separator + "consumequeue";
     }
 
+    public static String getStorePathCompactConsumeQueue(final String rootDir) {
+        return rootDir + File.separator + "consumequeue_compact";
+    }
+
+    public static String getStorePathConsumeQueueBloom(final String rootDir) {
+        return rootDir + File.separator + "consumequeue_bloom";
+    }
+
+    public static String getStorePathConsumeQueueTime(final String rootDir) {
+        return rootDir + File.separator + "consumequeue_time";
+    }
+
+    public static String getStorePathTimerLog(final String rootDir) {
+        return rootDir + File.separator + "timerlog";
+    }
+
+    public static String getTimerWheelPath(final String rootDir) {
+        return rootDir + File.separator + "timerwheel";
+    }
+
+    public static String getTimerCheckpointPath(final String rootDir) {
+        return rootDir + File.separator + "config" + File.separator + "timercheck";
+    }
+
     public static String getStorePathIndex(final String rootDir) {
         return rootDir + File.separator + "index";
     }
 
+    public static String getStorePathFingerprintIndex(final String rootDir) {
+        return rootDir + File.separator + "index_fp";
+    }
+
     public static String getStoreCheckpoint(final String rootDir) {
         return rootDir + File.separator + "checkpoint";
     }
 
+    public static String getCommitLogSummary(final String rootDir) {
+        return rootDir + File.separator + "commitlogSummary";
+    }
+
+    public static String getConsumeQueueSummary(final String rootDir) {
+        return rootDir + File.separator + "consumequeueSummary";
+    }
+
     public static String getAbortFile(final String rootDir) {
         return rootDir + File.separator + "abort";
     }
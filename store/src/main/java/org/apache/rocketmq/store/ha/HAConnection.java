@@ -19,6 +19,7 @@ package org.apache.rocketmq.store.ha;
 import org.apache.rocketmq.common.ServiceThread;
 import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.remoting.common.RemotingUtil;
+import org.apache.rocketmq.store.MappedFile;
 import org.apache.rocketmq.store.SelectMappedBufferResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,6 +40,10 @@ public class HAConnection {
 
     private volatile long slaveRequestOffset = -1;
     private volatile long slaveAckOffset = -1;
+    /**
+     * 在途窗口已满、等待 Slave 上报进度的次数
+     */
+    private volatile long inflightWindowFullTimes = 0;
 
     public HAConnection(final HAService haService, final SocketChannel socketChannel) throws IOException {
         this.haService = haService;
@@ -79,6 +84,10 @@ public class HAConnection {
         return socketChannel;
     }
 
+    public long getInflightWindowFullTimes() {
+        return inflightWindowFullTimes;
+    }
+
     /**
      * 读取线程服务
      */
@@ -195,6 +204,8 @@ public class HAConnection {
 
                             // 通知目前Slave进度。主要用于Master节点为同步类型的。
                             HAConnection.this.haService.notifyTransferSome(HAConnection.this.slaveAckOffset);
+                            // 在途窗口可能已释放，唤醒写线程继续传输
+                            HAConnection.this.writeSocketService.wakeup();
                         }
                     } else if (readSize == 0) {
                         if (++readSizeZeroTimes >= 3) {
@@ -228,6 +239,10 @@ public class HAConnection {
          * CommitLog读取开始位置
          */
         private long nextTransferFromWhere = -1;
+        /**
+         * 首次传输位置，Slave 尚未确认任何数据时作为在途窗口的起点
+         */
+        private long transferStartOffset = -1;
         /**
          * CommitLog读取内容
          */
@@ -271,6 +286,7 @@ public class HAConnection {
                         } else {
                             this.nextTransferFromWhere = HAConnection.this.slaveRequestOffset;
                         }
+                        this.transferStartOffset = this.nextTransferFromWhere;
 
                         log.info("master transfer data from " + this.nextTransferFromWhere + " to slave[" + HAConnection.this.clientAddr
                             + "], and slave request " + HAConnection.this.slaveRequestOffset);
@@ -297,10 +313,15 @@ public class HAConnection {
                             continue;
                     }
 
-                    // 选择新的CommitLog内容进行传输
-                    SelectMappedBufferResult selectResult =
-                        HAConnection.this.haService.getDefaultMessageStore().getCommitLogData(this.nextTransferFromWhere);
-                    if (selectResult != null) {
+                    // 选择新的CommitLog内容进行传输。在途窗口未满时连续发送多个批次，不等待Slave确认
+                    boolean transferred = false;
+                    while (this.lastWriteOver && !this.isInflightWindowFull()) {
+                        SelectMappedBufferResult selectResult =
+                            HAConnection.this.haService.getDefaultMessageStore().getCommitLogData(this.nextTransferFromWhere);
+                        if (selectResult == null) {
+                            break;
+                        }
+
                         int size = selectResult.getSize();
                         if (size > HAConnection.this.haService.getDefaultMessageStore().getMessageStoreConfig().getHaTransferBatchSize()) {
                             size = HAConnection.this.haService.getDefaultMessageStore().getMessageStoreConfig().getHaTransferBatchSize();
@@ -320,8 +341,16 @@ public class HAConnection {
                         this.byteBufferHeader.flip();
 
                         this.lastWriteOver = this.transferData();
-                    } else { // 没新的消息，挂起等待
-                        HAConnection.this.haService.getWaitNotifyObject().allWaitForRunning(100);
+                        transferred = true;
+                    }
+
+                    if (!transferred) {
+                        if (this.isInflightWindowFull()) { // 在途窗口已满，等待Slave上报进度
+                            HAConnection.this.inflightWindowFullTimes++;
+                            this.waitForRunning(100);
+                        } else { // 没新的消息，挂起等待
+                            HAConnection.this.haService.getWaitNotifyObject().allWaitForRunning(100);
+                        }
                     }
                 } catch (Exception e) {
 
@@ -384,8 +413,9 @@ public class HAConnection {
 
             // Write Body
             if (!this.byteBufferHeader.hasRemaining()) {
+                boolean zeroCopy = HAConnection.this.haService.getDefaultMessageStore().getMessageStoreConfig().isHaTransferZeroCopyEnable();
                 while (this.selectMappedBufferResult.getByteBuffer().hasRemaining()) {
-                    int writeSize = this.socketChannel.write(this.selectMappedBufferResult.getByteBuffer());
+                    int writeSize = zeroCopy ? this.transferBody() : this.socketChannel.write(this.selectMappedBufferResult.getByteBuffer());
                     if (writeSize > 0) {
                         writeSizeZeroTimes = 0;
                         this.lastWriteTimestamp = HAConnection.this.haService.getDefaultMessageStore().getSystemClock().now();
@@ -409,6 +439,36 @@ public class HAConnection {
             return result;
         }
 
+        /**
+         * 通过 FileChannel.transferTo 零拷贝发送消息体，数据不经过用户态缓冲区
+         *
+         * @return 写入字节数
+         */
+        private int transferBody() throws IOException {
+            ByteBuffer byteBuffer = this.selectMappedBufferResult.getByteBuffer();
+            MappedFile mappedFile = this.selectMappedBufferResult.getMappedFile();
+            long filePosition = this.selectMappedBufferResult.getStartOffset() - mappedFile.getFileFromOffset() + byteBuffer.position();
+            int writeSize = (int) mappedFile.getFileChannel().transferTo(filePosition, byteBuffer.remaining(), this.socketChannel);
+            if (writeSize > 0) {
+                byteBuffer.position(byteBuffer.position() + writeSize);
+            }
+            return writeSize;
+        }
+
+        /**
+         * 已发送但 Slave 未确认的数据是否超过在途窗口
+         */
+        private boolean isInflightWindowFull() {
+            int maxInflightBatches = HAConnection.this.haService.getDefaultMessageStore().getMessageStoreConfig().getHaMaxInflightBatches();
+            if (maxInflightBatches <= 0) {
+                return false;
+            }
+
+            long windowSize = (long) maxInflightBatches * HAConnection.this.haService.getDefaultMessageStore().getMessageStoreConfig().getHaTransferBatchSize();
+            long ackOffset = Math.max(HAConnection.this.slaveAckOffset, this.transferStartOffset);
+            return this.nextTransferFromWhere - ackOffset >= windowSize;
+        }
+
         @Override
         public String getServiceName() {
             return WriteSocketService.class.getSimpleName();
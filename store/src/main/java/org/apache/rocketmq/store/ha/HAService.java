@@ -303,6 +303,23 @@ public class HAService {
             }
         }
 
+        private void wakeupRemainingRequests() {
+            List<CommitLog.GroupCommitRequest> remaining = new ArrayList<>();
+            synchronized (this) {
+                synchronized (this.requestsWrite) {
+                    remaining.addAll(this.requestsWrite);
+                    this.requestsWrite.clear();
+                }
+            }
+            synchronized (this.requestsRead) {
+                remaining.addAll(this.requestsRead);
+                this.requestsRead.clear();
+            }
+            for (CommitLog.GroupCommitRequest req : remaining) {
+                req.wakeupCustomer(HAService.this.push2SlaveMaxOffset.get() >= req.getNextOffset());
+            }
+        }
+
         public void run() {
             log.info(this.getServiceName() + " service started");
 
@@ -315,6 +332,9 @@ public class HAService {
                 }
             }
 
+            // 关闭前唤醒剩余请求，避免异步添加消息的回调丢失
+            this.wakeupRemainingRequests();
+
             log.info(this.getServiceName() + " service end");
         }
 
@@ -331,6 +351,10 @@ public class HAService {
 
     class HAClient extends ServiceThread {
         private static final int READ_MAX_BUFFER_SIZE = 1024 * 1024 * 4;
+        /**
+         * 读取缓冲区大小，至少容纳一个完整传输批次
+         */
+        private final int readMaxBufferSize;
         /**
          * Master节点地址
          */
@@ -352,15 +376,20 @@ public class HAService {
         /**
          * 读取数据字节缓冲区
          */
-        private ByteBuffer byteBufferRead = ByteBuffer.allocate(READ_MAX_BUFFER_SIZE);
+        private ByteBuffer byteBufferRead;
         /**
          * 读取数据字节缓冲区备份
          * 当{@link #byteBufferRead}写入已满时，未处理完内容放到改变量{@link #reallocateByteBuffer()}
          */
-        private ByteBuffer byteBufferBackup = ByteBuffer.allocate(READ_MAX_BUFFER_SIZE);
+        private ByteBuffer byteBufferBackup;
 
         public HAClient() throws IOException {
             this.selector = RemotingUtil.openSelector();
+            this.readMaxBufferSize = Math.max(READ_MAX_BUFFER_SIZE,
+                HAService.this.defaultMessageStore.getMessageStoreConfig().getHaTransferBatchSize() + 8 + 4);
+            // 使用堆外缓冲区，socket读取及写入映射文件均无需额外拷贝
+            this.byteBufferRead = ByteBuffer.allocateDirect(this.readMaxBufferSize);
+            this.byteBufferBackup = ByteBuffer.allocateDirect(this.readMaxBufferSize);
         }
 
         /**
@@ -427,19 +456,19 @@ public class HAService {
          */
         private void reallocateByteBuffer() {
             // 有剩余内容未处理，放入备份区
-            int remain = READ_MAX_BUFFER_SIZE - this.dispatchPostion;
+            int remain = this.readMaxBufferSize - this.dispatchPostion;
             if (remain > 0) {
                 this.byteBufferRead.position(this.dispatchPostion);
 
                 this.byteBufferBackup.position(0);
-                this.byteBufferBackup.limit(READ_MAX_BUFFER_SIZE);
+                this.byteBufferBackup.limit(this.readMaxBufferSize);
                 this.byteBufferBackup.put(this.byteBufferRead);
             }
 
             this.swapByteBuffer();
 
             this.byteBufferRead.position(remain);
-            this.byteBufferRead.limit(READ_MAX_BUFFER_SIZE);
+            this.byteBufferRead.limit(this.readMaxBufferSize);
 
             // 重置处理位置
             this.dispatchPostion = 0;
@@ -495,7 +524,6 @@ public class HAService {
          */
         private boolean dispatchReadRequest() {
             final int msgHeaderSize = 8 + 4; // phyoffset + size
-            int readSocketPos = this.byteBufferRead.position();
 
             while (true) {
                 // 读取到请求
@@ -515,19 +543,14 @@ public class HAService {
                     }
                     // 读取到消息
                     if (diff >= (msgHeaderSize + bodySize)) {
-                        // 写入CommitLog
-                        byte[] bodyData = new byte[bodySize];
-                        this.byteBufferRead.position(this.dispatchPostion + msgHeaderSize);
-                        this.byteBufferRead.get(bodyData);
+                        // 写入CommitLog，直接从读取缓冲区写入映射文件
+                        ByteBuffer bodyData = this.byteBufferRead.duplicate();
+                        bodyData.limit(this.dispatchPostion + msgHeaderSize + bodySize);
+                        bodyData.position(this.dispatchPostion + msgHeaderSize);
                         HAService.this.defaultMessageStore.appendToCommitLog(masterPhyOffset, bodyData);
                         // 设置处理到的位置
-                        this.byteBufferRead.position(readSocketPos);
                         this.dispatchPostion += msgHeaderSize + bodySize;
-                        // 上报到Master进度
-                        if (!reportSlaveMaxOffsetPlus()) {
-                            return false;
-                        }
-                        // 继续循环
+                        // 继续循环，本次读取的批次处理完后统一上报进度
                         continue;
                     }
                 }
@@ -540,7 +563,8 @@ public class HAService {
                 break;
             }
 
-            return true;
+            // 上报到Master进度
+            return reportSlaveMaxOffsetPlus();
         }
 
         /**
@@ -614,10 +638,10 @@ public class HAService {
                 this.dispatchPostion = 0;
 
                 this.byteBufferBackup.position(0);
-                this.byteBufferBackup.limit(READ_MAX_BUFFER_SIZE);
+                this.byteBufferBackup.limit(this.readMaxBufferSize);
 
                 this.byteBufferRead.position(0);
-                this.byteBufferRead.limit(READ_MAX_BUFFER_SIZE);
+                this.byteBufferRead.limit(this.readMaxBufferSize);
             }
         }
 
@@ -0,0 +1,227 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.index;
+
+import java.io.IOException;
+import java.util.List;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 使用 64 位 key 指纹、按时间分桶的索引文件
+ * <pre>
+ * 文件头(40) | 时间桶(12 * bucketNum) | hash 槽(4 * slotsPerBucket * bucketNum) | 索引条目(24 * indexNum)
+ * 时间桶：开始时间戳(8) | 第一条索引编号(4)
+ * 索引条目：key 指纹(8) | 物理位置(8) | 与文件开始时间相差秒数(4) | 同一 hash 槽的上一条索引编号(4)
+ * </pre>
+ * 索引条目按写入顺序平均分配到各时间桶，每个时间桶使用独立的 hash 槽，hash 链只包含桶内的条目。
+ * 查询时只遍历与时间范围相交的桶，64 位指纹使 hash 冲突导致的误匹配几乎不存在。
+ */
+public class FingerprintIndexFile extends IndexFile {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    public static final int BUCKET_SIZE = 8 + 4;
+    public static final int HASH_SLOT_SIZE = 4;
+    public static final int INDEX_SIZE = 8 + 8 + 4 + 4;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * 时间桶数量
+     */
+    private final int bucketNum;
+    /**
+     * 每个时间桶的 hash 槽数量
+     */
+    private final int slotsPerBucket;
+    /**
+     * 每个时间桶的索引条目数量
+     */
+    private final int indexNumPerBucket;
+    private final int slotsPosition;
+    private final int indexPosition;
+    /**
+     * 正在写入的时间桶，没有条目时为 -1
+     */
+    private volatile int currentBucket = -1;
+
+    public FingerprintIndexFile(final String fileName, final int hashSlotNum, final int indexNum, final int bucketNum,
+        final long endPhyOffset, final long endTimestamp) throws IOException {
+        super(fileName, fileTotalSize(hashSlotNum, indexNum, bucketNum), hashSlotNum, indexNum, endPhyOffset, endTimestamp);
+        this.bucketNum = bucketNum;
+        this.slotsPerBucket = Math.max(1, hashSlotNum / bucketNum);
+        this.indexNumPerBucket = (indexNum + bucketNum - 1) / bucketNum;
+        this.slotsPosition = IndexHeader.INDEX_HEADER_SIZE + bucketNum * BUCKET_SIZE;
+        this.indexPosition = this.slotsPosition + this.slotsPerBucket * bucketNum * HASH_SLOT_SIZE;
+    }
+
+    private static int fileTotalSize(final int hashSlotNum, final int indexNum, final int bucketNum) {
+        return IndexHeader.INDEX_HEADER_SIZE + bucketNum * BUCKET_SIZE
+            + Math.max(1, hashSlotNum / bucketNum) * bucketNum * HASH_SLOT_SIZE + indexNum * INDEX_SIZE;
+    }
+
+    /**
+     * 计算 key 的 64 位指纹：FNV-1a 后再做一次混合，使低位分布均匀
+     *
+     * @param key key
+     * @return 指纹
+     */
+    public static long fingerprint(final String key) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            hash = (hash ^ (c & 0xFF)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    @Override
+    public void load() {
+        super.load();
+        for (int bucket = this.bucketNum - 1; bucket >= 0; bucket--) {
+            if (this.bucketFirstIndex(bucket) > invalidIndex) {
+                this.currentBucket = bucket;
+                break;
+            }
+        }
+    }
+
+    @Override
+    public boolean putKey(final String key, final long phyOffset, final long storeTimestamp) {
+        final int indexCount = this.indexHeader.getIndexCount();
+        if (indexCount >= this.indexNum) {
+            log.warn("Over index file capacity: index count = " + indexCount + "; index max num = " + this.indexNum);
+            return false;
+        }
+        try {
+            // 第一条索引，以其时间戳作为文件开始时间
+            if (indexCount <= 1) {
+                this.indexHeader.setBeginPhyOffset(phyOffset);
+                this.indexHeader.setBeginTimestamp(storeTimestamp);
+            }
+            // 当前时间桶写满时使用下一个时间桶，最后一个时间桶写到文件写满为止
+            int bucket = this.currentBucket;
+            if (bucket < 0 || (indexCount - this.bucketFirstIndex(bucket) >= this.indexNumPerBucket && bucket + 1 < this.bucketNum)) {
+                bucket++;
+                final int bucketPos = IndexHeader.INDEX_HEADER_SIZE + bucket * BUCKET_SIZE;
+                this.mappedByteBuffer.putLong(bucketPos, storeTimestamp);
+                this.mappedByteBuffer.putInt(bucketPos + 8, indexCount);
+                this.currentBucket = bucket;
+            }
+
+            final long fingerprint = fingerprint(key);
+            final int absSlotPos = this.absSlotPos(bucket, fingerprint);
+            int slotValue = this.mappedByteBuffer.getInt(absSlotPos);
+            if (slotValue <= invalidIndex || slotValue > indexCount) {
+                slotValue = invalidIndex;
+            }
+
+            long timeDiff = (storeTimestamp - this.indexHeader.getBeginTimestamp()) / 1000;
+            if (timeDiff > Integer.MAX_VALUE) {
+                timeDiff = Integer.MAX_VALUE;
+            } else if (timeDiff < 0) {
+                timeDiff = 0;
+            }
+
+            final int absIndexPos = this.indexPosition + indexCount * INDEX_SIZE;
+            this.mappedByteBuffer.putLong(absIndexPos, fingerprint);
+            this.mappedByteBuffer.putLong(absIndexPos + 8, phyOffset);
+            this.mappedByteBuffer.putInt(absIndexPos + 8 + 8, (int) timeDiff);
+            this.mappedByteBuffer.putInt(absIndexPos + 8 + 8 + 4, slotValue);
+            this.mappedByteBuffer.putInt(absSlotPos, indexCount);
+
+            this.indexHeader.incHashSlotCount();
+            this.indexHeader.incIndexCount();
+            this.indexHeader.setEndPhyOffset(phyOffset);
+            this.indexHeader.setEndTimestamp(storeTimestamp);
+            return true;
+        } catch (Exception e) {
+            log.error("putKey exception, Key: " + key, e);
+        }
+        return false;
+    }
+
+    @Override
+    public void selectPhyOffset(final List<Long> phyOffsets, final String key, final int maxNum,
+        final long begin, final long end, boolean lock) {
+        if (!this.mappedFile.hold()) {
+            return;
+        }
+        try {
+            final long fingerprint = fingerprint(key);
+            long bucketEnd = this.indexHeader.getEndTimestamp();
+            // 从最新的时间桶开始，只查询与时间范围相交的桶
+            for (int bucket = this.currentBucket; bucket >= 0 && phyOffsets.size() < maxNum; bucket--) {
+                final long bucketBegin = this.mappedByteBuffer.getLong(IndexHeader.INDEX_HEADER_SIZE + bucket * BUCKET_SIZE);
+                if (bucketEnd < begin) {
+                    break;
+                }
+                if (bucketBegin <= end) {
+                    this.selectPhyOffsetInBucket(phyOffsets, bucket, fingerprint, maxNum, begin, end);
+                }
+                bucketEnd = bucketBegin;
+            }
+        } catch (Exception e) {
+            log.error("selectPhyOffset exception ", e);
+        } finally {
+            this.mappedFile.release();
+        }
+    }
+
+    private void selectPhyOffsetInBucket(final List<Long> phyOffsets, final int bucket, final long fingerprint,
+        final int maxNum, final long begin, final long end) {
+        final int firstIndex = this.bucketFirstIndex(bucket);
+        // 索引条目先于 hash 槽写入，hash 槽指向的条目一定完整
+        int nextIndexToRead = this.mappedByteBuffer.getInt(this.absSlotPos(bucket, fingerprint));
+        while (nextIndexToRead >= firstIndex && nextIndexToRead > invalidIndex && nextIndexToRead < this.indexNum
+            && phyOffsets.size() < maxNum) {
+            final int absIndexPos = this.indexPosition + nextIndexToRead * INDEX_SIZE;
+            final long fingerprintRead = this.mappedByteBuffer.getLong(absIndexPos);
+            final long timeRead = this.indexHeader.getBeginTimestamp() + this.mappedByteBuffer.getInt(absIndexPos + 8 + 8) * 1000L;
+            final int prevIndexRead = this.mappedByteBuffer.getInt(absIndexPos + 8 + 8 + 4);
+            // 时间只精确到秒，结束时间按秒向上取整比较
+            if (fingerprintRead == fingerprint && timeRead + 999 >= begin && timeRead <= end) {
+                phyOffsets.add(this.mappedByteBuffer.getLong(absIndexPos + 8));
+            }
+            if (timeRead + 999 < begin || prevIndexRead >= nextIndexToRead) {
+                break;
+            }
+            nextIndexToRead = prevIndexRead;
+        }
+    }
+
+    private int bucketFirstIndex(final int bucket) {
+        return this.mappedByteBuffer.getInt(IndexHeader.INDEX_HEADER_SIZE + bucket * BUCKET_SIZE + 8);
+    }
+
+    private int absSlotPos(final int bucket, final long fingerprint) {
+        final int slot = (int) ((fingerprint >>> 1) % this.slotsPerBucket);
+        return this.slotsPosition + (bucket * this.slotsPerBucket + slot) * HASH_SLOT_SIZE;
+    }
+
+    public int getCurrentBucket() {
+        return currentBucket;
+    }
+}
@@ -31,18 +31,22 @@ public class IndexFile {
     private static final Logger log = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
     private static int hashSlotSize = 4;
     private static int indexSize = 20;
-    private static int invalidIndex = 0;
-    private final int hashSlotNum;
-    private final int indexNum;
-    private final MappedFile mappedFile;
+    protected static int invalidIndex = 0;
+    protected final int hashSlotNum;
+    protected final int indexNum;
+    protected final MappedFile mappedFile;
     private final FileChannel fileChannel;
-    private final MappedByteBuffer mappedByteBuffer;
-    private final IndexHeader indexHeader;
+    protected final MappedByteBuffer mappedByteBuffer;
+    protected final IndexHeader indexHeader;
 
     public IndexFile(final String fileName, final int hashSlotNum, final int indexNum,
         final long endPhyOffset, final long endTimestamp) throws IOException {
-        int fileTotalSize =
-            IndexHeader.INDEX_HEADER_SIZE + (hashSlotNum * hashSlotSize) + (indexNum * indexSize);
+        this(fileName, IndexHeader.INDEX_HEADER_SIZE + (hashSlotNum * hashSlotSize) + (indexNum * indexSize),
+            hashSlotNum, indexNum, endPhyOffset, endTimestamp);
+    }
+
+    protected IndexFile(final String fileName, final int fileTotalSize, final int hashSlotNum, final int indexNum,
+        final long endPhyOffset, final long endTimestamp) throws IOException {
         this.mappedFile = new MappedFile(fileName, fileTotalSize);
         this.fileChannel = this.mappedFile.getFileChannel();
         this.mappedByteBuffer = this.mappedFile.getMappedByteBuffer();
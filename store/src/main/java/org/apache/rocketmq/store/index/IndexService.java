@@ -20,9 +20,18 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.apache.rocketmq.common.ThreadFactoryImpl;
 import org.apache.rocketmq.common.UtilAll;
 import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.common.message.MessageConst;
@@ -41,6 +50,16 @@ public class IndexService {
     private final int hashSlotNum;
     private final int indexNum;
     private final String storePath;
+    private final String fingerprintStorePath;
+    /**
+     * 新建索引文件是否使用 {@link FingerprintIndexFile} 格式
+     */
+    private final boolean fingerprintEnable;
+    private final int timeBucketNum;
+    /**
+     * 并行查询索引文件的线程池，未开启时为 null
+     */
+    private final ExecutorService queryExecutor;
     private final ArrayList<IndexFile> indexFileList = new ArrayList<IndexFile>();
     private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
 
@@ -50,17 +69,43 @@ public class IndexService {
         this.indexNum = store.getMessageStoreConfig().getMaxIndexNum();
         this.storePath =
             StorePathConfigHelper.getStorePathIndex(store.getMessageStoreConfig().getStorePathRootDir());
+        this.fingerprintStorePath =
+            StorePathConfigHelper.getStorePathFingerprintIndex(store.getMessageStoreConfig().getStorePathRootDir());
+        this.fingerprintEnable = store.getMessageStoreConfig().isIndexFingerprintEnable();
+        this.timeBucketNum = Math.max(1, store.getMessageStoreConfig().getIndexTimeBucketNum());
+        final int queryThreadNums = store.getMessageStoreConfig().getIndexQueryThreadPoolNums();
+        this.queryExecutor = queryThreadNums > 1
+            ? Executors.newFixedThreadPool(queryThreadNums, new ThreadFactoryImpl("IndexQueryThread_")) : null;
     }
 
     public boolean load(final boolean lastExitOK) {
-        File dir = new File(this.storePath);
+        List<IndexFile> files = new ArrayList<IndexFile>();
+        if (!this.load(this.storePath, false, lastExitOK, files)
+            || !this.load(this.fingerprintStorePath, true, lastExitOK, files)) {
+            return false;
+        }
+        // 两种格式的文件名都是创建时间，合并后按文件名升序
+        Collections.sort(files, new Comparator<IndexFile>() {
+            @Override
+            public int compare(IndexFile o1, IndexFile o2) {
+                return new File(o1.getFileName()).getName().compareTo(new File(o2.getFileName()).getName());
+            }
+        });
+        this.indexFileList.addAll(files);
+        return true;
+    }
+
+    private boolean load(final String path, final boolean fingerprint, final boolean lastExitOK, final List<IndexFile> indexFiles) {
+        File dir = new File(path);
         File[] files = dir.listFiles();
         if (files != null) {
             // ascending order
             Arrays.sort(files);
             for (File file : files) {
                 try {
-                    IndexFile f = new IndexFile(file.getPath(), this.hashSlotNum, this.indexNum, 0, 0);
+                    IndexFile f = fingerprint
+                        ? new FingerprintIndexFile(file.getPath(), this.hashSlotNum, this.indexNum, this.timeBucketNum, 0, 0)
+                        : new IndexFile(file.getPath(), this.hashSlotNum, this.indexNum, 0, 0);
                     f.load();
 
                     if (!lastExitOK) {
@@ -72,7 +117,7 @@ public class IndexService {
                     }
 
                     log.info("load index file OK, " + f.getFileName());
-                    this.indexFileList.add(f);
+                    indexFiles.add(f);
                 } catch (IOException e) {
                     log.error("load file {} error", file, e);
                     return false;
@@ -152,12 +197,31 @@ public class IndexService {
         }
     }
 
+    /**
+     * 最后一个索引文件的结束物理位置，之前的消息都已建立索引
+     *
+     * @return 结束物理位置，没有索引文件时为0
+     */
+    public long getLastEndPhyOffset() {
+        try {
+            this.readWriteLock.readLock().lock();
+            if (!this.indexFileList.isEmpty()) {
+                return this.indexFileList.get(this.indexFileList.size() - 1).getEndPhyOffset();
+            }
+        } finally {
+            this.readWriteLock.readLock().unlock();
+        }
+        return 0;
+    }
+
     public QueryOffsetResult queryOffset(String topic, String key, int maxNum, long begin, long end) {
         List<Long> phyOffsets = new ArrayList<Long>(maxNum);
 
         long indexLastUpdateTimestamp = 0;
         long indexLastUpdatePhyoffset = 0;
         maxNum = Math.min(maxNum, this.defaultMessageStore.getMessageStoreConfig().getMaxMsgsNumBatch());
+        // 在读锁内选出时间范围相交的文件（从新到旧），查询时不持有读锁，文件由 hold / release 防止被删除
+        List<IndexFile> files = new ArrayList<IndexFile>();
         try {
             this.readWriteLock.readLock().lock();
             if (!this.indexFileList.isEmpty()) {
@@ -170,17 +234,12 @@ public class IndexService {
                     }
 
                     if (f.isTimeMatched(begin, end)) {
-
-                        f.selectPhyOffset(phyOffsets, buildKey(topic, key), maxNum, begin, end, lastFile);
+                        files.add(f);
                     }
 
                     if (f.getBeginTimestamp() < begin) {
                         break;
                     }
-
-                    if (phyOffsets.size() >= maxNum) {
-                        break;
-                    }
                 }
             }
         } catch (Exception e) {
@@ -189,9 +248,61 @@ public class IndexService {
             this.readWriteLock.readLock().unlock();
         }
 
+        final String idxKey = buildKey(topic, key);
+        if (null == this.queryExecutor || files.size() <= 1) {
+            for (int i = 0; i < files.size() && phyOffsets.size() < maxNum; i++) {
+                files.get(i).selectPhyOffset(phyOffsets, idxKey, maxNum, begin, end, i == 0);
+            }
+        } else {
+            this.queryOffsetInParallel(files, phyOffsets, idxKey, maxNum, begin, end);
+        }
+
         return new QueryOffsetResult(phyOffsets, indexLastUpdateTimestamp, indexLastUpdatePhyoffset);
     }
 
+    /**
+     * 并行查询多个索引文件，按从新到旧的顺序合并结果，数量足够时取消未开始的查询
+     */
+    private void queryOffsetInParallel(final List<IndexFile> files, final List<Long> phyOffsets, final String idxKey,
+        final int maxNum, final long begin, final long end) {
+        final AtomicInteger found = new AtomicInteger(0);
+        List<Future<List<Long>>> futures = new ArrayList<Future<List<Long>>>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            final IndexFile f = files.get(i);
+            final boolean lastFile = i == 0;
+            futures.add(this.queryExecutor.submit(new Callable<List<Long>>() {
+                @Override
+                public List<Long> call() throws Exception {
+                    List<Long> result = new ArrayList<Long>();
+                    if (found.get() < maxNum) {
+                        f.selectPhyOffset(result, idxKey, maxNum, begin, end, lastFile);
+                        found.addAndGet(result.size());
+                    }
+                    return result;
+                }
+            }));
+        }
+        for (Future<List<Long>> future : futures) {
+            if (phyOffsets.size() >= maxNum) {
+                future.cancel(false);
+                continue;
+            }
+            try {
+                for (Long phyOffset : future.get()) {
+                    if (phyOffsets.size() >= maxNum) {
+                        break;
+                    }
+                    phyOffsets.add(phyOffset);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("queryMsg interrupted", e);
+            } catch (ExecutionException e) {
+                log.error("queryMsg exception", e);
+            }
+        }
+    }
+
     private String buildKey(final String topic, final String key) {
         return topic + "#" + key;
     }
@@ -314,10 +425,12 @@ public class IndexService {
         if (indexFile == null) {
             try {
                 String fileName =
-                    this.storePath + File.separator
+                    (this.fingerprintEnable ? this.fingerprintStorePath : this.storePath) + File.separator
                         + UtilAll.timeMillisToHumanString(System.currentTimeMillis());
-                indexFile =
-                    new IndexFile(fileName, this.hashSlotNum, this.indexNum, lastUpdateEndPhyOffset,
+                indexFile = this.fingerprintEnable
+                    ? new FingerprintIndexFile(fileName, this.hashSlotNum, this.indexNum, this.timeBucketNum,
+                        lastUpdateEndPhyOffset, lastUpdateIndexTimestamp)
+                    : new IndexFile(fileName, this.hashSlotNum, this.indexNum, lastUpdateEndPhyOffset,
                         lastUpdateIndexTimestamp);
                 this.readWriteLock.writeLock().lock();
                 this.indexFileList.add(indexFile);
@@ -367,6 +480,8 @@ public class IndexService {
     }
 
     public void shutdown() {
-
+        if (this.queryExecutor != null) {
+            this.queryExecutor.shutdown();
+        }
     }
 }
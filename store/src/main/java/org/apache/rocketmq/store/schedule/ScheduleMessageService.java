@@ -17,6 +17,7 @@
 package org.apache.rocketmq.store.schedule;
 
 import org.apache.rocketmq.common.ConfigManager;
+import org.apache.rocketmq.common.ThreadFactoryImpl;
 import org.apache.rocketmq.common.TopicFilterType;
 import org.apache.rocketmq.common.constant.LoggerName;
 import org.apache.rocketmq.common.message.MessageAccessor;
@@ -32,6 +33,12 @@ import org.slf4j.LoggerFactory;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class ScheduleMessageService extends ConfigManager {
     public static final String SCHEDULE_TOPIC = "SCHEDULE_TOPIC_XXXX";
@@ -39,12 +46,28 @@ public class ScheduleMessageService extends ConfigManager {
     private static final long FIRST_DELAY_TIME = 1000L;
     private static final long DELAY_FOR_A_WHILE = 100L;
     private static final long DELAY_FOR_A_PERIOD = 10000L;
+    /**
+     * 投递失败后最多重试的间隔倍数 DELAY_FOR_A_WHILE << MAX_BACKOFF_SHIFT
+     */
+    private static final int MAX_BACKOFF_SHIFT = 6;
+    /**
+     * 批量投递等待写入结果的额外时间，写入本身最多等待刷盘、同步复制各 syncFlushTimeout
+     */
+    private static final long DELIVER_WAIT_MARGIN = 1000L;
 
     private final ConcurrentHashMap<Integer /* level */, Long/* delay timeMillis */> delayLevelTable = new ConcurrentHashMap<>(32);
 
     private final ConcurrentHashMap<Integer /* level */, Long/* offset */> offsetTable = new ConcurrentHashMap<>(32);
 
-    private final Timer timer = new Timer("ScheduleMessageTimerThread", true);
+    /**
+     * 最近一次投递时到期消息的延迟（当前时间 - 投递时间）
+     */
+    private final ConcurrentHashMap<Integer /* level */, Long/* lag timeMillis */> deliverLagTable = new ConcurrentHashMap<>(32);
+
+    /**
+     * 每个延迟级别一个线程，另一个线程持久化进度
+     */
+    private volatile ScheduledExecutorService deliverExecutorService;
 
     private final DefaultMessageStore defaultMessageStore;
 
@@ -80,6 +103,21 @@ public class ScheduleMessageService extends ConfigManager {
             String key = String.format("%s_%d", RunningStats.scheduleMessageOffset.name(), next.getKey());
             stats.put(key, value);
         }
+        for (Entry<Integer, Long> next : this.deliverLagTable.entrySet()) {
+            String key = String.format("%s_%d", RunningStats.scheduleMessageDeliverLag.name(), next.getKey());
+            stats.put(key, String.valueOf(next.getValue()));
+        }
+    }
+
+    /**
+     * 获取延迟级别最近一次投递时到期消息的延迟
+     *
+     * @param delayLevel 延迟级别
+     * @return 延迟毫秒数，没有投递过时返回 0
+     */
+    public long getDeliverLag(final int delayLevel) {
+        Long lag = this.deliverLagTable.get(delayLevel);
+        return lag != null ? lag : 0;
     }
 
     private void updateOffset(int delayLevel, long offset) {
@@ -103,6 +141,9 @@ public class ScheduleMessageService extends ConfigManager {
     }
 
     public void start() {
+        this.deliverExecutorService = Executors.newScheduledThreadPool(this.delayLevelTable.size() + 1,
+            new ThreadFactoryImpl("ScheduleMessageTimerThread_"));
+
         // 定时发送消息
         for (Map.Entry<Integer, Long> entry : this.delayLevelTable.entrySet()) {
             Integer level = entry.getKey();
@@ -113,12 +154,12 @@ public class ScheduleMessageService extends ConfigManager {
             }
 
             if (timeDelay != null) {
-                this.timer.schedule(new DeliverDelayedMessageTimerTask(level, offset), FIRST_DELAY_TIME);
+                this.schedule(new DeliverDelayedMessageTimerTask(level, offset), FIRST_DELAY_TIME);
             }
         }
 
         // 定时持久化发送进度
-        this.timer.scheduleAtFixedRate(new TimerTask() {
+        this.deliverExecutorService.scheduleAtFixedRate(new Runnable() {
 
             @Override
             public void run() {
@@ -128,11 +169,22 @@ public class ScheduleMessageService extends ConfigManager {
                     log.error("scheduleAtFixedRate flush exception", e);
                 }
             }
-        }, 10000, this.defaultMessageStore.getMessageStoreConfig().getFlushDelayOffsetInterval());
+        }, 10000, this.defaultMessageStore.getMessageStoreConfig().getFlushDelayOffsetInterval(), TimeUnit.MILLISECONDS);
     }
 
     public void shutdown() {
-        this.timer.cancel();
+        if (this.deliverExecutorService != null) {
+            this.deliverExecutorService.shutdown();
+        }
+    }
+
+    private void schedule(final DeliverDelayedMessageTimerTask task, final long delay) {
+        try {
+            this.deliverExecutorService.schedule(task, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // 已停止
+            log.warn("ScheduleMessageService has been shutdown, level " + task.delayLevel);
+        }
     }
 
     public int getMaxDelayLevel() {
@@ -212,7 +264,7 @@ public class ScheduleMessageService extends ConfigManager {
     /**
      * 发送（投递）延迟消息定时任务
      */
-    class DeliverDelayedMessageTimerTask extends TimerTask {
+    class DeliverDelayedMessageTimerTask implements Runnable {
         /**
          * 延迟级别
          */
@@ -221,10 +273,19 @@ public class ScheduleMessageService extends ConfigManager {
          * 位置
          */
         private final long offset;
+        /**
+         * 连续投递失败次数
+         */
+        private final int failedTimes;
 
         public DeliverDelayedMessageTimerTask(int delayLevel, long offset) {
+            this(delayLevel, offset, 0);
+        }
+
+        public DeliverDelayedMessageTimerTask(int delayLevel, long offset, int failedTimes) {
             this.delayLevel = delayLevel;
             this.offset = offset;
+            this.failedTimes = failedTimes;
         }
 
         @Override
@@ -234,7 +295,7 @@ public class ScheduleMessageService extends ConfigManager {
             } catch (Exception e) {
                 // XXX: warn and notify me
                 log.error("ScheduleMessageService, executeOnTimeup exception", e);
-                ScheduleMessageService.this.timer.schedule(new DeliverDelayedMessageTimerTask(
+                ScheduleMessageService.this.schedule(new DeliverDelayedMessageTimerTask(
                     this.delayLevel, this.offset), DELAY_FOR_A_PERIOD);
             }
         }
@@ -258,7 +319,7 @@ public class ScheduleMessageService extends ConfigManager {
             return result;
         }
 
-        public void executeOnTimeup() {
+        public void executeOnTimeup() throws InterruptedException {
             ConsumeQueue cq = ScheduleMessageService.this.defaultMessageStore.findConsumeQueue(SCHEDULE_TOPIC,  delayLevel2QueueId(delayLevel));
 
             long failScheduleOffset = offset;
@@ -267,6 +328,9 @@ public class ScheduleMessageService extends ConfigManager {
                 SelectMappedBufferResult bufferCQ = cq.getIndexBuffer(this.offset);
                 if (bufferCQ != null) {
                     try {
+                        final int batchSize = Math.max(1, ScheduleMessageService.this.defaultMessageStore.getMessageStoreConfig().getScheduleDeliverBatchSize());
+                        final List<MessageExtBrokerInner> batch = new ArrayList<>(batchSize);
+                        final List<Long> batchOffsets = new ArrayList<>(batchSize);
                         long nextOffset = offset;
                         int i = 0;
                         for (; i < bufferCQ.getSize(); i += ConsumeQueue.CQ_STORE_UNIT_SIZE) {
@@ -280,36 +344,33 @@ public class ScheduleMessageService extends ConfigManager {
                             nextOffset = offset + (i / ConsumeQueue.CQ_STORE_UNIT_SIZE);
 
                             long countdown = deliverTimestamp - now;
+                            if (i == 0) {
+                                // 本次第一条消息的投递延迟
+                                ScheduleMessageService.this.deliverLagTable.put(this.delayLevel, Math.max(0, -countdown));
+                            }
 
                             if (countdown <= 0) { // 消息到达可发送时间
                                 MessageExt msgExt = ScheduleMessageService.this.defaultMessageStore.lookMessageByOffset(offsetPy, sizePy);
                                 if (msgExt != null) {
                                     try {
-                                        // 发送消息
-                                        MessageExtBrokerInner msgInner = this.messageTimeup(msgExt);
-                                        PutMessageResult putMessageResult = ScheduleMessageService.this.defaultMessageStore.putMessage(msgInner);
-                                        if (putMessageResult != null && putMessageResult.getPutMessageStatus() == PutMessageStatus.PUT_OK) { // 发送成功
-                                            continue;
-                                        } else { // 发送失败
-                                            // XXX: warn and notify me
-                                            log.error("ScheduleMessageService, a message time up, but reput it failed, topic: {} msgId {}", msgExt.getTopic(), msgExt.getMsgId());
-
-                                            // 安排下一次任务
-                                            ScheduleMessageService.this.timer.schedule(new DeliverDelayedMessageTimerTask(this.delayLevel, nextOffset), DELAY_FOR_A_PERIOD);
-
-                                            // 更新进度
-                                            ScheduleMessageService.this.updateOffset(this.delayLevel, nextOffset);
-                                            return;
-                                        }
+                                        batch.add(this.messageTimeup(msgExt));
+                                        batchOffsets.add(nextOffset);
                                     } catch (Exception e) {
                                         // XXX: warn and notify me
                                         log.error("ScheduleMessageService, messageTimeup execute error, drop it. msgExt="
                                                 + msgExt + ", nextOffset=" + nextOffset + ",offsetPy=" + offsetPy + ",sizePy=" + sizePy, e);
                                     }
                                 }
+                                if (batch.size() >= batchSize && !this.deliverBatch(batch, batchOffsets)) {
+                                    return;
+                                }
                             } else {
+                                if (!this.deliverBatch(batch, batchOffsets)) {
+                                    return;
+                                }
+
                                 // 安排下一次任务
-                                ScheduleMessageService.this.timer.schedule(new DeliverDelayedMessageTimerTask(this.delayLevel, nextOffset), countdown);
+                                ScheduleMessageService.this.schedule(new DeliverDelayedMessageTimerTask(this.delayLevel, nextOffset), countdown);
 
                                 // 更新进度
                                 ScheduleMessageService.this.updateOffset(this.delayLevel, nextOffset);
@@ -317,10 +378,14 @@ public class ScheduleMessageService extends ConfigManager {
                             }
                         } // end of for
 
+                        if (!this.deliverBatch(batch, batchOffsets)) {
+                            return;
+                        }
+
                         nextOffset = offset + (i / ConsumeQueue.CQ_STORE_UNIT_SIZE);
 
                         // 安排下一次任务
-                        ScheduleMessageService.this.timer.schedule(new DeliverDelayedMessageTimerTask(this.delayLevel, nextOffset), DELAY_FOR_A_WHILE);
+                        ScheduleMessageService.this.schedule(new DeliverDelayedMessageTimerTask(this.delayLevel, nextOffset), DELAY_FOR_A_WHILE);
 
                         // 更新进度
                         ScheduleMessageService.this.updateOffset(this.delayLevel, nextOffset);
@@ -330,6 +395,7 @@ public class ScheduleMessageService extends ConfigManager {
                     }
                 } // end of if (bufferCQ != null)
                 else { // 消费队列已经被删除部分，跳转到最小的消费进度
+                    ScheduleMessageService.this.deliverLagTable.put(this.delayLevel, 0L);
                     long cqMinOffset = cq.getMinOffsetInQueue();
                     if (offset < cqMinOffset) {
                         failScheduleOffset = cqMinOffset;
@@ -339,7 +405,61 @@ public class ScheduleMessageService extends ConfigManager {
                 }
             } // end of if (cq != null)
 
-            ScheduleMessageService.this.timer.schedule(new DeliverDelayedMessageTimerTask(this.delayLevel, failScheduleOffset), DELAY_FOR_A_WHILE);
+            ScheduleMessageService.this.schedule(new DeliverDelayedMessageTimerTask(this.delayLevel, failScheduleOffset), DELAY_FOR_A_WHILE);
+        }
+
+        /**
+         * 批量投递：连续异步写入，由 commitLog 合并刷盘、同步复制，全部完成或等待超时后返回
+         * 失败时从第一条失败的消息开始重试，重试间隔随连续失败次数增加，最长 DELAY_FOR_A_PERIOD
+         *
+         * @param batch 消息
+         * @param batchOffsets 消息的队列位置
+         * @return 是否全部成功，失败时已安排重试任务
+         */
+        private boolean deliverBatch(final List<MessageExtBrokerInner> batch, final List<Long> batchOffsets) throws InterruptedException {
+            if (batch.isEmpty()) {
+                return true;
+            }
+            final AtomicReferenceArray<PutMessageResult> results = new AtomicReferenceArray<>(batch.size());
+            final CountDownLatch latch = new CountDownLatch(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                final int index = i;
+                ScheduleMessageService.this.defaultMessageStore.asyncPutMessage(batch.get(i), new PutMessageCallback() {
+                    @Override
+                    public void onComplete(PutMessageResult putMessageResult) {
+                        results.set(index, putMessageResult);
+                        latch.countDown();
+                    }
+                });
+            }
+            final long waitTimeMills = ScheduleMessageService.this.defaultMessageStore.getMessageStoreConfig().getSyncFlushTimeout() * 2L + DELIVER_WAIT_MARGIN;
+            if (!latch.await(waitTimeMills, TimeUnit.MILLISECONDS)) {
+                // 超时未确认的消息按失败处理，从第一条未确认的消息开始重试
+                log.warn("ScheduleMessageService, wait deliver result timeout, delayLevel: {} waitTimeMills: {} unconfirmed: {}",
+                    this.delayLevel, waitTimeMills, latch.getCount());
+            }
+
+            for (int i = 0; i < results.length(); i++) {
+                PutMessageResult putMessageResult = results.get(i);
+                if (putMessageResult == null || putMessageResult.getPutMessageStatus() != PutMessageStatus.PUT_OK) { // 发送失败或超时未确认
+                    // XXX: warn and notify me
+                    MessageExtBrokerInner msgInner = batch.get(i);
+                    log.error("ScheduleMessageService, a message time up, but reput it failed, topic: {} msgId {} result: {}", msgInner.getTopic(),
+                        msgInner.getProperty(MessageConst.PROPERTY_UNIQ_CLIENT_MESSAGE_ID_KEYIDX), putMessageResult);
+
+                    // 安排下一次任务
+                    final long failedOffset = batchOffsets.get(i);
+                    final long backoff = Math.min(DELAY_FOR_A_PERIOD, DELAY_FOR_A_WHILE << Math.min(this.failedTimes, MAX_BACKOFF_SHIFT));
+                    ScheduleMessageService.this.schedule(new DeliverDelayedMessageTimerTask(this.delayLevel, failedOffset, this.failedTimes + 1), backoff);
+
+                    // 更新进度
+                    ScheduleMessageService.this.updateOffset(this.delayLevel, failedOffset);
+                    return false;
+                }
+            }
+            batch.clear();
+            batchOffsets.clear();
+            return true;
         }
 
         /**
@@ -124,6 +124,10 @@ public class BrokerStatsManager {
         this.statsTable.get(TOPIC_PUT_NUMS).addValue(topic, 1, 1);
     }
 
+    public void incTopicPutNums(final String topic, int num, int times) {
+        this.statsTable.get(TOPIC_PUT_NUMS).addValue(topic, num, times);
+    }
+
     public void incTopicPutSize(final String topic, final int size) {
         this.statsTable.get(TOPIC_PUT_SIZE).addValue(topic, size, 1);
     }
@@ -146,6 +150,24 @@ public class BrokerStatsManager {
         this.statsTable.get(GROUP_GET_SIZE).addValue(statsKey, incValue, 1);
     }
 
+    public void incGroupGetFromDiskNums(final String group, final String topic, final int incValue) {
+        final String statsKey = buildStatsKey(topic, group);
+        this.statsTable.get(GROUP_GET_FROM_DISK_NUMS).addValue(statsKey, incValue, 1);
+    }
+
+    public void incGroupGetFromDiskSize(final String group, final String topic, final int incValue) {
+        final String statsKey = buildStatsKey(topic, group);
+        this.statsTable.get(GROUP_GET_FROM_DISK_SIZE).addValue(statsKey, incValue, 1);
+    }
+
+    public void incBrokerGetFromDiskNums(final int incValue) {
+        this.statsTable.get(BROKER_GET_FROM_DISK_NUMS).getAndCreateStatsItem(this.clusterName).getValue().addAndGet(incValue);
+    }
+
+    public void incBrokerGetFromDiskSize(final int incValue) {
+        this.statsTable.get(BROKER_GET_FROM_DISK_SIZE).getAndCreateStatsItem(this.clusterName).getValue().addAndGet(incValue);
+    }
+
     public void incGroupGetLatency(final String group, final String topic, final int queueId, final int incValue) {
         final String statsKey = String.format("%d@%s@%s", queueId, topic, group);
         this.statsTable.get(GROUP_GET_LATENCY).addValue(statsKey, incValue, 1);
@@ -155,6 +177,10 @@ public class BrokerStatsManager {
         this.statsTable.get(BROKER_PUT_NUMS).getAndCreateStatsItem(this.clusterName).getValue().incrementAndGet();
     }
 
+    public void incBrokerPutNums(final int incValue) {
+        this.statsTable.get(BROKER_PUT_NUMS).getAndCreateStatsItem(this.clusterName).getValue().addAndGet(incValue);
+    }
+
     public void incBrokerGetNums(final int incValue) {
         this.statsTable.get(BROKER_GET_NUMS).getAndCreateStatsItem(this.clusterName).getValue().addAndGet(incValue);
     }
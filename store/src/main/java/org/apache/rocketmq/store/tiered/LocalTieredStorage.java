@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.tiered;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+
+/**
+ * 本地目录冷存储，目录通常挂载在更便宜的磁盘上
+ * 对象先写入 .tmp 文件，关闭时重命名
+ */
+public class LocalTieredStorage implements TieredStorage {
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final File dir;
+
+    public LocalTieredStorage(final MessageStoreConfig storeConfig) {
+        this.dir = new File(storeConfig.getTieredStorePath());
+    }
+
+    @Override
+    public List<String> list() throws IOException {
+        List<String> names = new ArrayList<>();
+        File[] files = this.dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile() && !file.getName().endsWith(TMP_SUFFIX)) {
+                    names.add(file.getName());
+                }
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    @Override
+    public OutputStream create(final String name) throws IOException {
+        if (!this.dir.exists() && !this.dir.mkdirs() && !this.dir.exists()) {
+            throw new IOException("create dir failed, " + this.dir);
+        }
+        final File tmpFile = new File(this.dir, name + TMP_SUFFIX);
+        final File file = new File(this.dir, name);
+        return new BufferedOutputStream(new FileOutputStream(tmpFile), 1024 * 64) {
+            private boolean closed = false;
+
+            @Override
+            public void close() throws IOException {
+                if (this.closed) {
+                    return;
+                }
+                this.closed = true;
+                super.close();
+                if (!tmpFile.renameTo(file)) {
+                    throw new IOException("rename " + tmpFile + " to " + file + " failed");
+                }
+            }
+        };
+    }
+
+    @Override
+    public int read(final String name, final long position, final ByteBuffer dst) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(new File(this.dir, name), "r")) {
+            FileChannel fileChannel = randomAccessFile.getChannel();
+            int total = 0;
+            while (dst.hasRemaining()) {
+                int readBytes = fileChannel.read(dst, position + total);
+                if (readBytes < 0) {
+                    break;
+                }
+                total += readBytes;
+            }
+            return total;
+        }
+    }
+
+    @Override
+    public long size(final String name) throws IOException {
+        File file = new File(this.dir, name);
+        if (!file.exists()) {
+            throw new FileNotFoundException(file.getPath());
+        }
+        return file.length();
+    }
+
+    @Override
+    public boolean delete(final String name) {
+        new File(this.dir, name + TMP_SUFFIX).delete();
+        File file = new File(this.dir, name);
+        return !file.exists() || file.delete();
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.tiered;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 冷存储块缓存，按块起始物理位置缓存解压后的块，超过容量时淘汰最久未访问的块
+ */
+public class TieredBlockCache {
+
+    private final LinkedHashMap<Long/* 块起始物理位置 */, ByteBuffer> blocks;
+
+    public TieredBlockCache(final int capacity) {
+        this.blocks = new LinkedHashMap<Long, ByteBuffer>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Long, ByteBuffer> eldest) {
+                return this.size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * 获取块，返回的 Buffer 可以修改 position/limit
+     *
+     * @param blockOffset 块起始物理位置
+     * @return 块，不存在时为 null
+     */
+    public synchronized ByteBuffer get(final long blockOffset) {
+        ByteBuffer block = this.blocks.get(blockOffset);
+        return null == block ? null : block.duplicate();
+    }
+
+    public synchronized void put(final long blockOffset, final ByteBuffer block) {
+        this.blocks.put(blockOffset, block);
+    }
+
+    /**
+     * 移除 [fromOffset, toOffset) 内的块
+     */
+    public synchronized void remove(final long fromOffset, final long toOffset) {
+        Iterator<Long> iterator = this.blocks.keySet().iterator();
+        while (iterator.hasNext()) {
+            long blockOffset = iterator.next();
+            if (blockOffset >= fromOffset && blockOffset < toOffset) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return this.blocks.size();
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.tiered;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.compression.CompressionType;
+import org.apache.rocketmq.common.compression.Compressor;
+import org.apache.rocketmq.common.compression.CompressorFactory;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.store.MappedFile;
+import org.apache.rocketmq.store.SelectMappedBufferResult;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 冷存储中的 CommitLog
+ * 1. 迁移：按块读取已写满的本地文件，可选按块压缩后写入冷存储
+ * 2. 读取：按物理位置读取消息，一次读取连续多个块并缓存，相邻消息的读取命中缓存
+ * 3. 删除：按原文件最后修改时间删除过期的段
+ */
+public class TieredCommitLog {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    private static final int COMPRESS_LEVEL = 5;
+
+    private final MessageStoreConfig storeConfig;
+
+    private final TieredStorage storage;
+
+    private final TieredBlockCache blockCache;
+
+    private final ConcurrentSkipListMap<Long/* 起始物理位置 */, TieredSegment> segments = new ConcurrentSkipListMap<>();
+
+    public TieredCommitLog(final MessageStoreConfig storeConfig) {
+        this(storeConfig, createStorage(storeConfig));
+    }
+
+    public TieredCommitLog(final MessageStoreConfig storeConfig, final TieredStorage storage) {
+        this.storeConfig = storeConfig;
+        this.storage = storage;
+        this.blockCache = new TieredBlockCache(storeConfig.getTieredCacheBlockNums());
+    }
+
+    private static TieredStorage createStorage(final MessageStoreConfig storeConfig) {
+        try {
+            Class<?> clazz = Class.forName(storeConfig.getTieredStorageClass());
+            return (TieredStorage) clazz.getConstructor(MessageStoreConfig.class).newInstance(storeConfig);
+        } catch (Exception e) {
+            throw new IllegalArgumentException("create tiered storage failed, " + storeConfig.getTieredStorageClass(), e);
+        }
+    }
+
+    public boolean load() {
+        try {
+            for (String name : this.storage.list()) {
+                TieredSegment segment = TieredSegment.read(this.storage, name);
+                this.segments.put(segment.getFromOffset(), segment);
+                log.info("load tiered segment " + name + " OK");
+            }
+            return true;
+        } catch (IOException e) {
+            log.error("load tiered commit log failed", e);
+            return false;
+        }
+    }
+
+    /**
+     * 迁移文件到冷存储，文件需已写满且不再修改
+     *
+     * @param mappedFile 文件
+     * @return 是否迁移成功
+     */
+    public boolean offload(final MappedFile mappedFile) {
+        if (this.segments.containsKey(mappedFile.getFileFromOffset())) {
+            return true;
+        }
+        if (!mappedFile.hold()) {
+            return false;
+        }
+        final long beginTime = System.currentTimeMillis();
+        final String name = UtilAll.offset2FileName(mappedFile.getFileFromOffset());
+        final String compressType = this.storeConfig.getTieredCompressType();
+        final CompressionType compressionType = UtilAll.isBlank(compressType) ? null : CompressionType.of(compressType);
+        final int blockSize = this.storeConfig.getTieredBlockSize();
+        final long rawSize = mappedFile.getFileSize();
+        boolean ok = false;
+        try {
+            TieredSegment segment;
+            OutputStream out = this.storage.create(name);
+            try {
+                segment = this.writeSegment(mappedFile, name, rawSize, compressionType, blockSize, new DataOutputStream(out));
+            } finally {
+                out.close();
+            }
+            this.segments.put(segment.getFromOffset(), segment);
+            ok = true;
+            log.info("offload " + mappedFile.getFileName() + " to tiered storage OK, compression: " + compressionType
+                + ", " + UtilAll.computeEclipseTimeMilliseconds(beginTime) + "ms");
+        } catch (Exception e) {
+            log.error("offload " + mappedFile.getFileName() + " to tiered storage failed", e);
+        } finally {
+            mappedFile.release();
+            if (!ok) {
+                this.storage.delete(name);
+            }
+        }
+        return ok;
+    }
+
+    private TieredSegment writeSegment(final MappedFile mappedFile, final String name, final long rawSize,
+        final CompressionType compressionType, final int blockSize, final DataOutputStream out) throws IOException {
+        final Compressor compressor = null == compressionType ? null : CompressorFactory.getCompressor(compressionType);
+        final int blockCount = (int) ((rawSize + blockSize - 1) / blockSize);
+        final long[] blockPositions = null == compressor ? null : new long[blockCount + 1];
+        final FileChannel fileChannel = mappedFile.getFileChannel();
+        final ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+        long written = 0;
+        for (int i = 0; i < blockCount; i++) {
+            final long position = (long) i * blockSize;
+            buffer.clear();
+            buffer.limit((int) Math.min(blockSize, rawSize - position));
+            while (buffer.hasRemaining()) {
+                if (fileChannel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("unexpected end of file, " + mappedFile.getFileName());
+                }
+            }
+            if (compressor != null) {
+                byte[] compressed = compressor.compress(Arrays.copyOf(buffer.array(), buffer.limit()), COMPRESS_LEVEL, null);
+                blockPositions[i] = written;
+                out.write(compressed);
+                written += compressed.length;
+            } else {
+                out.write(buffer.array(), 0, buffer.limit());
+                written += buffer.limit();
+            }
+        }
+        if (blockPositions != null) {
+            blockPositions[blockCount] = written;
+        }
+        TieredSegment segment = new TieredSegment(name, mappedFile.getFileFromOffset(), rawSize,
+            mappedFile.getLastModifiedTimestamp(), compressionType, blockSize, blockPositions);
+        segment.writeFooter(out);
+        out.flush();
+        return segment;
+    }
+
+    /**
+     * 读取消息
+     *
+     * @param offset 物理位置
+     * @param size 字节数
+     * @return 读取结果，不在冷存储或读取失败时为 null
+     */
+    public SelectMappedBufferResult getMessage(final long offset, final int size) {
+        Map.Entry<Long, TieredSegment> entry = this.segments.floorEntry(offset);
+        if (null == entry) {
+            return null;
+        }
+        final TieredSegment segment = entry.getValue();
+        long pos = offset - segment.getFromOffset();
+        if (pos + size > segment.getRawSize()) {
+            return null;
+        }
+        ByteBuffer result = ByteBuffer.allocate(size);
+        try {
+            while (result.hasRemaining()) {
+                final int blockIndex = (int) (pos / segment.getBlockSize());
+                ByteBuffer block = this.getBlock(segment, blockIndex);
+                final int posInBlock = (int) (pos % segment.getBlockSize());
+                final int length = Math.min(result.remaining(), block.limit() - posInBlock);
+                block.position(posInBlock);
+                block.limit(posInBlock + length);
+                result.put(block);
+                pos += length;
+            }
+        } catch (IOException e) {
+            log.error("read tiered segment " + segment.getName() + " failed, offset: " + offset + " size: " + size, e);
+            return null;
+        }
+        result.flip();
+        return new SelectMappedBufferResult(offset, result, size, null);
+    }
+
+    /**
+     * 获取块，缓存未命中时一次读取从该块开始的 tieredReadAheadBlocks 个块
+     */
+    private ByteBuffer getBlock(final TieredSegment segment, final int blockIndex) throws IOException {
+        final long blockOffset = segment.getFromOffset() + (long) blockIndex * segment.getBlockSize();
+        ByteBuffer block = this.blockCache.get(blockOffset);
+        if (block != null) {
+            return block;
+        }
+
+        final int endIndex = Math.min(segment.getBlockCount(), blockIndex + Math.max(1, this.storeConfig.getTieredReadAheadBlocks()));
+        final long startPosition = segment.blockPosition(blockIndex);
+        ByteBuffer data = ByteBuffer.allocate((int) (segment.blockPosition(endIndex) - startPosition));
+        if (this.storage.read(segment.getName(), startPosition, data) != data.capacity()) {
+            throw new IOException("unexpected end of tiered segment " + segment.getName());
+        }
+
+        final Compressor compressor = null == segment.getCompressionType() ? null
+            : CompressorFactory.getCompressor(segment.getCompressionType());
+        ByteBuffer first = null;
+        for (int i = blockIndex; i < endIndex; i++) {
+            final int from = (int) (segment.blockPosition(i) - startPosition);
+            final int to = (int) (segment.blockPosition(i + 1) - startPosition);
+            ByteBuffer raw;
+            if (compressor != null) {
+                raw = ByteBuffer.wrap(compressor.decompress(Arrays.copyOfRange(data.array(), from, to)));
+            } else {
+                raw = ByteBuffer.wrap(data.array(), from, to - from).slice();
+            }
+            if (raw.limit() != segment.rawBlockLength(i)) {
+                throw new IOException("tiered segment block length not matched, " + segment.getName() + " block " + i);
+            }
+            this.blockCache.put(segment.getFromOffset() + (long) i * segment.getBlockSize(), raw);
+            if (null == first) {
+                first = raw.duplicate();
+            }
+        }
+        return first;
+    }
+
+    public boolean contains(final long fromOffset) {
+        return this.segments.containsKey(fromOffset);
+    }
+
+    /**
+     * 最小物理位置
+     *
+     * @return 物理位置，冷存储为空时为 -1
+     */
+    public long getMinOffset() {
+        Map.Entry<Long, TieredSegment> entry = this.segments.firstEntry();
+        return null == entry ? -1 : entry.getKey();
+    }
+
+    /**
+     * 删除过期的段，从最早的段开始，遇到未过期的段停止
+     *
+     * @param expiredTime 过期时长（毫秒）
+     * @param deleteFilesInterval 删除间隔
+     * @return 删除数量
+     */
+    public int deleteExpiredSegments(final long expiredTime, final int deleteFilesInterval) {
+        int deleteCount = 0;
+        for (TieredSegment segment : this.segments.values()) {
+            if (System.currentTimeMillis() < segment.getLastModified() + expiredTime) {
+                break;
+            }
+            this.segments.remove(segment.getFromOffset());
+            this.blockCache.remove(segment.getFromOffset(), segment.getFromOffset() + segment.getRawSize());
+            boolean result = this.storage.delete(segment.getName());
+            log.info("delete tiered segment " + segment.getName() + (result ? " OK" : " Failed"));
+            deleteCount++;
+            if (deleteFilesInterval > 0) {
+                try {
+                    Thread.sleep(deleteFilesInterval);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }
+        return deleteCount;
+    }
+
+    public void destroy() {
+        for (TieredSegment segment : this.segments.values()) {
+            this.storage.delete(segment.getName());
+        }
+        this.segments.clear();
+    }
+
+    public int getSegmentNums() {
+        return this.segments.size();
+    }
+
+    public TieredBlockCache getBlockCache() {
+        return blockCache;
+    }
+}
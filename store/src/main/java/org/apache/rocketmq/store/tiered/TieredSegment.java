@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.tiered;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.apache.rocketmq.common.compression.CompressionType;
+
+/**
+ * 冷存储中的 CommitLog 文件（段）
+ * 格式：[块数据][块索引，压缩时存在，blockCount + 1 个 long][FOOTER_SIZE 字节尾部]
+ * 块按 blockSize 切分原文件，压缩时每块单独压缩，块索引记录每块在对象中的位置
+ */
+public class TieredSegment {
+
+    public static final int FOOTER_SIZE = 40;
+
+    private static final int MAGIC_CODE = 0xC0DE7E4D;
+
+    private final String name;
+    /**
+     * 原文件起始物理位置
+     */
+    private final long fromOffset;
+    /**
+     * 原文件大小
+     */
+    private final long rawSize;
+    /**
+     * 原文件最后修改时间，用于过期删除
+     */
+    private final long lastModified;
+    /**
+     * 压缩类型，为 null 时不压缩
+     */
+    private final CompressionType compressionType;
+    private final int blockSize;
+    private final int blockCount;
+    /**
+     * 块在对象中的位置，不压缩时为 null
+     */
+    private final long[] blockPositions;
+
+    public TieredSegment(final String name, final long fromOffset, final long rawSize, final long lastModified,
+        final CompressionType compressionType, final int blockSize, final long[] blockPositions) {
+        this.name = name;
+        this.fromOffset = fromOffset;
+        this.rawSize = rawSize;
+        this.lastModified = lastModified;
+        this.compressionType = compressionType;
+        this.blockSize = blockSize;
+        this.blockCount = (int) ((rawSize + blockSize - 1) / blockSize);
+        this.blockPositions = blockPositions;
+    }
+
+    /**
+     * 写入块索引及尾部
+     */
+    public void writeFooter(final DataOutputStream out) throws IOException {
+        if (this.blockPositions != null) {
+            for (long position : this.blockPositions) {
+                out.writeLong(position);
+            }
+        }
+        out.writeInt(MAGIC_CODE);
+        out.writeInt(null == this.compressionType ? 0 : this.compressionType.ordinal() + 1);
+        out.writeInt(this.blockSize);
+        out.writeInt(this.blockCount);
+        out.writeLong(this.fromOffset);
+        out.writeLong(this.rawSize);
+        out.writeLong(this.lastModified);
+    }
+
+    /**
+     * 读取对象尾部及块索引
+     *
+     * @param storage 冷存储
+     * @param name 对象名称
+     * @return 段
+     * @throws IOException 当读取失败或格式错误
+     */
+    public static TieredSegment read(final TieredStorage storage, final String name) throws IOException {
+        final long size = storage.size(name);
+        if (size < FOOTER_SIZE) {
+            throw new IOException("tiered segment too small, " + name + " " + size);
+        }
+        ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+        if (storage.read(name, size - FOOTER_SIZE, footer) != FOOTER_SIZE) {
+            throw new IOException("read tiered segment footer failed, " + name);
+        }
+        footer.flip();
+        if (footer.getInt() != MAGIC_CODE) {
+            throw new IOException("tiered segment magic code not matched, " + name);
+        }
+        final int compressFlag = footer.getInt();
+        final int blockSize = footer.getInt();
+        final int blockCount = footer.getInt();
+        final long fromOffset = footer.getLong();
+        final long rawSize = footer.getLong();
+        final long lastModified = footer.getLong();
+
+        CompressionType compressionType = null;
+        long[] blockPositions = null;
+        if (compressFlag > 0) {
+            compressionType = CompressionType.values()[compressFlag - 1];
+            ByteBuffer index = ByteBuffer.allocate((blockCount + 1) * 8);
+            if (storage.read(name, size - FOOTER_SIZE - index.capacity(), index) != index.capacity()) {
+                throw new IOException("read tiered segment block index failed, " + name);
+            }
+            index.flip();
+            blockPositions = new long[blockCount + 1];
+            for (int i = 0; i <= blockCount; i++) {
+                blockPositions[i] = index.getLong();
+            }
+        }
+        return new TieredSegment(name, fromOffset, rawSize, lastModified, compressionType, blockSize, blockPositions);
+    }
+
+    /**
+     * 块在对象中的位置
+     */
+    public long blockPosition(final int blockIndex) {
+        if (this.blockPositions != null) {
+            return this.blockPositions[blockIndex];
+        }
+        return Math.min((long) blockIndex * this.blockSize, this.rawSize);
+    }
+
+    /**
+     * 块原始长度
+     */
+    public int rawBlockLength(final int blockIndex) {
+        return (int) Math.min(this.blockSize, this.rawSize - (long) blockIndex * this.blockSize);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getFromOffset() {
+        return fromOffset;
+    }
+
+    public long getRawSize() {
+        return rawSize;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public CompressionType getCompressionType() {
+        return compressionType;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+}
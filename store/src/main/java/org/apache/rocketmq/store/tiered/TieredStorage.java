@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.tiered;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * 冷存储，按名称读写对象，接口按对象存储设计：对象写入后不再修改，支持按位置读取
+ * 实现需线程安全，并提供参数为 {@link org.apache.rocketmq.store.config.MessageStoreConfig} 的构造方法
+ */
+public interface TieredStorage {
+
+    /**
+     * 列出所有对象，不包括未写完的对象
+     *
+     * @return 对象名称，升序
+     * @throws IOException 当列出失败
+     */
+    List<String> list() throws IOException;
+
+    /**
+     * 创建对象，关闭输出流后对象才可见
+     *
+     * @param name 对象名称
+     * @return 输出流
+     * @throws IOException 当创建失败
+     */
+    OutputStream create(final String name) throws IOException;
+
+    /**
+     * 从 position 开始读取对象，读满 dst 或到达对象末尾
+     *
+     * @param name 对象名称
+     * @param position 开始位置
+     * @param dst 目标 Buffer
+     * @return 读取的字节数
+     * @throws IOException 当读取失败
+     */
+    int read(final String name, final long position, final ByteBuffer dst) throws IOException;
+
+    /**
+     * 对象大小
+     *
+     * @param name 对象名称
+     * @return 字节数
+     * @throws IOException 当对象不存在
+     */
+    long size(final String name) throws IOException;
+
+    /**
+     * 删除对象，包括未写完的对象
+     *
+     * @param name 对象名称
+     * @return 是否删除成功
+     */
+    boolean delete(final String name);
+}
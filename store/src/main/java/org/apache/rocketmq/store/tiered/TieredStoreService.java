@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.tiered;
+
+import org.apache.rocketmq.common.ServiceThread;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 分层存储服务：定时将超过 tieredFileAge 的 CommitLog 文件迁移到冷存储，本地磁盘空间不足时忽略文件时间
+ */
+public class TieredStoreService extends ServiceThread {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    /**
+     * 每次最多迁移的文件数量
+     */
+    private static final int MAX_OFFLOAD_FILES_ONCE = 10;
+
+    private final DefaultMessageStore defaultMessageStore;
+
+    public TieredStoreService(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+    }
+
+    @Override
+    public void run() {
+        log.info(this.getServiceName() + " service started");
+
+        while (!this.isStopped()) {
+            this.waitForRunning(this.defaultMessageStore.getMessageStoreConfig().getTieredStoreInterval());
+            try {
+                this.offloadFiles();
+            } catch (Throwable e) {
+                log.warn(this.getServiceName() + " service has exception. ", e);
+            }
+        }
+
+        log.info(this.getServiceName() + " service end");
+    }
+
+    /**
+     * 按顺序迁移文件，遇到不满足条件的文件停止
+     *
+     * @return 迁移数量
+     */
+    public int offloadFiles() {
+        final MessageStoreConfig storeConfig = this.defaultMessageStore.getMessageStoreConfig();
+        final long fileAge = storeConfig.getTieredFileAge() * 60L * 60 * 1000;
+        final boolean force = this.isSpaceToOffload();
+        int offloadCount = 0;
+        while (offloadCount < MAX_OFFLOAD_FILES_ONCE && !this.isStopped()
+            && this.defaultMessageStore.getCommitLog().offloadFirstFile(fileAge, force)) {
+            offloadCount++;
+        }
+        return offloadCount;
+    }
+
+    private boolean isSpaceToOffload() {
+        final MessageStoreConfig storeConfig = this.defaultMessageStore.getMessageStoreConfig();
+        double ratio = UtilAll.getDiskPartitionSpaceUsedPercent(storeConfig.getStorePathCommitLog());
+        return ratio > storeConfig.getDiskMaxUsedSpaceRatio() / 100.0;
+    }
+
+    @Override
+    public String getServiceName() {
+        return TieredStoreService.class.getSimpleName();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.timer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.store.MappedFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 定时消息进度
+ * <pre>
+ * 已写入时间轮的定时主题队列位置(8) | 已投递完成的时间轮刻度(8)
+ * </pre>
+ */
+public class TimerCheckpoint {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel fileChannel;
+    private final MappedByteBuffer mappedByteBuffer;
+    /**
+     * 之前的位置信息已写入时间轮
+     */
+    private volatile long enqueueOffset = 0;
+    /**
+     * 之前的刻度已投递完成，0 表示未记录
+     */
+    private volatile long readTimeMs = 0;
+
+    public TimerCheckpoint(final String path) throws IOException {
+        File file = new File(path);
+        MappedFile.ensureDirOK(file.getParent());
+        boolean fileExists = file.exists();
+
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.fileChannel = this.randomAccessFile.getChannel();
+        this.mappedByteBuffer = fileChannel.map(MapMode.READ_WRITE, 0, MappedFile.OS_PAGE_SIZE);
+
+        if (fileExists) {
+            this.enqueueOffset = this.mappedByteBuffer.getLong(0);
+            this.readTimeMs = this.mappedByteBuffer.getLong(8);
+            log.info("timer checkpoint file exists, enqueueOffset " + this.enqueueOffset + ", readTimeMs " + this.readTimeMs);
+        } else {
+            log.info("timer checkpoint file not exists, " + path);
+        }
+    }
+
+    public void shutdown() {
+        this.flush();
+
+        MappedFile.clean(this.mappedByteBuffer);
+
+        try {
+            this.fileChannel.close();
+        } catch (IOException e) {
+            log.error("close timer checkpoint file exception", e);
+        }
+    }
+
+    public void flush() {
+        this.mappedByteBuffer.putLong(0, this.enqueueOffset);
+        this.mappedByteBuffer.putLong(8, this.readTimeMs);
+        this.mappedByteBuffer.force();
+    }
+
+    public long getEnqueueOffset() {
+        return enqueueOffset;
+    }
+
+    public void setEnqueueOffset(long enqueueOffset) {
+        this.enqueueOffset = enqueueOffset;
+    }
+
+    public long getReadTimeMs() {
+        return readTimeMs;
+    }
+
+    public void setReadTimeMs(long readTimeMs) {
+        this.readTimeMs = readTimeMs;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.timer;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.store.MappedFile;
+import org.apache.rocketmq.store.MappedFileQueue;
+import org.apache.rocketmq.store.SelectMappedBufferResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 时间轮日志，顺序追加定时消息记录。同一刻度的记录通过前一条记录位置组成链表，链表尾记录在时间轮槽位中
+ * <pre>
+ * 记录(32)：同一刻度前一条记录的位置(8) | 投递时间(8) | commitLog 位置(8) | 消息大小(4) | 魔数(4)
+ * </pre>
+ */
+public class TimerLog {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    public static final int UNIT_SIZE = 32;
+    private static final int MAGIC_CODE = 0xAABBCC01;
+
+    private final MappedFileQueue mappedFileQueue;
+    private final int mappedFileSize;
+    private final ByteBuffer byteBufferUnit = ByteBuffer.allocate(UNIT_SIZE);
+
+    public TimerLog(final String storePath, final int mappedFileSize) {
+        this.mappedFileSize = mappedFileSize;
+        this.mappedFileQueue = new MappedFileQueue(storePath, mappedFileSize, null);
+    }
+
+    /**
+     * 加载文件，并恢复最后一个文件的写入位置
+     */
+    public boolean load() {
+        if (!this.mappedFileQueue.load()) {
+            return false;
+        }
+        final List<MappedFile> mappedFiles = this.mappedFileQueue.getMappedFiles();
+        if (mappedFiles.isEmpty()) {
+            return true;
+        }
+        MappedFile mappedFile = mappedFiles.get(mappedFiles.size() - 1);
+        ByteBuffer byteBuffer = mappedFile.sliceByteBuffer();
+        int position = 0;
+        while (position < this.mappedFileSize && byteBuffer.getInt(position + 28) == MAGIC_CODE) {
+            position += UNIT_SIZE;
+        }
+        long processOffset = mappedFile.getFileFromOffset() + position;
+        this.mappedFileQueue.setFlushedWhere(processOffset);
+        this.mappedFileQueue.setCommittedWhere(processOffset);
+        this.mappedFileQueue.truncateDirtyFiles(processOffset);
+        log.info("recover timer log over, max position: " + processOffset);
+        return true;
+    }
+
+    /**
+     * 追加记录
+     *
+     * @return 记录位置，失败时返回 -1
+     */
+    public long append(final long prevPosition, final long deliverTimeMs, final long offsetPy, final int sizePy) {
+        MappedFile mappedFile = this.mappedFileQueue.getLastMappedFile(0);
+        if (null == mappedFile) {
+            log.error("timer log file can not be created");
+            return -1;
+        }
+        final long position = mappedFile.getFileFromOffset() + mappedFile.getWrotePosition();
+        this.byteBufferUnit.flip();
+        this.byteBufferUnit.limit(UNIT_SIZE);
+        this.byteBufferUnit.putLong(prevPosition);
+        this.byteBufferUnit.putLong(deliverTimeMs);
+        this.byteBufferUnit.putLong(offsetPy);
+        this.byteBufferUnit.putInt(sizePy);
+        this.byteBufferUnit.putInt(MAGIC_CODE);
+        if (!mappedFile.appendMessage(this.byteBufferUnit.array())) {
+            return -1;
+        }
+        return position;
+    }
+
+    /**
+     * 读取记录
+     *
+     * @return 记录，不存在时返回 null
+     */
+    public TimerEntry read(final long position) {
+        MappedFile mappedFile = this.mappedFileQueue.findMappedFileByOffset(position);
+        if (null == mappedFile) {
+            return null;
+        }
+        SelectMappedBufferResult result = mappedFile.selectMappedBuffer((int) (position % this.mappedFileSize), UNIT_SIZE);
+        if (null == result) {
+            return null;
+        }
+        try {
+            ByteBuffer byteBuffer = result.getByteBuffer();
+            if (byteBuffer.getInt(28) != MAGIC_CODE) {
+                return null;
+            }
+            return new TimerEntry(byteBuffer.getLong(0), byteBuffer.getLong(8), byteBuffer.getLong(16), byteBuffer.getInt(24));
+        } finally {
+            result.release();
+        }
+    }
+
+    /**
+     * 删除最后修改时间早于 expiredTimeMs 的文件，不删除最后一个文件
+     *
+     * @return 删除数量
+     */
+    public int deleteExpiredFile(final long expiredTimeMs) {
+        int cnt = 0;
+        MappedFile mappedFile = this.mappedFileQueue.getFirstMappedFile();
+        while (mappedFile != null && mappedFile != this.mappedFileQueue.getLastMappedFile()
+            && mappedFile.getLastModifiedTimestamp() < expiredTimeMs
+            && this.mappedFileQueue.deleteFirstFile(mappedFile, 1000 * 60)) {
+            cnt++;
+            mappedFile = this.mappedFileQueue.getFirstMappedFile();
+        }
+        return cnt;
+    }
+
+    public boolean flush(final int flushLeastPages) {
+        return this.mappedFileQueue.flush(flushLeastPages);
+    }
+
+    public void shutdown(final long intervalForcibly) {
+        this.mappedFileQueue.shutdown(intervalForcibly);
+    }
+
+    public void destroy() {
+        this.mappedFileQueue.destroy();
+    }
+
+    public static class TimerEntry {
+        private final long prevPosition;
+        private final long deliverTimeMs;
+        private final long offsetPy;
+        private final int sizePy;
+
+        public TimerEntry(long prevPosition, long deliverTimeMs, long offsetPy, int sizePy) {
+            this.prevPosition = prevPosition;
+            this.deliverTimeMs = deliverTimeMs;
+            this.offsetPy = offsetPy;
+            this.sizePy = sizePy;
+        }
+
+        public long getPrevPosition() {
+            return prevPosition;
+        }
+
+        public long getDeliverTimeMs() {
+            return deliverTimeMs;
+        }
+
+        public long getOffsetPy() {
+            return offsetPy;
+        }
+
+        public int getSizePy() {
+            return sizePy;
+        }
+    }
+}
@@ -0,0 +1,490 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.timer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.rocketmq.common.ServiceThread;
+import org.apache.rocketmq.common.ThreadFactoryImpl;
+import org.apache.rocketmq.common.TopicFilterType;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageAccessor;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.store.ConsumeQueue;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.MessageExtBrokerInner;
+import org.apache.rocketmq.store.PutMessageCallback;
+import org.apache.rocketmq.store.PutMessageResult;
+import org.apache.rocketmq.store.SelectMappedBufferResult;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.config.StorePathConfigHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 任意投递时间的定时消息
+ * <p>
+ * 消息存储时进入 {@link #TIMER_TOPIC}，ConsumeQueue 的 tagsCode 为投递时间。
+ * 写入线程把位置信息追加到时间轮日志，并挂到投递时间所在刻度的槽位；扫描线程按刻度读取槽位，由投递线程池批量异步写回 commitLog
+ * <p>
+ * 超出时间轮范围的消息先挂到范围内最后一个刻度，到期后按剩余时间重新写入，相当于高层时间轮逐级下沉
+ * <p>
+ * 投递语义为至少一次：异常重启后，检查点之后的位置信息重新写入时间轮，未完成投递的刻度重新投递
+ */
+public class TimerMessageStore {
+    public static final String TIMER_TOPIC = "TIMER_TOPIC_XXXX";
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+    /**
+     * 投递失败后的重试间隔
+     */
+    private static final long DELAY_FOR_A_PERIOD = 10000L;
+
+    private final DefaultMessageStore defaultMessageStore;
+    private final MessageStoreConfig messageStoreConfig;
+    private final long precisionMs;
+    private final TimerLog timerLog;
+    private TimerWheel timerWheel;
+    private TimerCheckpoint timerCheckpoint;
+    /**
+     * 写入时间轮与读取刻度互斥，保证不会写入已读取的刻度
+     */
+    private final ReentrantLock wheelLock = new ReentrantLock();
+    /**
+     * 下一个读取的刻度
+     */
+    private volatile long currReadTimeMs;
+    /**
+     * 之前的刻度已投递完成
+     */
+    private volatile long commitReadTimeMs;
+    /**
+     * 之前的位置信息已写入时间轮
+     */
+    private volatile long enqueueOffset;
+
+    private final EnqueueService enqueueService = new EnqueueService();
+    private final DequeueService dequeueService = new DequeueService();
+    private final ExecutorService deliverExecutor;
+    private final ScheduledExecutorService scheduledExecutorService =
+        Executors.newSingleThreadScheduledExecutor(new ThreadFactoryImpl("TimerFlushThread_"));
+
+    public TimerMessageStore(final DefaultMessageStore defaultMessageStore) {
+        this.defaultMessageStore = defaultMessageStore;
+        this.messageStoreConfig = defaultMessageStore.getMessageStoreConfig();
+        this.precisionMs = this.messageStoreConfig.getTimerPrecisionMs();
+        this.timerLog = new TimerLog(StorePathConfigHelper.getStorePathTimerLog(this.messageStoreConfig.getStorePathRootDir()),
+            this.messageStoreConfig.getMapedFileSizeTimerLog());
+        this.deliverExecutor = new ThreadPoolExecutor(
+            this.messageStoreConfig.getTimerDeliverThreadNums(),
+            this.messageStoreConfig.getTimerDeliverThreadNums(),
+            1000 * 60,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactoryImpl("TimerDeliverThread_"));
+    }
+
+    /**
+     * 是否为指定投递时间的定时消息
+     */
+    public static boolean isTimerMessage(final Message msg) {
+        return msg.getProperty(MessageConst.PROPERTY_TIMER_DELIVER_MS) != null;
+    }
+
+    public boolean load() {
+        // 投递前 commitLog 文件不能被删除
+        if (this.messageStoreConfig.getTimerMaxDelaySec() >= this.messageStoreConfig.getFileReservedTime() * 3600L) {
+            log.error("timerMaxDelaySec " + this.messageStoreConfig.getTimerMaxDelaySec()
+                + " must be less than fileReservedTime " + this.messageStoreConfig.getFileReservedTime() + " hours");
+            return false;
+        }
+        try {
+            final String rootDir = this.messageStoreConfig.getStorePathRootDir();
+            this.timerWheel = new TimerWheel(StorePathConfigHelper.getTimerWheelPath(rootDir),
+                this.messageStoreConfig.getTimerWheelSlots(), this.precisionMs);
+            this.timerCheckpoint = new TimerCheckpoint(StorePathConfigHelper.getTimerCheckpointPath(rootDir));
+        } catch (IOException e) {
+            log.error("load timer message store exception", e);
+            return false;
+        }
+        if (!this.timerLog.load()) {
+            return false;
+        }
+        this.enqueueOffset = this.timerCheckpoint.getEnqueueOffset();
+        this.commitReadTimeMs = this.timerCheckpoint.getReadTimeMs() > 0
+            ? this.timerCheckpoint.getReadTimeMs() : this.roundDown(System.currentTimeMillis());
+        this.currReadTimeMs = this.commitReadTimeMs;
+        log.info("load timer message store OK, enqueueOffset " + this.enqueueOffset + ", readTimeMs " + this.currReadTimeMs);
+        return true;
+    }
+
+    public void start() {
+        this.enqueueService.start();
+        this.dequeueService.start();
+        this.scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    TimerMessageStore.this.persist();
+                } catch (Throwable e) {
+                    log.error("persist timer message store exception", e);
+                }
+            }
+        }, 10000, this.messageStoreConfig.getFlushDelayOffsetInterval(), TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        this.enqueueService.shutdown();
+        this.dequeueService.shutdown();
+        this.deliverExecutor.shutdown();
+        this.scheduledExecutorService.shutdown();
+        if (this.timerCheckpoint != null) {
+            this.persist();
+            this.timerLog.shutdown(1000 * 3);
+            this.timerWheel.shutdown();
+            this.timerCheckpoint.shutdown();
+        }
+    }
+
+    public void destroy() {
+        this.timerLog.destroy();
+        final String rootDir = this.messageStoreConfig.getStorePathRootDir();
+        new File(StorePathConfigHelper.getTimerWheelPath(rootDir)).delete();
+        new File(StorePathConfigHelper.getTimerCheckpointPath(rootDir)).delete();
+    }
+
+    /**
+     * 刷盘后记录检查点，并删除已投递完成的时间轮日志文件
+     */
+    private void persist() {
+        final long enqueueOffset = this.enqueueOffset;
+        final long readTimeMs = this.commitReadTimeMs;
+        this.timerLog.flush(0);
+        this.timerWheel.flush();
+        this.timerCheckpoint.setEnqueueOffset(enqueueOffset);
+        this.timerCheckpoint.setReadTimeMs(readTimeMs);
+        this.timerCheckpoint.flush();
+        // 文件最后修改后写入的记录都在之后一个时间轮范围内的刻度
+        this.timerLog.deleteExpiredFile(readTimeMs - this.timerWheel.getSpanMs());
+    }
+
+    /**
+     * 把定时主题新增的位置信息写入时间轮
+     *
+     * @return 写入数量
+     */
+    private int enqueue() {
+        ConsumeQueue cq = this.defaultMessageStore.findConsumeQueue(TIMER_TOPIC, 0);
+        long offset = this.enqueueOffset;
+        if (offset < cq.getMinOffsetInQueue()) {
+            log.error("timer CQ offset invalid. offset=" + offset + ", cqMinOffset=" + cq.getMinOffsetInQueue());
+            offset = cq.getMinOffsetInQueue();
+            this.enqueueOffset = offset;
+        }
+        SelectMappedBufferResult bufferCQ = cq.getIndexBuffer(offset);
+        if (null == bufferCQ) {
+            return 0;
+        }
+        int cnt = 0;
+        try {
+            for (int i = 0; i < bufferCQ.getSize(); i += ConsumeQueue.CQ_STORE_UNIT_SIZE) {
+                long offsetPy = bufferCQ.getByteBuffer().getLong();
+                int sizePy = bufferCQ.getByteBuffer().getInt();
+                long deliverTimeMs = bufferCQ.getByteBuffer().getLong();
+                if (!this.addToWheel(deliverTimeMs, deliverTimeMs, offsetPy, sizePy)) {
+                    break;
+                }
+                cnt++;
+                this.enqueueOffset = offset + cnt;
+            }
+        } finally {
+            bufferCQ.release();
+        }
+        return cnt;
+    }
+
+    /**
+     * 记录写入时间轮。已读取的刻度不再写入，到期的记录写入下一个读取的刻度；超出范围的记录写入范围内最后一个刻度。
+     * 范围以已投递完成的刻度计算：正在投递的刻度在检查点中仍未完成，不能被覆盖
+     *
+     * @param deliverTimeMs 投递时间
+     * @param notBeforeMs 最早的刻度时间
+     * @return 是否成功
+     */
+    boolean addToWheel(final long deliverTimeMs, final long notBeforeMs, final long offsetPy, final int sizePy) {
+        this.wheelLock.lock();
+        try {
+            long slotTimeMs = this.roundDown(Math.max(deliverTimeMs, notBeforeMs));
+            slotTimeMs = Math.max(slotTimeMs, this.currReadTimeMs);
+            slotTimeMs = Math.min(slotTimeMs, this.commitReadTimeMs + this.timerWheel.getSpanMs() - this.precisionMs);
+            TimerWheel.Slot slot = this.timerWheel.getSlot(slotTimeMs);
+            long position = this.timerLog.append(null == slot ? -1 : slot.getLastPosition(), deliverTimeMs, offsetPy, sizePy);
+            if (position < 0) {
+                return false;
+            }
+            this.timerWheel.append(slotTimeMs, position);
+            return true;
+        } finally {
+            this.wheelLock.unlock();
+        }
+    }
+
+    /**
+     * 刻度结束后读取并投递到期的记录，投递时间不会提前
+     *
+     * @return 是否读取了刻度
+     */
+    private boolean dequeue() throws InterruptedException {
+        final long readTimeMs = this.currReadTimeMs;
+        if (readTimeMs + this.precisionMs > System.currentTimeMillis()) {
+            return false;
+        }
+        TimerWheel.Slot slot;
+        this.wheelLock.lock();
+        try {
+            slot = this.timerWheel.getSlot(readTimeMs);
+            this.currReadTimeMs = readTimeMs + this.precisionMs;
+        } finally {
+            this.wheelLock.unlock();
+        }
+
+        if (slot != null) {
+            // 已读取的刻度不再写入，读取链表不需要加锁
+            List<TimerLog.TimerEntry> entries = new ArrayList<>(slot.getNum());
+            long position = slot.getLastPosition();
+            for (int i = 0; i < slot.getNum() && position >= 0; i++) {
+                TimerLog.TimerEntry entry = this.timerLog.read(position);
+                if (null == entry) {
+                    log.error("timer log entry lost, slot " + readTimeMs + ", position " + position);
+                    break;
+                }
+                entries.add(entry);
+                position = entry.getPrevPosition();
+            }
+            Collections.reverse(entries);
+            if (!this.deliver(entries, readTimeMs + this.precisionMs)) {
+                return true;
+            }
+        }
+        this.commitReadTimeMs = readTimeMs + this.precisionMs;
+        return true;
+    }
+
+    /**
+     * 投递刻度内到期的记录，未到期的重新写入时间轮。等待全部写入 commitLog 后返回
+     *
+     * @param entries 记录
+     * @param slotEndMs 刻度结束时间
+     * @return 是否全部完成，停止时返回 false
+     */
+    private boolean deliver(final List<TimerLog.TimerEntry> entries, final long slotEndMs) throws InterruptedException {
+        List<TimerLog.TimerEntry> due = new ArrayList<>(entries.size());
+        for (TimerLog.TimerEntry entry : entries) {
+            if (entry.getDeliverTimeMs() >= slotEndMs) {
+                this.addToWheel(entry.getDeliverTimeMs(), entry.getDeliverTimeMs(), entry.getOffsetPy(), entry.getSizePy());
+            } else {
+                due.add(entry);
+            }
+        }
+        if (due.isEmpty()) {
+            return true;
+        }
+
+        final CountDownLatch latch = new CountDownLatch(due.size());
+        final Queue<TimerLog.TimerEntry> failed = new ConcurrentLinkedQueue<>();
+        final int batchSize = Math.max(1, this.messageStoreConfig.getTimerDeliverBatchSize());
+        for (int i = 0; i < due.size(); i += batchSize) {
+            this.deliverExecutor.submit(new DeliverTask(due.subList(i, Math.min(i + batchSize, due.size())), latch, failed));
+        }
+        while (!latch.await(1000, TimeUnit.MILLISECONDS)) {
+            if (this.dequeueService.isStopped()) {
+                return false;
+            }
+        }
+        for (TimerLog.TimerEntry entry : failed) {
+            this.addToWheel(entry.getDeliverTimeMs(), System.currentTimeMillis() + DELAY_FOR_A_PERIOD, entry.getOffsetPy(), entry.getSizePy());
+        }
+        return true;
+    }
+
+    private long roundDown(final long timeMs) {
+        return timeMs / this.precisionMs * this.precisionMs;
+    }
+
+    /**
+     * 设置消息内容：恢复真实主题、队列，去掉投递时间
+     *
+     * @param msgExt 消息
+     * @return 消息
+     */
+    private MessageExtBrokerInner messageTimeup(MessageExt msgExt) {
+        MessageExtBrokerInner msgInner = new MessageExtBrokerInner();
+        msgInner.setBody(msgExt.getBody());
+        msgInner.setFlag(msgExt.getFlag());
+        MessageAccessor.setProperties(msgInner, msgExt.getProperties());
+        MessageAccessor.clearProperty(msgInner, MessageConst.PROPERTY_TIMER_DELIVER_MS);
+
+        TopicFilterType topicFilterType = MessageExt.parseTopicFilterType(msgInner.getSysFlag());
+        long tagsCodeValue =
+            MessageExtBrokerInner.tagsString2tagsCode(topicFilterType, msgInner.getTags());
+        msgInner.setTagsCode(tagsCodeValue);
+        msgInner.setPropertiesString(MessageDecoder.messageProperties2String(msgInner.getProperties()));
+
+        msgInner.setSysFlag(msgExt.getSysFlag());
+        msgInner.setBornTimestamp(msgExt.getBornTimestamp());
+        msgInner.setBornHost(msgExt.getBornHost());
+        msgInner.setStoreHost(msgExt.getStoreHost());
+        msgInner.setReconsumeTimes(msgExt.getReconsumeTimes());
+
+        msgInner.setWaitStoreMsgOK(false);
+
+        msgInner.setTopic(msgInner.getProperty(MessageConst.PROPERTY_REAL_TOPIC));
+        msgInner.setQueueId(Integer.parseInt(msgInner.getProperty(MessageConst.PROPERTY_REAL_QUEUE_ID)));
+        return msgInner;
+    }
+
+    public long getEnqueueOffset() {
+        return enqueueOffset;
+    }
+
+    public long getCommitReadTimeMs() {
+        return commitReadTimeMs;
+    }
+
+    public TimerWheel getTimerWheel() {
+        return timerWheel;
+    }
+
+    /**
+     * 批量投递：连续异步写入，由 commitLog 合并刷盘、同步复制
+     */
+    class DeliverTask implements Runnable {
+        private final List<TimerLog.TimerEntry> entries;
+        private final CountDownLatch latch;
+        private final Queue<TimerLog.TimerEntry> failed;
+
+        DeliverTask(List<TimerLog.TimerEntry> entries, CountDownLatch latch, Queue<TimerLog.TimerEntry> failed) {
+            this.entries = entries;
+            this.latch = latch;
+            this.failed = failed;
+        }
+
+        @Override
+        public void run() {
+            for (final TimerLog.TimerEntry entry : this.entries) {
+                MessageExt msgExt = null;
+                try {
+                    msgExt = TimerMessageStore.this.defaultMessageStore.lookMessageByOffset(entry.getOffsetPy(), entry.getSizePy());
+                    if (null == msgExt) {
+                        // commitLog 已删除
+                        log.error("timer message lost, offsetPy=" + entry.getOffsetPy() + ", sizePy=" + entry.getSizePy());
+                        this.latch.countDown();
+                        continue;
+                    }
+                    final MessageExt origin = msgExt;
+                    TimerMessageStore.this.defaultMessageStore.asyncPutMessage(TimerMessageStore.this.messageTimeup(msgExt), new PutMessageCallback() {
+                        @Override
+                        public void onComplete(PutMessageResult putMessageResult) {
+                            if (null == putMessageResult || !putMessageResult.isOk()) {
+                                log.error("a timer message time up, but reput it failed, topic: {} msgId {}", origin.getTopic(), origin.getMsgId());
+                                DeliverTask.this.failed.add(entry);
+                            }
+                            DeliverTask.this.latch.countDown();
+                        }
+                    });
+                } catch (Exception e) {
+                    // 消息内容错误，无法投递
+                    log.error("timer message time up execute error, drop it. msgExt=" + msgExt
+                        + ", offsetPy=" + entry.getOffsetPy() + ", sizePy=" + entry.getSizePy(), e);
+                    this.latch.countDown();
+                }
+            }
+        }
+    }
+
+    /**
+     * 把定时主题的位置信息写入时间轮
+     */
+    class EnqueueService extends ServiceThread {
+        @Override
+        public String getServiceName() {
+            return EnqueueService.class.getSimpleName();
+        }
+
+        @Override
+        public void run() {
+            log.info(this.getServiceName() + " service started");
+
+            while (!this.isStopped()) {
+                try {
+                    if (TimerMessageStore.this.enqueue() == 0) {
+                        this.waitForRunning(100);
+                    }
+                } catch (Exception e) {
+                    log.warn(this.getServiceName() + " service has exception. ", e);
+                    this.waitForRunning(100);
+                }
+            }
+
+            log.info(this.getServiceName() + " service end");
+        }
+    }
+
+    /**
+     * 按刻度读取时间轮并投递
+     */
+    class DequeueService extends ServiceThread {
+        @Override
+        public String getServiceName() {
+            return DequeueService.class.getSimpleName();
+        }
+
+        @Override
+        public void run() {
+            log.info(this.getServiceName() + " service started");
+
+            while (!this.isStopped()) {
+                try {
+                    if (!TimerMessageStore.this.dequeue()) {
+                        long waitMs = TimerMessageStore.this.currReadTimeMs + TimerMessageStore.this.precisionMs - System.currentTimeMillis();
+                        this.waitForRunning(Math.min(100, Math.max(1, waitMs)));
+                    }
+                } catch (Exception e) {
+                    log.warn(this.getServiceName() + " service has exception. ", e);
+                    this.waitForRunning(100);
+                }
+            }
+
+            log.info(this.getServiceName() + " service end");
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.store.timer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import org.apache.rocketmq.common.constant.LoggerName;
+import org.apache.rocketmq.store.MappedFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 时间轮索引文件，每个刻度一个槽位
+ * <pre>
+ * 槽位(32)：刻度时间(8) | 第一条记录在时间轮日志中的位置(8) | 最后一条记录的位置(8) | 记录数量(4) | 保留(4)
+ * </pre>
+ * 槽位按 刻度时间 / 精度 % 槽位数量 循环使用，刻度时间不一致的槽位是上一轮的数据，视为空
+ */
+public class TimerWheel {
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.STORE_LOGGER_NAME);
+
+    public static final int SLOT_SIZE = 32;
+
+    private final int slotNums;
+    private final long precisionMs;
+    private final RandomAccessFile randomAccessFile;
+    private final FileChannel fileChannel;
+    private final MappedByteBuffer mappedByteBuffer;
+
+    public TimerWheel(final String path, final int slotNums, final long precisionMs) throws IOException {
+        this.slotNums = slotNums;
+        this.precisionMs = precisionMs;
+        File file = new File(path);
+        MappedFile.ensureDirOK(file.getParent());
+        this.randomAccessFile = new RandomAccessFile(file, "rw");
+        this.fileChannel = this.randomAccessFile.getChannel();
+        this.mappedByteBuffer = this.fileChannel.map(MapMode.READ_WRITE, 0, (long) slotNums * SLOT_SIZE);
+    }
+
+    /**
+     * 获取槽位
+     *
+     * @param slotTimeMs 刻度时间
+     * @return 槽位，没有该刻度的记录时返回 null
+     */
+    public Slot getSlot(final long slotTimeMs) {
+        final int position = this.position(slotTimeMs);
+        if (this.mappedByteBuffer.getLong(position) != slotTimeMs) {
+            return null;
+        }
+        return new Slot(slotTimeMs,
+            this.mappedByteBuffer.getLong(position + 8),
+            this.mappedByteBuffer.getLong(position + 16),
+            this.mappedByteBuffer.getInt(position + 24));
+    }
+
+    /**
+     * 记录追加到刻度
+     *
+     * @param slotTimeMs 刻度时间
+     * @param logPosition 记录在时间轮日志中的位置
+     */
+    public void append(final long slotTimeMs, final long logPosition) {
+        final int position = this.position(slotTimeMs);
+        if (this.mappedByteBuffer.getLong(position) != slotTimeMs) {
+            this.mappedByteBuffer.putLong(position + 8, logPosition);
+            this.mappedByteBuffer.putLong(position + 16, logPosition);
+            this.mappedByteBuffer.putInt(position + 24, 1);
+            // 最后设置刻度时间，读取到刻度时间时其他字段一定已写入
+            this.mappedByteBuffer.putLong(position, slotTimeMs);
+            return;
+        }
+        this.mappedByteBuffer.putLong(position + 16, logPosition);
+        this.mappedByteBuffer.putInt(position + 24, this.mappedByteBuffer.getInt(position + 24) + 1);
+    }
+
+    public void flush() {
+        this.mappedByteBuffer.force();
+    }
+
+    public void shutdown() {
+        this.flush();
+
+        MappedFile.clean(this.mappedByteBuffer);
+
+        try {
+            this.fileChannel.close();
+        } catch (IOException e) {
+            log.error("close timer wheel file exception", e);
+        }
+    }
+
+    /**
+     * 时间轮覆盖的时长
+     */
+    public long getSpanMs() {
+        return this.slotNums * this.precisionMs;
+    }
+
+    private int position(final long slotTimeMs) {
+        return (int) ((slotTimeMs / this.precisionMs) % this.slotNums) * SLOT_SIZE;
+    }
+
+    public static class Slot {
+        private final long timeMs;
+        private final long firstPosition;
+        private final long lastPosition;
+        private final int num;
+
+        public Slot(long timeMs, long firstPosition, long lastPosition, int num) {
+            this.timeMs = timeMs;
+            this.firstPosition = firstPosition;
+            this.lastPosition = lastPosition;
+            this.num = num;
+        }
+
+        public long getTimeMs() {
+            return timeMs;
+        }
+
+        public long getFirstPosition() {
+            return firstPosition;
+        }
+
+        public long getLastPosition() {
+            return lastPosition;
+        }
+
+        public int getNum() {
+            return num;
+        }
+    }
+}
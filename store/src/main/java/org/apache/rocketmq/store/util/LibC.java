@@ -28,6 +28,8 @@ public interface LibC extends Library {
     int MADV_WILLNEED = 3;
     int MADV_DONTNEED = 4;
 
+    int POSIX_FADV_DONTNEED = 4;
+
     int MCL_CURRENT = 1;
     int MCL_FUTURE = 2;
     int MCL_ONFAULT = 4;
@@ -50,4 +52,6 @@ public interface LibC extends Library {
     int mlockall(int flags);
 
     int msync(Pointer p, NativeLong length, int flags);
+
+    int posix_fadvise(int fd, long offset, long len, int advice);
 }
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AppendOffsetBarrierTest {
+
+    @Test
+    public void testPublishIsMonotonic() {
+        AppendOffsetBarrier barrier = new AppendOffsetBarrier();
+        barrier.publish(100);
+        barrier.publish(50);
+        assertThat(barrier.getPublishedOffset()).isEqualTo(100);
+    }
+
+    @Test
+    public void testWaitForReturnsImmediately() throws Exception {
+        AppendOffsetBarrier barrier = new AppendOffsetBarrier();
+        barrier.publish(100);
+        long begin = System.currentTimeMillis();
+        assertThat(barrier.waitFor(0, 5000)).isEqualTo(100);
+        assertThat(System.currentTimeMillis() - begin).isLessThan(1000);
+    }
+
+    @Test
+    public void testWaitForTimeout() throws Exception {
+        AppendOffsetBarrier barrier = new AppendOffsetBarrier();
+        barrier.publish(100);
+        assertThat(barrier.waitFor(100, 10)).isEqualTo(100);
+    }
+
+    @Test
+    public void testPublishWakesWaiter() throws Exception {
+        final AppendOffsetBarrier barrier = new AppendOffsetBarrier();
+        final AtomicLong result = new AtomicLong(-1);
+        final CountDownLatch latch = new CountDownLatch(1);
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.set(barrier.waitFor(0, 10 * 1000));
+                } catch (InterruptedException ignored) {
+                }
+                latch.countDown();
+            }
+        });
+        waiter.start();
+
+        Thread.sleep(50);
+        barrier.publish(200);
+        assertThat(latch.await(3, TimeUnit.SECONDS)).isTrue();
+        assertThat(result.get()).isEqualTo(200);
+    }
+}
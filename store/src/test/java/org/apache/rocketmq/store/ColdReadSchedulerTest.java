@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ColdReadSchedulerTest extends StoreTestBase {
+
+    @Test
+    public void testExecuteWhenDisabled() throws Exception {
+        ColdReadScheduler scheduler = new ColdReadScheduler(this.createStore(this.buildStoreConfig()));
+        scheduler.start();
+        try {
+            assertThat(scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                }
+            })).isFalse();
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void testExecuteBounded() throws Exception {
+        MessageStoreConfig messageStoreConfig = this.buildStoreConfig();
+        messageStoreConfig.setColdReadIsolationEnable(true);
+        messageStoreConfig.setColdReadThreadPoolNums(1);
+        messageStoreConfig.setColdReadThreadPoolQueueCapacity(1);
+        ColdReadScheduler scheduler = new ColdReadScheduler(this.createStore(messageStoreConfig));
+        scheduler.start();
+        try {
+            final CountDownLatch blocked = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(2);
+            Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        blocked.await(3, TimeUnit.SECONDS);
+                    } catch (InterruptedException ignored) {
+                    }
+                    done.countDown();
+                }
+            };
+            // 一个执行，一个排队，第三个被拒绝
+            assertThat(scheduler.execute(task)).isTrue();
+            assertThat(scheduler.execute(task)).isTrue();
+            assertThat(scheduler.execute(task)).isFalse();
+
+            blocked.countDown();
+            assertThat(done.await(3, TimeUnit.SECONDS)).isTrue();
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store;
+
+import java.io.File;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.config.StorePathConfigHelper;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompactConsumeQueueTest extends StoreTestBase {
+    /**
+     * 每块 8 条，每个文件 8 块
+     */
+    private static final int BLOCK_SIZE = CompactConsumeQueue.BLOCK_HEADER_SIZE + CompactConsumeQueue.NARROW_UNIT_SIZE * 8;
+
+    private DefaultMessageStore master;
+
+    @Test
+    public void testReadAcrossBlocksAndFiles() throws Exception {
+        this.master = this.startStore(true);
+        this.putMessages(this.master, 0, 100);
+
+        ConsumeQueue consumeQueue = this.master.findConsumeQueue("FooBar", 0);
+        assertThat(consumeQueue).isInstanceOf(CompactConsumeQueue.class);
+        assertThat(((CompactConsumeQueue) consumeQueue).getBlockNums()).isEqualTo(13);
+        assertThat(consumeQueue.getMaxOffsetInQueue()).isEqualTo(100);
+        this.assertIndexContinuous(consumeQueue, 0, 100);
+
+        long offset = 0;
+        while (offset < 100) {
+            GetMessageResult getResult = this.master.getMessage("GROUP_A", "FooBar", 0, offset, 32, null);
+            try {
+                assertThat(getResult.getStatus()).isEqualTo(GetMessageStatus.FOUND);
+                offset = getResult.getNextBeginOffset();
+            } finally {
+                getResult.release();
+            }
+        }
+        assertThat(offset).isEqualTo(100);
+
+        long storeTime = this.master.getMessageStoreTimeStamp("FooBar", 0, 50);
+        long found = consumeQueue.getOffsetInQueueByTime(storeTime);
+        assertThat(this.master.getMessageStoreTimeStamp("FooBar", 0, found)).isEqualTo(storeTime);
+        assertThat(consumeQueue.getLastOffset()).isEqualTo(this.master.getMaxPhyOffset());
+    }
+
+    @Test
+    public void testRecoverAndCoexist() throws Exception {
+        this.master = this.startStore(true);
+        this.putMessages(this.master, 0, 30);
+        this.master.shutdown();
+
+        // 关闭紧凑格式后，已有的紧凑格式队列照常加载，新队列使用原格式
+        this.master = this.startStore(false);
+        ConsumeQueue compact = this.master.findConsumeQueue("FooBar", 0);
+        assertThat(compact).isInstanceOf(CompactConsumeQueue.class);
+        assertThat(compact.getMaxOffsetInQueue()).isEqualTo(30);
+        this.putMessages(this.master, 0, 10);
+        this.putMessages(this.master, 1, 10);
+        assertThat(this.master.findConsumeQueue("FooBar", 1) instanceof CompactConsumeQueue).isFalse();
+        this.assertIndexContinuous(compact, 0, 40);
+    }
+
+    @Test
+    public void testLoadWithStoredBlockSize() throws Exception {
+        this.master = this.startStore(true);
+        this.putMessages(this.master, 0, 30);
+        this.master.shutdown();
+
+        // 修改块大小后，已有队列使用文件中记录的块大小，新队列使用新的块大小
+        MessageStoreConfig messageStoreConfig = this.buildCompactConfig(true);
+        messageStoreConfig.setCompactConsumeQueueBlockSize(BLOCK_SIZE * 2);
+        this.master = this.startStore(messageStoreConfig);
+        ConsumeQueue existing = this.master.findConsumeQueue("FooBar", 0);
+        assertThat(((CompactConsumeQueue) existing).getBlockSize()).isEqualTo(BLOCK_SIZE);
+        assertThat(existing.getMaxOffsetInQueue()).isEqualTo(30);
+        this.putMessages(this.master, 0, 10);
+        this.assertIndexContinuous(existing, 0, 40);
+        assertThat(((CompactConsumeQueue) existing).getBlockNums()).isEqualTo(5);
+
+        this.putMessages(this.master, 1, 10);
+        ConsumeQueue created = this.master.findConsumeQueue("FooBar", 1);
+        assertThat(((CompactConsumeQueue) created).getBlockSize()).isEqualTo(BLOCK_SIZE * 2);
+        assertThat(CompactConsumeQueue.readBlockSize(StorePathConfigHelper.getStorePathCompactConsumeQueue(this.storePath)
+            + File.separator + "FooBar" + File.separator + 1)).isEqualTo(BLOCK_SIZE * 2);
+    }
+
+    @Test
+    public void testTruncateAndWideTags() throws Exception {
+        this.master = this.startStore(true);
+        ConsumeQueue consumeQueue = this.master.findConsumeQueue("Wide", 0);
+        for (int i = 0; i < 20; i++) {
+            // 前一半 tagsCode 使用 int，后一半使用 long
+            long tagsCode = i < 10 ? i : Long.MAX_VALUE - i;
+            assertThat(consumeQueue.putMessagePositionInfoWithRetry(1000 + i * 100, 100, tagsCode, i)).isTrue();
+        }
+        SelectMappedBufferResult result = consumeQueue.getIndexBuffer(12);
+        try {
+            assertThat(result.getByteBuffer().getLong()).isEqualTo(2200);
+            assertThat(result.getByteBuffer().getInt()).isEqualTo(100);
+            assertThat(result.getByteBuffer().getLong()).isEqualTo(Long.MAX_VALUE - 12);
+        } finally {
+            result.release();
+        }
+
+        consumeQueue.truncateDirtyLogicFiles(1550);
+        assertThat(consumeQueue.getMaxOffsetInQueue()).isEqualTo(6);
+        assertThat(consumeQueue.getMaxPhysicOffset()).isEqualTo(1500);
+        assertThat(consumeQueue.getIndexBuffer(6)).isNull();
+        assertThat(consumeQueue.putMessagePositionInfoWithRetry(1600, 100, 6, 6)).isTrue();
+        consumeQueue.recover();
+        assertThat(consumeQueue.getMaxOffsetInQueue()).isEqualTo(7);
+        assertThat(consumeQueue.getLastOffset()).isEqualTo(1700);
+    }
+
+    private void assertIndexContinuous(final ConsumeQueue consumeQueue, final long from, final long to) {
+        long lastPhyOffset = -1;
+        long offset = from;
+        while (offset < to) {
+            SelectMappedBufferResult result = consumeQueue.getIndexBuffer(offset);
+            assertThat(result).isNotNull();
+            try {
+                for (int i = 0; i < result.getSize(); i += ConsumeQueue.CQ_STORE_UNIT_SIZE) {
+                    long phyOffset = result.getByteBuffer().getLong();
+                    int size = result.getByteBuffer().getInt();
+                    result.getByteBuffer().getLong();
+                    assertThat(phyOffset).isGreaterThan(lastPhyOffset);
+                    assertThat(size).isGreaterThan(0);
+                    lastPhyOffset = phyOffset;
+                    offset++;
+                }
+            } finally {
+                result.release();
+            }
+        }
+        assertThat(offset).isEqualTo(to);
+    }
+
+    private DefaultMessageStore startStore(final boolean compact) throws Exception {
+        return this.startStore(this.buildCompactConfig(compact));
+    }
+
+    private MessageStoreConfig buildCompactConfig(final boolean compact) {
+        MessageStoreConfig messageStoreConfig = this.buildStoreConfig();
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024);
+        messageStoreConfig.setCompactConsumeQueueEnable(compact);
+        messageStoreConfig.setCompactConsumeQueueBlockSize(BLOCK_SIZE);
+        return messageStoreConfig;
+    }
+
+    private void putMessages(final DefaultMessageStore store, final int queueId, final int nums) throws Exception {
+        final long expectOffset = store.getMaxOffsetInQuque("FooBar", queueId) + nums;
+        for (int i = 0; i < nums; i++) {
+            assertThat(store.putMessage(this.buildMessage("FooBar", queueId)).isOk()).isTrue();
+        }
+        this.waitForQueue(store, "FooBar", queueId, expectOffset);
+        assertThat(store.getMaxOffsetInQuque("FooBar", queueId)).isEqualTo(expectOffset);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.rocketmq.common.filter.ExpressionType;
+import org.apache.rocketmq.common.filter.FilterAPI;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.protocol.heartbeat.SubscriptionData;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConsumeQueueBloomTest extends StoreTestBase {
+    private DefaultMessageStore master;
+
+    @Test
+    public void testSkipUnmatchedBlocks() throws Exception {
+        ConsumeQueueBloom bloom = new ConsumeQueueBloom("FooBar", 0, this.storePath, ConsumeQueueBloom.BLOCK_SIZE * 4, new String[0]);
+        assertThat(bloom.load()).isTrue();
+        bloom.put(0, 192, properties("A"));
+        bloom.put(192, 1, properties("B"));
+        // 位置 193 到 299 未写入
+        bloom.put(300, 10, properties("A"));
+
+        ConsumeQueueBloom.FilterBits filterBits = ConsumeQueueBloom.FilterBits.build(FilterAPI.buildSubscriptionData("GROUP_A", "FooBar", "B"));
+        assertThat(bloom.skipUnmatchedBlocks(0, 193, filterBits)).isEqualTo(192);
+        assertThat(bloom.skipUnmatchedBlocks(10, 150, filterBits)).isEqualTo(150);
+        assertThat(bloom.isMatched(192, filterBits)).isTrue();
+        assertThat(bloom.isMatched(5, filterBits)).isFalse();
+
+        // 未写入的位置不跳过
+        assertThat(bloom.skipUnmatchedBlocks(256, 310, filterBits)).isEqualTo(256);
+        assertThat(bloom.skipUnmatchedBlocks(300, 310, filterBits)).isEqualTo(310);
+        assertThat(bloom.isMatched(200, filterBits)).isTrue();
+
+        assertThat(ConsumeQueueBloom.FilterBits.build(FilterAPI.buildSubscriptionData("GROUP_A", "FooBar", "*"))).isNull();
+        bloom.destroy();
+    }
+
+    @Test
+    public void testGetMessageSkipsBlocks() throws Exception {
+        this.startStore("");
+
+        for (int i = 0; i < 1000; i++) {
+            this.putMessage("A");
+        }
+        this.putMessage("B");
+        this.waitForQueue(this.master, "FooBar", 0, 1001);
+        assertThat(this.master.getMaxOffsetInQuque("FooBar", 0)).isEqualTo(1001);
+
+        // 不使用布隆过滤时一次最多过滤 800 条
+        SubscriptionData subscriptionData = FilterAPI.buildSubscriptionData("GROUP_A", "FooBar", "B");
+        GetMessageResult getResult = this.master.getMessage("GROUP_A", "FooBar", 0, 0, 32, subscriptionData);
+        try {
+            assertThat(getResult.getStatus()).isEqualTo(GetMessageStatus.FOUND);
+            assertThat(getResult.getMessageCount()).isEqualTo(1);
+            assertThat(getResult.getNextBeginOffset()).isEqualTo(1001);
+        } finally {
+            getResult.release();
+        }
+    }
+
+    @Test
+    public void testGetMessageBySql92() throws Exception {
+        this.startStore("region");
+
+        for (int i = 0; i < 1000; i++) {
+            this.putMessage("A", "us", 10);
+        }
+        this.putMessage("A", "eu", 1);
+        this.putMessage("A", "eu", 10);
+        this.waitForQueue(this.master, "FooBar", 0, 1002);
+        assertThat(this.master.getMaxOffsetInQuque("FooBar", 0)).isEqualTo(1002);
+
+        SubscriptionData subscriptionData = FilterAPI.buildSubscriptionData("GROUP_A", "FooBar", "region = 'eu' AND a > 5",
+            ExpressionType.SQL92);
+        GetMessageResult getResult = this.master.getMessage("GROUP_A", "FooBar", 0, 0, 32, subscriptionData);
+        try {
+            assertThat(getResult.getStatus()).isEqualTo(GetMessageStatus.FOUND);
+            assertThat(getResult.getMessageCount()).isEqualTo(1);
+            MessageExt msg = MessageDecoder.decode(getResult.getMessageBufferList().get(0));
+            assertThat(msg.getQueueOffset()).isEqualTo(1001);
+            assertThat(getResult.getNextBeginOffset()).isEqualTo(1002);
+        } finally {
+            getResult.release();
+        }
+    }
+
+    private void startStore(final String bloomProperties) throws Exception {
+        MessageStoreConfig messageStoreConfig = this.buildStoreConfig();
+        messageStoreConfig.setMapedFileSizeConsumeQueue(ConsumeQueue.CQ_STORE_UNIT_SIZE * 4000);
+        messageStoreConfig.setConsumeQueueBloomEnable(true);
+        messageStoreConfig.setConsumeQueueBloomProperties(bloomProperties);
+        this.master = this.startStore(messageStoreConfig);
+    }
+
+    private void putMessage(final String tags) throws Exception {
+        this.putMessage(tags, null, 0);
+    }
+
+    private void putMessage(final String tags, final String region, final int a) throws Exception {
+        MessageExtBrokerInner msg = this.buildMessage();
+        if (region != null) {
+            msg.putUserProperty("region", region);
+            msg.putUserProperty("a", String.valueOf(a));
+        }
+        msg.setTags(tags);
+        msg.setTagsCode(MessageExtBrokerInner.tagsString2tagsCode(null, tags));
+        msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+        assertThat(this.master.putMessage(msg).isOk()).isTrue();
+    }
+
+    private static Map<String, String> properties(final String tags) {
+        Map<String, String> properties = new HashMap<>();
+        properties.put(MessageConst.PROPERTY_TAGS, tags);
+        return properties;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store;
+
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConsumeQueueLazyLoadTest extends StoreTestBase {
+
+    @Test
+    public void testLoadOnFirstAccess() throws Exception {
+        DefaultMessageStore master = this.startStore(this.buildLazyConfig());
+        this.putMessages(master, 0, 5);
+        this.putMessages(master, 1, 3);
+        master.shutdown();
+        ConsumeQueueSummaryTable summaryTable = master.getConsumeQueueSummaryTable();
+        assertThat(summaryTable.get("FooBar", 0).getMaxOffset()).isEqualTo(5);
+        assertThat(summaryTable.get("FooBar", 1).getMaxOffset()).isEqualTo(3);
+
+        // 摘要由 shutdown 持久化，load 时读取
+        DefaultMessageStore slave = this.startStore(this.buildLazyConfig());
+
+        // 未访问前使用摘要
+        ConsumeQueue consumeQueue = slave.findConsumeQueue("FooBar", 0);
+        assertThat(consumeQueue.isLoaded()).isFalse();
+        assertThat(slave.getMaxOffsetInQuque("FooBar", 0)).isEqualTo(5);
+        assertThat(slave.getMinOffsetInQuque("FooBar", 0)).isEqualTo(0);
+
+        GetMessageResult getResult = slave.getMessage("GROUP_A", "FooBar", 0, 0, 32, null);
+        try {
+            assertThat(getResult.getStatus()).isEqualTo(GetMessageStatus.FOUND);
+            assertThat(getResult.getMessageCount()).isEqualTo(5);
+        } finally {
+            getResult.release();
+        }
+        assertThat(consumeQueue.isLoaded()).isTrue();
+        assertThat(consumeQueue.getMaxOffsetInQueue()).isEqualTo(5);
+
+        // 写入未加载的队列，位置连续
+        assertThat(slave.findConsumeQueue("FooBar", 1).isLoaded()).isFalse();
+        this.putMessages(slave, 1, 2);
+        assertThat(slave.findConsumeQueue("FooBar", 1).isLoaded()).isTrue();
+        assertThat(slave.getMaxOffsetInQuque("FooBar", 1)).isEqualTo(5);
+    }
+
+    private MessageStoreConfig buildLazyConfig() {
+        MessageStoreConfig messageStoreConfig = this.buildStoreConfig();
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setConsumeQueueLazyLoadEnable(true);
+        messageStoreConfig.setConsumeQueueBackgroundLoadEnable(false);
+        return messageStoreConfig;
+    }
+
+    private void putMessages(final DefaultMessageStore master, final int queueId, final int nums) throws Exception {
+        final long expectOffset = master.getMaxOffsetInQuque("FooBar", queueId) + nums;
+        for (int i = 0; i < nums; i++) {
+            assertThat(master.putMessage(this.buildMessage("FooBar", queueId)).isOk()).isTrue();
+        }
+        this.waitForQueue(master, "FooBar", queueId, expectOffset);
+        assertThat(master.getMaxOffsetInQuque("FooBar", queueId)).isEqualTo(expectOffset);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store;
+
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConsumeQueueTailCacheTest extends StoreTestBase {
+
+    @Test
+    public void testReadFromTail() throws Exception {
+        DefaultMessageStore master = this.startStore();
+        this.putMessages(master, 0, 20);
+        ConsumeQueue consumeQueue = master.findConsumeQueue("FooBar", 0);
+
+        // 第一次读取末尾从映射文件读取，下次写入时分配槽并预热
+        SelectMappedBufferResult result = consumeQueue.getIndexBuffer(19);
+        assertThat(result.getMappedFile()).isNotNull();
+        result.release();
+        this.putMessages(master, 0, 1);
+        assertThat(consumeQueue.getTailSlot()).isNotNull();
+
+        result = consumeQueue.getIndexBuffer(15);
+        SelectMappedBufferResult mapped = consumeQueue.getMappedIndexBuffer(15);
+        try {
+            assertThat(result.getMappedFile()).isNull();
+            assertThat(result.getSize()).isEqualTo(6 * ConsumeQueue.CQ_STORE_UNIT_SIZE);
+            for (int i = 0; i < result.getSize(); i++) {
+                assertThat(result.getByteBuffer().get(i)).isEqualTo(mapped.getByteBuffer().get(i));
+            }
+        } finally {
+            result.release();
+            mapped.release();
+        }
+
+        // 早于缓存范围的从映射文件读取
+        result = consumeQueue.getIndexBuffer(5);
+        assertThat(result.getMappedFile()).isNotNull();
+        result.release();
+    }
+
+    @Test
+    public void testEvict() throws Exception {
+        DefaultMessageStore master = this.startStore();
+        ConsumeQueue[] consumeQueues = new ConsumeQueue[3];
+        for (int queueId = 0; queueId < consumeQueues.length; queueId++) {
+            this.putMessages(master, queueId, 2);
+            consumeQueues[queueId] = master.findConsumeQueue("FooBar", queueId);
+            consumeQueues[queueId].getIndexBuffer(1).release();
+            this.putMessages(master, queueId, 1);
+        }
+
+        // 两个槽，最早分配的队列被淘汰
+        assertThat(consumeQueues[0].getTailSlot()).isNull();
+        assertThat(consumeQueues[1].getTailSlot()).isNotNull();
+        assertThat(consumeQueues[2].getTailSlot()).isNotNull();
+        SelectMappedBufferResult result = consumeQueues[2].getIndexBuffer(0);
+        assertThat(result.getMappedFile()).isNull();
+        assertThat(result.getSize()).isEqualTo(3 * ConsumeQueue.CQ_STORE_UNIT_SIZE);
+        result.release();
+    }
+
+    private DefaultMessageStore startStore() throws Exception {
+        MessageStoreConfig messageStoreConfig = this.buildStoreConfig();
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 64);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setConsumeQueueTailCacheEnable(true);
+        messageStoreConfig.setConsumeQueueTailCacheUnits(8);
+        messageStoreConfig.setConsumeQueueTailCacheQueueNums(2);
+        return this.startStore(messageStoreConfig);
+    }
+
+    private void putMessages(final DefaultMessageStore master, final int queueId, final int nums) throws Exception {
+        final long expectOffset = master.getMaxOffsetInQuque("FooBar", queueId) + nums;
+        for (int i = 0; i < nums; i++) {
+            assertThat(master.putMessage(this.buildMessage("FooBar", queueId)).isOk()).isTrue();
+        }
+        this.waitForQueue(master, "FooBar", queueId, expectOffset);
+        assertThat(master.getMaxOffsetInQuque("FooBar", queueId)).isEqualTo(expectOffset);
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConsumeQueueTimeIndexTest extends StoreTestBase {
+    @Test
+    public void testLookupRange() throws Exception {
+        ConsumeQueueTimeIndex timeIndex = newTimeIndex();
+        assertThat(timeIndex.load()).isTrue();
+        assertThat(timeIndex.lookupRange(1000, 0, 10)).isNull();
+
+        // 每 100 毫秒一条消息，每秒记录一条
+        for (int i = 0; i < 100; i++) {
+            timeIndex.put(i, 10000 + i * 100);
+        }
+        assertThat(timeIndex.getStoreTime(0)).isEqualTo(10000);
+        assertThat(timeIndex.getStoreTime(10)).isEqualTo(11000);
+        assertThat(timeIndex.getStoreTime(15)).isEqualTo(-1);
+
+        assertThat(timeIndex.lookupRange(5000, 0, 100)).containsExactly(0L, 0L);
+        assertThat(timeIndex.lookupRange(11000, 0, 100)).containsExactly(9L, 10L);
+        assertThat(timeIndex.lookupRange(11050, 0, 100)).containsExactly(10L, 20L);
+        assertThat(timeIndex.lookupRange(30000, 0, 100)).containsExactly(99L, 99L);
+        assertThat(timeIndex.lookupRange(11050, 20, 100)).containsExactly(20L, 20L);
+
+        // 存储时间间隔超过 1 秒时只需比较前后两条
+        timeIndex.put(100, 60000);
+        assertThat(timeIndex.lookupRange(30000, 0, 101)).containsExactly(99L, 100L);
+
+        // 开启前的消息未记录
+        assertThat(timeIndex.lookupRange(5000, 0, 101)).containsExactly(0L, 0L);
+        timeIndex.destroy();
+        timeIndex = newTimeIndex();
+        timeIndex.put(50, 10000);
+        assertThat(timeIndex.lookupRange(5000, 0, 51)).isNull();
+        assertThat(timeIndex.lookupRange(10001, 0, 51)).containsExactly(50L, 50L);
+        timeIndex.destroy();
+    }
+
+    @Test
+    public void testTruncateAndRecover() throws Exception {
+        ConsumeQueueTimeIndex timeIndex = newTimeIndex();
+        assertThat(timeIndex.load()).isTrue();
+        // 每个文件 4 条记录，共 4 个文件
+        for (int i = 0; i < 16; i++) {
+            timeIndex.put(i * 10, 10000 + i * 1000);
+        }
+        assertThat(timeIndex.getLastOffset()).isEqualTo(150);
+
+        timeIndex.truncate(75);
+        assertThat(timeIndex.getLastOffset()).isEqualTo(70);
+        assertThat(timeIndex.getStoreTime(80)).isEqualTo(-1);
+        assertThat(timeIndex.lookupRange(30000, 0, 75)).containsExactly(74L, 74L);
+        timeIndex.put(75, 18500);
+        timeIndex.flush(0);
+
+        timeIndex = newTimeIndex();
+        assertThat(timeIndex.load()).isTrue();
+        assertThat(timeIndex.getLastOffset()).isEqualTo(75);
+        assertThat(timeIndex.getStoreTime(75)).isEqualTo(18500);
+        assertThat(timeIndex.getStoreTime(80)).isEqualTo(-1);
+
+        assertThat(timeIndex.deleteExpiredFile(45)).isEqualTo(1);
+        assertThat(timeIndex.getStoreTime(30)).isEqualTo(-1);
+        assertThat(timeIndex.lookupRange(14500, 45, 76)).containsExactly(45L, 50L);
+        timeIndex.destroy();
+    }
+
+    @Test
+    public void testGetOffsetInQueueByTime() throws Exception {
+        MessageStoreConfig messageStoreConfig = this.buildStoreConfig();
+        messageStoreConfig.setMapedFileSizeConsumeQueue(ConsumeQueue.CQ_STORE_UNIT_SIZE * 4000);
+        messageStoreConfig.setConsumeQueueTimeIndexEnable(true);
+        messageStoreConfig.setConsumeQueueTimeIndexInterval(8);
+        DefaultMessageStore master = this.startStore(messageStoreConfig);
+
+        for (int i = 0; i < 20; i++) {
+            assertThat(master.putMessage(this.buildMessage()).isOk()).isTrue();
+        }
+        Thread.sleep(1100);
+        final long timestamp = System.currentTimeMillis();
+        for (int i = 0; i < 20; i++) {
+            assertThat(master.putMessage(this.buildMessage()).isOk()).isTrue();
+            if (i % 5 == 0) {
+                Thread.sleep(3);
+            }
+        }
+        this.waitForQueue(master, "FooBar", 0, 40);
+
+        ConsumeQueueTimeIndex timeIndex = master.findConsumeQueue("FooBar", 0).getTimeIndex();
+        assertThat(timeIndex).isNotNull();
+        assertThat(timeIndex.getStoreTime(20)).isEqualTo(master.getMessageStoreTimeStamp("FooBar", 0, 20));
+        assertThat(master.getOffsetInQueueByTime("FooBar", 0, timestamp)).isEqualTo(20);
+        assertThat(master.getOffsetInQueueByTime("FooBar", 0, 0)).isEqualTo(0);
+        assertThat(master.getEarliestMessageTime("FooBar", 0)).isEqualTo(master.getMessageStoreTimeStamp("FooBar", 0, 0));
+
+        // 使用索引与二分查找 ConsumeQueue 文件的结果相同
+        List<Long> timestamps = new ArrayList<>();
+        timestamps.add(0L);
+        timestamps.add(timestamp);
+        for (long i = 0; i < 40; i++) {
+            long storeTime = master.getMessageStoreTimeStamp("FooBar", 0, i);
+            timestamps.add(storeTime - 1);
+            timestamps.add(storeTime);
+            timestamps.add(storeTime + 1);
+        }
+        timestamps.add(timestamp - 500);
+        timestamps.add(System.currentTimeMillis());
+        List<Long> indexOffsets = new ArrayList<>();
+        for (Long t : timestamps) {
+            indexOffsets.add(master.getOffsetInQueueByTime("FooBar", 0, t));
+        }
+
+        master.shutdown();
+        messageStoreConfig.setConsumeQueueTimeIndexEnable(false);
+        master = this.startStore(messageStoreConfig);
+        assertThat(master.findConsumeQueue("FooBar", 0).getTimeIndex()).isNull();
+        for (int i = 0; i < timestamps.size(); i++) {
+            assertThat(master.getOffsetInQueueByTime("FooBar", 0, timestamps.get(i))).isEqualTo(indexOffsets.get(i));
+        }
+    }
+
+    private ConsumeQueueTimeIndex newTimeIndex() {
+        return new ConsumeQueueTimeIndex("FooBar", 0, this.storePath, ConsumeQueueTimeIndex.UNIT_SIZE * 4, 16, 1000);
+    }
+}
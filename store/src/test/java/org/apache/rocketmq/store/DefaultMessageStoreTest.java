@@ -17,13 +17,29 @@
 
 package org.apache.rocketmq.store;
 
+import java.io.File;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.UtilAll;
+import org.apache.rocketmq.common.compression.CompressionType;
+import org.apache.rocketmq.common.compression.CompressorFactory;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageAccessor;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.sysflag.MessageSysFlag;
 import org.apache.rocketmq.store.config.FlushDiskType;
 import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.apache.rocketmq.store.config.StorePathConfigHelper;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -122,6 +138,464 @@ public class DefaultMessageStoreTest {
         }
     }
 
+    @Test
+    public void testAsyncPutMessage() throws Exception {
+        int totalMsgs = 100;
+        QUEUE_TOTAL = 1;
+        MessageBody = StoreMessage.getBytes();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 8);
+        messageStoreConfig.setFlushDiskType(FlushDiskType.SYNC_FLUSH);
+        MessageStore master = new DefaultMessageStore(messageStoreConfig, null, new MyMessageArrivingListener(), new BrokerConfig());
+        boolean load = master.load();
+        assertTrue(load);
+
+        master.start();
+        try {
+            final CountDownLatch latch = new CountDownLatch(totalMsgs);
+            final AtomicInteger okCount = new AtomicInteger(0);
+            for (int i = 0; i < totalMsgs; i++) {
+                master.asyncPutMessage(buildMessage(), new PutMessageCallback() {
+                    @Override
+                    public void onComplete(PutMessageResult putMessageResult) {
+                        if (putMessageResult.getPutMessageStatus() == PutMessageStatus.PUT_OK) {
+                            okCount.incrementAndGet();
+                        }
+                        latch.countDown();
+                    }
+                });
+            }
+
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            assertThat(okCount.get()).isEqualTo(totalMsgs);
+            for (long i = 0; i < totalMsgs; i++) {
+                GetMessageResult result = master.getMessage("GROUP_A", "TOPIC_A", 0, i, 1024 * 1024, null);
+                assertThat(result).isNotNull();
+                result.release();
+            }
+        } finally {
+            master.shutdown();
+            master.destroy();
+        }
+    }
+
+    @Test
+    public void testPutMessages() throws Exception {
+        int batchSize = 16;
+        int batchCount = 5;
+        MessageBody = StoreMessage.getBytes();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 8);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        MessageStore master = new DefaultMessageStore(messageStoreConfig, null, new MyMessageArrivingListener(), new BrokerConfig());
+        boolean load = master.load();
+        assertTrue(load);
+
+        master.start();
+        try {
+            // later batches do not fit into the first 8K file and have to roll to the next one
+            for (int i = 0; i < batchCount; i++) {
+                PutMessageResult result = master.putMessages(buildMessageBatch(batchSize));
+                assertThat(result.isOk()).isTrue();
+                assertThat(result.getAppendMessageResult().getMsgNum()).isEqualTo(batchSize);
+                assertThat(result.getAppendMessageResult().getLogicsOffset()).isEqualTo(i * batchSize);
+            }
+
+            for (int i = 0; i < 100 && master.dispatchBehindBytes() > 0; i++) {
+                Thread.sleep(10);
+            }
+            assertThat(master.getMaxOffsetInQuque("FooBar", 0)).isEqualTo(batchCount * batchSize);
+
+            for (long i = 0; i < batchCount * batchSize; i++) {
+                long commitLogOffset = master.getCommitLogOffsetInQueue("FooBar", 0, i);
+                MessageExt msg = master.lookMessageByOffset(commitLogOffset);
+                assertThat(msg).isNotNull();
+                assertThat(msg.getQueueOffset()).isEqualTo(i);
+                assertThat(msg.getCommitLogOffset()).isEqualTo(commitLogOffset);
+                assertThat(new String(msg.getBody())).isEqualTo(StoreMessage);
+                assertThat(msg.getTags()).isEqualTo("TAG1");
+            }
+        } finally {
+            master.shutdown();
+            master.destroy();
+        }
+    }
+
+    @Test
+    public void testPutMessageEncodedOutsideLock() throws Exception {
+        QUEUE_TOTAL = 1;
+        MessageBody = StoreMessage.getBytes();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 8);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        MessageStore master = new DefaultMessageStore(messageStoreConfig, null, new MyMessageArrivingListener(), new BrokerConfig());
+        boolean load = master.load();
+        assertTrue(load);
+
+        master.start();
+        try {
+            // crosses the 8K file boundary, so the pre-encoded message is also re-appended to a new file
+            for (int i = 0; i < 100; i++) {
+                MessageExtBrokerInner msg = buildMessage();
+                msg.setSysFlag(0);
+                PutMessageResult result = master.putMessage(msg);
+                assertThat(result.isOk()).isTrue();
+                AppendMessageResult appendResult = result.getAppendMessageResult();
+                assertThat(appendResult.getLogicsOffset()).isEqualTo(i);
+                assertThat(MessageDecoder.decodeMessageId(appendResult.getMsgId()).getOffset()).isEqualTo(appendResult.getWroteOffset());
+
+                MessageExt stored = master.lookMessageByOffset(appendResult.getWroteOffset());
+                assertThat(stored.getQueueOffset()).isEqualTo(i);
+                assertThat(stored.getCommitLogOffset()).isEqualTo(appendResult.getWroteOffset());
+                assertThat(stored.getStoreTimestamp()).isEqualTo(appendResult.getStoreTimestamp());
+                assertThat(new String(stored.getBody())).isEqualTo(StoreMessage);
+            }
+        } finally {
+            master.shutdown();
+            master.destroy();
+        }
+    }
+
+    @Test
+    public void testPutStoreRecord() throws Exception {
+        QUEUE_TOTAL = 1;
+        MessageBody = StoreMessage.getBytes();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 8);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        MessageStore master = new DefaultMessageStore(messageStoreConfig, null, new MyMessageArrivingListener(), new BrokerConfig());
+        boolean load = master.load();
+        assertTrue(load);
+
+        master.start();
+        try {
+            for (int i = 0; i < 100; i++) {
+                MessageExtBrokerInner msg = buildMessage();
+                msg.setSysFlag(0);
+                // queue id, born host and store host in the record are patched by the store
+                msg.setEncodedBuff(ByteBuffer.wrap(MessageDecoder.encodeStoreRecord(msg.getTopic(), 99, msg.getFlag(), msg.getSysFlag(),
+                    msg.getBornTimestamp(), 0, msg.getBody(), msg.getPropertiesString())));
+                msg.setBody(null);
+                PutMessageResult result = master.putMessage(msg);
+                assertThat(result.isOk()).isTrue();
+
+                MessageExt stored = master.lookMessageByOffset(result.getAppendMessageResult().getWroteOffset());
+                assertThat(stored.getQueueId()).isEqualTo(0);
+                assertThat(stored.getQueueOffset()).isEqualTo(i);
+                assertThat(stored.getStoreHost()).isEqualTo(StoreHost);
+                assertThat(stored.getBodyCRC()).isEqualTo(UtilAll.crc32(MessageBody));
+                assertThat(new String(stored.getBody())).isEqualTo(StoreMessage);
+            }
+
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setEncodedBuff(ByteBuffer.wrap(MessageDecoder.encodeStoreRecord("OtherTopic", 0, msg.getFlag(), msg.getSysFlag(),
+                msg.getBornTimestamp(), 0, msg.getBody(), msg.getPropertiesString())));
+            msg.setBody(null);
+            assertThat(master.putMessage(msg).getPutMessageStatus()).isEqualTo(PutMessageStatus.MESSAGE_ILLEGAL);
+        } finally {
+            master.shutdown();
+            master.destroy();
+        }
+    }
+
+    @Test
+    public void testCustomDispatcher() throws Exception {
+        int totalMsgs = 100;
+        QUEUE_TOTAL = 4;
+        MessageBody = StoreMessage.getBytes();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 8);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        messageStoreConfig.setDispatchConsumeQueueThreadNums(2);
+        DefaultMessageStore master = new DefaultMessageStore(messageStoreConfig, null, new MyMessageArrivingListener(), new BrokerConfig());
+        final CountDownLatch latch = new CountDownLatch(totalMsgs);
+        master.getDispatcherList().addLast(new CommitLogDispatcher() {
+            @Override
+            public void dispatch(DispatchRequest request) {
+                latch.countDown();
+            }
+        });
+        boolean load = master.load();
+        assertTrue(load);
+
+        master.start();
+        try {
+            for (int i = 0; i < totalMsgs; i++) {
+                MessageExtBrokerInner msg = buildMessage();
+                msg.setSysFlag(0);
+                assertThat(master.putMessage(msg).isOk()).isTrue();
+            }
+
+            assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+            for (int i = 0; i < 100 && master.dispatchBehindBytes() > 0; i++) {
+                Thread.sleep(10);
+            }
+            long total = 0;
+            for (int queueId = 0; queueId < QUEUE_TOTAL; queueId++) {
+                total += master.getMaxOffsetInQuque("FooBar", queueId);
+            }
+            assertThat(total).isEqualTo(totalMsgs);
+        } finally {
+            master.shutdown();
+            master.destroy();
+        }
+    }
+
+    @Test
+    public void testPutInnerBatchRecord() throws Exception {
+        QUEUE_TOTAL = 1;
+        MessageBody = StoreMessage.getBytes();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 8);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        messageStoreConfig.setDiskFallRecorded(false);
+        MessageStore master = new DefaultMessageStore(messageStoreConfig, null, new MyMessageArrivingListener(), new BrokerConfig());
+        boolean load = master.load();
+        assertTrue(load);
+
+        master.start();
+        try {
+            List<Message> messages = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                messages.add(new Message("FooBar", "TAG1", (StoreMessage + i).getBytes()));
+            }
+            MessageExtBrokerInner batch = buildMessage();
+            batch.setSysFlag(MessageSysFlag.INNER_BATCH_FLAG | MessageSysFlag.COMPRESSED_FLAG | CompressionType.LZ4.getCompressionFlag());
+            batch.setBody(CompressorFactory.getCompressor(CompressionType.LZ4).compress(MessageDecoder.encodeMessages(messages), 5, null));
+            MessageAccessor.putProperty(batch, MessageConst.PROPERTY_INNER_NUM, "3");
+            batch.setPropertiesString(MessageDecoder.messageProperties2String(batch.getProperties()));
+            PutMessageResult result = master.putMessage(batch);
+            assertThat(result.isOk()).isTrue();
+            assertThat(result.getAppendMessageResult().getLogicsOffset()).isEqualTo(0);
+            assertThat(result.getAppendMessageResult().getMsgNum()).isEqualTo(3);
+
+            MessageExtBrokerInner msg = buildMessage();
+            msg.setSysFlag(0);
+            assertThat(master.putMessage(msg).getAppendMessageResult().getLogicsOffset()).isEqualTo(3);
+
+            for (int i = 0; i < 100 && master.getMaxOffsetInQuque("FooBar", 0) < 4; i++) {
+                Thread.sleep(10);
+            }
+            assertThat(master.getMaxOffsetInQuque("FooBar", 0)).isEqualTo(4);
+
+            // 批量记录整体返回，不被 maxMsgNums 截断
+            GetMessageResult getResult = master.getMessage("GROUP_A", "FooBar", 0, 0, 1, null);
+            try {
+                assertThat(getResult.getMessageBufferList().size()).isEqualTo(1);
+                assertThat(getResult.getNextBeginOffset()).isEqualTo(3);
+                List<MessageExt> msgs = MessageDecoder.decodes(getResult.getMessageBufferList().get(0));
+                assertThat(msgs.size()).isEqualTo(3);
+                for (int i = 0; i < 3; i++) {
+                    assertThat(msgs.get(i).getQueueOffset()).isEqualTo(i);
+                    assertThat(msgs.get(i).getSysFlag()).isEqualTo(0);
+                    assertThat(msgs.get(i).getTags()).isEqualTo("TAG1");
+                    assertThat(new String(msgs.get(i).getBody())).isEqualTo(StoreMessage + i);
+                }
+            } finally {
+                getResult.release();
+            }
+
+            // 从批量记录中间开始拉取
+            getResult = master.getMessage("GROUP_A", "FooBar", 0, 1, 32, null);
+            try {
+                assertThat(getResult.getMessageBufferList().size()).isEqualTo(2);
+                assertThat(getResult.getNextBeginOffset()).isEqualTo(4);
+            } finally {
+                getResult.release();
+            }
+        } finally {
+            master.shutdown();
+            master.destroy();
+        }
+    }
+
+    @Test
+    public void testGetMessageFromHistoricFile() throws Exception {
+        QUEUE_TOTAL = 1;
+        MessageBody = StoreMessage.getBytes();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 8);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        messageStoreConfig.setDiskFallRecorded(false);
+        messageStoreConfig.setHistoricReadByChannelEnable(true);
+        messageStoreConfig.setHistoricFileAge(-1);
+        DefaultMessageStore master = new DefaultMessageStore(messageStoreConfig, null, new MyMessageArrivingListener(), new BrokerConfig());
+        assertTrue(master.load());
+
+        master.start();
+        try {
+            // 写满第一个文件
+            while (master.getMaxPhyOffset() < 1024 * 8) {
+                MessageExtBrokerInner msg = buildMessage();
+                msg.setSysFlag(0);
+                assertThat(master.putMessage(msg).isOk()).isTrue();
+            }
+            for (int i = 0; i < 100 && master.getMaxOffsetInQuque("FooBar", 0) < 4; i++) {
+                Thread.sleep(10);
+            }
+
+            GetMessageResult getResult = master.getMessage("GROUP_A", "FooBar", 0, 0, 5, null);
+            try {
+                assertThat(getResult.getStatus()).isEqualTo(GetMessageStatus.FOUND);
+                assertThat(getResult.getMessageCount()).isEqualTo(4);
+                // 第一个文件已写满，按位置读取
+                assertThat(getResult.getMessageMapedList().get(0)).isInstanceOf(HistoricReadBufferPool.PooledBufferResult.class);
+                for (int i = 0; i < getResult.getMessageCount(); i++) {
+                    MessageExt msg = MessageDecoder.decode(getResult.getMessageBufferList().get(i));
+                    assertThat(msg.getQueueOffset()).isEqualTo(i);
+                    assertThat(new String(msg.getBody())).isEqualTo(StoreMessage);
+                }
+            } finally {
+                getResult.release();
+            }
+            HistoricReadBufferPool pool = master.getCommitLog().getHistoricReadBufferPool();
+            assertThat(pool.getAvailableNums()).isEqualTo(pool.getAllocatedNums());
+        } finally {
+            master.shutdown();
+            master.destroy();
+        }
+    }
+
+    @Test
+    public void testGetContiguousMessages() throws Exception {
+        QUEUE_TOTAL = 2;
+        MessageBody = StoreMessage.getBytes();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 8);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        messageStoreConfig.setDiskFallRecorded(false);
+        MessageStore master = new DefaultMessageStore(messageStoreConfig, null, new MyMessageArrivingListener(), new BrokerConfig());
+        assertTrue(master.load());
+
+        master.start();
+        try {
+            // 队列0: 前4条物理连续，之后与队列1交替
+            for (int i = 0; i < 4; i++) {
+                MessageExtBrokerInner msg = buildMessage();
+                msg.setQueueId(0);
+                msg.setSysFlag(0);
+                assertThat(master.putMessage(msg).isOk()).isTrue();
+            }
+            QueueId.set(1);
+            for (int i = 0; i < 4; i++) {
+                MessageExtBrokerInner msg = buildMessage();
+                msg.setSysFlag(0);
+                assertThat(master.putMessage(msg).isOk()).isTrue();
+            }
+            for (int i = 0; i < 100 && master.getMaxOffsetInQuque("FooBar", 0) < 6; i++) {
+                Thread.sleep(10);
+            }
+
+            GetMessageResult getResult = master.getMessage("GROUP_A", "FooBar", 0, 0, 32, null);
+            try {
+                assertThat(getResult.getStatus()).isEqualTo(GetMessageStatus.FOUND);
+                assertThat(getResult.getMessageCount()).isEqualTo(6);
+                assertThat(getResult.getMessageMapedList().size()).isEqualTo(3);
+                for (int i = 0; i < getResult.getMessageCount(); i++) {
+                    MessageExt msg = MessageDecoder.decode(getResult.getMessageBufferList().get(i));
+                    assertThat(msg.getQueueOffset()).isEqualTo(i);
+                    assertThat(new String(msg.getBody())).isEqualTo(StoreMessage);
+                }
+                assertThat(getResult.getNextBeginOffset()).isEqualTo(6);
+            } finally {
+                getResult.release();
+            }
+        } finally {
+            master.shutdown();
+            master.destroy();
+        }
+    }
+
+    @Test
+    public void testFastRecoverAbnormally() throws Exception {
+        long totalMsgs = 100;
+        QUEUE_TOTAL = 1;
+        MessageBody = StoreMessage.getBytes();
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 8);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        messageStoreConfig.setDiskFallRecorded(false);
+        messageStoreConfig.setFastRecoverEnable(true);
+        DefaultMessageStore master = new DefaultMessageStore(messageStoreConfig, null, new MyMessageArrivingListener(), new BrokerConfig());
+        assertTrue(master.load());
+
+        master.start();
+        long maxPhyOffset;
+        try {
+            for (long i = 0; i < totalMsgs; i++) {
+                MessageExtBrokerInner msg = buildMessage();
+                msg.setSysFlag(0);
+                assertThat(master.putMessage(msg).isOk()).isTrue();
+            }
+            for (int i = 0; i < 100 && master.getMaxOffsetInQuque("FooBar", 0) < totalMsgs; i++) {
+                Thread.sleep(10);
+            }
+            master.getCommitLog().flush();
+            master.getCommitLog().updateSummaries();
+            assertThat(master.getCommitLog().getCommitLogSummary().get(0)).isNotNull();
+            maxPhyOffset = master.getMaxPhyOffset();
+        } finally {
+            master.shutdown();
+        }
+
+        // 模拟异常关闭
+        File abortFile = new File(StorePathConfigHelper.getAbortFile(messageStoreConfig.getStorePathRootDir()));
+        assertTrue(abortFile.createNewFile());
+
+        master = new DefaultMessageStore(messageStoreConfig, null, new MyMessageArrivingListener(), new BrokerConfig());
+        try {
+            assertTrue(master.load());
+            assertThat(master.getMaxPhyOffset()).isEqualTo(maxPhyOffset);
+            assertThat(master.getMaxOffsetInQuque("FooBar", 0)).isEqualTo(totalMsgs);
+
+            master.start();
+            for (long i = 0; i < totalMsgs; i++) {
+                GetMessageResult result = master.getMessage("GROUP_A", "FooBar", 0, i, 1, null);
+                try {
+                    assertThat(result.getStatus()).isEqualTo(GetMessageStatus.FOUND);
+                } finally {
+                    result.release();
+                }
+            }
+        } finally {
+            master.shutdown();
+            master.destroy();
+        }
+    }
+
+    public MessageExtBatch buildMessageBatch(int size) {
+        List<Message> messages = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Message message = new Message("FooBar", "TAG1", MessageBody);
+            message.setKeys(String.valueOf(System.currentTimeMillis()));
+            messages.add(message);
+        }
+        MessageExtBatch messageExtBatch = new MessageExtBatch();
+        messageExtBatch.setTopic("FooBar");
+        messageExtBatch.setQueueId(0);
+        messageExtBatch.setBody(MessageDecoder.encodeMessages(messages));
+        messageExtBatch.setBornTimestamp(System.currentTimeMillis());
+        messageExtBatch.setStoreHost(StoreHost);
+        messageExtBatch.setBornHost(BornHost);
+        return messageExtBatch;
+    }
+
     private class MyMessageArrivingListener implements MessageArrivingListener {
         @Override
         public void arriving(String topic, int queueId, long logicOffset, long tagsCode) {
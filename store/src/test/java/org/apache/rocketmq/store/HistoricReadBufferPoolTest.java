@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store;
+
+import java.nio.ByteBuffer;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HistoricReadBufferPoolTest {
+
+    @Test
+    public void testBorrowAndReturn() {
+        MessageStoreConfig storeConfig = new MessageStoreConfig();
+        storeConfig.setHistoricReadBufferSize(1024);
+        storeConfig.setHistoricReadBufferNums(1);
+        HistoricReadBufferPool pool = new HistoricReadBufferPool(storeConfig);
+
+        ByteBuffer first = pool.borrowBuffer(100);
+        assertThat(first.isDirect()).isTrue();
+        assertThat(first.remaining()).isEqualTo(100);
+
+        // 缓冲区用尽或超过缓冲区大小时分配堆内存
+        ByteBuffer second = pool.borrowBuffer(100);
+        assertThat(second.isDirect()).isFalse();
+        ByteBuffer large = pool.borrowBuffer(2048);
+        assertThat(large.isDirect()).isFalse();
+        assertThat(large.remaining()).isEqualTo(2048);
+
+        pool.returnBuffer(second);
+        pool.returnBuffer(large);
+        assertThat(pool.getAvailableNums()).isEqualTo(0);
+        pool.returnBuffer(first);
+        assertThat(pool.getAvailableNums()).isEqualTo(1);
+        assertThat(pool.borrowBuffer(200)).isSameAs(first);
+        assertThat(pool.getAllocatedNums()).isEqualTo(1);
+    }
+
+    @Test
+    public void testPooledBufferResultRelease() {
+        MessageStoreConfig storeConfig = new MessageStoreConfig();
+        storeConfig.setHistoricReadBufferSize(1024);
+        HistoricReadBufferPool pool = new HistoricReadBufferPool(storeConfig);
+
+        ByteBuffer buffer = pool.borrowBuffer(8);
+        buffer.putLong(123L);
+        buffer.flip();
+        SelectMappedBufferResult result = new HistoricReadBufferPool.PooledBufferResult(0, buffer, 8, pool);
+        assertThat(result.getByteBuffer().getLong(0)).isEqualTo(123L);
+        result.release();
+        result.release();
+        assertThat(pool.getAvailableNums()).isEqualTo(1);
+    }
+}
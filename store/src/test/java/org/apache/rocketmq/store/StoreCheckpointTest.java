@@ -33,6 +33,7 @@ public class StoreCheckpointTest {
         long logicsMsgTimestamp = 0xCCDD;
         storeCheckpoint.setPhysicMsgTimestamp(physicMsgTimestamp);
         storeCheckpoint.setLogicsMsgTimestamp(logicsMsgTimestamp);
+        storeCheckpoint.setLogicsPhyOffset(1024);
         storeCheckpoint.flush();
 
         long diff = physicMsgTimestamp - storeCheckpoint.getMinTimestamp();
@@ -41,5 +42,6 @@ public class StoreCheckpointTest {
         storeCheckpoint = new StoreCheckpoint("target/checkpoint_test/0000");
         assertThat(storeCheckpoint.getPhysicMsgTimestamp()).isEqualTo(physicMsgTimestamp);
         assertThat(storeCheckpoint.getLogicsMsgTimestamp()).isEqualTo(logicsMsgTimestamp);
+        assertThat(storeCheckpoint.getLogicsPhyOffset()).isEqualTo(1024);
     }
 }
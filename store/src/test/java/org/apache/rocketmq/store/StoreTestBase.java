@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.junit.After;
+import org.junit.Before;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 存储测试公共基类，每个测试类使用独立的临时存储目录，测试结束后关闭并删除创建的存储
+ */
+public abstract class StoreTestBase {
+    protected static final String STORE_MESSAGE = "Once, there was a chance for me!";
+
+    protected static final MessageArrivingListener ARRIVING_LISTENER = new MessageArrivingListener() {
+        @Override
+        public void arriving(String topic, int queueId, long logicOffset, long tagsCode) {
+        }
+    };
+
+    protected final String storePath = System.getProperty("user.home") + File.separator
+        + "unitteststore-" + getClass().getSimpleName() + "-" + System.nanoTime();
+
+    private final List<DefaultMessageStore> stores = new ArrayList<>();
+
+    @Before
+    public void initStorePath() {
+        deleteFile(new File(this.storePath));
+    }
+
+    @After
+    public void clearStorePath() {
+        // 逆序关闭，同一目录重启时先关闭后创建的存储
+        for (int i = this.stores.size() - 1; i >= 0; i--) {
+            this.stores.get(i).shutdown();
+            this.stores.get(i).destroy();
+        }
+        this.stores.clear();
+        deleteFile(new File(this.storePath));
+    }
+
+    protected MessageStoreConfig buildStoreConfig() {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 1024);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 1024);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        messageStoreConfig.setDiskFallRecorded(false);
+        messageStoreConfig.setStorePathRootDir(this.storePath);
+        messageStoreConfig.setStorePathCommitLog(this.storePath + File.separator + "commitlog");
+        messageStoreConfig.setTieredStorePath(this.storePath + File.separator + "tiered");
+        return messageStoreConfig;
+    }
+
+    /**
+     * 创建存储但不加载，测试结束时自动关闭并删除
+     */
+    protected DefaultMessageStore createStore(final MessageStoreConfig messageStoreConfig) throws Exception {
+        return this.addStore(new DefaultMessageStore(messageStoreConfig, null, ARRIVING_LISTENER, new BrokerConfig()));
+    }
+
+    /**
+     * 登记测试中自行创建的存储，测试结束时自动关闭并删除
+     */
+    protected <T extends DefaultMessageStore> T addStore(final T store) {
+        this.stores.add(store);
+        return store;
+    }
+
+    protected DefaultMessageStore startStore(final MessageStoreConfig messageStoreConfig) throws Exception {
+        return this.startStore(this.createStore(messageStoreConfig));
+    }
+
+    protected <T extends DefaultMessageStore> T startStore(final T store) throws Exception {
+        assertThat(store.load()).isTrue();
+        store.start();
+        return store;
+    }
+
+    protected MessageExtBrokerInner buildMessage() throws Exception {
+        return this.buildMessage("FooBar", 0);
+    }
+
+    protected MessageExtBrokerInner buildMessage(final String topic, final int queueId) throws Exception {
+        MessageExtBrokerInner msg = new MessageExtBrokerInner();
+        msg.setTopic(topic);
+        msg.setTags("TAG1");
+        msg.setKeys(String.valueOf(System.currentTimeMillis()));
+        msg.setBody(STORE_MESSAGE.getBytes());
+        msg.setTagsCode(MessageExtBrokerInner.tagsString2tagsCode(null, msg.getTags()));
+        msg.setQueueId(queueId);
+        msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+        msg.setBornTimestamp(System.currentTimeMillis());
+        msg.setStoreHost(new InetSocketAddress(InetAddress.getLocalHost(), 8123));
+        msg.setBornHost(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        return msg;
+    }
+
+    /**
+     * 等待消息转发到消费队列，超时后断言失败
+     */
+    protected void waitForQueue(final DefaultMessageStore store, final String topic, final int queueId,
+        final long maxOffset) throws InterruptedException {
+        for (int i = 0; i < 200 && store.getMaxOffsetInQuque(topic, queueId) < maxOffset; i++) {
+            Thread.sleep(50);
+        }
+        assertThat(store.getMaxOffsetInQuque(topic, queueId)).isGreaterThanOrEqualTo(maxOffset);
+    }
+
+    private static void deleteFile(final File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                deleteFile(f);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TopicQueueOffsetTableTest {
+
+    @Test
+    public void testPutAndGet() {
+        TopicQueueOffsetTable table = new TopicQueueOffsetTable();
+        assertThat(table.get("FooBar", 0)).isEqualTo(0);
+
+        table.put("FooBar", 0, 10);
+        table.put("FooBar", 3, 30);
+        table.put("BarFoo", 0, 100);
+        assertThat(table.get("FooBar", 0)).isEqualTo(10);
+        assertThat(table.get("FooBar", 1)).isEqualTo(0);
+        assertThat(table.get("FooBar", 3)).isEqualTo(30);
+        assertThat(table.get("BarFoo", 0)).isEqualTo(100);
+    }
+
+    @Test
+    public void testGrow() {
+        TopicQueueOffsetTable table = new TopicQueueOffsetTable();
+        table.put("FooBar", 1, 1);
+        table.put("FooBar", 1000, 1000);
+        assertThat(table.get("FooBar", 1)).isEqualTo(1);
+        assertThat(table.get("FooBar", 1000)).isEqualTo(1000);
+        assertThat(table.get("FooBar", 2000)).isEqualTo(0);
+    }
+
+    @Test
+    public void testRemove() {
+        TopicQueueOffsetTable table = new TopicQueueOffsetTable();
+        table.put("FooBar", 2, 20);
+        table.remove("FooBar", 2);
+        table.remove("BarFoo", 2);
+        assertThat(table.get("FooBar", 2)).isEqualTo(0);
+        assertThat(table.get("BarFoo", 2)).isEqualTo(0);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store.ha;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.MessageArrivingListener;
+import org.apache.rocketmq.store.MessageExtBrokerInner;
+import org.apache.rocketmq.store.PutMessageStatus;
+import org.apache.rocketmq.store.SelectMappedBufferResult;
+import org.apache.rocketmq.store.config.BrokerRole;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HAServiceTest {
+    private final String storePath = System.getProperty("user.home") + File.separator + "unitteststore-ha-" + System.nanoTime();
+    private final int haListenPort = 20000 + (int) (System.nanoTime() % 10000);
+
+    private DefaultMessageStore master;
+    private DefaultMessageStore slave;
+
+    @After
+    public void destroy() {
+        if (this.slave != null) {
+            this.slave.shutdown();
+            this.slave.destroy();
+        }
+        if (this.master != null) {
+            this.master.shutdown();
+            this.master.destroy();
+        }
+    }
+
+    @Test
+    public void testPipelinedZeroCopyReplication() throws Exception {
+        this.replicate(true);
+    }
+
+    @Test
+    public void testPipelinedHeapReplication() throws Exception {
+        this.replicate(false);
+    }
+
+    private void replicate(boolean zeroCopy) throws Exception {
+        MessageStoreConfig masterConfig = this.newConfig("master");
+        masterConfig.setBrokerRole(BrokerRole.ASYNC_MASTER);
+        masterConfig.setHaListenPort(this.haListenPort);
+        // 小批次、小窗口：Slave 连接前已写入的数据远大于在途窗口，传输必须等待 Slave 上报进度
+        masterConfig.setHaTransferBatchSize(1024);
+        masterConfig.setHaMaxInflightBatches(4);
+        masterConfig.setHaTransferZeroCopyEnable(zeroCopy);
+        this.master = this.newStore(masterConfig);
+
+        for (int i = 0; i < 500; i++) {
+            MessageExtBrokerInner msg = new MessageExtBrokerInner();
+            msg.setTopic("FooBar");
+            msg.setTags("TAG1");
+            msg.setBody(("Once, there was a chance for me! " + i).getBytes());
+            msg.setQueueId(0);
+            msg.setTagsCode(MessageExtBrokerInner.tagsString2tagsCode(null, "TAG1"));
+            msg.setBornTimestamp(System.currentTimeMillis());
+            msg.setStoreHost(new InetSocketAddress(InetAddress.getLocalHost(), 8123));
+            msg.setBornHost(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+            assertThat(this.master.putMessage(msg).getPutMessageStatus()).isEqualTo(PutMessageStatus.PUT_OK);
+        }
+        final long masterMaxOffset = this.master.getMaxPhyOffset();
+        assertThat(masterMaxOffset > 4 * 1024).isTrue();
+
+        MessageStoreConfig slaveConfig = this.newConfig("slave");
+        slaveConfig.setBrokerRole(BrokerRole.SLAVE);
+        slaveConfig.setHaListenPort(this.haListenPort + 1);
+        this.slave = this.newStore(slaveConfig);
+        this.slave.updateHaMasterAddress("127.0.0.1:" + this.haListenPort);
+
+        for (int i = 0; i < 1000 && this.slave.getMaxPhyOffset() < masterMaxOffset; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(this.slave.getMaxPhyOffset()).isEqualTo(masterMaxOffset);
+        assertThat(this.getConnection().getInflightWindowFullTimes() > 0).isTrue();
+
+        SelectMappedBufferResult masterData = this.master.getCommitLogData(0);
+        SelectMappedBufferResult slaveData = this.slave.getCommitLogData(0);
+        try {
+            assertThat(slaveData.getSize()).isEqualTo(masterData.getSize());
+            assertThat(slaveData.getByteBuffer().equals(masterData.getByteBuffer())).isTrue();
+        } finally {
+            masterData.release();
+            slaveData.release();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private HAConnection getConnection() throws Exception {
+        Field field = HAService.class.getDeclaredField("connectionList");
+        field.setAccessible(true);
+        List<HAConnection> connectionList = (List<HAConnection>) field.get(this.master.getHaService());
+        synchronized (connectionList) {
+            assertThat(connectionList.size()).isEqualTo(1);
+            return connectionList.get(0);
+        }
+    }
+
+    private MessageStoreConfig newConfig(String role) {
+        MessageStoreConfig messageStoreConfig = new MessageStoreConfig();
+        messageStoreConfig.setMapedFileSizeCommitLog(1024 * 1024);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 1024);
+        messageStoreConfig.setMaxHashSlotNum(100);
+        messageStoreConfig.setMaxIndexNum(100 * 10);
+        messageStoreConfig.setStorePathRootDir(this.storePath + File.separator + role);
+        messageStoreConfig.setStorePathCommitLog(this.storePath + File.separator + role + File.separator + "commitlog");
+        return messageStoreConfig;
+    }
+
+    private DefaultMessageStore newStore(MessageStoreConfig messageStoreConfig) throws Exception {
+        DefaultMessageStore store = new DefaultMessageStore(messageStoreConfig, null, new MessageArrivingListener() {
+            @Override
+            public void arriving(String topic, int queueId, long logicOffset, long tagsCode) {
+            }
+        }, new BrokerConfig());
+        assertThat(store.load()).isTrue();
+        store.start();
+        return store;
+    }
+}
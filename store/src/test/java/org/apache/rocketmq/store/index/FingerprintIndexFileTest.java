@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store.index;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.MessageExtBrokerInner;
+import org.apache.rocketmq.store.QueryMessageResult;
+import org.apache.rocketmq.store.StoreTestBase;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FingerprintIndexFileTest extends StoreTestBase {
+    private final int HASH_SLOT_NUM = 100;
+    private final int INDEX_NUM = 400;
+    private final int BUCKET_NUM = 4;
+
+    @Test
+    public void testPutKey() throws Exception {
+        FingerprintIndexFile indexFile = new FingerprintIndexFile("300", HASH_SLOT_NUM, INDEX_NUM, BUCKET_NUM, 0, 0);
+        for (long i = 0; i < (INDEX_NUM - 1); i++) {
+            boolean putResult = indexFile.putKey(Long.toString(i), i, System.currentTimeMillis());
+            assertThat(putResult).isTrue();
+        }
+        assertThat(indexFile.getCurrentBucket()).isEqualTo(BUCKET_NUM - 1);
+
+        // put over index file capacity.
+        boolean putResult = indexFile.putKey(Long.toString(400), 400, System.currentTimeMillis());
+        assertThat(putResult).isFalse();
+        indexFile.destroy(0);
+    }
+
+    @Test
+    public void testSelectPhyOffset() throws Exception {
+        FingerprintIndexFile indexFile = new FingerprintIndexFile("400", HASH_SLOT_NUM, INDEX_NUM, BUCKET_NUM, 0, 0);
+        final long beginTimestamp = System.currentTimeMillis() / 1000 * 1000;
+        for (long i = 1; i < INDEX_NUM; i++) {
+            indexFile.putKey(i % 10 == 0 ? "dup" : Long.toString(i), i, beginTimestamp + i * 1000);
+        }
+
+        List<Long> phyOffsets = new ArrayList<Long>();
+        indexFile.selectPhyOffset(phyOffsets, "60", 10, 0, Long.MAX_VALUE, true);
+        assertThat(phyOffsets.size()).isEqualTo(0);
+        indexFile.selectPhyOffset(phyOffsets, "61", 10, 0, Long.MAX_VALUE, true);
+        assertThat(phyOffsets).containsExactly(61L);
+
+        // 只查询与时间范围相交的时间桶
+        phyOffsets.clear();
+        indexFile.selectPhyOffset(phyOffsets, "dup", 100, beginTimestamp + 100 * 1000, beginTimestamp + 200 * 1000, true);
+        assertThat(phyOffsets.size()).isEqualTo(11);
+        phyOffsets.clear();
+        indexFile.selectPhyOffset(phyOffsets, "dup", 5, 0, Long.MAX_VALUE, true);
+        assertThat(phyOffsets).containsExactly(390L, 380L, 370L, 360L, 350L);
+
+        // 重新加载后继续查询
+        indexFile.flush();
+        FingerprintIndexFile reload = new FingerprintIndexFile("400", HASH_SLOT_NUM, INDEX_NUM, BUCKET_NUM, 0, 0);
+        reload.load();
+        assertThat(reload.getCurrentBucket()).isEqualTo(indexFile.getCurrentBucket());
+        phyOffsets.clear();
+        reload.selectPhyOffset(phyOffsets, "dup", 100, 0, Long.MAX_VALUE, true);
+        assertThat(phyOffsets.size()).isEqualTo(39);
+        indexFile.destroy(0);
+    }
+
+    @Test
+    public void testQueryMessageAcrossFiles() throws Exception {
+        MessageStoreConfig messageStoreConfig = this.buildStoreConfig();
+        messageStoreConfig.setMaxHashSlotNum(10);
+        messageStoreConfig.setMaxIndexNum(100);
+        messageStoreConfig.setIndexFingerprintEnable(true);
+        DefaultMessageStore master = this.startStore(messageStoreConfig);
+        for (int i = 0; i < 500; i++) {
+            MessageExtBrokerInner msg = this.buildMessage();
+            msg.setKeys("key" + i + " all");
+            msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+            assertThat(master.putMessage(msg).isOk()).isTrue();
+        }
+        this.waitForQueue(master, "FooBar", 0, 500);
+        Thread.sleep(100);
+
+        QueryMessageResult result = master.queryMessage("FooBar", "key7", 32, 0, Long.MAX_VALUE);
+        try {
+            assertThat(result.getMessageBufferList().size()).isEqualTo(1);
+            assertThat(MessageDecoder.decode(result.getMessageBufferList().get(0)).getKeys()).isEqualTo("key7 all");
+        } finally {
+            result.release();
+        }
+        // 条目分布在多个索引文件中，并行查询并按数量提前结束
+        result = master.queryMessage("FooBar", "all", 32, 0, Long.MAX_VALUE);
+        try {
+            assertThat(result.getMessageBufferList().size()).isEqualTo(32);
+        } finally {
+            result.release();
+        }
+        assertThat(new File(this.storePath + File.separator + "index_fp").list().length).isGreaterThan(5);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store.schedule;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.rocketmq.common.BrokerConfig;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.running.RunningStats;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.MessageExtBrokerInner;
+import org.apache.rocketmq.store.PutMessageCallback;
+import org.apache.rocketmq.store.StoreTestBase;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ScheduleMessageServiceTest extends StoreTestBase {
+    private DefaultMessageStore master;
+
+    @Test
+    public void testDeliverInBatches() throws Exception {
+        this.master = this.startStore(this.buildScheduleConfig());
+
+        final long beginTime = System.currentTimeMillis();
+        for (int i = 0; i < 50; i++) {
+            this.putMessage(i % 2 + 1);
+        }
+        this.waitForQueue(this.master, "FooBar", 0, 50);
+        assertThat(this.master.getMaxOffsetInQuque("FooBar", 0)).isEqualTo(50);
+        assertThat(this.master.getMessageStoreTimeStamp("FooBar", 0, 0)).isGreaterThanOrEqualTo(beginTime + 1000);
+        assertThat(this.master.getMessageStoreTimeStamp("FooBar", 0, 49)).isGreaterThanOrEqualTo(beginTime + 2000);
+
+        HashMap<String, String> stats = new HashMap<>();
+        this.master.getScheduleMessageService().buildRunningStats(stats);
+        assertThat(stats.containsKey(RunningStats.scheduleMessageDeliverLag.name() + "_1")).isTrue();
+    }
+
+    @Test
+    public void testResumeFromFailedOffset() throws Exception {
+        this.master = this.startStore(this.buildScheduleConfig());
+        ScheduleMessageService scheduleMessageService = this.master.getScheduleMessageService();
+
+        for (int i = 0; i < 5; i++) {
+            this.putMessage(1);
+        }
+        this.waitForQueue(this.master, "FooBar", 0, 5);
+
+        // 投递前禁止写入，投递失败后按退避间隔从第一条失败的消息重试
+        for (int i = 0; i < 5; i++) {
+            this.putMessage(1);
+        }
+        this.waitForQueue(this.master, ScheduleMessageService.SCHEDULE_TOPIC, 0, 10);
+        this.master.getRunningFlags().getAndMakeNotWriteable();
+        Thread.sleep(2500);
+        assertThat(this.master.getMaxOffsetInQuque("FooBar", 0)).isEqualTo(5);
+        assertThat(scheduleMessageService.getDeliverLag(1) > 500).isTrue();
+        HashMap<String, String> stats = new HashMap<>();
+        scheduleMessageService.buildRunningStats(stats);
+        assertThat(stats.get(RunningStats.scheduleMessageOffset.name() + "_1")).isEqualTo("5,10");
+
+        // 恢复写入后只投递剩余的消息，不重复
+        this.master.getRunningFlags().getAndMakeWriteable();
+        this.waitForQueue(this.master, "FooBar", 0, 10);
+        Thread.sleep(500);
+        assertThat(this.master.getMaxOffsetInQuque("FooBar", 0)).isEqualTo(10);
+    }
+
+    @Test
+    public void testResumeFromUnconfirmedOffset() throws Exception {
+        MessageStoreConfig messageStoreConfig = this.buildScheduleConfig();
+        messageStoreConfig.setSyncFlushTimeout(100);
+        // 写入结果一直未返回时，投递线程等待超时后从第一条未确认的消息重试
+        final AtomicBoolean hang = new AtomicBoolean(true);
+        this.master = this.startStore(this.addStore(new DefaultMessageStore(messageStoreConfig, null, ARRIVING_LISTENER, new BrokerConfig()) {
+            @Override
+            public void asyncPutMessage(final MessageExtBrokerInner msg, final PutMessageCallback callback) {
+                if (!hang.get()) {
+                    super.asyncPutMessage(msg, callback);
+                }
+            }
+        }));
+        ScheduleMessageService scheduleMessageService = this.master.getScheduleMessageService();
+
+        for (int i = 0; i < 5; i++) {
+            this.putMessage(1);
+        }
+        this.waitForQueue(this.master, ScheduleMessageService.SCHEDULE_TOPIC, 0, 5);
+        Thread.sleep(2500);
+        assertThat(this.master.getMaxOffsetInQuque("FooBar", 0)).isEqualTo(0);
+        HashMap<String, String> stats = new HashMap<>();
+        scheduleMessageService.buildRunningStats(stats);
+        assertThat(stats.get(RunningStats.scheduleMessageOffset.name() + "_1")).isEqualTo("0,5");
+
+        hang.set(false);
+        this.waitForQueue(this.master, "FooBar", 0, 5);
+        Thread.sleep(500);
+        assertThat(this.master.getMaxOffsetInQuque("FooBar", 0)).isEqualTo(5);
+    }
+
+    private MessageStoreConfig buildScheduleConfig() {
+        MessageStoreConfig messageStoreConfig = this.buildStoreConfig();
+        messageStoreConfig.setMessageDelayLevel("1s 2s");
+        messageStoreConfig.setScheduleDeliverBatchSize(8);
+        return messageStoreConfig;
+    }
+
+    private void putMessage(final int delayLevel) throws Exception {
+        MessageExtBrokerInner msg = this.buildMessage();
+        msg.setDelayTimeLevel(delayLevel);
+        msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+        assertThat(this.master.putMessage(msg).isOk()).isTrue();
+    }
+}
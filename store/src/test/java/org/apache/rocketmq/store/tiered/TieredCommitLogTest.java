@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store.tiered;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.GetMessageResult;
+import org.apache.rocketmq.store.GetMessageStatus;
+import org.apache.rocketmq.store.StoreTestBase;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TieredCommitLogTest extends StoreTestBase {
+    private static final int FILE_SIZE = 1024 * 8;
+
+    @Test
+    public void testOffloadAndRead() throws Exception {
+        this.offloadAndRead("");
+    }
+
+    @Test
+    public void testOffloadAndReadCompressed() throws Exception {
+        this.offloadAndRead("LZ4");
+    }
+
+    private void offloadAndRead(final String compressType) throws Exception {
+        MessageStoreConfig messageStoreConfig = this.buildStoreConfig();
+        messageStoreConfig.setMapedFileSizeCommitLog(FILE_SIZE);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setTieredStoreEnable(true);
+        messageStoreConfig.setTieredFileAge(0);
+        messageStoreConfig.setTieredStoreInterval(50);
+        messageStoreConfig.setTieredCompressType(compressType);
+        messageStoreConfig.setTieredBlockSize(1024);
+        messageStoreConfig.setTieredReadAheadBlocks(2);
+        messageStoreConfig.setTieredCacheBlockNums(4);
+
+        DefaultMessageStore master = this.startStore(messageStoreConfig);
+        long maxOffset = 0;
+        while (master.getMaxPhyOffset() < FILE_SIZE * 3) {
+            assertThat(master.putMessage(this.buildMessage()).isOk()).isTrue();
+            maxOffset++;
+        }
+        this.waitForQueue(master, "FooBar", 0, maxOffset);
+        // 前两个文件迁移到冷存储
+        for (int i = 0; i < 200 && master.getCommitLog().getTieredCommitLog().getSegmentNums() < 2; i++) {
+            Thread.sleep(50);
+        }
+        assertThat(master.getCommitLog().getTieredCommitLog().getSegmentNums()).isGreaterThanOrEqualTo(2);
+        assertThat(master.getCommitLog().getMinOffset()).isEqualTo(0);
+        for (int i = 0; i < 200 && master.getCommitLog().getMappedFileQueue().getFirstMappedFile().getFileFromOffset() < FILE_SIZE * 2; i++) {
+            Thread.sleep(50);
+        }
+        assertThat(master.getCommitLog().getMappedFileQueue().getFirstMappedFile().getFileFromOffset()).isGreaterThanOrEqualTo(FILE_SIZE * 2);
+
+        for (long i = 0; i < maxOffset; i++) {
+            this.assertMessage(master, i);
+        }
+        assertThat(master.getCommitLog().getTieredCommitLog().getBlockCache().size()).isLessThanOrEqualTo(4);
+
+        // 重启后从冷存储加载，等待消费队列恢复后再读取
+        master.shutdown();
+        master = this.startStore(messageStoreConfig);
+        assertThat(master.getCommitLog().getTieredCommitLog().getSegmentNums()).isGreaterThanOrEqualTo(2);
+        this.waitForQueue(master, "FooBar", 0, maxOffset);
+        this.assertMessage(master, 0);
+        this.assertMessage(master, maxOffset - 1);
+
+        // 过期后从冷存储删除
+        assertThat(master.getCommitLog().deleteExpiredFile(0, 0, 0, false)).isGreaterThanOrEqualTo(2);
+        assertThat(master.getCommitLog().getTieredCommitLog().getSegmentNums()).isEqualTo(0);
+        assertThat(master.getCommitLog().getMinOffset()).isGreaterThanOrEqualTo(FILE_SIZE * 2);
+    }
+
+    @Test
+    public void testReclaimLocalFilesWhenOffloadFails() throws Exception {
+        MessageStoreConfig messageStoreConfig = this.buildStoreConfig();
+        messageStoreConfig.setMapedFileSizeCommitLog(FILE_SIZE);
+        messageStoreConfig.setMapedFileSizeConsumeQueue(1024 * 4);
+        messageStoreConfig.setTieredStoreEnable(true);
+        messageStoreConfig.setTieredStorageClass(FailingTieredStorage.class.getName());
+        messageStoreConfig.setTieredFileAge(0);
+        messageStoreConfig.setTieredStoreInterval(50);
+
+        DefaultMessageStore master = this.startStore(messageStoreConfig);
+        while (master.getMaxPhyOffset() < FILE_SIZE * 3) {
+            assertThat(master.putMessage(this.buildMessage()).isOk()).isTrue();
+        }
+        Thread.sleep(500);
+        assertThat(master.getCommitLog().getTieredCommitLog().getSegmentNums()).isEqualTo(0);
+        assertThat(master.getCommitLog().getMappedFileQueue().getFirstMappedFile().getFileFromOffset()).isEqualTo(0);
+
+        // 未过期、磁盘空间充足时保留本地文件等待迁移
+        assertThat(master.getCommitLog().deleteExpiredFile(72 * 3600 * 1000L, 0, 0, false)).isEqualTo(0);
+        // 磁盘空间不足时强制删除本地文件
+        assertThat(master.getCommitLog().deleteExpiredFile(72 * 3600 * 1000L, 0, 0, true)).isGreaterThanOrEqualTo(3);
+        assertThat(master.getCommitLog().getMappedFileQueue().getFirstMappedFile().getFileFromOffset()).isGreaterThanOrEqualTo(FILE_SIZE * 3);
+        assertThat(master.getCommitLog().getMinOffset()).isGreaterThanOrEqualTo(FILE_SIZE * 3);
+    }
+
+    /**
+     * 写入总是失败的冷存储
+     */
+    public static class FailingTieredStorage implements TieredStorage {
+        public FailingTieredStorage(final MessageStoreConfig storeConfig) {
+        }
+
+        @Override
+        public List<String> list() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public OutputStream create(final String name) throws IOException {
+            throw new IOException("tiered storage unavailable");
+        }
+
+        @Override
+        public int read(final String name, final long position, final ByteBuffer dst) throws IOException {
+            throw new IOException("tiered storage unavailable");
+        }
+
+        @Override
+        public long size(final String name) throws IOException {
+            throw new IOException("tiered storage unavailable");
+        }
+
+        @Override
+        public boolean delete(final String name) {
+            return true;
+        }
+    }
+
+    private void assertMessage(final DefaultMessageStore store, final long queueOffset) {
+        GetMessageResult getResult = store.getMessage("GROUP_A", "FooBar", 0, queueOffset, 1, null);
+        try {
+            assertThat(getResult.getStatus()).isEqualTo(GetMessageStatus.FOUND);
+            MessageExt msg = MessageDecoder.decode(getResult.getMessageBufferList().get(0));
+            assertThat(msg.getQueueOffset()).isEqualTo(queueOffset);
+            assertThat(new String(msg.getBody())).isEqualTo(STORE_MESSAGE);
+        } finally {
+            getResult.release();
+        }
+    }
+}
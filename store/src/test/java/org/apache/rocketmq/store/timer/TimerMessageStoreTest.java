@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.store.timer;
+
+import java.lang.reflect.Field;
+import org.apache.rocketmq.common.message.MessageDecoder;
+import org.apache.rocketmq.store.DefaultMessageStore;
+import org.apache.rocketmq.store.MessageExtBrokerInner;
+import org.apache.rocketmq.store.PutMessageResult;
+import org.apache.rocketmq.store.StoreTestBase;
+import org.apache.rocketmq.store.config.MessageStoreConfig;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TimerMessageStoreTest extends StoreTestBase {
+    private DefaultMessageStore master;
+
+    @Test
+    public void testDeliverAtTime() throws Exception {
+        this.startStore();
+
+        final long now = System.currentTimeMillis();
+        // 时间轮范围 1 秒，2500 毫秒的消息需要重新写入两次
+        final long[] deliverTimes = {now + 2500, now + 300, now + 800};
+        for (long deliverTime : deliverTimes) {
+            assertThat(this.putMessage(deliverTime).isOk()).isTrue();
+        }
+        // 已到期的消息直接存储
+        assertThat(this.putMessage(now - 1000).isOk()).isTrue();
+        this.waitForQueue("FooBar", 1);
+        assertThat(this.master.getMaxOffsetInQuque(TimerMessageStore.TIMER_TOPIC, 0)).isEqualTo(3);
+
+        this.waitForQueue("FooBar", 4);
+        assertThat(this.master.getMessageStoreTimeStamp("FooBar", 0, 1)).isGreaterThanOrEqualTo(now + 300);
+        assertThat(this.master.getMessageStoreTimeStamp("FooBar", 0, 2)).isGreaterThanOrEqualTo(now + 800);
+        assertThat(this.master.getMessageStoreTimeStamp("FooBar", 0, 3)).isGreaterThanOrEqualTo(now + 2500);
+        assertThat(this.master.lookMessageByOffset(this.master.getCommitLogOffsetInQueue("FooBar", 0, 3))
+            .getDeliverTimeMs()).isEqualTo(0);
+    }
+
+    @Test
+    public void testRecover() throws Exception {
+        this.startStore();
+
+        final long deliverTime = System.currentTimeMillis() + 5000;
+        assertThat(this.putMessage(deliverTime).isOk()).isTrue();
+        for (int i = 0; i < 200 && this.master.getTimerMessageStore().getEnqueueOffset() < 1; i++) {
+            Thread.sleep(10);
+        }
+        this.master.shutdown();
+
+        this.startStore();
+        assertThat(this.master.getTimerMessageStore().getEnqueueOffset()).isEqualTo(1);
+        this.waitForQueue("FooBar", 1);
+        assertThat(this.master.getMessageStoreTimeStamp("FooBar", 0, 0)).isGreaterThanOrEqualTo(deliverTime);
+    }
+
+    @Test
+    public void testClampKeepsDeliveringSlot() throws Exception {
+        MessageStoreConfig messageStoreConfig = this.newConfig();
+        messageStoreConfig.setTimerWheelEnable(false);
+        this.master = this.startStore(messageStoreConfig);
+        // 时间轮只有 4 个刻度，范围外的记录回绕到相同的位置
+        messageStoreConfig.setTimerWheelSlots(4);
+
+        TimerMessageStore timerMessageStore = new TimerMessageStore(this.master);
+        assertThat(timerMessageStore.load()).isTrue();
+        final long readTimeMs = timerMessageStore.getCommitReadTimeMs();
+        final long spanMs = timerMessageStore.getTimerWheel().getSpanMs();
+        assertThat(timerMessageStore.addToWheel(readTimeMs + 10, readTimeMs, 0, 100)).isTrue();
+
+        // 模拟刻度 readTimeMs 已读取、尚未投递完成
+        Field currReadTimeMs = TimerMessageStore.class.getDeclaredField("currReadTimeMs");
+        currReadTimeMs.setAccessible(true);
+        currReadTimeMs.setLong(timerMessageStore, readTimeMs + 100);
+        assertThat(timerMessageStore.addToWheel(readTimeMs + spanMs * 10, readTimeMs, 100, 100)).isTrue();
+
+        // 检查点仍为 readTimeMs，其刻度不能被覆盖
+        timerMessageStore.shutdown();
+        timerMessageStore = new TimerMessageStore(this.master);
+        assertThat(timerMessageStore.load()).isTrue();
+        assertThat(timerMessageStore.getCommitReadTimeMs()).isEqualTo(readTimeMs);
+        TimerWheel.Slot slot = timerMessageStore.getTimerWheel().getSlot(readTimeMs);
+        assertThat(slot).isNotNull();
+        assertThat(slot.getNum()).isEqualTo(1);
+        slot = timerMessageStore.getTimerWheel().getSlot(readTimeMs + spanMs - 100);
+        assertThat(slot).isNotNull();
+        assertThat(slot.getNum()).isEqualTo(1);
+        timerMessageStore.shutdown();
+        timerMessageStore.destroy();
+    }
+
+    @Test
+    public void testLoadRejectsMaxDelayBeyondReservedTime() throws Exception {
+        MessageStoreConfig messageStoreConfig = this.newConfig();
+        messageStoreConfig.setTimerWheelEnable(false);
+        this.master = this.startStore(messageStoreConfig);
+
+        messageStoreConfig.setTimerMaxDelaySec(messageStoreConfig.getFileReservedTime() * 3600);
+        assertThat(new TimerMessageStore(this.master).load()).isFalse();
+    }
+
+    private void startStore() throws Exception {
+        MessageStoreConfig messageStoreConfig = this.newConfig();
+        messageStoreConfig.setTimerWheelEnable(true);
+        this.master = this.startStore(messageStoreConfig);
+    }
+
+    private MessageStoreConfig newConfig() {
+        MessageStoreConfig messageStoreConfig = this.buildStoreConfig();
+        messageStoreConfig.setTimerPrecisionMs(100);
+        messageStoreConfig.setTimerWheelSlots(10);
+        messageStoreConfig.setMapedFileSizeTimerLog(TimerLog.UNIT_SIZE * 4);
+        return messageStoreConfig;
+    }
+
+    private void waitForQueue(final String topic, final long maxOffset) throws InterruptedException {
+        this.waitForQueue(this.master, topic, 0, maxOffset);
+        assertThat(this.master.getMaxOffsetInQuque(topic, 0)).isEqualTo(maxOffset);
+    }
+
+    private PutMessageResult putMessage(final long deliverTime) throws Exception {
+        MessageExtBrokerInner msg = this.buildMessage();
+        msg.setDeliverTimeMs(deliverTime);
+        msg.setPropertiesString(MessageDecoder.messageProperties2String(msg.getProperties()));
+        return this.master.putMessage(msg);
+    }
+}